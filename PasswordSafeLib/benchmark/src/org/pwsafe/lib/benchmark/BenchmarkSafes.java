@@ -0,0 +1,130 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.benchmark;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Random;
+
+import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.file.PwsFile;
+import org.pwsafe.lib.file.PwsFileFactory;
+import org.pwsafe.lib.file.PwsFileStorage;
+import org.pwsafe.lib.file.PwsFileV1;
+import org.pwsafe.lib.file.PwsFileV2;
+import org.pwsafe.lib.file.PwsFileV3;
+
+/**
+ * Creates the safes the benchmarks run on. Generating a large safe takes a
+ * while, so the safes are kept in the directory given by the system property
+ * <code>benchmark.dir</code> (default: the temp directory) and reused by later
+ * runs with the same parameters.
+ *
+ * @author roxon
+ */
+public final class BenchmarkSafes {
+
+	public static final String PASSPHRASE = "benchmark";
+
+	private static final long SEED = 4711;
+
+	private static final int GROUPS = 50;
+
+	private BenchmarkSafes() {
+	}
+
+	/**
+	 * Returns a safe, creating it if needed.
+	 *
+	 * @param aVersion the file version, "V1", "V2" or "V3"
+	 * @param anEntryCount the number of entries
+	 * @param aFieldLength the length of titles, user names and passwords
+	 * @param aNotesLength the length of the notes
+	 * @return the safe
+	 * @throws Exception if the safe can't be created
+	 */
+	public static synchronized File getSafe(final String aVersion, final int anEntryCount,
+			final int aFieldLength, final int aNotesLength) throws Exception {
+		final File theDir = new File(System.getProperty("benchmark.dir", System
+				.getProperty("java.io.tmpdir")));
+		final File theSafe = new File(theDir, "pwsafe-benchmark-" + aVersion + "-" + anEntryCount
+				+ "-" + aFieldLength + "-" + aNotesLength + ".dat");
+		if (!theSafe.exists()) {
+			createSafe(theSafe, aVersion, anEntryCount, aFieldLength, aNotesLength);
+		}
+		return theSafe;
+	}
+
+	/**
+	 * Creates a new empty file of the given version.
+	 *
+	 * @param aVersion "V1", "V2" or "V3"
+	 * @return the new file
+	 */
+	public static PwsFile newFile(final String aVersion) {
+		if ("V1".equals(aVersion)) {
+			return new PwsFileV1();
+		} else if ("V2".equals(aVersion)) {
+			return new PwsFileV2();
+		} else if ("V3".equals(aVersion)) {
+			return new PwsFileV3();
+		}
+		throw new IllegalArgumentException("Unknown file version " + aVersion);
+	}
+
+	/**
+	 * Creates an entry with fields of the given lengths. Equal numbers give equal
+	 * entries.
+	 *
+	 * @param aNumber the number of the entry
+	 * @param aFieldLength the length of titles, user names and passwords
+	 * @param aNotesLength the length of the notes
+	 * @return the entry
+	 */
+	public static PwsEntryBean createEntry(final int aNumber, final int aFieldLength,
+			final int aNotesLength) {
+		final Random theRandom = new Random(SEED + aNumber);
+		final PwsEntryBean theEntry = new PwsEntryBean();
+		theEntry.setSparse(false);
+		theEntry.setGroup("group " + aNumber % GROUPS + ".sub " + aNumber % 7);
+		theEntry.setTitle(fill("title " + aNumber + " ", aFieldLength, theRandom));
+		theEntry.setUsername(fill("user_" + aNumber + " ", aFieldLength, theRandom));
+		theEntry.setPassword(new StringBuilder(fill("", aFieldLength, theRandom)));
+		theEntry.setNotes(fill("Lorem ipsum ", aNotesLength, theRandom));
+		theEntry.setUrl("https://nowhere.local/service/id=" + aNumber);
+		theEntry.setExpires(new Date(System.currentTimeMillis() + 86400000L * (aNumber % 365)));
+		return theEntry;
+	}
+
+	private static void createSafe(final File aSafe, final String aVersion,
+			final int anEntryCount, final int aFieldLength, final int aNotesLength)
+			throws Exception {
+		final PwsFile theFile = newFile(aVersion);
+		theFile.setStorage(new PwsFileStorage(aSafe.getPath()));
+		theFile.setPassphrase(new StringBuilder(PASSPHRASE));
+		final PwsEntryStore theStore = PwsFileFactory.getStore(theFile);
+		for (int i = 0; i < anEntryCount; i++) {
+			theStore.addEntry(createEntry(i, aFieldLength, aNotesLength));
+		}
+		theFile.save();
+		theFile.dispose();
+	}
+
+	private static String fill(final String aPrefix, final int aLength, final Random aRandom) {
+		final StringBuilder theResult = new StringBuilder(aLength);
+		theResult.append(aPrefix);
+		while (theResult.length() < aLength) {
+			theResult.append((char) ('a' + aRandom.nextInt(26)));
+		}
+		theResult.setLength(aLength);
+		return theResult.toString();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pwsafe.lib.crypto.BlowfishPws;
+import org.pwsafe.lib.crypto.BlowfishPwsECB;
+import org.pwsafe.lib.crypto.HmacPws;
+import org.pwsafe.lib.crypto.SHA1;
+import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.crypto.TwofishPws;
+
+/**
+ * Measures the crypto primitives on buffers of the sizes they see in practice:
+ * a single field, a record, a small safe and a large safe. Run with
+ * <code>-prof gc</code> (the default of the benchmark target) to get the
+ * allocation rate as well.
+ *
+ * @author roxon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CryptoBenchmark {
+
+	private static final int TWOFISH_BLOCK = 16;
+
+	@Param( { "64", "1024", "16384", "1048576" })
+	public int bufferSize;
+
+	private byte[] buffer;
+	private byte[] key;
+	private byte[] iv;
+
+	private BlowfishPws blowfish;
+	private BlowfishPwsECB blowfishEcb;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final Random theRandom = new Random(42);
+		buffer = new byte[bufferSize];
+		theRandom.nextBytes(buffer);
+		key = new byte[32];
+		theRandom.nextBytes(key);
+		iv = new byte[TWOFISH_BLOCK];
+		theRandom.nextBytes(iv);
+
+		blowfish = new BlowfishPws(key, new byte[8]);
+		blowfishEcb = new BlowfishPwsECB(key);
+	}
+
+	/**
+	 * Twofish CBC the way the V3 file uses it, one block per call.
+	 */
+	@Benchmark
+	public byte[] twofishCbc() {
+		final TwofishPws theCipher = new TwofishPws(key, true, iv);
+		byte[] theResult = null;
+		final byte[] theBlock = new byte[TWOFISH_BLOCK];
+		for (int i = 0; i < bufferSize; i += TWOFISH_BLOCK) {
+			System.arraycopy(buffer, i, theBlock, 0, TWOFISH_BLOCK);
+			theResult = theCipher.processCBC(theBlock);
+		}
+		return theResult;
+	}
+
+	@Benchmark
+	public byte[] twofishEcb() {
+		return TwofishPws.processECB(key, true, buffer);
+	}
+
+	/**
+	 * Blowfish encrypts in place, so the buffer just gets encrypted over and over.
+	 */
+	@Benchmark
+	public byte[] blowfishCbc() throws Exception {
+		blowfish.encrypt(buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public byte[] blowfishEcb() throws Exception {
+		blowfishEcb.encrypt(buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public byte[] hmac() {
+		final HmacPws theHmac = new HmacPws(key);
+		theHmac.digest(buffer);
+		return theHmac.doFinal();
+	}
+
+	@Benchmark
+	public byte[] sha256() {
+		return new SHA256Pws().digest(buffer);
+	}
+
+	@Benchmark
+	public byte[] sha1() {
+		final SHA1 theSha1 = new SHA1();
+		theSha1.update(buffer);
+		theSha1.finalize();
+		return theSha1.getDigest();
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.file.PwsFile;
+import org.pwsafe.lib.file.PwsFileFactory;
+import org.pwsafe.lib.file.PwsFileStorage;
+
+/**
+ * Measures opening and saving whole safes.
+ *
+ * @author roxon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class FileBenchmark {
+
+	@Param( { "V1", "V2", "V3" })
+	public String version;
+
+	@Param( { "1000", "10000", "100000" })
+	public int entries;
+
+	@Param( { "16" })
+	public int fieldLength;
+
+	@Param( { "64" })
+	public int notesLength;
+
+	private File safe;
+	private File copy;
+	private PwsFile file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		safe = BenchmarkSafes.getSafe(version, entries, fieldLength, notesLength);
+		// saves go to a copy, the generated safe is kept as it is
+		copy = File.createTempFile("pwsafe-benchmark", ".dat");
+		new PwsFileStorage(copy.getPath()).save(new PwsFileStorage(safe.getPath()).load());
+		file = PwsFileFactory.loadFile(copy.getPath(), new StringBuilder(
+				BenchmarkSafes.PASSPHRASE));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.dispose();
+		copy.delete();
+		new File(copy.getPath() + "~").delete();
+	}
+
+	@Benchmark
+	public PwsEntryStore loadStore() throws Exception {
+		return PwsFileFactory.loadStore(safe.getPath(), new StringBuilder(
+				BenchmarkSafes.PASSPHRASE));
+	}
+
+	@Benchmark
+	public PwsFile save() throws Exception {
+		file.save();
+		return file;
+	}
+}
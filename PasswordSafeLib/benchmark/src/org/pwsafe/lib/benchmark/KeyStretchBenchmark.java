@@ -0,0 +1,50 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pwsafe.lib.Util;
+
+/**
+ * Measures the key stretching done when opening a V3 file (2048 iterations is
+ * the default of new files) and when unlocking a locked file.
+ *
+ * @author roxon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class KeyStretchBenchmark {
+
+	@Param( { "2048", "65536", "262144" })
+	public int iterations;
+
+	private final byte[] passphrase = BenchmarkSafes.PASSPHRASE.getBytes();
+	private final byte[] salt = new byte[32];
+
+	@Benchmark
+	public byte[] stretchPassphrase() {
+		return Util.stretchPassphrase(passphrase, salt, iterations);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.benchmark;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.file.PwsFileFactory;
+
+/**
+ * Measures the operations of an entry store on a loaded safe. Entries are
+ * picked at random, so the entry cache of the store only helps as much as it
+ * would for a user jumping around in a large safe.
+ *
+ * @author roxon
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StoreBenchmark {
+
+	@Param( { "V1", "V2", "V3" })
+	public String version;
+
+	@Param( { "1000", "10000", "100000" })
+	public int entries;
+
+	@Param( { "16" })
+	public int fieldLength;
+
+	@Param( { "64" })
+	public int notesLength;
+
+	private PwsEntryStore store;
+	private final Random random = new Random(42);
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		final File theSafe = BenchmarkSafes.getSafe(version, entries, fieldLength, notesLength);
+		store = PwsFileFactory.loadStore(theSafe.getPath(), new StringBuilder(
+				BenchmarkSafes.PASSPHRASE));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		store.getPwsFile().dispose();
+		store.clear();
+	}
+
+	@Benchmark
+	public PwsEntryBean getEntry() {
+		return store.getEntry(random.nextInt(entries));
+	}
+
+	@Benchmark
+	public boolean updateEntry() {
+		final PwsEntryBean theEntry = store.getEntry(random.nextInt(entries));
+		theEntry.setNotes(theEntry.getNotes() + random.nextInt(10));
+		return store.updateEntry(theEntry);
+	}
+
+	/**
+	 * Removes an entry and adds it again, so the size of the safe stays the
+	 * same.
+	 */
+	@Benchmark
+	public boolean removeAndAddEntry() throws Exception {
+		final PwsEntryBean theEntry = store.getEntry(random.nextInt(entries));
+		store.removeEntry(theEntry);
+		return store.addEntry(theEntry);
+	}
+
+	/**
+	 * A full text search over the sparse entries, the same one the scale test
+	 * times.
+	 */
+	@Benchmark
+	public int search() {
+		return SafeGenerator.search(store, "user_" + random.nextInt(entries));
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SealedObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pwsafe.lib.benchmark.BenchmarkSafes;
+
+/**
+ * Measures how records are kept in memory: creating the memory cipher and
+ * sealing and unsealing a record with it. Lives in the file package because
+ * {@link PwsFile#getCipher(boolean)} is not public.
+ *
+ * @author roxon
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SealingBenchmark {
+
+	/** the length of titles, user names and passwords */
+	@Param( { "16", "256" })
+	public int fieldLength;
+
+	@Param( { "64", "4096" })
+	public int notesLength;
+
+	private PwsFileV3 file;
+	private PwsRecord record;
+	private SealedObject sealed;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		file = new PwsFileV3();
+		file.setPassphrase(new StringBuilder(BenchmarkSafes.PASSPHRASE));
+		record = file.newRecord();
+		BenchmarkSafes.createEntry(1, fieldLength, notesLength).toPwsRecord(record);
+		sealed = new SealedObject(record, file.getCipher(true));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.dispose();
+	}
+
+	@Benchmark
+	public Object getCipher() {
+		return file.getCipher(true);
+	}
+
+	@Benchmark
+	public SealedObject seal() throws Exception {
+		return new SealedObject(record, file.getCipher(true));
+	}
+
+	@Benchmark
+	public Object unseal() throws Exception {
+		return sealed.getObject(file.getCipher(false));
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.pwsafe.lib.metrics.PwsTrace;
+import org.pwsafe.lib.metrics.PwsTraceSink;
+
+/**
+ * Turns the traces of the library into Java Flight Recorder events, category
+ * "PasswordSafe". Installed by {@link PwsTrace} when this class is on the
+ * class path, so a recording of the application shows them without any
+ * agent. Needs Java 11 or later, thus built separately by the
+ * <code>jfr</code> target.
+ *
+ * @author roxon
+ */
+public class JfrTraceSink implements PwsTraceSink {
+
+	private static final PwsTrace NONE = new PwsTrace() {
+		// does nothing
+	};
+
+	@Category("PasswordSafe")
+	@StackTrace(false)
+	abstract static class PwsEvent extends Event {
+
+		@Label("Phases")
+		String phases;
+
+		abstract void set(long aCount, long aSize);
+	}
+
+	@Name("org.pwsafe.SafeOpen")
+	@Label("Safe Open")
+	static final class SafeOpenEvent extends PwsEvent {
+		@Label("Records")
+		long records;
+
+		@Label("File Size")
+		@DataAmount
+		long fileSize;
+
+		@Override
+		void set(final long aCount, final long aSize) {
+			records = aCount;
+			fileSize = aSize;
+		}
+	}
+
+	@Name("org.pwsafe.RecordDecode")
+	@Label("Record Decode")
+	static final class RecordDecodeEvent extends PwsEvent {
+		@Label("Records")
+		long records;
+
+		@Label("Bytes Read")
+		@DataAmount
+		long bytes;
+
+		@Override
+		void set(final long aCount, final long aSize) {
+			records = aCount;
+			bytes = aSize;
+		}
+	}
+
+	@Name("org.pwsafe.Save")
+	@Label("Safe Save")
+	static final class SaveEvent extends PwsEvent {
+		@Label("Records")
+		long records;
+
+		@Label("File Size")
+		@DataAmount
+		long fileSize;
+
+		@Override
+		void set(final long aCount, final long aSize) {
+			records = aCount;
+			fileSize = aSize;
+		}
+	}
+
+	@Name("org.pwsafe.KeyStretch")
+	@Label("Key Stretch")
+	static final class KeyStretchEvent extends PwsEvent {
+		@Label("Iterations")
+		long iterations;
+
+		@Override
+		void set(final long aCount, final long aSize) {
+			iterations = aCount;
+		}
+	}
+
+	@Name("org.pwsafe.StoreRefresh")
+	@Label("Store Refresh")
+	static final class StoreRefreshEvent extends PwsEvent {
+		@Label("Entries")
+		long entries;
+
+		@Override
+		void set(final long aCount, final long aSize) {
+			entries = aCount;
+		}
+	}
+
+	@Name("org.pwsafe.ViewerRefresh")
+	@Label("Viewer Refresh")
+	static final class ViewerRefreshEvent extends PwsEvent {
+		@Label("Entries")
+		long entries;
+
+		@Override
+		void set(final long aCount, final long aSize) {
+			entries = aCount;
+		}
+	}
+
+	@Name("org.pwsafe.Search")
+	@Label("Search")
+	static final class SearchEvent extends PwsEvent {
+		@Label("Matches")
+		long matches;
+
+		@Label("Entries Searched")
+		long entries;
+
+		@Override
+		void set(final long aCount, final long aSize) {
+			matches = aCount;
+			entries = aSize;
+		}
+	}
+
+	private static final class JfrTrace extends PwsTrace {
+		private final PwsEvent event;
+		private StringBuilder phases;
+		private long phaseStart = System.nanoTime();
+
+		JfrTrace(final PwsEvent anEvent) {
+			event = anEvent;
+		}
+
+		@Override
+		public void phase(final String aPhase) {
+			final long theNow = System.nanoTime();
+			if (phases == null) {
+				phases = new StringBuilder();
+			} else {
+				phases.append(", ");
+			}
+			phases.append(aPhase).append(' ').append((theNow - phaseStart) / 1000000).append(
+					" ms");
+			phaseStart = theNow;
+		}
+
+		@Override
+		public void end(final long aCount, final long aSize) {
+			event.end();
+			if (event.shouldCommit()) {
+				event.set(aCount, aSize);
+				if (phases != null) {
+					event.phases = phases.toString();
+				}
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException if the VM has no flight recorder
+	 */
+	public JfrTraceSink() {
+		if (!FlightRecorder.isAvailable()) {
+			throw new IllegalStateException("Flight recorder not available");
+		}
+	}
+
+	public PwsTrace begin(final PwsTrace.Type aType) {
+		final PwsEvent theEvent = newEvent(aType);
+		if (!theEvent.isEnabled()) {
+			return NONE;
+		}
+		theEvent.begin();
+		return new JfrTrace(theEvent);
+	}
+
+	private static PwsEvent newEvent(final PwsTrace.Type aType) {
+		switch (aType) {
+		case SAFE_OPEN:
+			return new SafeOpenEvent();
+		case RECORD_DECODE:
+			return new RecordDecodeEvent();
+		case SAVE:
+			return new SaveEvent();
+		case KEY_STRETCH:
+			return new KeyStretchEvent();
+		case STORE_REFRESH:
+			return new StoreRefreshEvent();
+		case VIEWER_REFRESH:
+			return new ViewerRefreshEvent();
+		default:
+			return new SearchEvent();
+		}
+	}
+}
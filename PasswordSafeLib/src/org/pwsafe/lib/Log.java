@@ -13,13 +13,34 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * This class provides logging facilities using commons logging.
+ * <p>
+ * The debug methods take a pattern with <code>{}</code> placeholders and the
+ * values for them, so no message is built unless the level is enabled. The
+ * debug level of the underlying logger is cached, call {@link #refreshLevels()}
+ * after reconfiguring the logging at runtime. Method entry and exit are only
+ * logged if the system property <code>org.pwsafe.log.methods</code> is set to
+ * <code>true</code>, otherwise {@link #enterMethod(String)} and
+ * {@link #leaveMethod(String)} do nothing.
+ * </p>
  * 
  * @author Kevin Preece
  */
 public class Log {
+	/**
+	 * The system property that turns on logging of method entry and exit.
+	 */
+	public static final String METHODS_PROPERTY = "org.pwsafe.log.methods";
+
+	private static final boolean LOG_METHODS = Boolean.getBoolean(METHODS_PROPERTY);
+
+	private static volatile int levelGeneration;
+
 	private int debugLevel;
 	private final org.apache.commons.logging.Log logger;
 
+	private int cachedGeneration = -1;
+	private boolean debugEnabled;
+
 	static {
 		// DOMConfigurator.configure( "log-config.xml" );
 	}
@@ -65,6 +86,56 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Writes a message at debug level 1, built only if the level is enabled.
+	 * 
+	 * @param pattern the message with a <code>{}</code> for the value.
+	 * @param value the value.
+	 */
+	public void debug1(final String pattern, final long value) {
+		if (isDebug1Enabled()) {
+			logger.debug(format(pattern, Long.valueOf(value), null));
+		}
+	}
+
+	/**
+	 * Writes a message at debug level 1, built only if the level is enabled.
+	 * 
+	 * @param pattern the message with a <code>{}</code> for each value.
+	 * @param value1 the first value.
+	 * @param value2 the second value.
+	 */
+	public void debug1(final String pattern, final long value1, final long value2) {
+		if (isDebug1Enabled()) {
+			logger.debug(format(pattern, Long.valueOf(value1), Long.valueOf(value2)));
+		}
+	}
+
+	/**
+	 * Writes a message at debug level 1, built only if the level is enabled.
+	 * 
+	 * @param pattern the message with a <code>{}</code> for the value.
+	 * @param value the value, converted to a string only if logged.
+	 */
+	public void debug1(final String pattern, final Object value) {
+		if (isDebug1Enabled()) {
+			logger.debug(format(pattern, value, null));
+		}
+	}
+
+	/**
+	 * Writes a message at debug level 1, built only if the level is enabled.
+	 * 
+	 * @param pattern the message with a <code>{}</code> for each value.
+	 * @param value1 the first value, converted to a string only if logged.
+	 * @param value2 the second value, converted to a string only if logged.
+	 */
+	public void debug1(final String pattern, final Object value1, final Object value2) {
+		if (isDebug1Enabled()) {
+			logger.debug(format(pattern, value1, value2));
+		}
+	}
+
 	/**
 	 * Writes a message at debug level 2
 	 * 
@@ -76,6 +147,19 @@ public class Log {
 		}
 	}
 
+	/**
+	 * Writes a message at debug level 2, built only if the level is enabled.
+	 * 
+	 * @param pattern the message with a <code>{}</code> for each value.
+	 * @param value1 the first value, converted to a string only if logged.
+	 * @param value2 the second value, converted to a string only if logged.
+	 */
+	public void debug2(final String pattern, final Object value1, final Object value2) {
+		if (isDebug2Enabled()) {
+			logger.debug(format(pattern, value1, value2));
+		}
+	}
+
 	/**
 	 * Writes a message at debug level 3
 	 * 
@@ -110,12 +194,13 @@ public class Log {
 	}
 
 	/**
-	 * Logs entry to a method.
+	 * Logs entry to a method if method logging is turned on.
 	 * 
 	 * @param method the method name.
+	 * @see #METHODS_PROPERTY
 	 */
 	public void enterMethod(String method) {
-		if (logger.isDebugEnabled()) {
+		if (LOG_METHODS && isDebug1Enabled()) {
 			if (!method.endsWith(")")) {
 				method = method + "()";
 			}
@@ -177,7 +262,12 @@ public class Log {
 	 *         <code>false</code> if it isn't.
 	 */
 	public boolean isDebug1Enabled() {
-		return logger.isDebugEnabled();
+		final int theGeneration = levelGeneration;
+		if (cachedGeneration != theGeneration) {
+			debugEnabled = logger.isDebugEnabled();
+			cachedGeneration = theGeneration;
+		}
+		return debugEnabled;
 	}
 
 	/**
@@ -188,7 +278,7 @@ public class Log {
 	 *         <code>false</code> if it isn't.
 	 */
 	public boolean isDebug2Enabled() {
-		return logger.isDebugEnabled() && (debugLevel >= 2);
+		return isDebug1Enabled() && (debugLevel >= 2);
 	}
 
 	/**
@@ -199,7 +289,7 @@ public class Log {
 	 *         <code>false</code> if it isn't.
 	 */
 	public boolean isDebug3Enabled() {
-		return logger.isDebugEnabled() && (debugLevel >= 3);
+		return isDebug1Enabled() && (debugLevel >= 3);
 	}
 
 	/**
@@ -210,7 +300,7 @@ public class Log {
 	 *         <code>false</code> if it isn't.
 	 */
 	public boolean isDebug4Enabled() {
-		return logger.isDebugEnabled() && (debugLevel >= 4);
+		return isDebug1Enabled() && (debugLevel >= 4);
 	}
 
 	/**
@@ -221,16 +311,17 @@ public class Log {
 	 *         <code>false</code> if it isn't.
 	 */
 	public boolean isDebug5Enabled() {
-		return logger.isDebugEnabled() && (debugLevel >= 5);
+		return isDebug1Enabled() && (debugLevel >= 5);
 	}
 
 	/**
-	 * Logs exit from a method.
+	 * Logs exit from a method if method logging is turned on.
 	 * 
 	 * @param method the method name.
+	 * @see #METHODS_PROPERTY
 	 */
 	public void leaveMethod(String method) {
-		if (logger.isDebugEnabled()) {
+		if (LOG_METHODS && isDebug1Enabled()) {
 			if (!method.endsWith(")")) {
 				method = method + "()";
 			}
@@ -261,4 +352,36 @@ public class Log {
 		logger.warn(msg);
 	}
 
+	/**
+	 * Makes all instances check the level of their logger again, needed after
+	 * the logging has been reconfigured at runtime.
+	 */
+	public static void refreshLevels() {
+		levelGeneration++;
+	}
+
+	/**
+	 * Replaces the first two <code>{}</code> in the pattern by the values.
+	 * 
+	 * @param pattern the message pattern.
+	 * @param value1 the first value.
+	 * @param value2 the second value.
+	 * @return the message.
+	 */
+	static String format(final String pattern, final Object value1, final Object value2) {
+		final StringBuilder theMessage = new StringBuilder(pattern.length() + 32);
+		int theStart = 0;
+		for (int i = 0; i < 2; i++) {
+			final int thePlaceholder = pattern.indexOf("{}", theStart);
+			if (thePlaceholder < 0) {
+				break;
+			}
+			theMessage.append(pattern, theStart, thePlaceholder);
+			theMessage.append(i == 0 ? value1 : value2);
+			theStart = thePlaceholder + 2;
+		}
+		theMessage.append(pattern, theStart, pattern.length());
+		return theMessage.toString();
+	}
+
 }
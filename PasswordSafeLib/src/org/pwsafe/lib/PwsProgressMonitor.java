@@ -0,0 +1,57 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib;
+
+/**
+ * Receives the progress of long running work like key stretching and may
+ * cancel it. A monitor is attached to the current thread, so it reaches the
+ * work without being passed through all the constructors and factory methods
+ * in between. Cancelled work throws a
+ * {@link java.util.concurrent.CancellationException}.
+ *
+ * @author roxon
+ */
+public abstract class PwsProgressMonitor {
+
+	private static final ThreadLocal<PwsProgressMonitor> CURRENT = new ThreadLocal<PwsProgressMonitor>();
+
+	/**
+	 * Attaches a monitor to the current thread.
+	 *
+	 * @param aMonitor the monitor or null to detach the current one
+	 */
+	public static void attach(final PwsProgressMonitor aMonitor) {
+		if (aMonitor == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(aMonitor);
+		}
+	}
+
+	/**
+	 * @return the monitor attached to the current thread or null
+	 */
+	public static PwsProgressMonitor current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Reports progress, called from the working thread.
+	 *
+	 * @param aDone the work done so far
+	 * @param aTotal the total work
+	 */
+	public abstract void progress(long aDone, long aTotal);
+
+	/**
+	 * @return true if the work should stop
+	 */
+	public abstract boolean isCanceled();
+}
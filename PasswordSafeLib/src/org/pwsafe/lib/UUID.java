@@ -10,6 +10,7 @@
 package org.pwsafe.lib;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
@@ -114,6 +115,16 @@ public class UUID implements Comparable, Serializable {
 		return true;
 	}
 
+	/**
+	 * Returns a hash code consistent with {@link #equals(Object)}.
+	 * 
+	 * @return the hash code of the UUID bytes.
+	 */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(uuid);
+	}
+
 	/**
 	 * Compares this <code>UUID</code> to another returning a value less than
 	 * zero if <code>this</code> is "less than" <code>other</code>, zero if
@@ -11,8 +11,12 @@ package org.pwsafe.lib;
 
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 
 import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.metrics.PwsMetric;
+import org.pwsafe.lib.metrics.PwsMetrics;
+import org.pwsafe.lib.metrics.PwsTrace;
 
 /**
  * This class exposes various utilty methods.
@@ -27,6 +31,9 @@ public final class Util {
 
 	private static final SecureRandom randGen = new SecureRandom();
 
+	/** the monitor of key stretching is asked every 1024 iterations */
+	private static final int STRETCH_REPORT_MASK = 1023;
+
 	/**
 	 * Private to prevent instantiation.
 	 */
@@ -463,14 +470,43 @@ public final class Util {
 	 * @param salt the salt from the file
 	 * @param iter the number of iters from the file
 	 * @return the stretched user key for comparison
+	 * @throws CancellationException if cancelled by the monitor attached to
+	 *         the current thread
 	 */
 	public static byte[] stretchPassphrase(byte[] passphrase, byte[] salt, int iter) {
+		return stretchPassphrase(passphrase, salt, iter, PwsProgressMonitor.current());
+	}
+
+	/**
+	 * Calculate stretched key, reporting the progress to a monitor.
+	 * 
+	 * @param passphrase the user entered passphrase
+	 * @param salt the salt from the file
+	 * @param iter the number of iters from the file
+	 * @param aMonitor the monitor or null
+	 * @return the stretched user key for comparison
+	 * @throws CancellationException if cancelled by the monitor
+	 */
+	public static byte[] stretchPassphrase(byte[] passphrase, byte[] salt, int iter,
+			final PwsProgressMonitor aMonitor) {
+		final long theStart = PwsMetrics.start();
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.KEY_STRETCH);
 		final SHA256Pws hasher = new SHA256Pws();
 		final byte[] p = mergeBytes(passphrase, salt);
 		byte[] hash = hasher.digest(p);
 		for (int i = 0; i < iter; i++) {
 			hash = hasher.digest(hash);
+			if (aMonitor != null && (i & STRETCH_REPORT_MASK) == 0) {
+				if (aMonitor.isCanceled()) {
+					Arrays.fill(hash, (byte) 0);
+					theTrace.end(i, 0);
+					throw new CancellationException("Key stretching cancelled");
+				}
+				aMonitor.progress(i, iter);
+			}
 		}
+		PwsMetrics.stop(PwsMetric.KEY_STRETCH, theStart);
+		theTrace.end(iter, 0);
 		return hash;
 
 	}
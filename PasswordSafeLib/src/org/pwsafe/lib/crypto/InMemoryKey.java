@@ -27,6 +27,7 @@ public class InMemoryKey {
 	private final static Log LOG = Log.getInstance(InMemoryKey.class);
 
 	private final static int BUFFER_SIZE = 1024;
+	private final static int KEY_SIZE = 8;
 	final short[] access;
 	ByteBuffer buffer;
 
@@ -55,21 +56,55 @@ public class InMemoryKey {
 		buffer.flip();
 	}
 
+	/**
+	 * Initialises the key with the given content, e.g. to restore a key which
+	 * has been wrapped while a file was locked.
+	 * 
+	 * @param aKey the key as returned by {@link #getKey()}
+	 */
+	public void init(final byte[] aKey) {
+		if (aKey.length != KEY_SIZE) {
+			throw new IllegalArgumentException("Key must have " + KEY_SIZE + " bytes");
+		}
+		// two key bytes must not share a position
+		do {
+			init();
+		} while (!hasDistinctPositions());
+
+		for (int i = 0; i < KEY_SIZE; i++) {
+			buffer.put(getPosition(i), aKey[i]);
+		}
+	}
+
 	public byte[] getKey() {
 		if (buffer == null) {
 			throw new IllegalStateException("InMemoryKey has not been intialised or been disposed");
 		}
 
-		final byte[] content = new byte[8];
+		final byte[] content = new byte[KEY_SIZE];
 
 		// TODO: use higher bits of short value for content rotate
-		for (int i = 0; i < 8; i++) {
-			final short pos = access[i];
-			content[i] = buffer.get(Math.abs(pos) % BUFFER_SIZE);
+		for (int i = 0; i < KEY_SIZE; i++) {
+			content[i] = buffer.get(getPosition(i));
 		}
 		return content;
 	}
 
+	private int getPosition(final int anIndex) {
+		return Math.abs(access[anIndex]) % BUFFER_SIZE;
+	}
+
+	private boolean hasDistinctPositions() {
+		for (int i = 0; i < KEY_SIZE; i++) {
+			for (int j = i + 1; j < KEY_SIZE; j++) {
+				if (getPosition(i) == getPosition(j)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	public void dispose() {
 		if (buffer != null) {
 			if (buffer.hasArray()) {
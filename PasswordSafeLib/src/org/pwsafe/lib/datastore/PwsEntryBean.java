@@ -679,6 +679,11 @@ public class PwsEntryBean implements Cloneable {
 		final PwsEntryBean newEntry = new PwsEntryBean();
 		if (nextRecord instanceof PwsRecordV3) {
 			final PwsRecordV3 v3 = (PwsRecordV3) nextRecord;
+			// the id is always kept to identify the entry
+			final PwsUUIDField idField = (PwsUUIDField) v3.getField(PwsFieldTypeV3.UUID);
+			if (idField != null) {
+				newEntry.setId((UUID) idField.getValue());
+			}
 			for (final PwsFieldType pwsFieldType : sparseFields) {
 				final PwsFieldTypeV3 theType = (PwsFieldTypeV3) pwsFieldType;
 				final String theField = getSafeValue(v3, theType);
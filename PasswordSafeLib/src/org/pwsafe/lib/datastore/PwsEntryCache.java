@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.pwsafe.lib.Util;
+
+/**
+ * A least recently used cache of filled entries, keyed by their store index
+ * and bounded in size and age. Entries are copied on the way in and out, so
+ * callers may change or wipe what they get. The password of an entry leaving
+ * the cache is wiped. Expired entries are removed on every access and by a
+ * timer shared by all caches, so they do not outlive their age by more than
+ * a quarter of it while nobody uses the cache.
+ *
+ * @author roxon
+ */
+final class PwsEntryCache {
+
+	private final int maxSize;
+	private final long maxAge;
+
+	private final Map<Integer, CachedEntry> entries;
+
+	private static Timer purger;
+
+	/** removes expired entries while the cache is not empty */
+	private TimerTask purgeTask;
+
+	private static final class CachedEntry {
+		final PwsEntryBean entry;
+		final long created;
+
+		CachedEntry(final PwsEntryBean anEntry, final long aTime) {
+			entry = anEntry;
+			created = aTime;
+		}
+	}
+
+	/**
+	 * @param aMaxSize the maximum number of entries kept
+	 * @param aMaxAge the time in milliseconds an entry is kept at most
+	 */
+	PwsEntryCache(final int aMaxSize, final long aMaxAge) {
+		maxSize = aMaxSize;
+		maxAge = aMaxAge;
+		entries = new LinkedHashMap<Integer, CachedEntry>(aMaxSize * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer, CachedEntry> anEldest) {
+				if (size() > maxSize) {
+					wipe(anEldest.getValue().entry);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param anIndex the store index of the entry
+	 * @return a copy of the cached entry or null if not cached
+	 */
+	synchronized PwsEntryBean get(final int anIndex) {
+		purgeExpired(System.currentTimeMillis());
+		final CachedEntry theCached = entries.get(Integer.valueOf(anIndex));
+		if (theCached == null) {
+			return null;
+		}
+		return copy(theCached.entry);
+	}
+
+	/**
+	 * Checks for an entry without changing the access order.
+	 *
+	 * @param anIndex the store index of the entry
+	 * @return true if the entry is cached
+	 */
+	synchronized boolean contains(final int anIndex) {
+		return entries.containsKey(Integer.valueOf(anIndex));
+	}
+
+	/**
+	 * Caches a copy of a filled entry under its store index.
+	 *
+	 * @param anEntry the entry
+	 */
+	synchronized void put(final PwsEntryBean anEntry) {
+		final long now = System.currentTimeMillis();
+		purgeExpired(now);
+		final CachedEntry theOld = entries.put(Integer.valueOf(anEntry.getStoreIndex()),
+				new CachedEntry(copy(anEntry), now));
+		if (theOld != null) {
+			wipe(theOld.entry);
+		}
+		if (purgeTask == null) {
+			final long thePeriod = Math.max(maxAge / 4, 1);
+			purgeTask = new TimerTask() {
+				@Override
+				public void run() {
+					purge();
+				}
+			};
+			getPurger().schedule(purgeTask, thePeriod, thePeriod);
+		}
+	}
+
+	synchronized void remove(final int anIndex) {
+		final CachedEntry theOld = entries.remove(Integer.valueOf(anIndex));
+		if (theOld != null) {
+			wipe(theOld.entry);
+		}
+	}
+
+	/**
+	 * Removes and wipes all entries.
+	 */
+	synchronized void clear() {
+		for (final CachedEntry theCached : entries.values()) {
+			wipe(theCached.entry);
+		}
+		entries.clear();
+		stopPurging();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private static synchronized Timer getPurger() {
+		if (purger == null) {
+			purger = new Timer("Entry cache purger", true);
+		}
+		return purger;
+	}
+
+	private synchronized void purge() {
+		purgeExpired(System.currentTimeMillis());
+		if (entries.isEmpty()) {
+			stopPurging();
+		}
+	}
+
+	private void stopPurging() {
+		if (purgeTask != null) {
+			purgeTask.cancel();
+			purgeTask = null;
+		}
+	}
+
+	private void purgeExpired(final long aTime) {
+		for (final Iterator<CachedEntry> it = entries.values().iterator(); it.hasNext();) {
+			final CachedEntry theCached = it.next();
+			if (isExpired(theCached, aTime)) {
+				wipe(theCached.entry);
+				it.remove();
+			}
+		}
+	}
+
+	private boolean isExpired(final CachedEntry aCached, final long aTime) {
+		return aTime - aCached.created > maxAge;
+	}
+
+	private static PwsEntryBean copy(final PwsEntryBean anEntry) {
+		final PwsEntryBean theCopy = anEntry.clone();
+		if (anEntry.getPassword() != null) {
+			theCopy.setPassword(new StringBuilder(anEntry.getPassword()));
+		}
+		return theCopy;
+	}
+
+	private static void wipe(final PwsEntryBean anEntry) {
+		if (anEntry.getPassword() != null) {
+			Util.clear(anEntry.getPassword());
+		}
+	}
+}
@@ -36,6 +36,33 @@ public interface PwsEntryStore {
 
 	boolean removeEntry(final PwsEntryBean anEntry);
 
+	/**
+	 * Records an access to an entry without changing its record. Access times
+	 * are collected and written to the records when the file is saved or
+	 * {@link #flushAccessTimes()} is called.
+	 * 
+	 * @param anEntry the entry accessed, may be sparse
+	 */
+	void recordAccess(final PwsEntryBean anEntry);
+
+	/**
+	 * @return true if there are access times not written to the records yet
+	 */
+	boolean hasPendingAccessTimes();
+
+	/**
+	 * Writes all pending access times to their records.
+	 * 
+	 * @return the number of records updated
+	 */
+	int flushAccessTimes();
+
+	/**
+	 * Reads the entries again after the records of the file have been changed
+	 * directly, e.g. by a merge. Pending access times are kept.
+	 */
+	void reload();
+
 	void clear();
 
 	/**
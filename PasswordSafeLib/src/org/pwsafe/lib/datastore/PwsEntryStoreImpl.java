@@ -10,12 +10,17 @@
 package org.pwsafe.lib.datastore;
 
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.pwsafe.lib.Log;
+import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.file.PwsFieldType;
 import org.pwsafe.lib.file.PwsFieldTypeV1;
@@ -24,10 +29,17 @@ import org.pwsafe.lib.file.PwsFieldTypeV3;
 import org.pwsafe.lib.file.PwsFile;
 import org.pwsafe.lib.file.PwsFileV1;
 import org.pwsafe.lib.file.PwsFileV2;
+import org.pwsafe.lib.file.PwsFileV3;
 import org.pwsafe.lib.file.PwsLoadListener;
 import org.pwsafe.lib.file.PwsRecord;
+import org.pwsafe.lib.file.PwsRecordV3;
+import org.pwsafe.lib.file.PwsSaveListener;
+import org.pwsafe.lib.file.PwsTimeField;
+import org.pwsafe.lib.metrics.PwsMetric;
+import org.pwsafe.lib.metrics.PwsMetrics;
+import org.pwsafe.lib.metrics.PwsTrace;
 
-public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
+public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener, PwsSaveListener {
 
 	private final static Log LOGGER = Log.getInstance(PwsEntryStoreImpl.class);
 	private static final EnumSet<PwsFieldTypeV1> DEFAULT_V1_SPARSE_FIELDS = EnumSet.of(
@@ -39,6 +51,22 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 			PwsFieldTypeV3.TITLE, PwsFieldTypeV3.GROUP, PwsFieldTypeV3.USERNAME,
 			PwsFieldTypeV3.NOTES, PwsFieldTypeV3.URL, PwsFieldTypeV3.PASSWORD_LIFETIME, PwsFieldTypeV3.LAST_MOD_TIME);
 
+	/**
+	 * Number of filled entries kept in the cache.
+	 */
+	private static final int ENTRY_CACHE_SIZE = 32;
+
+	/**
+	 * Time in milliseconds a filled entry is kept in the cache at most.
+	 */
+	private static final long ENTRY_CACHE_AGE = 2 * 60 * 1000;
+
+	/**
+	 * Number of entries of the same group read in advance on both sides of an
+	 * entry not cached yet.
+	 */
+	private static final int PREFETCH_DISTANCE = 1;
+
 	PwsFile pwsFile;
 
 	/**
@@ -46,8 +74,22 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	 */
 	protected List<PwsEntryBean> sparseEntries;
 
+	final PwsEntryCache entryCache = new PwsEntryCache(ENTRY_CACHE_SIZE,
+			ENTRY_CACHE_AGE);
+
+	/**
+	 * Access times not yet written to the records, by entry id.
+	 */
+	private final Map<UUID, Date> pendingAccessTimes = new HashMap<UUID, Date>();
+
 	private Set<? extends PwsFieldType> sparseFields;
 
+	/**
+	 * Whether the notes of the sparse entries are still to be read from the
+	 * records of the file.
+	 */
+	private boolean notesDeferred;
+
 
 	public PwsEntryStoreImpl(final PwsFile aPwsFile) {
 		this(aPwsFile, false);
@@ -55,7 +97,7 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 
 	public PwsEntryStoreImpl(final PwsFile aPwsFile, final boolean isListenerAdded) {
 		super();
-		pwsFile = aPwsFile;
+		setPwsFile(aPwsFile);
 		setDefaultSparseFields();
 		if (sparseEntries == null) {
 			sparseEntries = new ArrayList<PwsEntryBean>();
@@ -74,7 +116,7 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 
 	public PwsEntryStoreImpl(final PwsFile aPwsFile, final Set<PwsFieldType> someSparseFields, final boolean isListenerAdded) {
 		super();
-		pwsFile = aPwsFile;
+		setPwsFile(aPwsFile);
 		sparseFields = someSparseFields;
 
 		// Backward compatibility - if the store is not loaded via the listener,
@@ -102,17 +144,21 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	}
 
 	private void refresh() {
+		entryCache.clear();
 		sparseEntries.clear();
+		notesDeferred = false;
 
 		if (pwsFile == null) {
 			return;
 		}
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.STORE_REFRESH);
 		final Iterator<? extends PwsRecord> it = pwsFile.getRecords();
 		while(it.hasNext()) {
 			final PwsRecord r = it.next();
 			// TODO: more effective: only fill sparse fields
 			addRecord(r);
 		}
+		theTrace.end(sparseEntries.size(), 0);
 	}
 
 	private void addRecord(final PwsRecord r) {
@@ -158,8 +204,10 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	 * @see org.pwsafe.lib.datastore.PwsEntryStore#clear()
 	 */
 	public void clear() {
+		entryCache.clear();
+		pendingAccessTimes.clear();
 		sparseEntries.clear();
-		pwsFile = null;
+		setPwsFile(null);
 	}
 
 	/*
@@ -169,16 +217,80 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 	 */
 	public PwsEntryBean getEntry(final int anIndex) {
 		if (sparseEntries != null && anIndex < sparseEntries.size()) {
-			final PwsRecord theRecord = pwsFile.getRecord(anIndex);
-			final PwsEntryBean theEntry = PwsEntryBean.fromPwsRecord(theRecord);
-			theEntry.setStoreIndex(anIndex);
-			theEntry.setSparse(false);
+			final long theStart = PwsMetrics.start();
+			PwsEntryBean theEntry = entryCache.get(anIndex);
+			if (theEntry == null) {
+				theEntry = readEntry(anIndex);
+				prefetchNeighbours(anIndex);
+			} else {
+				PwsMetrics.count(PwsMetric.STORE_CACHE_HITS);
+				if (theEntry.isSparse()) {
+					// prefetched without its password
+					theEntry.setPassword(readPassword(anIndex));
+					theEntry.setSparse(false);
+					entryCache.put(theEntry);
+				}
+			}
+			final Date theAccessTime = theEntry.getId() == null ? null : pendingAccessTimes
+					.get(theEntry.getId());
+			if (theAccessTime != null) {
+				theEntry.setLastAccess(theAccessTime);
+			}
+			PwsMetrics.stop(PwsMetric.STORE_LOOKUP, theStart);
 			return theEntry;
 		} else {
 			return null;
 		}
 	}
 
+	private PwsEntryBean readEntry(final int anIndex) {
+		final PwsRecord theRecord = pwsFile.getRecord(anIndex);
+		final PwsEntryBean theEntry = PwsEntryBean.fromPwsRecord(theRecord);
+		theEntry.setStoreIndex(anIndex);
+		theEntry.setSparse(false);
+		entryCache.put(theEntry);
+		return theEntry;
+	}
+
+	/**
+	 * Reads the entries next to the given one into the cache if they are in
+	 * the same group, as they are likely to be used next. Their passwords are
+	 * left out until they are asked for.
+	 */
+	private void prefetchNeighbours(final int anIndex) {
+		final String theGroup = sparseEntries.get(anIndex).getGroup();
+		final int last = Math.min(anIndex + PREFETCH_DISTANCE, sparseEntries.size() - 1);
+		for (int i = Math.max(anIndex - PREFETCH_DISTANCE, 0); i <= last; i++) {
+			if (i != anIndex && !entryCache.contains(i)) {
+				final String theNeighbourGroup = sparseEntries.get(i).getGroup();
+				if (theGroup == null ? theNeighbourGroup == null : theGroup
+						.equals(theNeighbourGroup)) {
+					final PwsEntryBean theEntry = PwsEntryBean.fromPwsRecord(pwsFile.getRecord(i));
+					if (theEntry.getPassword() != null) {
+						Util.clear(theEntry.getPassword());
+						theEntry.setPassword((StringBuilder) null);
+					}
+					theEntry.setStoreIndex(i);
+					theEntry.setSparse(true);
+					entryCache.put(theEntry);
+				}
+			}
+		}
+	}
+
+	private StringBuilder readPassword(final int anIndex) {
+		final PwsRecord theRecord = pwsFile.getRecord(anIndex);
+		final Set<? extends PwsFieldType> theFields;
+		if (pwsFile instanceof PwsFileV1) {
+			theFields = EnumSet.of(PwsFieldTypeV1.PASSWORD);
+		} else if (pwsFile instanceof PwsFileV2) {
+			theFields = EnumSet.of(PwsFieldTypeV2.PASSWORD);
+		} else {
+			theFields = EnumSet.of(PwsFieldTypeV3.PASSWORD);
+		}
+		return PwsEntryBean.fromPwsRecord(theRecord, theFields).getPassword();
+	}
+
 	/**
 	 * @return the pwsFile
 	 */
@@ -195,14 +307,44 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 		if (sparseEntries == null) {
 			sparseEntries = new ArrayList<PwsEntryBean>();
 		}
+		if (notesDeferred && !(pwsFile instanceof PwsFileV3 && ((PwsFileV3) pwsFile)
+				.isLoadingDeferred())) {
+			notesDeferred = false;
+			fillNotes();
+		}
 		return sparseEntries;
 	}
 
+	/**
+	 * Leaves the notes of the sparse entries out until the file has read its
+	 * records, e.g. for entries loaded from the index sidecar of a V3 file,
+	 * which does not keep the notes. They are filled by
+	 * {@link #getSparseEntries()} then.
+	 */
+	public void deferNotes() {
+		notesDeferred = sparseFields.contains(PwsFieldTypeV3.NOTES);
+	}
+
+	private void fillNotes() {
+		final Set<PwsFieldTypeV3> theNotes = EnumSet.of(PwsFieldTypeV3.NOTES);
+		for (final PwsEntryBean theEntry : sparseEntries) {
+			final PwsRecord theRecord = pwsFile.getRecord(theEntry.getStoreIndex());
+			theEntry.setNotes(PwsEntryBean.fromPwsRecord(theRecord, theNotes).getNotes());
+		}
+	}
+
 	/**
 	 * @param pwsFile the pwsFile to set
 	 */
 	public void setPwsFile(final PwsFile pwsFile) {
+		entryCache.clear();
+		if (this.pwsFile != null) {
+			this.pwsFile.removeSaveListener(this);
+		}
 		this.pwsFile = pwsFile;
+		if (pwsFile != null) {
+			pwsFile.addSaveListener(this);
+		}
 	}
 
 	/*
@@ -249,6 +391,7 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 		}
 		anEntry.toPwsRecord(theRecord);
 		pwsFile.set(index, theRecord);
+		entryCache.remove(index);
 		final PwsEntryBean newEntry = PwsEntryBean.fromPwsRecord(theRecord, sparseFields);
 		newEntry.setStoreIndex(index);
 		sparseEntries.set(index, sparsify(newEntry));
@@ -282,4 +425,76 @@ public class PwsEntryStoreImpl implements PwsEntryStore, PwsLoadListener {
 		addRecord(aRecord);
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see
+	 * org.pwsafe.lib.datastore.PwsEntryStore#recordAccess(org.pwsafe.lib.datastore
+	 * .PwsEntryBean)
+	 */
+	public void recordAccess(final PwsEntryBean anEntry) {
+		if (anEntry.getId() != null) {
+			pendingAccessTimes.put(anEntry.getId(), new Date());
+		} else {
+			LOGGER.debug1("Access not recorded for an entry without id");
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.pwsafe.lib.datastore.PwsEntryStore#hasPendingAccessTimes()
+	 */
+	public boolean hasPendingAccessTimes() {
+		return !pendingAccessTimes.isEmpty();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.pwsafe.lib.datastore.PwsEntryStore#flushAccessTimes()
+	 */
+	public int flushAccessTimes() {
+		if (pendingAccessTimes.isEmpty()) {
+			return 0;
+		}
+		int count = 0;
+		for (int i = 0; i < sparseEntries.size() && !pendingAccessTimes.isEmpty(); i++) {
+			final UUID theId = sparseEntries.get(i).getId();
+			final Date theAccessTime = theId == null ? null : pendingAccessTimes.remove(theId);
+			if (theAccessTime != null) {
+				final PwsRecord theRecord = pwsFile.getRecord(i);
+				theRecord.setField(new PwsTimeField(PwsRecordV3.LAST_ACCESS_TIME, theAccessTime));
+				pwsFile.set(i, theRecord);
+				entryCache.remove(i);
+				count++;
+			}
+		}
+		if (!pendingAccessTimes.isEmpty()) {
+			LOGGER.info("Dropped access times of " + pendingAccessTimes.size()
+					+ " removed entries");
+			pendingAccessTimes.clear();
+		}
+		LOGGER.debug1("Wrote access times of " + count + " entries");
+		return count;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.pwsafe.lib.datastore.PwsEntryStore#reload()
+	 */
+	public void reload() {
+		refresh();
+	}
+
+	/**
+	 * Writes the pending access times before the file is saved.
+	 * 
+	 * @see org.pwsafe.lib.file.PwsSaveListener#saving(org.pwsafe.lib.file.PwsFile)
+	 */
+	public void saving(final PwsFile aFile) {
+		flushAccessTimes();
+	}
+
 }
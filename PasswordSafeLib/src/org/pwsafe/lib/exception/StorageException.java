@@ -0,0 +1,40 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.exception;
+
+import java.io.IOException;
+
+/**
+ * An exception to indicate that a storage could not read or replace the
+ * content of a file, e.g. because a temporary file could not be renamed. It is
+ * an {@link IOException}, so callers need not change.
+ *
+ * @author roxon
+ */
+public class StorageException extends IOException {
+
+	private static final long serialVersionUID = 2811435924563406327L;
+
+	/**
+	 * @param message
+	 */
+	public StorageException(final String message) {
+		super(message);
+	}
+
+	/**
+	 * @param message
+	 * @param cause
+	 */
+	public StorageException(final String message, final Throwable cause) {
+		super(message);
+		initCause(cause);
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to a stream, e.g. for the record offsets of an
+ * index while a file is written straight to its storage.
+ *
+ * @author roxon
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+	private int count;
+
+	CountingOutputStream(final OutputStream aStream) {
+		super(aStream);
+	}
+
+	@Override
+	public void write(final int aByte) throws IOException {
+		out.write(aByte);
+		count++;
+	}
+
+	@Override
+	public void write(final byte[] someBytes, final int anOffset, final int aLength)
+			throws IOException {
+		out.write(someBytes, anOffset, aLength);
+		count += aLength;
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	int getCount() {
+		return count;
+	}
+}
@@ -35,10 +35,16 @@ import org.pwsafe.lib.I18nHelper;
 import org.pwsafe.lib.Log;
 import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.InMemoryKey;
+import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.crypto.TwofishPws;
 import org.pwsafe.lib.exception.EndOfFileException;
+import org.pwsafe.lib.exception.InvalidPassphraseException;
 import org.pwsafe.lib.exception.MemoryKeyException;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
+import org.pwsafe.lib.metrics.PwsMetric;
+import org.pwsafe.lib.metrics.PwsMetrics;
+import org.pwsafe.lib.metrics.PwsTrace;
 
 /**
  * This is the base class for all variations of the PasswordSafe file format.
@@ -132,11 +138,37 @@ public abstract class PwsFile {
 	 */
 	protected Date lastStorageChange;
 
+	/**
+	 * The number of bytes read from the storage when the file was opened.
+	 */
+	protected long openedSize;
+
+	/**
+	 * The number of bytes read by {@link #readBytes(byte[])}.
+	 */
+	protected long bytesRead;
+
 	private InMemoryKey memoryKey;
 	private byte[] memoryIv;
 
+	/**
+	 * Iterations used to derive the key which unlocks a locked file, the
+	 * minimum the V3 format demands for its own key stretching.
+	 */
+	private static final int LOCK_ITERATIONS = 2048;
+
+	/**
+	 * The memory key and iv, encrypted with the unlock key, while the file is
+	 * locked.
+	 */
+	private byte[] lockedMemoryKey;
+	private byte[] lockSalt;
+	private byte[] lockVerifier;
+
 	private final List<PwsLoadListener> loadListeners = new ArrayList<PwsLoadListener>();
 
+	private final List<PwsSaveListener> saveListeners = new ArrayList<PwsSaveListener>();
+
 	/**
 	 * Constructs and initialises a new, empty PasswordSafe database in memory.
 	 */
@@ -179,6 +211,7 @@ public abstract class PwsFile {
 			LOG.error("Illegal add on read only file - saving won't be possible");
 		}
 
+		completeLoading();
 		this.add(rec, getCipher(true));
 		// recordSet.add( rec );
 		setModified();
@@ -193,6 +226,7 @@ public abstract class PwsFile {
 		try {
 			final SealedObject sealedRecord = new SealedObject(rec, aCipher);
 			sealedRecords.add(sealedRecord);
+			PwsMetrics.count(PwsMetric.RECORDS_SEALED);
 		} catch (final IllegalBlockSizeException e) {
 			throw new MemoryKeyException(e);
 		} catch (final IOException e) {
@@ -245,13 +279,22 @@ public abstract class PwsFile {
 		result = (length == 0) ? BLOCK_LENGTH : ((length + (BLOCK_LENGTH - 1)) / BLOCK_LENGTH)
 				* BLOCK_LENGTH;
 
-		LOG.debug1("Length = " + length + ", BlockLength = " + result);
+		LOG.debug1("Length = {}, BlockLength = {}", length, result);
 
 		LOG.leaveMethod("PwsFile.calcBlockLength");
 
 		return result;
 	}
 
+	/**
+	 * Reads all records which have not been read yet. Files may defer reading
+	 * their records after opening, every method accessing the records in bulk
+	 * or changing them calls this first. This default implementation does
+	 * nothing.
+	 */
+	protected void completeLoading() {
+	}
+
 	/**
 	 * Attempts to close the file.
 	 * 
@@ -269,11 +312,22 @@ public abstract class PwsFile {
 		LOG.leaveMethod("PwsFile.close");
 	}
 
+	/**
+	 * @return the number of bytes read from the storage when the file was
+	 *         opened, 0 if it was not opened from a storage
+	 */
+	long getOpenedSize() {
+		return openedSize;
+	}
+
 	/**
 	 * Wipes any sensitive data from memory.
 	 */
 	public void dispose() {
 		passphrase = null;
+		lockedMemoryKey = null;
+		lockSalt = null;
+		lockVerifier = null;
 		if (memoryKey != null) {
 			memoryKey.dispose();
 		}
@@ -283,7 +337,99 @@ public abstract class PwsFile {
 		}
 	}
 
+	/**
+	 * Locks the file while keeping its content: the records stay sealed in
+	 * memory, the memory key is wrapped with a key derived from the passphrase
+	 * and wiped afterwards. Unlocking only verifies the passphrase and unwraps
+	 * the memory key, the storage is neither read nor decrypted again.
+	 * <p>
+	 * Nothing but {@link #unlock(StringBuilder)}, {@link #isLocked()},
+	 * {@link #isStorageChanged()} and {@link #dispose()} may be called on a
+	 * locked file.
+	 * </p>
+	 */
+	public void lock() {
+		if (isLocked()) {
+			return;
+		}
+		completeLoading();
+		final String thePassphrase = getPassphrase();
+		if (thePassphrase == null) {
+			throw new IllegalStateException("File without passphrase can't be locked");
+		}
+		getCipher(true); // makes sure key and iv exist
+
+		final byte[] theSalt = new byte[32];
+		Util.newRandBytes(theSalt);
+		final byte[] theUnlockKey = Util.stretchPassphrase(thePassphrase.getBytes(), theSalt,
+				LOCK_ITERATIONS);
+		final byte[] theMemoryKey = Util.mergeBytes(getKeyBytes(), memoryIv);
+
+		lockedMemoryKey = TwofishPws.processECB(theUnlockKey, true, theMemoryKey);
+		lockVerifier = new SHA256Pws().digest(theUnlockKey);
+		lockSalt = theSalt;
+		Arrays.fill(theUnlockKey, (byte) 0);
+		Arrays.fill(theMemoryKey, (byte) 0);
+
+		memoryKey.dispose();
+		memoryKey = null;
+		Arrays.fill(memoryIv, (byte) 0);
+		memoryIv = null;
+		LOG.debug1("File locked");
+	}
+
+	/**
+	 * Unlocks a file locked by {@link #lock()}.
+	 * 
+	 * @param aPassphrase the passphrase of the file
+	 * @throws InvalidPassphraseException if the passphrase is not correct
+	 */
+	public void unlock(final StringBuilder aPassphrase) throws InvalidPassphraseException {
+		if (!isLocked()) {
+			throw new IllegalStateException("File is not locked");
+		}
+		final byte[] theUnlockKey = Util.stretchPassphrase(aPassphrase.toString().getBytes(),
+				lockSalt, LOCK_ITERATIONS);
+		try {
+			if (!Util.bytesAreEqual(lockVerifier, new SHA256Pws().digest(theUnlockKey))) {
+				throw new InvalidPassphraseException();
+			}
+			final byte[] theMemoryKey = TwofishPws.processECB(theUnlockKey, false, lockedMemoryKey);
+			memoryKey = new InMemoryKey(16);
+			memoryKey.init(Util.getBytes(theMemoryKey, 0, 8));
+			memoryIv = Util.getBytes(theMemoryKey, 8, 8);
+			Arrays.fill(theMemoryKey, (byte) 0);
+		} finally {
+			Arrays.fill(theUnlockKey, (byte) 0);
+		}
+		lockedMemoryKey = null;
+		lockSalt = null;
+		lockVerifier = null;
+		LOG.debug1("File unlocked");
+	}
+
+	/**
+	 * @return true if the file has been locked by {@link #lock()}
+	 */
+	public boolean isLocked() {
+		return lockedMemoryKey != null;
+	}
+
+	/**
+	 * Checks whether the storage has been changed by someone else since the
+	 * file has been read or saved.
+	 * 
+	 * @return true if the storage has been changed
+	 */
+	public boolean isStorageChanged() {
+		return storage != null && lastStorageChange != null
+				&& storage.getModifiedDate().after(lastStorageChange);
+	}
+
 	protected Cipher getCipher(final boolean forWriting) {
+		if (isLocked()) {
+			throw new IllegalStateException("File is locked");
+		}
 		if (memoryIv == null) {
 			memoryIv = new byte[8];
 			Util.newRandBytes(memoryIv);
@@ -389,6 +535,7 @@ public abstract class PwsFile {
 	 * @return An <code>Iterator</code> over the records.
 	 */
 	public Iterator<? extends PwsRecord> getRecords() {
+		completeLoading();
 		return new FileIterator(this, sealedRecords.iterator());
 	}
 
@@ -398,10 +545,12 @@ public abstract class PwsFile {
 	 * @return the PwsRecord at that index
 	 */
 	public PwsRecord getRecord(final int index) {
+		completeLoading();
 		getCipher(true);
 		SealedObject sealedRecord;
 		try {
 			sealedRecord = sealedRecords.get(index);
+			PwsMetrics.count(PwsMetric.RECORDS_UNSEALED);
 			return (PwsRecord) sealedRecord.getObject(getCipher(false));
 		} catch (final IllegalBlockSizeException e) {
 			throw new MemoryKeyException(e);
@@ -441,11 +590,13 @@ public abstract class PwsFile {
 	 */
 	public void set(final int index, final PwsRecord aRecord) {
 		// TODO validate here as well
+		completeLoading();
 		final Cipher cipher = getCipher(true);
 		SealedObject sealedRecord;
 		try {
 			sealedRecord = new SealedObject(aRecord, cipher);
 			sealedRecords.set(index, sealedRecord);
+			PwsMetrics.count(PwsMetric.RECORDS_SEALED);
 			setModified();
 		} catch (final IllegalBlockSizeException e) {
 			throw new MemoryKeyException(e);
@@ -476,10 +627,15 @@ public abstract class PwsFile {
 	 *         version
 	 */
 	void readAll() throws IOException, UnsupportedFileVersionException {
+		final long theStart = PwsMetrics.start();
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.RECORD_DECODE);
+		final int theRecordCount = sealedRecords.size();
+		final long theBytesRead = bytesRead;
 		try {
 			final Cipher c = getCipher(true);
 			for (;;) {
 				final PwsRecord rec = PwsRecord.read(this);
+				PwsMetrics.count(PwsMetric.RECORDS_PARSED);
 
 				if (rec.isValid()) {
 					this.add(rec, c);
@@ -491,6 +647,8 @@ public abstract class PwsFile {
 		} catch (final EndOfFileException e) {
 			// OK
 		}
+		PwsMetrics.stop(PwsMetric.RECORDS_READ, theStart);
+		theTrace.end(sealedRecords.size() - theRecordCount, bytesRead - theBytesRead);
 	}
 
 	/**
@@ -521,9 +679,14 @@ public abstract class PwsFile {
 	 * @throws IOException If an error occurs whilst reading the file.
 	 */
 	public void readBytes(final byte[] bytes) throws IOException, EndOfFileException {
-		int count;
+		int count = inStream.read(bytes);
 
-		count = inStream.read(bytes);
+		// a stream from the storage may return fewer bytes than available
+		int theRead;
+		while (count >= 0 && count < bytes.length
+				&& (theRead = inStream.read(bytes, count, bytes.length - count)) > 0) {
+			count += theRead;
+		}
 
 		if (count == -1) {
 			LOG.debug1("END OF FILE");
@@ -533,7 +696,8 @@ public abstract class PwsFile {
 					new Object[] { new Integer(bytes.length), new Integer(count) }));
 			throw new IOException(I18nHelper.getInstance().formatMessage("E00006"));
 		}
-		LOG.debug1("Read " + count + " bytes");
+		bytesRead += count;
+		LOG.debug1("Read {} bytes", count);
 	}
 
 	/**
@@ -593,6 +757,7 @@ public abstract class PwsFile {
 	 * @return true if a record was removed
 	 */
 	public boolean removeRecord(final int index) {
+		completeLoading();
 		final boolean success = sealedRecords.remove(index) != null;
 		if (success) {
 			setModified();
@@ -662,7 +827,7 @@ public abstract class PwsFile {
 	 */
 	public void writeBytes(final byte[] buffer) throws IOException {
 		outStream.write(buffer);
-		LOG.debug1("Wrote " + buffer.length + " bytes");
+		LOG.debug1("Wrote {} bytes", buffer.length);
 	}
 
 	/**
@@ -767,6 +932,7 @@ public abstract class PwsFile {
 			try {
 				sealedRecord = delegate.next();
 				final PwsRecord theRecord = (PwsRecord) sealedRecord.getObject(cipher);
+				PwsMetrics.count(PwsMetric.RECORDS_UNSEALED);
 				if (!hasNext()) {// clean up
 					cipher = null;
 				}
@@ -812,4 +978,24 @@ public abstract class PwsFile {
 	public void removeLoadListener(final PwsLoadListener aLoadListener) {
 		loadListeners.remove(aLoadListener);
 	}
+
+	public void addSaveListener(final PwsSaveListener aSaveListener) {
+		if (aSaveListener != null) {
+			saveListeners.add(aSaveListener);
+		}
+	}
+
+	public void removeSaveListener(final PwsSaveListener aSaveListener) {
+		saveListeners.remove(aSaveListener);
+	}
+
+	/**
+	 * Notifies the save listeners, to be called by {@link #save()} before the
+	 * records are written.
+	 */
+	protected void notifySaveListeners() {
+		for (final PwsSaveListener theListener : new ArrayList<PwsSaveListener>(saveListeners)) {
+			theListener.saving(this);
+		}
+	}
 }
@@ -9,6 +9,8 @@
  */
 package org.pwsafe.lib.file;
 
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -26,6 +28,7 @@ import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.InvalidPassphraseException;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
+import org.pwsafe.lib.metrics.PwsTrace;
 
 /**
  * This is a singleton factory class used to load a PasswordSafe file. It is
@@ -38,6 +41,9 @@ public class PwsFileFactory {
 
 	private static final Log LOG = Log.getInstance(PwsFileFactory.class.getPackage().getName());
 
+	/** tag, salt and iteration count of a V3 header */
+	private static final int PEEK_LENGTH = 4 + 32 + 4;
+
 	/**
 	 * Private for the singleton pattern.
 	 */
@@ -220,6 +226,24 @@ public class PwsFileFactory {
 	public static final PwsFile loadFile(final String filename, final StringBuilder aPassphrase)
 			throws EndOfFileException, FileNotFoundException, InvalidPassphraseException,
 			IOException, UnsupportedFileVersionException, NoSuchAlgorithmException {
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SAFE_OPEN);
+		PwsFile theFile = null;
+		try {
+			theFile = loadFile(filename, aPassphrase, theTrace);
+			return theFile;
+		} finally {
+			if (theFile == null) {
+				theTrace.end(0, 0);
+			} else {
+				theTrace.end(theFile.getRecordCount(), theFile.getOpenedSize());
+			}
+		}
+	}
+
+	private static PwsFile loadFile(final String filename, final StringBuilder aPassphrase,
+			final PwsTrace aTrace) throws EndOfFileException, FileNotFoundException,
+			InvalidPassphraseException, IOException, UnsupportedFileVersionException,
+			NoSuchAlgorithmException {
 		LOG.enterMethod("PwsFileFactory.loadFile");
 
 		PwsFile file;
@@ -228,8 +252,9 @@ public class PwsFileFactory {
 		final String passphrase = aPassphrase.toString();
 		if (filename.endsWith(PwsS3Storage.FILE_EXTENSION)) {
 			LOG.debug1("This is a S3 Storage backed V3 format file.");
-			file = new PwsFileV3(new PwsS3Storage(filename, null, passphrase), passphrase);
-			readRecords(file);
+			file = new PwsFileV3(PwsS3Storage.openReplicated(filename, null, passphrase),
+					passphrase);
+			readRecords(file, aTrace);
 			return file;
 		}
 
@@ -241,7 +266,7 @@ public class PwsFileFactory {
 		if (Util.bytesAreEqual("PWS3".getBytes(), first4Bytes)) {
 			LOG.debug1("This is a V3 format file.");
 			file = new PwsFileV3(new PwsFileStorage(filename), passphrase);
-			readRecords(file);
+			readRecords(file, aTrace);
 			return file;
 		}
 
@@ -270,13 +295,46 @@ public class PwsFileFactory {
 			LOG.debug1("This is a V1 format file.");
 			file = new PwsFileV1(new PwsFileStorage(filename), passphrase);
 		}
-		readRecords(file);
+		readRecords(file, aTrace);
 
-		LOG.debug1("File contains " + file.getRecordCount() + " records.");
+		LOG.debug1("File contains {} records.", file.getRecordCount());
 		LOG.leaveMethod("PwsFileFactory.loadFile");
 		return file;
 	}
 
+	/**
+	 * Reads what is known about a file without its passphrase: size and time
+	 * of the file and, for a V3 file, the iteration count from the unencrypted
+	 * header. Only the first bytes of the file are read.
+	 * 
+	 * @param filename the name of the file
+	 * @return the info about the file
+	 * @throws FileNotFoundException If the given file does not exist.
+	 * @throws IOException If an error occurs whilst reading from the file.
+	 */
+	public static final PwsFileInfo peek(final String filename) throws FileNotFoundException,
+			IOException {
+		final File theFile = new File(filename);
+		final long theSize = theFile.length();
+		final long theModified = theFile.lastModified();
+		final byte[] theStart = new byte[PEEK_LENGTH];
+		final DataInputStream theStream = new DataInputStream(new FileInputStream(theFile));
+		try {
+			if (theSize >= PEEK_LENGTH) {
+				theStream.readFully(theStart);
+			}
+		} finally {
+			theStream.close();
+		}
+		if (theSize >= PEEK_LENGTH
+				&& Util.bytesAreEqual(PwsFileV3.ID_STRING, Util.getBytes(theStart, 0, 4))) {
+			final int theIter = Util.getIntFromByteArray(theStart, PEEK_LENGTH - 4);
+			LOG.debug1("Peeked V3 file {} with {} iterations", filename, Integer.valueOf(theIter));
+			return new PwsFileInfo(filename, theSize, theModified, PwsFileV3.VERSION, theIter);
+		}
+		return new PwsFileInfo(filename, theSize, theModified, PwsFileInfo.VERSION_UNKNOWN, -1);
+	}
+
 	/**
 	 * Creates a new, empty PasswordSafe database in memory. The database will
 	 * always be the latest version supported by this library which for this
@@ -318,6 +376,25 @@ public class PwsFileFactory {
 	public static final PwsEntryStore loadStore(final String filename, final StringBuilder aPassphrase)
 			throws EndOfFileException, FileNotFoundException, InvalidPassphraseException,
 			IOException, UnsupportedFileVersionException, NoSuchAlgorithmException {
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SAFE_OPEN);
+		PwsEntryStore theStore = null;
+		try {
+			theStore = loadStore(filename, aPassphrase, theTrace);
+			return theStore;
+		} finally {
+			if (theStore == null) {
+				theTrace.end(0, 0);
+			} else {
+				theTrace.end(theStore.getSparseEntries().size(), theStore.getPwsFile()
+						.getOpenedSize());
+			}
+		}
+	}
+
+	private static PwsEntryStore loadStore(final String filename,
+			final StringBuilder aPassphrase, final PwsTrace aTrace) throws EndOfFileException,
+			FileNotFoundException, InvalidPassphraseException, IOException,
+			UnsupportedFileVersionException, NoSuchAlgorithmException {
 		final PwsEntryStore entryStore;
 		PwsFile file;
 
@@ -325,8 +402,9 @@ public class PwsFileFactory {
 		final String passphrase = aPassphrase.toString();
 		if (filename.endsWith(PwsS3Storage.FILE_EXTENSION)) {
 			LOG.debug1("This is a S3 Storage backed V3 format file.");
-			file = new PwsFileV3(new PwsS3Storage(filename, null, passphrase), passphrase);
-			entryStore = readRecords(file);
+			file = new PwsFileV3(PwsS3Storage.openReplicated(filename, null, passphrase),
+					passphrase);
+			entryStore = readRecords(file, aTrace);
 			return entryStore;
 		}
 
@@ -337,9 +415,12 @@ public class PwsFileFactory {
 		fis.close();
 		if (Util.bytesAreEqual("PWS3".getBytes(), first4Bytes)) {
 			LOG.debug1("This is a V3 format file.");
-			file = new PwsFileV3(new PwsFileStorage(filename), passphrase);
-			entryStore = readRecords(file);
-			return entryStore;
+			final PwsFileV3 fileV3 = new PwsFileV3(new PwsFileStorage(filename), passphrase);
+			entryStore = readIndexedRecords(fileV3, aTrace);
+			if (entryStore != null) {
+				return entryStore;
+			}
+			return readRecords(fileV3, aTrace);
 		}
 
 		PwsRecordV1 rec;
@@ -367,20 +448,56 @@ public class PwsFileFactory {
 			LOG.debug1("This is a V1 format file.");
 			file = new PwsFileV1(new PwsFileStorage(filename), passphrase);
 		}
-		entryStore = readRecords(file);
+		entryStore = readRecords(file, aTrace);
 
-		LOG.debug1("File contains " + file.getRecordCount() + " records.");
+		LOG.debug1("File contains {} records.", file.getRecordCount());
 		LOG.leaveMethod("PwsFileFactory.loadStore");
 
 		return entryStore;
 	}
 
-	private static PwsEntryStore readRecords(final PwsFile aFile) throws IOException,
-	UnsupportedFileVersionException {
+	/**
+	 * Reads all records of a freshly opened file into a new entry store.
+	 * 
+	 * @param aFile the file
+	 * @param aTrace the trace of the open, gets the open and decode phases
+	 * @return the store
+	 */
+	private static PwsEntryStore readRecords(final PwsFile aFile, final PwsTrace aTrace)
+			throws IOException, UnsupportedFileVersionException {
+		aTrace.phase("open");
 		final PwsEntryStoreImpl entryStore = new PwsEntryStoreImpl(aFile, false);
 		aFile.addLoadListener(entryStore);
 		aFile.readAll();
 		aFile.close();
+		aTrace.phase("decode");
+		return entryStore;
+	}
+
+	/**
+	 * Fills an entry store from the index sidecar of a file, if there is a
+	 * valid one. The records themselves are read in the background then.
+	 * 
+	 * @param aFile the freshly opened file
+	 * @param aTrace the trace of the open, gets the open and index phases
+	 * @return the store or null if there is no usable index
+	 */
+	private static PwsEntryStore readIndexedRecords(final PwsFileV3 aFile, final PwsTrace aTrace) {
+		final PwsIndexFile theIndex = aFile.readIndex();
+		if (theIndex == null) {
+			return null;
+		}
+		aTrace.phase("open");
+		LOG.debug1("Using index with {} records", theIndex.getRecordCount());
+		final PwsEntryStoreImpl entryStore = new PwsEntryStoreImpl(aFile, true);
+		for (final PwsRecord theRecord : theIndex.getRecords()) {
+			entryStore.loaded(theRecord);
+		}
+		entryStore.deferNotes();
+		aFile.setIndexSidecar(true);
+		aFile.deferRecords(theIndex);
+		aFile.completeLoadingInBackground();
+		aTrace.phase("index");
 		return entryStore;
 	}
 
@@ -0,0 +1,91 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+/**
+ * What can be told about a safe without its passphrase: the size and time of
+ * the file and, for a V3 file, the iteration count of the unencrypted header.
+ * Created by {@link PwsFileFactory#peek(String)}.
+ *
+ * @author roxon
+ */
+public final class PwsFileInfo {
+
+	/** the version of files that are not V3, they cannot be told apart unopened */
+	public static final int VERSION_UNKNOWN = 0;
+
+	private final String path;
+	private final long size;
+	private final long lastModified;
+	private final int version;
+	private final int iterations;
+
+	/**
+	 * @param aPath the path of the file
+	 * @param aSize the size of the file in bytes
+	 * @param aLastModified the modification time of the file
+	 * @param aVersion 3 or {@link #VERSION_UNKNOWN}
+	 * @param anIterations the iterations of the key stretching or -1 if unknown
+	 */
+	public PwsFileInfo(final String aPath, final long aSize, final long aLastModified,
+			final int aVersion, final int anIterations) {
+		path = aPath;
+		size = aSize;
+		lastModified = aLastModified;
+		version = aVersion;
+		iterations = anIterations;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return 3 or {@link #VERSION_UNKNOWN} for V1, V2 and other files
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the iterations of the key stretching of a V3 file or -1
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	public boolean isV3() {
+		return version == PwsFileV3.VERSION;
+	}
+
+	/**
+	 * Tells whether the file may have changed since this info was taken.
+	 *
+	 * @param aSize the current size of the file
+	 * @param aLastModified the current modification time of the file
+	 * @return true if size or time differ
+	 */
+	public boolean isStale(final long aSize, final long aLastModified) {
+		return size != aSize || lastModified != aLastModified;
+	}
+
+	@Override
+	public String toString() {
+		return path + " (V" + version + ", " + iterations + " iterations, " + size + " bytes)";
+	}
+}
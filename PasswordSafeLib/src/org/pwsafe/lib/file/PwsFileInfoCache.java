@@ -0,0 +1,188 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.pwsafe.lib.Log;
+
+/**
+ * Remembers the {@link PwsFileInfo} of recently used files, so they can be
+ * shown without touching files that may sit on a slow share. An entry is
+ * valid as long as size and modification time of its file are unchanged; only
+ * then {@link #refresh(String)} reads the header again.
+ *
+ * @author roxon
+ */
+public class PwsFileInfoCache {
+
+	private static final Log LOG = Log.getInstance(PwsFileInfoCache.class.getPackage().getName());
+
+	private static final String SEPARATOR = ","; //$NON-NLS-1$
+
+	private final Map<String, PwsFileInfo> infos = new HashMap<String, PwsFileInfo>();
+
+	private boolean modified;
+
+	/**
+	 * Returns the remembered info of a file, the file is not accessed.
+	 *
+	 * @param aPath the path of the file
+	 * @return the info or null if none is known
+	 */
+	public synchronized PwsFileInfo get(final String aPath) {
+		return infos.get(aPath);
+	}
+
+	/**
+	 * Checks size and time of a file and reads its header if they changed.
+	 * May block on slow file systems, so don't call it from the UI thread.
+	 *
+	 * @param aPath the path of the file
+	 * @return the current info or null if the file does not exist
+	 * @throws IOException if the file cannot be read
+	 */
+	public PwsFileInfo refresh(final String aPath) throws IOException {
+		final File theFile = new File(aPath);
+		if (!theFile.isFile()) {
+			remove(aPath);
+			return null;
+		}
+		final PwsFileInfo theCached = get(aPath);
+		if (theCached != null && !theCached.isStale(theFile.length(), theFile.lastModified())) {
+			return theCached;
+		}
+		final PwsFileInfo theInfo = PwsFileFactory.peek(aPath);
+		put(theInfo);
+		return theInfo;
+	}
+
+	/**
+	 * Remembers an info, e.g. after the file has been saved.
+	 *
+	 * @param anInfo the info
+	 */
+	public synchronized void put(final PwsFileInfo anInfo) {
+		infos.put(anInfo.getPath(), anInfo);
+		modified = true;
+	}
+
+	/**
+	 * Forgets the info of a file.
+	 *
+	 * @param aPath the path of the file
+	 */
+	public synchronized void remove(final String aPath) {
+		if (infos.remove(aPath) != null) {
+			modified = true;
+		}
+	}
+
+	/**
+	 * Forgets all files not in a collection, e.g. the files dropped from the
+	 * MRU list.
+	 *
+	 * @param aPaths the paths to keep
+	 */
+	public synchronized void retainAll(final Collection<String> aPaths) {
+		if (infos.keySet().retainAll(aPaths)) {
+			modified = true;
+		}
+	}
+
+	/**
+	 * @return true if the cache changed since it was last loaded or stored
+	 */
+	public synchronized boolean isModified() {
+		return modified;
+	}
+
+	/**
+	 * Adds the entries of a cache file, a missing file is ignored.
+	 *
+	 * @param aFile the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public void load(final File aFile) throws IOException {
+		if (!aFile.exists()) {
+			return;
+		}
+		final InputStream theStream = new FileInputStream(aFile);
+		try {
+			load(theStream);
+		} finally {
+			theStream.close();
+		}
+	}
+
+	/**
+	 * Adds the entries read from a stream, broken entries are skipped.
+	 *
+	 * @param aStream the stream, not closed
+	 * @throws IOException if the stream cannot be read
+	 */
+	public synchronized void load(final InputStream aStream) throws IOException {
+		final Properties theProperties = new Properties();
+		theProperties.load(aStream);
+		for (final Map.Entry<Object, Object> theEntry : theProperties.entrySet()) {
+			final String thePath = (String) theEntry.getKey();
+			final String[] theValues = ((String) theEntry.getValue()).split(SEPARATOR);
+			try {
+				infos.put(thePath, new PwsFileInfo(thePath, Long.parseLong(theValues[0]), Long
+						.parseLong(theValues[1]), Integer.parseInt(theValues[2]), Integer
+						.parseInt(theValues[3])));
+			} catch (final RuntimeException e) {
+				LOG.debug1("Skipping cached info {}", thePath);
+			}
+		}
+		modified = false;
+	}
+
+	/**
+	 * Writes the entries to a cache file.
+	 *
+	 * @param aFile the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void store(final File aFile) throws IOException {
+		final OutputStream theStream = new FileOutputStream(aFile);
+		try {
+			store(theStream);
+		} finally {
+			theStream.close();
+		}
+	}
+
+	/**
+	 * Writes the entries to a stream.
+	 *
+	 * @param aStream the stream, not closed
+	 * @throws IOException if the stream cannot be written
+	 */
+	public synchronized void store(final OutputStream aStream) throws IOException {
+		final Properties theProperties = new Properties();
+		for (final PwsFileInfo theInfo : infos.values()) {
+			theProperties.setProperty(theInfo.getPath(), theInfo.getSize() + SEPARATOR
+					+ theInfo.getLastModified() + SEPARATOR + theInfo.getVersion() + SEPARATOR
+					+ theInfo.getIterations());
+		}
+		theProperties.store(aStream, "Password Safe file info cache"); //$NON-NLS-1$
+		modified = false;
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.exception.EndOfFileException;
+import org.pwsafe.lib.exception.PasswordSafeException;
+import org.pwsafe.lib.exception.UnsupportedFileVersionException;
+import org.pwsafe.lib.file.PwsMergeReport.Outcome;
+
+/**
+ * Merges two copies of a V3 safe that were changed independently, e.g. when
+ * the file was saved by someone else while we had it open. The records are
+ * matched by their UUID in a single pass over each copy; only a digest of
+ * each record of our copy and of the common base is kept meanwhile.
+ * <p>
+ * With the common base a record changed or deleted in only one copy is
+ * taken from that copy. Without it the times of the records are compared to
+ * the time our copy was read: their version of a record last modified before
+ * counts as unchanged, a record missing in one copy was deleted there if it
+ * was created before, and added to the other copy otherwise. If both copies
+ * changed a record, the version with the later
+ * {@link PwsRecordV3#LAST_MOD_TIME} wins, ours on a tie. A record deleted
+ * in one copy but changed in the other is kept.
+ * </p>
+ *
+ * @author roxon
+ */
+public final class PwsFileMerger {
+
+	private static final Log LOG = Log.getInstance(PwsFileMerger.class.getPackage().getName());
+
+	private PwsFileMerger() {
+	}
+
+	/** what is kept of a record of our copy */
+	private static final class Summary {
+		private final int index;
+		private final byte[] digest;
+		private final long created;
+		private final long modified;
+
+		Summary(final int anIndex, final byte[] aDigest, final long aCreated,
+				final long aModified) {
+			index = anIndex;
+			digest = aDigest;
+			created = aCreated;
+			modified = aModified;
+		}
+	}
+
+	/**
+	 * Merges their copy into ours.
+	 *
+	 * @param ours our copy, changed in place
+	 * @param theirs their copy, not changed
+	 * @param base the copy both started from or null if unknown
+	 * @return what was merged
+	 * @throws PasswordSafeException if a record cannot be added to our copy
+	 */
+	public static PwsMergeReport merge(final PwsFileV3 ours, final PwsFileV3 theirs,
+			final PwsFileV3 base) throws PasswordSafeException {
+		final long theStart = System.currentTimeMillis();
+		// without a base records older than our copy are taken as unchanged;
+		// record times are stored in seconds, the same second counts as after
+		final long theRead = ours.lastStorageChange == null ? Long.MIN_VALUE
+				: ours.lastStorageChange.getTime() / 1000 * 1000;
+		final Map<UUID, Summary> theOurs = new HashMap<UUID, Summary>();
+		int theIndex = 0;
+		for (final Iterator<? extends PwsRecord> i = ours.getRecords(); i.hasNext(); theIndex++) {
+			final PwsRecord theRecord = i.next();
+			final UUID theUuid = getUuid(theRecord);
+			if (theUuid != null) {
+				theOurs.put(theUuid, new Summary(theIndex, digest(theRecord),
+						getCreated(theRecord), getModified(theRecord)));
+			}
+		}
+		final Map<UUID, byte[]> theBase = new HashMap<UUID, byte[]>();
+		if (base != null) {
+			for (final Iterator<? extends PwsRecord> i = base.getRecords(); i.hasNext();) {
+				final PwsRecord theRecord = i.next();
+				final UUID theUuid = getUuid(theRecord);
+				if (theUuid != null) {
+					theBase.put(theUuid, digest(theRecord));
+				}
+			}
+		}
+
+		final PwsMergeReport theReport = new PwsMergeReport();
+		final List<Integer> theDeleted = new ArrayList<Integer>();
+		for (final Iterator<? extends PwsRecord> i = theirs.getRecords(); i.hasNext();) {
+			final PwsRecord theRecord = i.next();
+			final UUID theUuid = getUuid(theRecord);
+			if (theUuid == null) {
+				continue;
+			}
+			final Summary theOur = theOurs.remove(theUuid);
+			final byte[] theBaseDigest = theBase.get(theUuid);
+			final byte[] theDigest = digest(theRecord);
+			if (theOur == null) {
+				if (base == null ? getCreated(theRecord) >= theRead : theBaseDigest == null) {
+					ours.add(theRecord);
+					theReport.add(item(theUuid, theRecord, Outcome.ADDED, true));
+				} else if (base == null ? getModified(theRecord) >= theRead : !Util
+						.bytesAreEqual(theBaseDigest, theDigest)) {
+					// deleted by us, changed by them: keep it
+					ours.add(theRecord);
+					theReport.add(item(theUuid, theRecord, Outcome.CONFLICT, true));
+				}
+			} else if (!Util.bytesAreEqual(theOur.digest, theDigest)) {
+				if (theBaseDigest != null && Util.bytesAreEqual(theBaseDigest, theOur.digest)) {
+					ours.set(theOur.index, theRecord);
+					theReport.add(item(theUuid, theRecord, Outcome.CHANGED, true));
+				} else if (theBaseDigest != null ? Util.bytesAreEqual(theBaseDigest, theDigest)
+						: getModified(theRecord) < theRead) {
+					// changed by us only
+				} else {
+					final boolean isTheirsNewer = getModified(theRecord) > theOur.modified;
+					if (isTheirsNewer) {
+						ours.set(theOur.index, theRecord);
+					}
+					theReport.add(item(theUuid, theRecord, theBaseDigest == null && isTheirsNewer
+							? Outcome.CHANGED : Outcome.CONFLICT, isTheirsNewer));
+				}
+			}
+		}
+
+		// the rest of ours is not in their copy
+		for (final Map.Entry<UUID, Summary> theEntry : theOurs.entrySet()) {
+			final Summary theOur = theEntry.getValue();
+			final byte[] theBaseDigest = theBase.get(theEntry.getKey());
+			if (base == null ? theOur.created >= theRead : theBaseDigest == null) {
+				continue; // added by us
+			}
+			if (base == null ? theOur.modified < theRead : Util.bytesAreEqual(theBaseDigest,
+					theOur.digest)) {
+				theDeleted.add(Integer.valueOf(theOur.index));
+				theReport.add(new PwsMergeReport.Item(theEntry.getKey(), null, Outcome.DELETED,
+						true));
+			} else {
+				// changed by us, deleted by them: keep it
+				theReport.add(new PwsMergeReport.Item(theEntry.getKey(), null,
+						Outcome.CONFLICT, false));
+			}
+		}
+		Collections.sort(theDeleted, Collections.reverseOrder());
+		for (final Integer theDeletedIndex : theDeleted) {
+			ours.removeRecord(theDeletedIndex.intValue());
+		}
+		LOG.info("Merged " + theReport + " in " + (System.currentTimeMillis() - theStart)
+				+ " ms");
+		return theReport;
+	}
+
+	/**
+	 * Merges the current content of the storage of a file that has been
+	 * changed by someone else into the file, see
+	 * {@link #mergeStorage(PwsFileV3, PwsFileV3)}.
+	 *
+	 * @param ours the file, changed in place
+	 * @return what was merged
+	 * @throws EndOfFileException if the storage holds a truncated file
+	 * @throws IOException if the storage cannot be read
+	 * @throws UnsupportedFileVersionException if the storage holds no V3 file
+	 * @throws NoSuchAlgorithmException if no SHA-256 implementation is found
+	 * @throws PasswordSafeException if a record cannot be added to the file
+	 */
+	public static PwsMergeReport mergeStorage(final PwsFileV3 ours) throws EndOfFileException,
+			IOException, UnsupportedFileVersionException, NoSuchAlgorithmException,
+			PasswordSafeException {
+		final PwsFileV3 theirs = readStorage(ours.getStorage(), ours.getPassphrase());
+		try {
+			return mergeStorage(ours, theirs);
+		} finally {
+			theirs.dispose();
+		}
+	}
+
+	/**
+	 * Reads the complete content of a storage, e.g. on a background thread
+	 * before merging it by {@link #mergeStorage(PwsFileV3, PwsFileV3)}.
+	 *
+	 * @param aStorage the storage
+	 * @param aPassphrase the passphrase of the file in the storage
+	 * @return the file, closed
+	 * @throws EndOfFileException if the storage holds a truncated file
+	 * @throws IOException if the storage cannot be read
+	 * @throws UnsupportedFileVersionException if the storage holds no V3 file
+	 * @throws NoSuchAlgorithmException if no SHA-256 implementation is found
+	 */
+	public static PwsFileV3 readStorage(final PwsStorage aStorage, final String aPassphrase)
+			throws EndOfFileException, IOException, UnsupportedFileVersionException,
+			NoSuchAlgorithmException {
+		final PwsFileV3 theFile = new PwsFileV3(aStorage, aPassphrase);
+		theFile.readAll();
+		theFile.close();
+		return theFile;
+	}
+
+	/**
+	 * Merges the content just read from the storage of a file into the file,
+	 * which can be saved afterwards. If the file has not been modified since
+	 * it was read or saved it is its own common base, so it ends up with
+	 * exactly the content of the storage and stays unmodified. Otherwise
+	 * there is no common base, see above.
+	 *
+	 * @param ours the file, changed in place
+	 * @param theirs the content of its storage
+	 * @return what was merged
+	 * @throws PasswordSafeException if a record cannot be added to the file
+	 */
+	public static PwsMergeReport mergeStorage(final PwsFileV3 ours, final PwsFileV3 theirs)
+			throws PasswordSafeException {
+		final boolean isClean = !ours.isModified();
+		final PwsMergeReport theReport = merge(ours, theirs, isClean ? ours : null);
+		ours.lastStorageChange = theirs.lastStorageChange;
+		if (isClean) {
+			ours.modified = false;
+		}
+		return theReport;
+	}
+
+	private static PwsMergeReport.Item item(final UUID anUuid, final PwsRecord aRecord,
+			final Outcome anOutcome, final boolean isTheirsTaken) {
+		final PwsField theTitle = aRecord.getField(PwsRecordV3.TITLE);
+		return new PwsMergeReport.Item(anUuid, theTitle == null ? null : String.valueOf(theTitle
+				.getValue()), anOutcome, isTheirsTaken);
+	}
+
+	private static UUID getUuid(final PwsRecord aRecord) {
+		final PwsField theField = aRecord.getField(PwsRecordV3.UUID);
+		return theField == null ? null : (UUID) theField.getValue();
+	}
+
+	private static long getCreated(final PwsRecord aRecord) {
+		final PwsField theField = aRecord.getField(PwsRecordV3.CREATION_TIME);
+		return theField == null ? getModified(aRecord) : ((Date) theField.getValue()).getTime();
+	}
+
+	private static long getModified(final PwsRecord aRecord) {
+		PwsField theField = aRecord.getField(PwsRecordV3.LAST_MOD_TIME);
+		if (theField == null) {
+			theField = aRecord.getField(PwsRecordV3.CREATION_TIME);
+		}
+		return theField == null ? 0 : ((Date) theField.getValue()).getTime();
+	}
+
+	/**
+	 * Digests the fields of a record, except the last access time which
+	 * changes by just looking at the record.
+	 */
+	private static byte[] digest(final PwsRecord aRecord) {
+		final ByteArrayOutputStream theBytes = new ByteArrayOutputStream();
+		for (final Iterator<Integer> i = aRecord.getFields(); i.hasNext();) {
+			final Integer theType = i.next();
+			if (theType.intValue() != PwsRecordV3.LAST_ACCESS_TIME) {
+				final byte[] theValue = aRecord.getField(theType).getBytes();
+				final byte[] theLength = new byte[4];
+				Util.putIntToByteArray(theLength, theValue.length, 0);
+				theBytes.write(theType.intValue());
+				theBytes.write(theLength, 0, theLength.length);
+				theBytes.write(theValue, 0, theValue.length);
+			}
+		}
+		final byte[] thePlain = theBytes.toByteArray();
+		final byte[] theDigest = new SHA256Pws().digest(thePlain);
+		Arrays.fill(thePlain, (byte) 0);
+		return theDigest;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.pwsafe.lib.Log;
+
+/**
+ * Reads the (encrypted) content of a file in the background, e.g. while the
+ * user types the passphrase. The content is only handed to the open that
+ * asked for it: the opener attaches the prefetch to its thread with
+ * {@link #attach(PwsFilePrefetch)} and {@link PwsFileStorage#load()} of the
+ * same file on that thread finds it in memory. Only one file is prefetched at
+ * a time, starting another one cancels the earlier prefetch. The content is
+ * used only if size and modification time of the file are still the same when
+ * it is loaded. Even looking at the file is done in the background, as this
+ * may be slow on a network share.
+ *
+ * @author roxon
+ */
+public final class PwsFilePrefetch {
+
+	private static final Log LOG = Log.getInstance(PwsFilePrefetch.class.getPackage().getName());
+
+	/** larger files are not held in memory in advance */
+	static final long MAX_SIZE = 32 * 1024 * 1024;
+
+	private static ExecutorService executor;
+
+	private static PwsFilePrefetch current;
+
+	/** the prefetch for the open on the current thread */
+	private static final ThreadLocal<PwsFilePrefetch> ATTACHED = new ThreadLocal<PwsFilePrefetch>();
+
+	private final String filename;
+	private final Future<Content> task;
+
+	/** set once the content has been handed to an open or dropped */
+	private boolean taken;
+
+	/** the content of a file with the size and time it had when read */
+	private static final class Content {
+		private final byte[] bytes;
+		private final long size;
+		private final long lastModified;
+
+		Content(final byte[] someBytes, final long aSize, final long aLastModified) {
+			bytes = someBytes;
+			size = aSize;
+			lastModified = aLastModified;
+		}
+	}
+
+	private PwsFilePrefetch(final String aFilename) {
+		filename = aFilename;
+		task = getExecutor().submit(new Callable<Content>() {
+			public Content call() throws IOException {
+				final long theStart = System.currentTimeMillis();
+				final File theFile = new File(filename);
+				final long theSize = theFile.length();
+				if (!theFile.isFile() || theSize > MAX_SIZE) {
+					return null;
+				}
+				final long theLastModified = theFile.lastModified();
+				final byte[] theBytes = new PwsFileStorage(filename).read();
+				LOG.debug1("Prefetched {} in {} ms", filename, Long.valueOf(System
+						.currentTimeMillis() - theStart));
+				return new Content(theBytes, theSize, theLastModified);
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable aRunnable) {
+					final Thread theThread = new Thread(aRunnable, "File prefetch");
+					theThread.setDaemon(true);
+					return theThread;
+				}
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Starts reading a file in the background, cancelling any prefetch of
+	 * another file. Returns the running prefetch if the file is already being
+	 * prefetched; nothing is read if it turns out to be missing or too large.
+	 *
+	 * @param aFilename the name of the file
+	 * @return the prefetch to attach to the open, null if the file is stored
+	 *         on S3
+	 */
+	public static synchronized PwsFilePrefetch start(final String aFilename) {
+		if (current != null && current.filename.equals(aFilename)) {
+			return current;
+		}
+		if (current != null) {
+			current.cancel();
+		}
+		if (aFilename.endsWith(PwsS3Storage.FILE_EXTENSION)) {
+			return null;
+		}
+		current = new PwsFilePrefetch(aFilename);
+		return current;
+	}
+
+	/**
+	 * Attaches a prefetch to the current thread, so that the next load of its
+	 * file on this thread takes the content.
+	 *
+	 * @param aPrefetch the prefetch or null to detach the current one
+	 */
+	public static void attach(final PwsFilePrefetch aPrefetch) {
+		if (aPrefetch == null) {
+			ATTACHED.remove();
+		} else {
+			ATTACHED.set(aPrefetch);
+		}
+	}
+
+	/**
+	 * Stops the prefetch and drops its content, e.g. when the user cancelled
+	 * the dialog.
+	 */
+	public void cancel() {
+		task.cancel(true);
+		synchronized (PwsFilePrefetch.class) {
+			taken = true;
+			if (current == this) {
+				current = null;
+			}
+		}
+	}
+
+	/**
+	 * @return true if the prefetch has ended, e.g. for tests
+	 */
+	boolean isDone() {
+		return task.isDone();
+	}
+
+	/**
+	 * Takes the content of a file prefetched for the open on the current
+	 * thread, waiting for the read to finish. The prefetch is detached and
+	 * dropped afterwards.
+	 *
+	 * @param aFilename the name of the file
+	 * @return the content or null if the file was not prefetched for this
+	 *         thread, could not be read or has changed since
+	 */
+	static byte[] take(final String aFilename) {
+		final PwsFilePrefetch thePrefetch = ATTACHED.get();
+		if (thePrefetch == null || !thePrefetch.filename.equals(aFilename)) {
+			return null;
+		}
+		ATTACHED.remove();
+		synchronized (PwsFilePrefetch.class) {
+			if (thePrefetch.taken) {
+				return null;
+			}
+			thePrefetch.taken = true;
+			if (current == thePrefetch) {
+				current = null;
+			}
+		}
+		final Content theContent;
+		try {
+			theContent = thePrefetch.task.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (final CancellationException e) {
+			return null;
+		} catch (final ExecutionException e) {
+			LOG.debug1("Prefetch of {} failed", aFilename);
+			return null;
+		}
+		if (theContent == null) {
+			return null;
+		}
+		final File theFile = new File(aFilename);
+		if (theContent.bytes.length != theContent.size || theFile.length() != theContent.size
+				|| theFile.lastModified() != theContent.lastModified) {
+			LOG.debug1("{} changed since the prefetch", aFilename);
+			return null;
+		}
+		return theContent.bytes;
+	}
+}
@@ -10,24 +10,32 @@
 package org.pwsafe.lib.file;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Date;
 
 import org.pwsafe.lib.I18nHelper;
 import org.pwsafe.lib.Log;
+import org.pwsafe.lib.exception.StorageException;
 
 /**
- * An implementation of the PwsStorage class that reads and writes to files.
+ * An implementation of the PwsStreamStorage interface that reads and writes to
+ * files.
  * 
  * @author mtiller
  * 
  */
-public class PwsFileStorage implements PwsStorage {
+public class PwsFileStorage implements PwsStreamStorage {
 
 	/**
 	 * Default file extension of the password safe file.
@@ -42,6 +50,9 @@ public class PwsFileStorage implements PwsStorage {
 	/** The filename used for storage */
 	private final String filename;
 
+	/** keeps the versions saved, null for none */
+	private volatile PwsVersionStore history;
+
 	/*
 	 * Build an implementation given the filename for the underlying storage.
 	 */
@@ -49,8 +60,20 @@ public class PwsFileStorage implements PwsStorage {
 		this.filename = filename;
 	}
 
-	/** Grab all the bytes in the file */
+	/**
+	 * Grab all the bytes in the file, taken from the {@link PwsFilePrefetch}
+	 * attached to the current thread if there is one.
+	 */
 	public byte[] load() throws IOException {
+		final byte[] thePrefetched = PwsFilePrefetch.take(filename);
+		if (thePrefetched != null) {
+			return thePrefetched;
+		}
+		return read();
+	}
+
+	/** Read all the bytes from the file */
+	byte[] read() throws IOException {
 		final File file = new File(filename);
 		final InputStream is = new BufferedInputStream(new FileInputStream(file));
 
@@ -83,78 +106,176 @@ public class PwsFileStorage implements PwsStorage {
 	}
 
 	/**
-	 * Takes the (encrypted) bytes and writes them out to the file.
-	 * 
-	 * This particular method takes steps to make sure that the original file is
-	 * not overwritten or deleted until the new file has been successfully
-	 * saved.
+	 * Opens the file for reading, the content prefetched for the current
+	 * thread if there is one.
 	 */
-	public boolean save(byte[] data) {
-		try {
-			LOG.debug1("Number of bytes to save = " + data.length);
-			LOG.debug1("Original file: " + filename);
-
-			final File file = new File(filename);
-			if (!file.exists()) {
-				/*
-				 * Original file doesn't exisit, just go ahead and write it (no
-				 * backup, temp files needed).
-				 */
-				final OutputStream OutStream = new FileOutputStream(file);
-
-				OutStream.write(data);
-				OutStream.close(); // TODO: needs a finally
-				return true;
+	public InputStream openInput() throws IOException {
+		final byte[] thePrefetched = PwsFilePrefetch.take(filename);
+		if (thePrefetched != null) {
+			return new ByteArrayInputStream(thePrefetched);
+		}
+		return new BufferedInputStream(new FileInputStream(filename));
+	}
+
+	/**
+	 * Opens the file for reading as a channel, the content prefetched for the
+	 * current thread if there is one.
+	 */
+	public ReadableByteChannel openChannel() throws IOException {
+		final byte[] thePrefetched = PwsFilePrefetch.take(filename);
+		if (thePrefetched != null) {
+			return Channels.newChannel(new ByteArrayInputStream(thePrefetched));
+		}
+		return new FileInputStream(filename).getChannel();
+	}
+
+	/**
+	 * Starts writing a temporary file next to the file. On commit the file is
+	 * renamed to the backup file <code>name~</code> and the temporary file
+	 * takes its place, so the original file is not overwritten or deleted
+	 * until the new one has been written completely.
+	 */
+	public PwsStorageTransaction beginWrite() throws IOException {
+		final File file = new File(filename);
+		LOG.debug1("Original file path: " + file.getAbsolutePath());
+		final File dir = file.getCanonicalFile().getParentFile();
+		if (dir == null) {
+			throw new StorageException("Couldn't find the parent directory for: "
+					+ file.getAbsolutePath());
+		}
+		return new FileTransaction(new File(dir, file.getName()), File.createTempFile("pwsafe",
+				null, dir), history);
+	}
+
+	/**
+	 * writes a temporary file and renames it on commit, then hands a copy of
+	 * the content kept in memory while writing to the history
+	 */
+	static final class FileTransaction implements PwsStorageTransaction {
+		private final File file;
+		private final File tempFile;
+		private final OutputStream outStream;
+		private final PwsVersionStore history;
+		/** the content written, null without history */
+		private final ByteArrayOutputStream snapshot;
+		private String contentHash;
+		private boolean ended;
+		/** the original is the backup now, the temporary file its only successor */
+		private boolean keepTempFile;
+
+		FileTransaction(final File aFile, final File aTempFile, final PwsVersionStore aHistory)
+				throws IOException {
+			file = aFile;
+			tempFile = aTempFile;
+			history = aHistory;
+			final OutputStream theFileStream = new FileOutputStream(aTempFile);
+			if (aHistory == null) {
+				snapshot = null;
+				outStream = new BufferedOutputStream(theFileStream);
+			} else {
+				snapshot = new ByteArrayOutputStream();
+				outStream = new BufferedOutputStream(new TeeOutputStream(theFileStream, snapshot));
 			}
-			LOG.debug1("Original file path: " + file.getAbsolutePath());
-			final File dir = file.getCanonicalFile().getParentFile();
-			if (dir == null) {
-				LOG.error("Couldn't find the parent directory for: " + file.getAbsolutePath());
-				return false;
+		}
+
+		/**
+		 * Sets the digest the history tells this content by, see
+		 * {@link PwsVersionStore#add(byte[], String)}.
+		 * 
+		 * @param aHash the hex digest
+		 */
+		void setContentHash(final String aHash) {
+			contentHash = aHash;
+		}
+
+		public OutputStream getOutputStream() {
+			return outStream;
+		}
+
+		public void commit() throws StorageException {
+			if (ended) {
+				throw new IllegalStateException("Transaction already ended");
 			}
-			final String FilePath = dir.getAbsolutePath();
-			final String FileName = file.getName();
-
-			final File oldFile = new File(FilePath, FileName);
-			final File bakFile = new File(FilePath, FileName + "~");
-
-			if (bakFile.exists()) {
-				if (!bakFile.delete()) {
-					LOG.error(I18nHelper.getInstance().formatMessage("E00012",
-							new Object[] { bakFile.getCanonicalPath() }));
-					// TODO Throw an exception here
-					return false;
+			ended = true;
+			boolean isCommitted = false;
+			try {
+				outStream.close();
+				replaceFile();
+				isCommitted = true;
+				if (history != null) {
+					history.add(snapshot.toByteArray(), contentHash);
+				}
+			} catch (final StorageException e) {
+				throw e;
+			} catch (final IOException e) {
+				throw new StorageException("Could not write " + tempFile, e);
+			} finally {
+				if (!isCommitted && !keepTempFile) {
+					deleteTempFile();
 				}
 			}
+		}
 
-			final File tempFile = File.createTempFile("pwsafe", null, new File(FilePath));
-			final OutputStream OutStream = new FileOutputStream(tempFile);
-
-			OutStream.write(data);
-			OutStream.close(); // TODO: needs a finally
-
-			if (oldFile.exists()) {
-				if (!oldFile.renameTo(bakFile)) {
-					LOG.error(I18nHelper.getInstance().formatMessage("E00011",
-							new Object[] { tempFile.getCanonicalPath() }));
-					// TODO Throw an exception here?
-					return false;
+		/** keeps the original as backup and renames the temporary file */
+		private void replaceFile() throws IOException {
+			final File bakFile = new File(file.getParentFile(), file.getName() + "~");
+			if (file.exists()) {
+				if (bakFile.exists() && !bakFile.delete()) {
+					throw new StorageException(I18nHelper.getInstance().formatMessage(
+							"E00012", new Object[] { bakFile.getCanonicalPath() }));
+				}
+				if (!file.renameTo(bakFile)) {
+					throw new StorageException(I18nHelper.getInstance().formatMessage(
+							"E00011", new Object[] { tempFile.getCanonicalPath() }));
 				}
 				LOG.debug1("Old file successfully renamed to " + bakFile.getCanonicalPath());
+				keepTempFile = true;
+			}
+			if (!tempFile.renameTo(file)) {
+				throw new StorageException(I18nHelper.getInstance().formatMessage("E00010",
+						new Object[] { tempFile.getCanonicalPath() }));
 			}
+			LOG.debug1("Temp file successfully renamed to " + file.getCanonicalPath());
+		}
 
-			if (tempFile.renameTo(oldFile)) {
+		public void abort() {
+			if (ended) {
+				return; // cleaned up by the failed commit
+			}
+			ended = true;
+			deleteTempFile();
+		}
 
-				LOG.debug1("Temp file successfully renamed to " + oldFile.getCanonicalPath());
-				return true;
-			} else {
-				LOG.error(I18nHelper.getInstance().formatMessage("E00010",
-						new Object[] { tempFile.getCanonicalPath() }));
-				// TODO Throw an exception here?
-				return false;
+		private void deleteTempFile() {
+			try {
+				outStream.close();
+			} catch (final IOException e) {
+				// deleted anyway
+			}
+			if (!tempFile.delete()) {
+				LOG.warn("Could not delete " + tempFile);
 			}
-		} catch (final Exception e) {
+		}
+	}
+
+	/**
+	 * Takes the (encrypted) bytes and writes them out to the file, see
+	 * {@link #beginWrite()}.
+	 */
+	public boolean save(byte[] data) {
+		LOG.debug1("Number of bytes to save = " + data.length);
+		LOG.debug1("Original file: " + filename);
+		PwsStorageTransaction theTransaction = null;
+		try {
+			theTransaction = beginWrite();
+			theTransaction.getOutputStream().write(data);
+			theTransaction.commit();
+			return true;
+		} catch (final IOException e) {
 			LOG.error(e.getMessage());
+			if (theTransaction != null) {
+				theTransaction.abort();
+			}
 			return false;
 		}
 	}
@@ -169,6 +290,23 @@ public class PwsFileStorage implements PwsStorage {
 		return filename;
 	}
 
+	/**
+	 * Keeps the versions saved from now on in a history, in the background
+	 * after each save has been committed.
+	 * 
+	 * @param aHistory the history or null to keep none
+	 */
+	public void setHistory(final PwsVersionStore aHistory) {
+		history = aHistory;
+	}
+
+	/**
+	 * @return the history of the versions saved or null if none is kept
+	 */
+	public PwsVersionStore getHistory() {
+		return history;
+	}
+
 	public void setPassphrase(String passphrase) {
 		/*
 		 * Do nothing since there is no additional encrypted information
@@ -189,4 +327,27 @@ public class PwsFileStorage implements PwsStorage {
 		return modified;
 	}
 
+	/** writes to the file and to a copy in memory */
+	private static final class TeeOutputStream extends FilterOutputStream {
+
+		private final OutputStream copy;
+
+		TeeOutputStream(final OutputStream aStream, final OutputStream aCopy) {
+			super(aStream);
+			copy = aCopy;
+		}
+
+		@Override
+		public void write(final int aByte) throws IOException {
+			out.write(aByte);
+			copy.write(aByte);
+		}
+
+		@Override
+		public void write(final byte[] someBytes, final int anOffset, final int aLength)
+				throws IOException {
+			out.write(someBytes, anOffset, aLength);
+			copy.write(someBytes, anOffset, aLength);
+		}
+	}
 }
@@ -9,8 +9,6 @@
  */
 package org.pwsafe.lib.file;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ConcurrentModificationException;
@@ -24,6 +22,9 @@ import org.pwsafe.lib.crypto.SHA1;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.PasswordSafeException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
+import org.pwsafe.lib.metrics.PwsMetric;
+import org.pwsafe.lib.metrics.PwsMetrics;
+import org.pwsafe.lib.metrics.PwsTrace;
 
 /**
  * Superclass for common functionality for V1 and V2 Files.
@@ -88,6 +89,16 @@ public abstract class PwsFileV1V2 extends PwsFile {
 		return 8;
 	}
 
+	/**
+	 * The file is read from the storage stream while its records are read.
+	 * 
+	 * @return the number of bytes read from the storage so far
+	 */
+	@Override
+	long getOpenedSize() {
+		return bytesRead;
+	}
+
 	/**
 	 * Returns the file header.
 	 * 
@@ -137,13 +148,18 @@ public abstract class PwsFileV1V2 extends PwsFile {
 		setPassphrase(new StringBuilder(aPassphrase));
 
 		if (storage != null) {
-			inStream = new ByteArrayInputStream(storage.load());
+			inStream = PwsStorageAdapter.forStorage(storage).openInput();
 			lastStorageChange = storage.getModifiedDate();
 		}
-		header = new PwsFileHeader(this);
-		algorithm = makeBlowfish(aPassphrase.getBytes());
+		try {
+			header = new PwsFileHeader(this);
+			algorithm = makeBlowfish(aPassphrase.getBytes());
 
-		readExtraHeader(this);
+			readExtraHeader(this);
+		} catch (final IOException e) {
+			close(); // the storage stream
+			throw e;
+		}
 
 		LOG.leaveMethod("PwsFile.init");
 	}
@@ -166,6 +182,7 @@ public abstract class PwsFileV1V2 extends PwsFile {
 			throw new IllegalArgumentException(I18nHelper.getInstance().formatMessage("E00001"));
 		}
 		readBytes(buff);
+		PwsMetrics.count(PwsMetric.BYTES_DECRYPTED, buff.length);
 		try {
 			algorithm.decrypt(buff);
 		} catch (final PasswordSafeException e) {
@@ -177,7 +194,9 @@ public abstract class PwsFileV1V2 extends PwsFile {
 	 * Writes this file back to the filesystem. If successful the modified flag
 	 * is also reset on the file and all records.
 	 * 
-	 * @throws IOException if the attempt fails.
+	 * @throws IOException if the attempt fails, a
+	 *         {@link org.pwsafe.lib.exception.StorageException} if the storage
+	 *         could not replace its content.
 	 * @throws NoSuchAlgorithmException if no SHA-1 implementation is found.
 	 * @throws ConcurrentModificationException if the underlying store was
 	 *         independently changed
@@ -195,14 +214,21 @@ public abstract class PwsFileV1V2 extends PwsFile {
 					"Password store was changed independently - no save possible!");
 		}
 
-		// For safety we'll write to a temporary file which will be renamed to
-		// the
-		// real name if we manage to write it successfully.
+		notifySaveListeners();
+
+		// The storage replaces its content only if we manage to write it
+		// completely.
 
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		outStream = baos;
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SAVE);
+		final PwsStorageTransaction theTransaction = PwsStorageAdapter.forStorage(storage)
+				.beginWrite();
+		boolean isCommitted = false;
+		final CountingOutputStream theStream = new CountingOutputStream(theTransaction
+				.getOutputStream());
+		outStream = theStream;
 
 		try {
+			long theStart = PwsMetrics.start();
 			header.save(this);
 
 			// Can only be created once the V1 header's been written.
@@ -218,30 +244,20 @@ public abstract class PwsFileV1V2 extends PwsFile {
 				rec.saveRecord(this);
 			}
 
-			outStream.close();
-
-			if (storage.save(baos.toByteArray())) {
-				modified = false;
-				lastStorageChange = storage.getModifiedDate();
-			} else {
-				// FIXME: I'm not sure what this message should be, but it
-				// should
-				// reflect the fact that storage failed, not anything about a
-				// temp file.
-				LOG.error(I18nHelper.getInstance().formatMessage("E00010",
-						new Object[] { "Storage file" }));
-				// TODO Throw an exception here?
-				return;
-			}
-		} catch (final IOException e) {
-			try {
-				outStream.close();
-			} catch (final Exception e2) {
-				// do nothing we're going to throw the original exception
-			}
-			throw e;
+			PwsMetrics.stop(PwsMetric.SAVE_ENCRYPT, theStart);
+
+			theStart = PwsMetrics.start();
+			theTransaction.commit();
+			isCommitted = true;
+			PwsMetrics.stop(PwsMetric.SAVE_WRITE, theStart);
+			modified = false;
+			lastStorageChange = storage.getModifiedDate();
 		} finally {
+			if (!isCommitted) {
+				theTransaction.abort();
+			}
 			outStream = null;
+			theTrace.end(getRecordCount(), theStream.getCount());
 			algorithm = null;
 		}
 	}
@@ -10,21 +10,29 @@
 package org.pwsafe.lib.file;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.SealedObject;
 
+import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.pwsafe.lib.I18nHelper;
 import org.pwsafe.lib.Log;
+import org.pwsafe.lib.PwsProgressMonitor;
 import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.HmacPws;
 import org.pwsafe.lib.crypto.SHA256Pws;
@@ -32,6 +40,9 @@ import org.pwsafe.lib.crypto.TwofishPws;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.MemoryKeyException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
+import org.pwsafe.lib.metrics.PwsMetric;
+import org.pwsafe.lib.metrics.PwsMetrics;
+import org.pwsafe.lib.metrics.PwsTrace;
 
 /**
  * Encapsulates version 3 PasswordSafe files.
@@ -77,6 +88,42 @@ public final class PwsFileV3 extends PwsFile {
 	HmacPws hasher;
 	PwsRecordV3 headerRecord;
 
+	/**
+	 * The digest of the decrypted content written, only while saving.
+	 */
+	private SHA256Digest contentDigest;
+
+	/**
+	 * Whether an index sidecar is written on save, see {@link PwsIndexFile}.
+	 */
+	private boolean indexSidecar = false;
+
+	/**
+	 * The raw content of the storage, kept while the records are read.
+	 */
+	private byte[] rawData;
+
+	/**
+	 * Set while the records are known from an index sidecar only and have not
+	 * been read from the file yet.
+	 */
+	private volatile DeferredRecords deferredRecords;
+
+	private volatile RuntimeException deferredFailure;
+
+	/**
+	 * The raw file content and the offsets of the records not read yet.
+	 */
+	private static final class DeferredRecords {
+		final byte[] data;
+		final int[] offsets;
+
+		DeferredRecords(final byte[] someData, final int[] someOffsets) {
+			data = someData;
+			offsets = someOffsets;
+		}
+	}
+
 	/**
 	 * Constructs and initialises a new, empty version 3 PasswordSafe database
 	 * in memory.
@@ -110,6 +157,23 @@ public final class PwsFileV3 extends PwsFile {
 		super(storage, aPassphrase);
 	}
 
+	/**
+	 * Creates a reader for a single record of an opened file.
+	 * 
+	 * @param someData the raw file content
+	 * @param anOffset the offset of the record
+	 * @param aRecordKey the record key of the file
+	 * @param anHmacKey the HMAC key of the file
+	 */
+	private PwsFileV3(final byte[] someData, final int anOffset, final byte[] aRecordKey,
+			final byte[] anHmacKey) {
+		super();
+		inStream = new ByteArrayInputStream(someData, anOffset, someData.length - anOffset);
+		twofishCbc = new TwofishPws(aRecordKey, false, Util.getBytes(someData, anOffset
+				- getBlockSize(), getBlockSize()));
+		hasher = new HmacPws(anHmacKey);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -117,7 +181,25 @@ public final class PwsFileV3 extends PwsFile {
 	 */
 	@Override
 	public void dispose() {
+		deferredRecords = null;
+		rawData = null;
 		super.dispose();
+		wipeKeys();
+	}
+
+	/**
+	 * Wipes the file keys as well, they are derived from the passphrase again
+	 * when the file is saved.
+	 * 
+	 * @see org.pwsafe.lib.file.PwsFile#lock()
+	 */
+	@Override
+	public void lock() {
+		super.lock();
+		wipeKeys();
+	}
+
+	private void wipeKeys() {
 		if (stretchedPassword != null) {
 			Arrays.fill(stretchedPassword, (byte) 0);
 		}
@@ -127,6 +209,8 @@ public final class PwsFileV3 extends PwsFile {
 		if (decryptedRecordKey != null) {
 			Arrays.fill(decryptedRecordKey, (byte) 0);
 		}
+		hasher = null;
+		twofishCbc = null;
 	}
 
 	@Override
@@ -137,29 +221,19 @@ public final class PwsFileV3 extends PwsFile {
 		setPassphrase(new StringBuilder(aPassphrase));
 
 		if (storage != null) {
-			inStream = new ByteArrayInputStream(storage.load());
+			rawData = storage.load();
+			inStream = new ByteArrayInputStream(rawData);
+			openedSize = rawData.length;
 			lastStorageChange = storage.getModifiedDate();
 		}
 		final PwsFileHeaderV3 theHeaderV3 = new PwsFileHeaderV3(this);
 
 		setHeaderV3(theHeaderV3);
 
-		final int iter = theHeaderV3.getIter();
-		LOG.debug1("Using iterations: [" + iter + "]");
-		final SHA256Pws shaHasher = new SHA256Pws();
-		stretchedPassword = Util.stretchPassphrase(aPassphrase.getBytes(), theHeaderV3.getSalt(),
-				iter);
-
-		if (!Util.bytesAreEqual(theHeaderV3.getPassword(), shaHasher.digest(stretchedPassword))) {
-			// try another method to avoid asymmetric encoding bug in V0.8 Beta1
-			final CharBuffer buf = CharBuffer.wrap(aPassphrase);
-			stretchedPassword = Util.stretchPassphrase(
-					Charset.defaultCharset().encode(buf).array(), theHeaderV3.getSalt(), iter);
-			if (Util.bytesAreEqual(theHeaderV3.getPassword(), shaHasher.digest(stretchedPassword))) {
-				LOG.warn("Succeeded workaround for asymmetric password encoding bug");
-			} else {
-				throw new IOException("Invalid password");
-			}
+		LOG.debug1("Using iterations: [{}]", theHeaderV3.getIter());
+		stretchedPassword = stretchPassphrase(aPassphrase, theHeaderV3);
+		if (stretchedPassword == null) {
+			throw new IOException("Invalid password");
 		}
 
 		try {
@@ -184,11 +258,243 @@ public final class PwsFileV3 extends PwsFile {
 		LOG.leaveMethod("PwsFileV3.init");
 	}
 
+	/**
+	 * Stretches a passphrase with the salt and iterations of a file header and
+	 * checks it against the header. The encoding of the V0.8 Beta1 bug is
+	 * stretched at the same time on a thread of the {@link PwsStoreOpener} if
+	 * there is more than one processor, so a wrong passphrase costs the time
+	 * of one stretching only. If no thread of the opener is free it is
+	 * stretched afterwards on the current thread.
+	 * 
+	 * @param aPassphrase the passphrase
+	 * @param aHeader the header of the file
+	 * @return the stretched passphrase or null if it is not the one of the file
+	 * @throws CancellationException if cancelled by the monitor attached to
+	 *         the current thread
+	 */
+	static byte[] stretchPassphrase(final String aPassphrase, final PwsFileHeaderV3 aHeader) {
+		final PwsProgressMonitor theMonitor = PwsProgressMonitor.current();
+		final byte[] thePassphrase = aPassphrase.getBytes();
+		// try another method to avoid asymmetric encoding bug in V0.8 Beta1
+		final CharBuffer buf = CharBuffer.wrap(aPassphrase);
+		final byte[] theBuggyPassphrase = Charset.defaultCharset().encode(buf).array();
+		if (Arrays.equals(thePassphrase, theBuggyPassphrase)) {
+			return checkStretched(Util.stretchPassphrase(thePassphrase, aHeader.getSalt(),
+					aHeader.getIter(), theMonitor), aHeader);
+		}
+		if (Runtime.getRuntime().availableProcessors() < 2) {
+			final byte[] theStretched = checkStretched(Util.stretchPassphrase(thePassphrase,
+					aHeader.getSalt(), aHeader.getIter(), theMonitor), aHeader);
+			if (theStretched != null) {
+				return theStretched;
+			}
+			return checkWorkaround(Util.stretchPassphrase(theBuggyPassphrase, aHeader.getSalt(),
+					aHeader.getIter(), theMonitor), aHeader);
+		}
+
+		final AtomicBoolean theFinished = new AtomicBoolean();
+		final FutureTask<byte[]> theWorkaround = new FutureTask<byte[]>(new Callable<byte[]>() {
+			public byte[] call() {
+				return Util.stretchPassphrase(theBuggyPassphrase, aHeader.getSalt(), aHeader
+						.getIter(), new PwsProgressMonitor() {
+					@Override
+					public void progress(final long aDone, final long aTotal) {
+						// reported by the main encoding
+					}
+
+					@Override
+					public boolean isCanceled() {
+						return theFinished.get() || theMonitor != null && theMonitor.isCanceled();
+					}
+				});
+			}
+		});
+		PwsStoreOpener.execute(theWorkaround);
+		try {
+			final byte[] theStretched = checkStretched(Util.stretchPassphrase(thePassphrase,
+					aHeader.getSalt(), aHeader.getIter(), theMonitor), aHeader);
+			if (theStretched != null) {
+				return theStretched;
+			}
+			theWorkaround.run(); // unless a thread of the pool got to it
+			return checkWorkaround(theWorkaround.get(), aHeader);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Key stretching interrupted");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			theFinished.set(true);
+			theWorkaround.cancel(false);
+		}
+	}
+
+	private static byte[] checkStretched(final byte[] aStretched, final PwsFileHeaderV3 aHeader) {
+		if (Util.bytesAreEqual(aHeader.getPassword(), new SHA256Pws().digest(aStretched))) {
+			return aStretched;
+		}
+		Arrays.fill(aStretched, (byte) 0);
+		return null;
+	}
+
+	private static byte[] checkWorkaround(final byte[] aStretched, final PwsFileHeaderV3 aHeader) {
+		final byte[] theStretched = checkStretched(aStretched, aHeader);
+		if (theStretched != null) {
+			LOG.warn("Succeeded workaround for asymmetric password encoding bug");
+		}
+		return theStretched;
+	}
+
+	/**
+	 * Reads the index sidecar of this file, if there is one matching the
+	 * current content of the file. Must be called right after opening the
+	 * file.
+	 * 
+	 * @return the index or null if there is no usable index
+	 */
+	PwsIndexFile readIndex() {
+		final File theIndexFile = PwsIndexFile.getIndexFile(storage);
+		if (theIndexFile == null || !theIndexFile.isFile() || rawData == null
+				|| rawData.length < 32) {
+			return null;
+		}
+		try {
+			return PwsIndexFile.read(theIndexFile, Util.getBytes(rawData, rawData.length - 32,
+					32), decryptedHmacKey);
+		} catch (final IOException e) {
+			LOG.warn("Could not read index " + theIndexFile + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Defers reading the records of the file. Until they are read, single
+	 * records are decrypted on demand from the offsets given by the index,
+	 * everything else reads all records first.
+	 * 
+	 * @param anIndex the index matching this file
+	 */
+	void deferRecords(final PwsIndexFile anIndex) {
+		deferredRecords = new DeferredRecords(rawData, anIndex.getOffsets());
+	}
+
+	/**
+	 * Reads the deferred records in the background, on the pool of the
+	 * {@link PwsStoreOpener} opening this file or the shared one.
+	 */
+	void completeLoadingInBackground() {
+		PwsStoreOpener.execute(new Runnable() {
+			public void run() {
+				try {
+					completeLoading();
+				} catch (final RuntimeException e) {
+					// completeLoading has logged it and rethrows on next access
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return true if the records are still to be read from the file
+	 */
+	public boolean isLoadingDeferred() {
+		return deferredRecords != null;
+	}
+
+	@Override
+	protected void completeLoading() {
+		if (deferredRecords == null && deferredFailure == null) {
+			return;
+		}
+		synchronized (this) {
+			if (deferredFailure != null) {
+				throw deferredFailure;
+			}
+			final DeferredRecords theDeferred = deferredRecords;
+			if (theDeferred == null) {
+				return;
+			}
+			try {
+				readAll();
+				close();
+				if (sealedRecords.size() != theDeferred.offsets.length) {
+					throw new IOException("File has " + sealedRecords.size()
+							+ " records, index " + theDeferred.offsets.length);
+				}
+			} catch (final Exception e) {
+				LOG.error("Reading the deferred records failed", e);
+				sealedRecords.clear();
+				deferredFailure = new IllegalStateException("Reading the records failed", e);
+			} finally {
+				deferredRecords = null;
+				rawData = null;
+			}
+			if (deferredFailure != null) {
+				throw deferredFailure;
+			}
+		}
+	}
+
+	@Override
+	public PwsRecord getRecord(final int index) {
+		final DeferredRecords theDeferred = deferredRecords;
+		if (theDeferred != null) {
+			try {
+				return PwsRecord.read(new PwsFileV3(theDeferred.data,
+						theDeferred.offsets[index], decryptedRecordKey, decryptedHmacKey));
+			} catch (final Exception e) {
+				throw new IllegalStateException("Could not read record " + index, e);
+			}
+		}
+		return super.getRecord(index);
+	}
+
+	@Override
+	public int getRecordCount() {
+		final DeferredRecords theDeferred = deferredRecords;
+		if (theDeferred != null) {
+			return theDeferred.offsets.length;
+		}
+		return super.getRecordCount();
+	}
+
+	@Override
+	void close() throws IOException {
+		super.close();
+		if (deferredRecords == null) {
+			rawData = null;
+		}
+	}
+
+	/**
+	 * @return whether an index sidecar is written on save
+	 */
+	public boolean isIndexSidecar() {
+		return indexSidecar;
+	}
+
+	/**
+	 * Sets whether an encrypted index sidecar is written next to the file on
+	 * save, see {@link PwsIndexFile}. If not, an existing sidecar is removed
+	 * on save.
+	 * 
+	 * @param anIndexSidecar true to write a sidecar
+	 */
+	public void setIndexSidecar(final boolean anIndexSidecar) {
+		indexSidecar = anIndexSidecar;
+	}
+
 	/**
 	 * Writes this file back to the filesystem. If successful the modified flag
-	 * is also reset on the file and all records.
+	 * is also reset on the file and all records. The file is written straight
+	 * into a {@link PwsStorageTransaction} of the storage.
 	 * 
-	 * @throws IOException if the attempt fails.
+	 * @throws IOException if the attempt fails, a
+	 *         {@link org.pwsafe.lib.exception.StorageException} if the storage
+	 *         could not replace its content.
 	 */
 	@Override
 	public void save() throws IOException {
@@ -202,53 +508,146 @@ public final class PwsFileV3 extends PwsFile {
 					"Password store was changed independently - no save possible!");
 		}
 
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		outStream = baos;
-
-		try {
-			final PwsFileHeaderV3 theHeaderV3 = getHeaderV3();
-			theHeaderV3.save(this);
-
-			// Can only be created once the V3 header resets key info
+		completeLoading();
+		notifySaveListeners();
 
-			twofishCbc = new TwofishPws(decryptedRecordKey, true, theHeaderV3.getIV());
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SAVE);
+		final PwsStorageTransaction theTransaction = PwsStorageAdapter.forStorage(storage)
+				.beginWrite();
+		boolean isCommitted = false;
+		final CountingOutputStream theStream = new CountingOutputStream(theTransaction
+				.getOutputStream());
 
-			writeExtraHeader(this);
+		try {
+			long theStart = PwsMetrics.start();
+			contentDigest = new SHA256Digest();
+			beginWrite(theStream);
 
+			final PwsIndexFile theIndex = indexSidecar ? new PwsIndexFile() : null;
 			PwsRecordV3 rec;
 			for (final Iterator<? extends PwsRecord> iter = getRecords(); iter.hasNext();) {
 				rec = (PwsRecordV3) iter.next();
 				if (!rec.isHeaderRecord()) {
+					if (theIndex != null) {
+						theIndex.addRecord(theStream.getCount(), rec);
+					}
 					rec.saveRecord(this);
 				}
 			}
 
-			outStream.write(PwsRecordV3.EOF_BYTES_RAW);
-			outStream.write(hasher.doFinal());
+			final byte[] theHmac = endWrite();
+			if (theTransaction instanceof PwsFileStorage.FileTransaction) {
+				((PwsFileStorage.FileTransaction) theTransaction).setContentHash(endContentDigest());
+			}
+			PwsMetrics.stop(PwsMetric.SAVE_ENCRYPT, theStart);
 
-			outStream.close();
+			theStart = PwsMetrics.start();
+			theTransaction.commit();
+			isCommitted = true;
+			PwsMetrics.stop(PwsMetric.SAVE_WRITE, theStart);
+			modified = false;
+			lastStorageChange = storage.getModifiedDate();
+			theStart = PwsMetrics.start();
+			writeIndex(theIndex, theHmac);
+			PwsMetrics.stop(PwsMetric.SAVE_INDEX, theStart);
+		} finally {
+			if (!isCommitted) {
+				theTransaction.abort();
+			}
+			outStream = null;
+			contentDigest = null;
+			theTrace.end(getRecordCount(), theStream.getCount());
+		}
+	}
 
-			if (storage.save(baos.toByteArray())) {
-				modified = false;
-				lastStorageChange = storage.getModifiedDate();
-			} else {
-				// FIXME: What is the proper error code (see PwsFile::save).
-				LOG.error(I18nHelper.getInstance().formatMessage("E00010",
-						new Object[] { "Storage" }));
-				// TODO Throw an exception here?
-				return;
+	/**
+	 * Starts writing this file to a stream: writes the header, which derives
+	 * new keys from the passphrase, and the header record.
+	 * 
+	 * @param aStream the stream to write to
+	 * @throws IOException if writing fails
+	 */
+	void beginWrite(final OutputStream aStream) throws IOException {
+		outStream = aStream;
+		final PwsFileHeaderV3 theHeaderV3 = getHeaderV3();
+		theHeaderV3.save(this);
+		final byte[] thePassword = theHeaderV3.getPassword();
+		digestContent(thePassword, thePassword.length);
+
+		// Can only be created once the V3 header resets key info
+
+		twofishCbc = new TwofishPws(decryptedRecordKey, true, theHeaderV3.getIV());
+
+		writeExtraHeader(this);
+	}
+
+	/**
+	 * Ends writing this file: writes the end of file marker and the HMAC over
+	 * all written fields and closes the stream.
+	 * 
+	 * @return the HMAC
+	 * @throws IOException if writing fails
+	 */
+	byte[] endWrite() throws IOException {
+		outStream.write(PwsRecordV3.EOF_BYTES_RAW);
+		final byte[] theHmac = hasher.doFinal();
+		outStream.write(theHmac);
+
+		outStream.close();
+		return theHmac;
+	}
+
+	/**
+	 * Adds decrypted content being saved to the digest of the content, see
+	 * {@link #endContentDigest()}.
+	 * 
+	 * @param someBytes the content
+	 * @param aLength the number of bytes to digest, without padding
+	 */
+	void digestContent(final byte[] someBytes, final int aLength) {
+		if (contentDigest != null) {
+			contentDigest.update(someBytes, 0, aLength);
+		}
+	}
+
+	/**
+	 * Ends the digest of the content saved, by which the version history
+	 * tells saves apart: the keys and thus the encrypted bytes are new on
+	 * every save, so the digest is taken over the hash of the stretched
+	 * passphrase, which changes with the passphrase only, and the decrypted
+	 * fields instead.
+	 * 
+	 * @return the hex digest
+	 */
+	private String endContentDigest() {
+		final byte[] theHash = new byte[contentDigest.getDigestSize()];
+		contentDigest.doFinal(theHash, 0);
+		return Util.bytesToHex(theHash);
+	}
+
+	/**
+	 * Writes or removes the index sidecar after a successful save. Failures
+	 * are logged only, the index is just an optimisation.
+	 * 
+	 * @param anIndex the index or null if no index is wanted
+	 * @param aFileHmac the closing HMAC of the saved file
+	 */
+	private void writeIndex(final PwsIndexFile anIndex, final byte[] aFileHmac) {
+		final File theIndexFile = PwsIndexFile.getIndexFile(storage);
+		if (theIndexFile == null) {
+			return;
+		}
+		if (anIndex == null) {
+			if (theIndexFile.exists() && !theIndexFile.delete()) {
+				LOG.warn("Could not remove index " + theIndexFile);
 			}
+			return;
+		}
+		try {
+			anIndex.write(theIndexFile, aFileHmac, decryptedHmacKey);
 		} catch (final IOException e) {
-			try {
-				if (outStream != null) {
-					outStream.close();
-				}
-			} catch (final Exception e2) {
-				// do nothing we're going to throw the original exception
-			}
-			throw e;
-		} finally {
-			outStream = null;
+			LOG.warn("Could not write index " + theIndexFile + ": " + e.getMessage());
+			theIndexFile.delete();
 		}
 	}
 
@@ -325,6 +724,7 @@ public final class PwsFileV3 extends PwsFile {
 		if (Util.bytesAreEqual(buff, EOF_BYTES_RAW)) {
 			throw new EndOfFileException();
 		}
+		PwsMetrics.count(PwsMetric.BYTES_DECRYPTED, buff.length);
 
 		byte[] decrypted;
 		try {
@@ -0,0 +1,192 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.HmacPws;
+import org.pwsafe.lib.crypto.TwofishPws;
+import org.pwsafe.lib.exception.EndOfFileException;
+import org.pwsafe.lib.exception.InvalidPassphraseException;
+
+/**
+ * Checks the integrity of a V3 file without loading it: the file is decrypted
+ * block by block while the closing HMAC is computed, no record is created and
+ * the memory used does not depend on the size of the file.
+ * <p>
+ * From the command line, with the passphrase as the first line of standard
+ * input:
+ * </p>
+ *
+ * <pre>
+ * java -cp passwordsafe-lib.jar:lib/* org.pwsafe.lib.file.PwsFileV3Verifier file...
+ * </pre>
+ *
+ * The exit code is 0 if all files are intact, 1 otherwise.
+ *
+ * @author roxon
+ */
+public final class PwsFileV3Verifier {
+
+	private static final int BLOCK_LENGTH = 16;
+	private static final int HEADER_LENGTH = 4 + 32 + 4 + 32 + 4 * 16 + 16;
+	private static final int HMAC_LENGTH = 32;
+
+	/** the type of the field ending a record */
+	private static final int END_OF_RECORD = 0xff;
+
+	private PwsFileV3Verifier() {
+	}
+
+	/**
+	 * Verifies a file.
+	 *
+	 * @param aFile the file
+	 * @param aPassphrase the passphrase of the file
+	 * @return the number of records in the file
+	 * @throws InvalidPassphraseException if the passphrase is wrong
+	 * @throws IOException if the file cannot be read, is no V3 file, is
+	 *         truncated or has been tampered with
+	 */
+	public static int verify(final File aFile, final StringBuilder aPassphrase)
+			throws InvalidPassphraseException, IOException {
+		final InputStream theStream = new BufferedInputStream(new FileInputStream(aFile));
+		try {
+			return verify(theStream, aPassphrase);
+		} finally {
+			theStream.close();
+		}
+	}
+
+	/**
+	 * Verifies a file read from a stream, the stream is not closed.
+	 *
+	 * @param aStream the content of the file
+	 * @param aPassphrase the passphrase of the file
+	 * @return the number of records in the file
+	 * @throws InvalidPassphraseException if the passphrase is wrong
+	 * @throws IOException if the file cannot be read, is no V3 file, is
+	 *         truncated or has been tampered with
+	 */
+	public static int verify(final InputStream aStream, final StringBuilder aPassphrase)
+			throws InvalidPassphraseException, IOException {
+		final DataInputStream theInput = new DataInputStream(aStream);
+		final byte[] theHeaderBytes = new byte[HEADER_LENGTH];
+		theInput.readFully(theHeaderBytes);
+		final PwsFileHeaderV3 theHeader;
+		try {
+			theHeader = new PwsFileHeaderV3(new ByteArrayInputStream(theHeaderBytes));
+		} catch (final EndOfFileException e) {
+			throw new IOException("Truncated header");
+		}
+		if (!Util.bytesAreEqual(theHeader.getTag(), PwsFileV3.ID_STRING)) {
+			throw new IOException("Not a V3 file");
+		}
+
+		final byte[] theStretched = PwsFileV3.stretchPassphrase(aPassphrase.toString(),
+				theHeader);
+		if (theStretched == null) {
+			throw new InvalidPassphraseException();
+		}
+		final byte[] theRecordKey = Util.mergeBytes(TwofishPws.processECB(theStretched, false,
+				theHeader.getB1()), TwofishPws.processECB(theStretched, false, theHeader.getB2()));
+		final byte[] theHmacKey = Util.mergeBytes(TwofishPws.processECB(theStretched, false,
+				theHeader.getB3()), TwofishPws.processECB(theStretched, false, theHeader.getB4()));
+		try {
+			return verifyFields(theInput, new TwofishPws(theRecordKey, false, theHeader.getIV()),
+					new HmacPws(theHmacKey));
+		} finally {
+			Arrays.fill(theStretched, (byte) 0);
+			Arrays.fill(theRecordKey, (byte) 0);
+			Arrays.fill(theHmacKey, (byte) 0);
+		}
+	}
+
+	private static int verifyFields(final DataInputStream anInput, final TwofishPws aCipher,
+			final HmacPws anHmac) throws IOException {
+		final byte[] theBlock = new byte[BLOCK_LENGTH];
+		int theEndOfRecords = 0;
+		for (;;) {
+			anInput.readFully(theBlock);
+			if (Util.bytesAreEqual(theBlock, PwsFileV3.EOF_BYTES_RAW)) {
+				break;
+			}
+			byte[] thePlain = aCipher.processCBC(theBlock);
+			final int theLength = Util.getIntFromByteArray(thePlain, 0);
+			if (theLength < 0) {
+				throw new IOException("Corrupt field length " + theLength);
+			}
+			if ((thePlain[4] & 0xff) == END_OF_RECORD) {
+				theEndOfRecords++;
+			}
+			int theRemaining = theLength;
+			int theChunk = Math.min(theRemaining, BLOCK_LENGTH - 5);
+			anHmac.digest(thePlain, 5, theChunk);
+			theRemaining -= theChunk;
+			while (theRemaining > 0) {
+				anInput.readFully(theBlock);
+				if (Util.bytesAreEqual(theBlock, PwsFileV3.EOF_BYTES_RAW)) {
+					throw new IOException("End of file within a field");
+				}
+				thePlain = aCipher.processCBC(theBlock);
+				theChunk = Math.min(theRemaining, BLOCK_LENGTH);
+				anHmac.digest(thePlain, 0, theChunk);
+				theRemaining -= theChunk;
+			}
+		}
+		final byte[] theHmac = new byte[HMAC_LENGTH];
+		anInput.readFully(theHmac);
+		if (!Util.bytesAreEqual(theHmac, anHmac.doFinal())) {
+			throw new IOException("HMAC record did not match. File has been tampered");
+		}
+		// the first end of record closes the header record
+		return Math.max(theEndOfRecords - 1, 0);
+	}
+
+	/**
+	 * Verifies the files given as arguments, see above.
+	 *
+	 * @param args the files
+	 * @throws IOException if the passphrase cannot be read
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: PwsFileV3Verifier file... (passphrase on standard input)");
+			System.exit(2);
+		}
+		final String theLine = new BufferedReader(new InputStreamReader(System.in)).readLine();
+		final StringBuilder thePassphrase = new StringBuilder(theLine != null ? theLine : "");
+		int theFailures = 0;
+		for (final String theName : args) {
+			try {
+				final int theRecords = verify(new File(theName), thePassphrase);
+				System.out.println("OK     " + theName + " (" + theRecords + " records)");
+			} catch (final InvalidPassphraseException e) {
+				theFailures++;
+				System.out.println("FAILED " + theName + ": wrong passphrase");
+			} catch (final IOException e) {
+				theFailures++;
+				System.out.println("FAILED " + theName + ": " + e.getMessage());
+			}
+		}
+		Util.clear(thePassphrase);
+		System.exit(theFailures == 0 ? 0 : 1);
+	}
+}
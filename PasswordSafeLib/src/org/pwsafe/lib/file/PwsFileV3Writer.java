@@ -0,0 +1,90 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a V3 file record by record to a stream. Unlike {@link PwsFileV3#save()}
+ * no record is kept in memory, so files of any size can be written, e.g. by
+ * import tools or test data generators.
+ * <p>
+ * Records are written as they are, a record for the file is best created by
+ * {@link #newRecord()}.
+ * </p>
+ *
+ * @author roxon
+ */
+public class PwsFileV3Writer {
+
+	private final PwsFileV3 file;
+	private int recordCount;
+	private boolean closed;
+
+	/**
+	 * Writes the header of the file.
+	 *
+	 * @param aStream the stream to write to, closed by {@link #close()}
+	 * @param aPassphrase the passphrase of the file
+	 * @throws IOException if writing fails
+	 */
+	public PwsFileV3Writer(final OutputStream aStream, final StringBuilder aPassphrase)
+			throws IOException {
+		file = new PwsFileV3();
+		file.setPassphrase(aPassphrase);
+		file.beginWrite(aStream);
+	}
+
+	/**
+	 * @return a new record with a fresh UUID and creation time
+	 */
+	public PwsRecordV3 newRecord() {
+		return (PwsRecordV3) file.newRecord();
+	}
+
+	/**
+	 * Writes a record.
+	 *
+	 * @param aRecord the record
+	 * @throws IOException if writing fails
+	 */
+	public void write(final PwsRecordV3 aRecord) throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		aRecord.saveRecord(file);
+		recordCount++;
+	}
+
+	/**
+	 * @return the number of records written so far
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Writes the end of the file and closes the stream.
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			file.endWrite();
+		} finally {
+			file.dispose();
+		}
+	}
+}
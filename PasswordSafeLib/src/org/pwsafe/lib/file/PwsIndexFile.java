@@ -0,0 +1,341 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.crypto.HmacPws;
+import org.pwsafe.lib.crypto.SHA256Pws;
+import org.pwsafe.lib.crypto.TwofishPws;
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * An optional, encrypted sidecar file holding the sparse projection of all
+ * records of a V3 file (group, title, user name, URL, UUID and the time
+ * fields) together with the offset of each record within the file. It allows
+ * to show the entries right after the passphrase has been verified, while the
+ * records themselves are read later on.
+ * <p>
+ * The sidecar is bound to the closing HMAC of the file it was written for, so
+ * a sidecar that is out of date is recognised and ignored. Its keys are
+ * derived from the HMAC key of the file, so it can't be read without the
+ * passphrase. Note that records decrypted on demand before all records have
+ * been read are not yet covered by the HMAC check of the file.
+ * </p>
+ * <p>
+ * <tt>
+ * <pre> +--------+-----------+-----------------------------------------------+
+ * | Length | Name      | Description                                   |
+ * +--------+-----------+-----------------------------------------------+
+ * |      4 | TAG       | "PWI3"                                        |
+ * |      1 | VERSION   | format version of the sidecar                 |
+ * |     16 | IV        | initial vector for CBC                        |
+ * |  n*16  | DATA      | encrypted content, see below                  |
+ * |     32 | HMAC      | HMAC-SHA256 of everything above               |
+ * +--------+-----------+-----------------------------------------------+</pre>
+ * </tt>
+ * </p>
+ * The decrypted content starts with its length, the closing HMAC of the file
+ * and the number of records. Each record is stored as its offset, the number
+ * of fields and the fields as type, length and raw field data.
+ *
+ * @author roxon
+ */
+public final class PwsIndexFile {
+
+	private static final Log LOG = Log.getInstance(PwsIndexFile.class.getPackage().getName());
+
+	/**
+	 * Suffix appended to the file name of the password safe.
+	 */
+	public static final String FILE_EXTENSION = ".idx";
+
+	static final byte[] ID_STRING = "PWI3".getBytes();
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int BLOCK_SIZE = 16;
+
+	private static final int HMAC_LENGTH = 32;
+
+	/**
+	 * The field types kept in the sidecar, all others are only available
+	 * from the file itself.
+	 */
+	static final int[] INDEXED_TYPES = new int[] { PwsRecordV3.UUID, PwsRecordV3.GROUP,
+			PwsRecordV3.TITLE, PwsRecordV3.USERNAME, PwsRecordV3.URL,
+			PwsRecordV3.CREATION_TIME, PwsRecordV3.PASSWORD_MOD_TIME,
+			PwsRecordV3.LAST_ACCESS_TIME, PwsRecordV3.PASSWORD_LIFETIME,
+			PwsRecordV3.LAST_MOD_TIME };
+
+	private final ByteArrayOutputStream content;
+	private final DataOutputStream out;
+	private int recordCount;
+
+	private final List<PwsRecordV3> records;
+	private final int[] offsets;
+
+	/**
+	 * Creates an empty index to be filled while a file is saved.
+	 */
+	PwsIndexFile() {
+		content = new ByteArrayOutputStream();
+		out = new DataOutputStream(content);
+		records = null;
+		offsets = null;
+	}
+
+	private PwsIndexFile(final List<PwsRecordV3> someRecords, final int[] someOffsets) {
+		content = null;
+		out = null;
+		records = someRecords;
+		offsets = someOffsets;
+		recordCount = someOffsets.length;
+	}
+
+	/**
+	 * Returns the sidecar belonging to a storage, if the storage supports one.
+	 *
+	 * @param aStorage the storage of a password safe
+	 * @return the sidecar file or null if the storage is not a local file
+	 */
+	static File getIndexFile(final PwsStorage aStorage) {
+		if (aStorage instanceof PwsFileStorage) {
+			return new File(((PwsFileStorage) aStorage).getFilename() + FILE_EXTENSION);
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the projection of a record to this index.
+	 *
+	 * @param anOffset the offset of the record within the file
+	 * @param aRecord the record
+	 * @throws IOException
+	 */
+	void addRecord(final int anOffset, final PwsRecordV3 aRecord) throws IOException {
+		int fieldCount = 0;
+		for (final int type : INDEXED_TYPES) {
+			if (aRecord.getField(type) != null) {
+				fieldCount++;
+			}
+		}
+		out.writeInt(anOffset);
+		out.writeByte(fieldCount);
+		for (final int type : INDEXED_TYPES) {
+			final PwsField theField = aRecord.getField(type);
+			if (theField != null) {
+				final byte[] theBytes = theField.getBytes();
+				out.writeByte(type);
+				out.writeInt(theBytes.length);
+				out.write(theBytes);
+			}
+		}
+		recordCount++;
+	}
+
+	/**
+	 * @return the number of records in this index
+	 */
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Returns the record projections read from a sidecar. They hold the indexed
+	 * fields only and are not part of any file.
+	 *
+	 * @return the records in file order
+	 */
+	List<PwsRecordV3> getRecords() {
+		return records;
+	}
+
+	/**
+	 * @return the offsets of the records within the file, in file order
+	 */
+	int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Encrypts and writes this index to a temporary file, which then replaces
+	 * the sidecar, so a failed write leaves no partial sidecar behind.
+	 *
+	 * @param aFile the sidecar to write to
+	 * @param aFileHmac the closing HMAC of the file this index belongs to
+	 * @param anHmacKey the HMAC key of the file
+	 * @throws IOException
+	 */
+	void write(final File aFile, final byte[] aFileHmac, final byte[] anHmacKey)
+			throws IOException {
+		out.flush();
+		final byte[] theContent = content.toByteArray();
+		content.reset();
+
+		final int length = 4 + HMAC_LENGTH + 4 + theContent.length;
+		final int paddedLength = ((length + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+		final byte[] plain = new byte[paddedLength];
+		Util.putIntToByteArray(plain, length, 0);
+		System.arraycopy(aFileHmac, 0, plain, 4, HMAC_LENGTH);
+		Util.putIntToByteArray(plain, recordCount, 4 + HMAC_LENGTH);
+		System.arraycopy(theContent, 0, plain, 8 + HMAC_LENGTH, theContent.length);
+		Arrays.fill(theContent, (byte) 0);
+
+		final byte[] iv = new byte[BLOCK_SIZE];
+		Util.newRandBytes(iv);
+		final byte[] encrypted = processCBC(deriveKey(anHmacKey, "enc"), true, iv, plain);
+		Arrays.fill(plain, (byte) 0);
+
+		final HmacPws theHasher = new HmacPws(deriveKey(anHmacKey, "mac"));
+		final byte[] prefix = Util.mergeBytes(ID_STRING, new byte[] { FORMAT_VERSION });
+		theHasher.digest(prefix);
+		theHasher.digest(iv);
+		theHasher.digest(encrypted);
+
+		final File theTemp = File.createTempFile("pwsafe", null, aFile.getAbsoluteFile()
+				.getParentFile());
+		try {
+			final OutputStream theStream = new FileOutputStream(theTemp);
+			try {
+				theStream.write(prefix);
+				theStream.write(iv);
+				theStream.write(encrypted);
+				theStream.write(theHasher.doFinal());
+			} finally {
+				theStream.close();
+			}
+			if (aFile.exists() && !aFile.delete() || !theTemp.renameTo(aFile)) {
+				throw new StorageException("Could not replace " + aFile);
+			}
+		} finally {
+			theTemp.delete();
+		}
+		LOG.debug1("Wrote index of {} records to {}", recordCount, aFile);
+	}
+
+	/**
+	 * Reads and verifies a sidecar.
+	 *
+	 * @param aFile the sidecar to read
+	 * @param aFileHmac the closing HMAC of the file opened
+	 * @param anHmacKey the HMAC key of the file opened
+	 * @return the index or null if the sidecar is damaged or does not belong
+	 *         to the current version of the file
+	 * @throws IOException if the sidecar can't be read
+	 */
+	static PwsIndexFile read(final File aFile, final byte[] aFileHmac, final byte[] anHmacKey)
+			throws IOException {
+		final long fileLength = aFile.length();
+		final int prefixLength = ID_STRING.length + 1;
+		final long dataLength = fileLength - prefixLength - BLOCK_SIZE - HMAC_LENGTH;
+		if (dataLength <= 0 || dataLength % BLOCK_SIZE != 0 || dataLength > Integer.MAX_VALUE) {
+			LOG.info("Ignoring index with invalid length " + aFile);
+			return null;
+		}
+
+		final byte[] prefix = new byte[prefixLength];
+		final byte[] iv = new byte[BLOCK_SIZE];
+		final byte[] encrypted = new byte[(int) dataLength];
+		final byte[] mac = new byte[HMAC_LENGTH];
+		final InputStream theStream = new FileInputStream(aFile);
+		try {
+			final DataInputStream in = new DataInputStream(theStream);
+			in.readFully(prefix);
+			in.readFully(iv);
+			in.readFully(encrypted);
+			in.readFully(mac);
+		} finally {
+			theStream.close();
+		}
+
+		if (!Util.bytesAreEqual(Util.getBytes(prefix, 0, ID_STRING.length), ID_STRING)
+				|| prefix[ID_STRING.length] != FORMAT_VERSION) {
+			LOG.info("Ignoring index of unknown format " + aFile);
+			return null;
+		}
+		final HmacPws theHasher = new HmacPws(deriveKey(anHmacKey, "mac"));
+		theHasher.digest(prefix);
+		theHasher.digest(iv);
+		theHasher.digest(encrypted);
+		if (!Util.bytesAreEqual(mac, theHasher.doFinal())) {
+			LOG.warn("Index HMAC did not match, ignoring " + aFile);
+			return null;
+		}
+
+		final byte[] plain = processCBC(deriveKey(anHmacKey, "enc"), false, iv, encrypted);
+		try {
+			final int length = Util.getIntFromByteArray(plain, 0);
+			if (length < 8 + HMAC_LENGTH || length > plain.length) {
+				LOG.warn("Ignoring index with invalid content length " + aFile);
+				return null;
+			}
+			if (!Util.bytesAreEqual(Util.getBytes(plain, 4, HMAC_LENGTH), aFileHmac)) {
+				LOG.info("Index is out of date, ignoring " + aFile);
+				return null;
+			}
+			final int count = Util.getIntFromByteArray(plain, 4 + HMAC_LENGTH);
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain,
+					8 + HMAC_LENGTH, length - 8 - HMAC_LENGTH));
+
+			final List<PwsRecordV3> theRecords = new ArrayList<PwsRecordV3>(count);
+			final int[] theOffsets = new int[count];
+			for (int i = 0; i < count; i++) {
+				theOffsets[i] = in.readInt();
+				final PwsRecordV3 theRecord = PwsRecordV3.newEmptyRecord();
+				final int fieldCount = in.readUnsignedByte();
+				for (int f = 0; f < fieldCount; f++) {
+					final int type = in.readUnsignedByte();
+					final byte[] data = new byte[in.readInt()];
+					in.readFully(data);
+					theRecord.setField(type, data);
+				}
+				theRecords.add(theRecord);
+			}
+			LOG.debug1("Read index of {} records from {}", count, aFile);
+			return new PwsIndexFile(theRecords, theOffsets);
+		} finally {
+			Arrays.fill(plain, (byte) 0);
+		}
+	}
+
+	private static byte[] deriveKey(final byte[] anHmacKey, final String aPurpose) {
+		return new SHA256Pws().digest(Util.mergeBytes(anHmacKey, ("PWI3-" + aPurpose)
+				.getBytes()));
+	}
+
+	private static byte[] processCBC(final byte[] aKey, final boolean forEncryption,
+			final byte[] anIv, final byte[] someData) {
+		final TwofishPws theCipher = new TwofishPws(aKey, forEncryption, anIv);
+		final byte[] result = new byte[someData.length];
+		final byte[] block = new byte[BLOCK_SIZE];
+		for (int i = 0; i < someData.length; i += BLOCK_SIZE) {
+			System.arraycopy(someData, i, block, 0, BLOCK_SIZE);
+			System.arraycopy(theCipher.processCBC(block), 0, result, i, BLOCK_SIZE);
+		}
+		Arrays.fill(block, (byte) 0);
+		Arrays.fill(aKey, (byte) 0);
+		return result;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Keeps the (encrypted) content of a file in memory, e.g. to decrypt content
+ * at hand or to get the bytes a file saves to.
+ *
+ * @author roxon
+ */
+class PwsMemoryStorage implements PwsStorage {
+
+	private byte[] content;
+
+	/**
+	 * @param someBytes the content or null for none yet
+	 */
+	PwsMemoryStorage(final byte[] someBytes) {
+		content = someBytes;
+	}
+
+	public byte[] load() throws IOException {
+		if (content == null) {
+			throw new IOException("Nothing saved yet");
+		}
+		return content;
+	}
+
+	public boolean save(final byte[] data) {
+		content = data;
+		return true;
+	}
+
+	public String getIdentifier() {
+		return "memory";
+	}
+
+	/**
+	 * @return null, nobody else changes the content
+	 */
+	public Date getModifiedDate() {
+		return null;
+	}
+}
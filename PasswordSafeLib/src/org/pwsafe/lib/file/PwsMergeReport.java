@@ -0,0 +1,140 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.pwsafe.lib.UUID;
+
+/**
+ * What a {@link PwsFileMerger} changed in our file: the records added,
+ * changed or deleted in their copy and taken over, and the conflicts where
+ * both copies changed a record.
+ *
+ * @author roxon
+ */
+public class PwsMergeReport {
+
+	/**
+	 * What happened to a record.
+	 */
+	public enum Outcome {
+		/** added by them and added to ours */
+		ADDED,
+		/** changed by them, their version replaced ours */
+		CHANGED,
+		/** deleted by them and deleted from ours */
+		DELETED,
+		/** changed in both or changed in one and deleted in the other copy */
+		CONFLICT
+	}
+
+	/**
+	 * A merged record.
+	 */
+	public static final class Item {
+		private final UUID uuid;
+		private final String title;
+		private final Outcome outcome;
+		private final boolean theirsTaken;
+
+		Item(final UUID anUuid, final String aTitle, final Outcome anOutcome,
+				final boolean isTheirsTaken) {
+			uuid = anUuid;
+			title = aTitle;
+			outcome = anOutcome;
+			theirsTaken = isTheirsTaken;
+		}
+
+		public UUID getUuid() {
+			return uuid;
+		}
+
+		/**
+		 * @return the title of the record, may be null
+		 */
+		public String getTitle() {
+			return title;
+		}
+
+		public Outcome getOutcome() {
+			return outcome;
+		}
+
+		/**
+		 * @return true if their version of the record is in the merged file
+		 */
+		public boolean isTheirsTaken() {
+			return theirsTaken;
+		}
+
+		@Override
+		public String toString() {
+			return outcome + " " + title + " (" + uuid + (theirsTaken ? ", theirs)" : ", ours)");
+		}
+	}
+
+	private final List<Item> items = new ArrayList<Item>();
+
+	void add(final Item anItem) {
+		items.add(anItem);
+	}
+
+	/**
+	 * @return all merged records, in no particular order
+	 */
+	public List<Item> getItems() {
+		return Collections.unmodifiableList(items);
+	}
+
+	/**
+	 * @param anOutcome the outcome
+	 * @return the records with the outcome
+	 */
+	public List<Item> getItems(final Outcome anOutcome) {
+		final List<Item> theItems = new ArrayList<Item>();
+		for (final Item theItem : items) {
+			if (theItem.getOutcome() == anOutcome) {
+				theItems.add(theItem);
+			}
+		}
+		return theItems;
+	}
+
+	/**
+	 * @param anOutcome the outcome
+	 * @return the number of records with the outcome
+	 */
+	public int getCount(final Outcome anOutcome) {
+		int theCount = 0;
+		for (final Item theItem : items) {
+			if (theItem.getOutcome() == anOutcome) {
+				theCount++;
+			}
+		}
+		return theCount;
+	}
+
+	/**
+	 * @return true if no record needed merging
+	 */
+	public boolean isEmpty() {
+		return items.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "added " + getCount(Outcome.ADDED) + ", changed " + getCount(Outcome.CHANGED)
+				+ ", deleted " + getCount(Outcome.DELETED) + ", conflicts "
+				+ getCount(Outcome.CONFLICT);
+	}
+}
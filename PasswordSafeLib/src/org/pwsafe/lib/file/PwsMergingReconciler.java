@@ -0,0 +1,70 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Reconciles two versions of a V3 safe by merging their records with
+ * {@link PwsFileMerger}, so it needs the passphrase of the safe.
+ *
+ * @author roxon
+ */
+public class PwsMergingReconciler implements PwsStorageReconciler {
+
+	private static final Log LOG = Log.getInstance(PwsMergingReconciler.class.getPackage()
+			.getName());
+
+	private final String passphrase;
+
+	/**
+	 * @param aPassphrase the passphrase of the safe
+	 */
+	public PwsMergingReconciler(final String aPassphrase) {
+		passphrase = aPassphrase;
+	}
+
+	public byte[] reconcile(final byte[] ours, final byte[] theirs, final byte[] base)
+			throws IOException {
+		PwsFileV3 theOurs = null;
+		PwsFileV3 theTheirs = null;
+		PwsFileV3 theBase = null;
+		try {
+			theOurs = PwsFileMerger.readStorage(new PwsMemoryStorage(ours), passphrase);
+			theTheirs = PwsFileMerger.readStorage(new PwsMemoryStorage(theirs), passphrase);
+			if (base != null) {
+				theBase = PwsFileMerger.readStorage(new PwsMemoryStorage(base), passphrase);
+			}
+			final PwsMergeReport theReport = PwsFileMerger.merge(theOurs, theTheirs, theBase);
+			LOG.info("Reconciled " + theReport);
+			final PwsMemoryStorage theResult = new PwsMemoryStorage(null);
+			theOurs.setStorage(theResult);
+			theOurs.save();
+			return theResult.load();
+		} catch (final IOException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new StorageException("Cannot merge the versions: " + e.getMessage(), e);
+		} finally {
+			dispose(theOurs);
+			dispose(theTheirs);
+			dispose(theBase);
+		}
+	}
+
+	private static void dispose(final PwsFileV3 aFile) {
+		if (aFile != null) {
+			aFile.dispose();
+		}
+	}
+}
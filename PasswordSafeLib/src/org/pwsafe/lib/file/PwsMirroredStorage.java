@@ -0,0 +1,470 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.exception.StorageException;
+import org.pwsafe.lib.metrics.PwsMetric;
+import org.pwsafe.lib.metrics.PwsMetrics;
+
+/**
+ * Keeps redundant copies of a safe in several storages, e.g. a local disk,
+ * a network share and S3. A save is written to all targets in parallel and
+ * succeeds as soon as a quorum of them has the new content; the others go
+ * on in the background. A load reads the fastest healthy target which got
+ * the last save, falling back to the next one if it fails. Each save gets a
+ * generation number; the one each target holds is kept in a small state
+ * file, so a load after a restart still reads only a target which got the
+ * last save. Without a state file all targets count as current after a
+ * restart.
+ * <p>
+ * Each target keeps its own writer thread, so saves reach a target in
+ * order, and its own {@link Target status} with the latency of its last
+ * operations. Note that a failed save may have reached some targets.
+ * </p>
+ *
+ * @author roxon
+ */
+public class PwsMirroredStorage implements PwsStreamStorage {
+
+	private static final Log LOG = Log.getInstance(PwsMirroredStorage.class.getPackage().getName());
+
+	/**
+	 * The status of one target.
+	 */
+	public static final class Target {
+		private final PwsStreamStorage storage;
+		private final ExecutorService writer;
+
+		private volatile boolean current = true;
+		private volatile long generation;
+		private volatile boolean healthy = true;
+		private volatile long lastLatency = -1;
+		private volatile long averageLatency = -1;
+		private volatile String lastError;
+
+		Target(final PwsStorage aStorage, final String aName) {
+			storage = PwsStorageAdapter.forStorage(aStorage);
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable aRunnable) {
+					final Thread theThread = new Thread(aRunnable, aName);
+					theThread.setDaemon(true);
+					return theThread;
+				}
+			});
+		}
+
+		/**
+		 * @return the storage of the target
+		 */
+		public PwsStorage getStorage() {
+			return storage;
+		}
+
+		/**
+		 * @return true if this target holds the newest save that reached any
+		 *         target
+		 */
+		public boolean isCurrent() {
+			return current;
+		}
+
+		/**
+		 * @return true unless the last operation failed on this target
+		 */
+		public boolean isHealthy() {
+			return healthy;
+		}
+
+		/**
+		 * @return the milliseconds the last operation took, -1 if none yet
+		 */
+		public long getLastLatency() {
+			return lastLatency;
+		}
+
+		/**
+		 * @return the smoothed milliseconds of the operations, -1 if none yet
+		 */
+		public long getAverageLatency() {
+			return averageLatency;
+		}
+
+		/**
+		 * @return the message of the last failure, null if the last operation
+		 *         succeeded
+		 */
+		public String getLastError() {
+			return lastError;
+		}
+
+		private synchronized void record(final long aStart, final Throwable anError) {
+			final long theLatency = (System.nanoTime() - aStart) / 1000000;
+			lastLatency = theLatency;
+			averageLatency = averageLatency < 0 ? theLatency : averageLatency
+					+ (theLatency - averageLatency) / 4;
+			healthy = anError == null;
+			lastError = anError == null ? null : String.valueOf(anError.getMessage());
+		}
+
+		@Override
+		public String toString() {
+			return storage.getIdentifier();
+		}
+	}
+
+	/** the order to read the targets in */
+	private static final Comparator<Target> READ_ORDER = new Comparator<Target>() {
+		public int compare(final Target aTarget, final Target anOther) {
+			if (aTarget.current != anOther.current) {
+				return aTarget.current ? -1 : 1;
+			}
+			if (aTarget.healthy != anOther.healthy) {
+				return aTarget.healthy ? -1 : 1;
+			}
+			final long theLatency = Math.max(0, aTarget.averageLatency);
+			final long theOther = Math.max(0, anOther.averageLatency);
+			return theLatency < theOther ? -1 : theLatency == theOther ? 0 : 1;
+		}
+	};
+
+	private final List<Target> targets;
+	private final int quorum;
+	private final File stateFile;
+
+	/** the generation of the last save started */
+	private long generation;
+
+	/** the newest generation any target got */
+	private long savedGeneration;
+
+	/**
+	 * @param someStorages the targets; the first is the primary, which
+	 *        identifies the storage
+	 * @param aQuorum the number of targets a save must reach
+	 */
+	public PwsMirroredStorage(final List<? extends PwsStorage> someStorages, final int aQuorum) {
+		this(someStorages, aQuorum, null);
+	}
+
+	/**
+	 * @param someStorages the targets; the first is the primary, which
+	 *        identifies the storage
+	 * @param aQuorum the number of targets a save must reach
+	 * @param aStateFile keeps the generation each target holds across
+	 *        restarts, may be null
+	 */
+	public PwsMirroredStorage(final List<? extends PwsStorage> someStorages, final int aQuorum,
+			final File aStateFile) {
+		if (aQuorum < 1 || aQuorum > someStorages.size()) {
+			throw new IllegalArgumentException("Quorum " + aQuorum + " out of 1.."
+					+ someStorages.size());
+		}
+		final List<Target> theTargets = new ArrayList<Target>(someStorages.size());
+		for (final PwsStorage theStorage : someStorages) {
+			theTargets.add(new Target(theStorage, "Mirror writer " + (theTargets.size() + 1)));
+		}
+		targets = Collections.unmodifiableList(theTargets);
+		quorum = aQuorum;
+		stateFile = aStateFile;
+		readState();
+	}
+
+	/**
+	 * @return the targets in the order given
+	 */
+	public List<Target> getTargets() {
+		return targets;
+	}
+
+	/**
+	 * @return the number of targets a save must reach
+	 */
+	public int getQuorum() {
+		return quorum;
+	}
+
+	public byte[] load() throws IOException {
+		IOException theFailure = null;
+		for (final Target theTarget : getReadOrder()) {
+			final long theStart = System.nanoTime();
+			try {
+				final byte[] theBytes = theTarget.storage.load();
+				theTarget.record(theStart, null);
+				return theBytes;
+			} catch (final IOException e) {
+				theTarget.record(theStart, e);
+				LOG.warn("Could not load " + theTarget + ": " + e.getMessage());
+				theFailure = e;
+			}
+		}
+		throw theFailure;
+	}
+
+	public InputStream openInput() throws IOException {
+		IOException theFailure = null;
+		for (final Target theTarget : getReadOrder()) {
+			final long theStart = System.nanoTime();
+			try {
+				final InputStream theInput = theTarget.storage.openInput();
+				theTarget.record(theStart, null);
+				return theInput;
+			} catch (final IOException e) {
+				theTarget.record(theStart, e);
+				LOG.warn("Could not open " + theTarget + ": " + e.getMessage());
+				theFailure = e;
+			}
+		}
+		throw theFailure;
+	}
+
+	public ReadableByteChannel openChannel() throws IOException {
+		return Channels.newChannel(openInput());
+	}
+
+	/**
+	 * Collects the new content; the commit writes it to the targets.
+	 */
+	public PwsStorageTransaction beginWrite() {
+		final ByteArrayOutputStream theBuffer = new ByteArrayOutputStream();
+		return new PwsStorageTransaction() {
+			private boolean done;
+
+			public OutputStream getOutputStream() {
+				return theBuffer;
+			}
+
+			public void commit() throws StorageException {
+				if (done) {
+					throw new IllegalStateException("Transaction already ended");
+				}
+				done = true;
+				write(theBuffer.toByteArray());
+			}
+
+			public void abort() {
+				done = true;
+				theBuffer.reset();
+			}
+		};
+	}
+
+	public boolean save(final byte[] data) {
+		try {
+			write(data.clone());
+			return true;
+		} catch (final StorageException e) {
+			LOG.error(e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @return the identifier of the primary target
+	 */
+	public String getIdentifier() {
+		return targets.get(0).storage.getIdentifier();
+	}
+
+	/**
+	 * @return the modification date of the first target which got the last
+	 *         save, the primary one if none did
+	 */
+	public Date getModifiedDate() {
+		for (final Target theTarget : targets) {
+			if (theTarget.current) {
+				return theTarget.storage.getModifiedDate();
+			}
+		}
+		return targets.get(0).storage.getModifiedDate();
+	}
+
+	/**
+	 * Stops the writer threads once the saves started are done.
+	 */
+	public void shutdown() {
+		for (final Target theTarget : targets) {
+			theTarget.writer.shutdown();
+		}
+	}
+
+	private List<Target> getReadOrder() {
+		final List<Target> theOrder = new ArrayList<Target>(targets);
+		Collections.sort(theOrder, READ_ORDER);
+		return theOrder;
+	}
+
+	/**
+	 * Reads which generation of the saves each target holds, all targets are
+	 * current if that is not known.
+	 */
+	private void readState() {
+		if (stateFile == null || !stateFile.exists()) {
+			return;
+		}
+		final Properties theState = new Properties();
+		try {
+			final InputStream theInput = new FileInputStream(stateFile);
+			try {
+				theState.load(theInput);
+			} finally {
+				theInput.close();
+			}
+			for (final Target theTarget : targets) {
+				theTarget.generation = Long.parseLong(theState.getProperty(theTarget.storage
+						.getIdentifier(), "0"));
+				savedGeneration = Math.max(savedGeneration, theTarget.generation);
+			}
+		} catch (final Exception e) {
+			LOG.warn("Could not read " + stateFile + ", all mirrors are taken as current: "
+					+ e.getMessage());
+			for (final Target theTarget : targets) {
+				theTarget.generation = 0;
+			}
+			savedGeneration = 0;
+		}
+		generation = savedGeneration;
+		for (final Target theTarget : targets) {
+			theTarget.current = theTarget.generation == savedGeneration;
+			if (!theTarget.current) {
+				LOG.warn("Mirror " + theTarget + " does not hold the last save");
+			}
+		}
+	}
+
+	/**
+	 * Notes that a target got a save, called on its writer thread.
+	 */
+	private synchronized void saved(final Target aTarget, final long aGeneration) {
+		aTarget.generation = aGeneration;
+		savedGeneration = Math.max(savedGeneration, aGeneration);
+		for (final Target theTarget : targets) {
+			theTarget.current = theTarget.generation == savedGeneration;
+		}
+		if (stateFile == null) {
+			return;
+		}
+		final Properties theState = new Properties();
+		for (final Target theTarget : targets) {
+			theState.setProperty(theTarget.storage.getIdentifier(), Long
+					.toString(theTarget.generation));
+		}
+		try {
+			final File theTemp = File.createTempFile("pwsafe", null, stateFile
+					.getAbsoluteFile().getParentFile());
+			try {
+				final OutputStream theOutput = new FileOutputStream(theTemp);
+				try {
+					theState.store(theOutput, "generation of the last save per mirror");
+				} finally {
+					theOutput.close();
+				}
+				if (stateFile.exists() && !stateFile.delete() || !theTemp.renameTo(stateFile)) {
+					throw new StorageException("Could not replace " + stateFile);
+				}
+			} finally {
+				theTemp.delete();
+			}
+		} catch (final IOException e) {
+			LOG.warn("Could not write " + stateFile + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes to all targets and waits for the quorum.
+	 */
+	private void write(final byte[] someBytes) throws StorageException {
+		final long theStart = System.currentTimeMillis();
+		final long theGeneration;
+		synchronized (this) {
+			theGeneration = ++generation;
+		}
+		final BlockingQueue<Future<Target>> theResults = new LinkedBlockingQueue<Future<Target>>();
+		for (final Target theTarget : targets) {
+			theTarget.writer.execute(new FutureTask<Target>(new Callable<Target>() {
+				public Target call() throws Exception {
+					final long theMetric = PwsMetrics.start();
+					final long theTargetStart = System.nanoTime();
+					final PwsStorageTransaction theTransaction = theTarget.storage.beginWrite();
+					try {
+						theTransaction.getOutputStream().write(someBytes);
+						theTransaction.commit();
+					} catch (final Exception e) {
+						theTransaction.abort();
+						theTarget.record(theTargetStart, e);
+						LOG.warn("Could not save " + theTarget + ": " + e.getMessage());
+						throw e;
+					}
+					saved(theTarget, theGeneration);
+					theTarget.record(theTargetStart, null);
+					PwsMetrics.stop(PwsMetric.MIRROR_WRITE, theMetric);
+					LOG.debug1("Saved {} in {} ms", theTarget, Long.valueOf(theTarget.lastLatency));
+					return theTarget;
+				}
+			}) {
+				@Override
+				protected void done() {
+					theResults.add(this);
+				}
+			});
+		}
+
+		int theSaved = 0;
+		final List<Throwable> theFailures = new ArrayList<Throwable>();
+		while (theSaved < quorum) {
+			if (theFailures.size() > targets.size() - quorum) {
+				for (final Throwable theFailure : theFailures) {
+					if (theFailure instanceof ConcurrentModificationException) {
+						throw (ConcurrentModificationException) theFailure;
+					}
+				}
+				throw new StorageException("Saved to " + theSaved + " of " + targets.size()
+						+ " mirrors, " + quorum + " required", theFailures.get(0));
+			}
+			try {
+				theResults.take().get();
+				theSaved++;
+			} catch (final ExecutionException e) {
+				theFailures.add(e.getCause());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new StorageException("Interrupted while saving to the mirrors", e);
+			}
+		}
+		LOG.info("Saved to " + quorum + " of " + targets.size() + " mirrors in "
+				+ (System.currentTimeMillis() - theStart) + " ms");
+	}
+}
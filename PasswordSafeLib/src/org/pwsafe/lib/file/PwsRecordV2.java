@@ -226,7 +226,7 @@ public class PwsRecordV2 extends PwsRecord {
 	@Override
 	protected boolean isValid() {
 		if (((PwsStringField) getField(TITLE)).equals(PwsFileV2.ID_STRING)) {
-			LOG.debug1("Ignoring record " + toString());
+			LOG.debug1("Ignoring record {}", this);
 			return false;
 		}
 		return true;
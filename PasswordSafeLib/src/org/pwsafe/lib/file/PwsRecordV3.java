@@ -10,6 +10,7 @@
 package org.pwsafe.lib.file;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Iterator;
@@ -172,6 +173,22 @@ public class PwsRecordV3 extends PwsRecord {
 
 	}
 
+	/**
+	 * Creates a new record without any fields, to be filled field by field.
+	 */
+	private PwsRecordV3(Object[] validTypes) {
+		super(validTypes);
+	}
+
+	/**
+	 * Creates a record without any fields, not even the mandatory ones.
+	 * 
+	 * @return an empty record
+	 */
+	static PwsRecordV3 newEmptyRecord() {
+		return new PwsRecordV3(VALID_TYPES);
+	}
+
 	/**
 	 * Create a new record by reading it from <code>file</code>.
 	 * 
@@ -291,7 +308,7 @@ public class PwsRecordV3 extends PwsRecord {
 		final PwsField idField = getField(V3_ID_STRING);
 
 		if (idField != null) {
-			LOG.debug1("Ignoring record " + toString());
+			LOG.debug1("Ignoring record {}", this);
 			return false;
 		}
 		return true;
@@ -302,7 +319,7 @@ public class PwsRecordV3 extends PwsRecord {
 		final PwsField idField = getField(V3_ID_STRING);
 
 		if (idField != null) {
-			LOG.debug1("Ignoring record " + toString());
+			LOG.debug1("Ignoring record {}", this);
 			return true;
 		}
 		return false;
@@ -388,49 +405,7 @@ public class PwsRecordV3 extends PwsRecord {
 				attributes.put(new Integer(item.getType()), itemVal);
 			} else {
 
-				switch (item.getType()) {
-				case V3_ID_STRING:
-					// itemVal = new PwsIntegerField( item.getType(), new byte[]
-					// {3,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0,0} );
-					itemVal = new PwsVersionField(item.getType(), item.getByteData());
-					break;
-
-				case UUID:
-					itemVal = new PwsUUIDField(item.getType(), item.getByteData());
-					break;
-
-				case GROUP:
-				case TITLE:
-				case USERNAME:
-				case NOTES:
-				case PASSWORD:
-				case PASSWORD_POLICY:
-				case PASSWORD_HISTORY:
-				case URL:
-				case AUTOTYPE:
-					itemVal = new PwsStringUnicodeField(item.getType(), item.getByteData());
-					break;
-
-				case CREATION_TIME:
-				case PASSWORD_MOD_TIME:
-				case LAST_ACCESS_TIME:
-				case LAST_MOD_TIME:
-					itemVal = new PwsTimeField(item.getType(), item.getByteData());
-					break;
-
-				case PASSWORD_LIFETIME:
-					itemVal = new PwsTimeField(item.getType(), item.getByteData());
-					break;
-
-				// case PASSWORD_EXPIRY_INTERVAL :
-				// break;
-				//
-
-				default:
-					itemVal = new PwsUnknownField(item.getType(), item.getByteData());
-					break;
-				// throw new UnimplementedConversionException();
-				}
+				itemVal = createField(item.getType(), item.getByteData());
 				if (LOG.isDebug2Enabled()) {
 					LOG.debug2("type=" + item.getType() + " ("
 							+ ((Object[]) VALID_TYPES[item.getType()])[1] + "), value=\""
@@ -441,6 +416,57 @@ public class PwsRecordV3 extends PwsRecord {
 		}
 	}
 
+	/**
+	 * Creates the field matching a type from its raw data.
+	 * 
+	 * @param type the field type
+	 * @param data the raw field data
+	 * @return the field
+	 * @throws UnsupportedEncodingException
+	 */
+	private static PwsField createField(int type, byte[] data)
+			throws UnsupportedEncodingException {
+		switch (type) {
+		case V3_ID_STRING:
+			return new PwsVersionField(type, data);
+
+		case UUID:
+			return new PwsUUIDField(type, data);
+
+		case GROUP:
+		case TITLE:
+		case USERNAME:
+		case NOTES:
+		case PASSWORD:
+		case PASSWORD_POLICY:
+		case PASSWORD_HISTORY:
+		case URL:
+		case AUTOTYPE:
+			return new PwsStringUnicodeField(type, data);
+
+		case CREATION_TIME:
+		case PASSWORD_MOD_TIME:
+		case LAST_ACCESS_TIME:
+		case LAST_MOD_TIME:
+		case PASSWORD_LIFETIME:
+			return new PwsTimeField(type, data);
+
+		default:
+			return new PwsUnknownField(type, data);
+		}
+	}
+
+	/**
+	 * Sets a field from its raw data as stored in a file.
+	 * 
+	 * @param type the field type
+	 * @param data the raw field data
+	 * @throws UnsupportedEncodingException
+	 */
+	void setField(int type, byte[] data) throws UnsupportedEncodingException {
+		setField(createField(type, data));
+	}
+
 	/**
 	 * Saves this record to <code>file</code>.
 	 * 
@@ -520,6 +546,7 @@ public class PwsRecordV3 extends PwsRecord {
 
 		// file.writeBytes(lenBlock);
 		final byte[] dataToWrite = Util.mergeBytes(lenBlock, dataBlock);
+		((PwsFileV3) file).digestContent(dataToWrite, calcWriteLen);
 
 		for (int i = 0; i < (dataToWrite.length / 16); i++) {
 			final byte[] nextBlock = Util.getBytes(dataToWrite, i * 16, 16);
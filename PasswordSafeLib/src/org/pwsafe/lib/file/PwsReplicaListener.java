@@ -0,0 +1,42 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Defines a listener which is notified by a {@link PwsReplicaStorage} when an
+ * exchange with the remote storage needs the attention of the user. Both
+ * methods are called on the background thread of the replica.
+ *
+ * @author roxon
+ */
+public interface PwsReplicaListener {
+
+	/**
+	 * Called when the replica and the remote storage have both changed and
+	 * could not be combined. The replica holds the remote version now.
+	 *
+	 * @param aStorage the replica
+	 * @param aConflictFile the file our version is kept in
+	 */
+	void conflictKept(final PwsReplicaStorage aStorage, final File aConflictFile);
+
+	/**
+	 * Called when the reconciler failed to combine the versions. This is not
+	 * retried until the replica is saved or opened again.
+	 *
+	 * @param aStorage the replica
+	 * @param anException the failure of the reconciler
+	 */
+	void reconcileFailed(final PwsReplicaStorage aStorage, final IOException anException);
+
+}
@@ -0,0 +1,468 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Keeps a local replica of a remote storage, e.g. a {@link PwsS3Storage}, so
+ * opening and saving do not wait for the network: the safe is read from and
+ * written to the replica, and a background thread pushes saves to the remote
+ * storage and fetches changes made there by others. A failed transfer is
+ * retried with a growing delay, so the replica catches up once the remote
+ * storage is reachable again; a save not pushed before the application
+ * exits is pushed on the next open.
+ * <p>
+ * The version last exchanged with the remote storage is kept as well, as the
+ * common base of the replica and the remote storage. If both have changed,
+ * the {@link PwsStorageReconciler} combines them before the result is
+ * pushed. Without a reconciler, or if it cannot combine them, the remote
+ * version replaces the replica and ours is kept as
+ * <code>name.conflict-</code> followed by the time. If the reconciler fails
+ * it is not retried until the replica is saved or opened again. Both are
+ * reported to the {@link PwsReplicaListener}. A change of the replica by the
+ * background thread changes its modification date, so an open file notices
+ * it as if someone had saved a shared file, see {@link PwsStorageWatcher}.
+ * </p>
+ *
+ * @author roxon
+ */
+public class PwsReplicaStorage implements PwsStreamStorage {
+
+	private static final Log LOG = Log.getInstance(PwsReplicaStorage.class.getPackage().getName());
+
+	/** Extension appended to the replica for the version last exchanged */
+	public static final String BASE_EXTENSION = ".base";
+
+	/** Extension appended to the replica for our version of a conflict */
+	public static final String CONFLICT_EXTENSION = ".conflict-";
+
+	/** the longest delay between retries is this multiple of the first */
+	private static final int MAX_BACKOFF = 32;
+
+	private final PwsStreamStorage remote;
+	private final PwsFileStorage replica;
+	private final File replicaFile;
+	private final File baseFile;
+	private final PwsStorageReconciler reconciler;
+	private final long retryInterval;
+	private final ScheduledExecutorService executor;
+
+	/** serializes the exchanges with the remote storage */
+	private final Object syncLock = new Object();
+
+	private long retryDelay;
+	private Future<?> retry;
+
+	private volatile PwsReplicaListener listener;
+
+	/**
+	 * @param aRemote the remote storage
+	 * @param aReplicaFilename the name of the local replica
+	 * @param aReconciler combines versions changed on both sides, may be null
+	 * @param aRetryInterval the milliseconds before a failed transfer is first
+	 *        retried
+	 * @throws IOException never, declared by {@link PwsFileStorage}
+	 */
+	public PwsReplicaStorage(final PwsStorage aRemote, final String aReplicaFilename,
+			final PwsStorageReconciler aReconciler, final long aRetryInterval) throws IOException {
+		remote = PwsStorageAdapter.forStorage(aRemote);
+		replica = new PwsFileStorage(aReplicaFilename);
+		replicaFile = new File(aReplicaFilename);
+		baseFile = new File(aReplicaFilename + BASE_EXTENSION);
+		reconciler = aReconciler;
+		retryInterval = aRetryInterval;
+		retryDelay = aRetryInterval;
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable aRunnable) {
+				final Thread theThread = new Thread(aRunnable, "Replica sync "
+						+ replicaFile.getName());
+				theThread.setDaemon(true);
+				return theThread;
+			}
+		});
+	}
+
+	/**
+	 * @return the remote storage
+	 */
+	public PwsStorage getRemote() {
+		return remote;
+	}
+
+	/**
+	 * @param aListener told about conflicts and failures, may be null
+	 */
+	public void setListener(final PwsReplicaListener aListener) {
+		listener = aListener;
+	}
+
+	/**
+	 * Reads the replica and fetches changes in the background. Only if there
+	 * is no replica yet the remote storage is read right away.
+	 */
+	public byte[] load() throws IOException {
+		ensureReplica();
+		synchronized (this) {
+			return replica.read();
+		}
+	}
+
+	public InputStream openInput() throws IOException {
+		ensureReplica();
+		synchronized (this) {
+			return replica.openInput();
+		}
+	}
+
+	public ReadableByteChannel openChannel() throws IOException {
+		ensureReplica();
+		synchronized (this) {
+			return replica.openChannel();
+		}
+	}
+
+	/**
+	 * Writes the replica; the new content is pushed in the background once
+	 * the transaction is committed.
+	 */
+	public PwsStorageTransaction beginWrite() throws IOException {
+		final PwsStorageTransaction theTransaction = replica.beginWrite();
+		return new PwsStorageTransaction() {
+			public OutputStream getOutputStream() {
+				return theTransaction.getOutputStream();
+			}
+
+			public void commit() throws StorageException {
+				synchronized (PwsReplicaStorage.this) {
+					theTransaction.commit();
+				}
+				scheduleSync(0);
+			}
+
+			public void abort() {
+				theTransaction.abort();
+			}
+		};
+	}
+
+	public boolean save(final byte[] data) {
+		PwsStorageTransaction theTransaction = null;
+		try {
+			theTransaction = beginWrite();
+			theTransaction.getOutputStream().write(data);
+			theTransaction.commit();
+			return true;
+		} catch (final IOException e) {
+			LOG.error(e.getMessage());
+			if (theTransaction != null) {
+				theTransaction.abort();
+			}
+			return false;
+		}
+	}
+
+	public String getIdentifier() {
+		return remote.getIdentifier();
+	}
+
+	/**
+	 * @return the modification date of the replica
+	 */
+	public Date getModifiedDate() {
+		return replica.getModifiedDate();
+	}
+
+	/**
+	 * Tells whether the replica holds changes not pushed yet.
+	 *
+	 * @return true if the replica differs from the version last exchanged
+	 * @throws IOException if the replica cannot be read
+	 */
+	public boolean isPending() throws IOException {
+		synchronized (this) {
+			return replicaFile.exists() && !Arrays.equals(replica.read(), readBase());
+		}
+	}
+
+	/**
+	 * Waits until the exchanges started so far are done, e.g. before the
+	 * application exits. A failed exchange is retried later, see
+	 * {@link #isPending()}.
+	 *
+	 * @param aTimeout the milliseconds to wait at most
+	 * @return false if the time ran out
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean flush(final long aTimeout) throws InterruptedException {
+		if (executor.isShutdown()) {
+			return executor.awaitTermination(aTimeout, TimeUnit.MILLISECONDS);
+		}
+		try {
+			executor.submit(new Runnable() {
+				public void run() {
+					// all submitted before are done
+				}
+			}).get(aTimeout, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (final TimeoutException e) {
+			return false;
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stops the background thread once the exchanges started are done, e.g.
+	 * when another safe is opened. A retry not started yet is dropped, changes
+	 * not pushed yet are pushed when the replica is used the next time.
+	 */
+	public synchronized void shutdown() {
+		if (retry != null) {
+			retry.cancel(false);
+		}
+		executor.shutdown();
+	}
+
+	/** fetches the remote version if there is no replica yet */
+	private void ensureReplica() throws IOException {
+		if (replicaFile.exists()) {
+			scheduleSync(0);
+			return;
+		}
+		synchronized (syncLock) {
+			if (!replicaFile.exists()) {
+				final byte[] theirs = remote.load();
+				replace(null, theirs, theirs);
+				LOG.info("Created replica " + replicaFile);
+			}
+		}
+	}
+
+	private synchronized void scheduleSync(final long aDelay) {
+		if (executor.isShutdown()) {
+			return;
+		}
+		final Runnable theSync = new Runnable() {
+			public void run() {
+				runSync();
+			}
+		};
+		if (aDelay == 0) {
+			executor.execute(theSync);
+		} else if (retry == null || retry.isDone()) {
+			retry = executor.schedule(theSync, aDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void runSync() {
+		try {
+			sync();
+			synchronized (this) {
+				retryDelay = retryInterval;
+			}
+			return;
+		} catch (final ConcurrentModificationException e) {
+			LOG.info("Remote storage changed meanwhile, " + e.getMessage());
+		} catch (final IOException e) {
+			LOG.warn("Exchange with " + remote.getIdentifier() + " failed: " + e.getMessage());
+		} catch (final RuntimeException e) {
+			LOG.error(e);
+		}
+		final long theDelay;
+		synchronized (this) {
+			theDelay = retryDelay;
+			retryDelay = Math.min(retryDelay * 2, retryInterval * MAX_BACKOFF);
+		}
+		LOG.debug1("Retrying in {} ms", theDelay);
+		scheduleSync(theDelay);
+	}
+
+	/**
+	 * Exchanges changes with the remote storage once.
+	 *
+	 * @throws IOException if the remote storage cannot be read or written
+	 * @throws ConcurrentModificationException if the remote storage has
+	 *         changed while pushing
+	 */
+	void sync() throws IOException {
+		synchronized (syncLock) {
+			byte[] theirs;
+			try {
+				theirs = remote.load();
+			} catch (final FileNotFoundException e) {
+				theirs = null;
+			}
+			final byte[] theBase = readBase();
+			final byte[] ours;
+			synchronized (this) {
+				ours = replicaFile.exists() ? replica.read() : null;
+			}
+			if (ours == null) {
+				if (theirs != null) {
+					replace(null, theirs, theirs);
+				}
+				return;
+			}
+			if (Arrays.equals(ours, theirs)) {
+				if (!Arrays.equals(theBase, theirs)) {
+					writeBase(theirs);
+				}
+				return;
+			}
+			if (theirs != null && Arrays.equals(ours, theBase)) {
+				LOG.info("Fetched changes of " + remote.getIdentifier());
+				replace(ours, theirs, theirs);
+				return;
+			}
+			byte[] thePush = ours;
+			if (theirs != null && !Arrays.equals(theirs, theBase)) {
+				byte[] theMerged = null;
+				if (reconciler != null) {
+					try {
+						theMerged = reconciler.reconcile(ours, theirs, theBase);
+					} catch (final IOException e) {
+						// the same versions would fail again
+						LOG.error("Cannot reconcile with " + remote.getIdentifier() + ": "
+								+ e.getMessage());
+						final PwsReplicaListener theListener = listener;
+						if (theListener != null) {
+							theListener.reconcileFailed(this, e);
+						}
+						return;
+					}
+				}
+				if (theMerged == null) {
+					final File theConflict = keepConflict(ours);
+					if (!replace(ours, theirs, theirs)) {
+						theConflict.delete();
+						return; // saved meanwhile, to be compared again
+					}
+					LOG.warn("Changed on both sides, the replica is kept as " + theConflict);
+					final PwsReplicaListener theListener = listener;
+					if (theListener != null) {
+						theListener.conflictKept(this, theConflict);
+					}
+					return;
+				}
+				if (!replace(ours, theMerged, theirs)) {
+					return; // saved meanwhile, to be reconciled again
+				}
+				thePush = theMerged;
+			}
+			final PwsStorageTransaction theTransaction = remote.beginWrite();
+			boolean isCommitted = false;
+			try {
+				theTransaction.getOutputStream().write(thePush);
+				theTransaction.commit();
+				isCommitted = true;
+			} finally {
+				if (!isCommitted) {
+					theTransaction.abort();
+				}
+			}
+			writeBase(thePush);
+			LOG.info("Pushed changes to " + remote.getIdentifier());
+		}
+	}
+
+	/**
+	 * Replaces the replica unless it has been saved meanwhile.
+	 *
+	 * @return false if the replica is not the expected one any more
+	 */
+	private synchronized boolean replace(final byte[] anExpected, final byte[] aContent,
+			final byte[] aBase) throws IOException {
+		final byte[] theCurrent = replicaFile.exists() ? replica.read() : null;
+		if (!Arrays.equals(anExpected, theCurrent)) {
+			return false;
+		}
+		final PwsStorageTransaction theTransaction = replica.beginWrite();
+		boolean isCommitted = false;
+		try {
+			theTransaction.getOutputStream().write(aContent);
+			theTransaction.commit();
+			isCommitted = true;
+		} finally {
+			if (!isCommitted) {
+				theTransaction.abort();
+			}
+		}
+		writeBase(aBase);
+		return true;
+	}
+
+	/**
+	 * Writes our version of a conflict to a file of its own next to the
+	 * replica.
+	 *
+	 * @return the file
+	 */
+	private File keepConflict(final byte[] aContent) throws IOException {
+		final String theName = replicaFile.getPath() + CONFLICT_EXTENSION
+				+ new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		File theFile = new File(theName);
+		for (int i = 2; theFile.exists(); i++) {
+			theFile = new File(theName + "-" + i);
+		}
+		final OutputStream theStream = new FileOutputStream(theFile);
+		try {
+			theStream.write(aContent);
+		} finally {
+			theStream.close();
+		}
+		return theFile;
+	}
+
+	private byte[] readBase() throws IOException {
+		if (!baseFile.exists()) {
+			return null;
+		}
+		return new PwsFileStorage(baseFile.getPath()).read();
+	}
+
+	private void writeBase(final byte[] aBase) throws IOException {
+		final File theTemp = File.createTempFile("pwsafe", null, baseFile.getAbsoluteFile()
+				.getParentFile());
+		try {
+			final OutputStream theStream = new FileOutputStream(theTemp);
+			try {
+				theStream.write(aBase);
+			} finally {
+				theStream.close();
+			}
+			if (baseFile.exists() && !baseFile.delete() || !theTemp.renameTo(baseFile)) {
+				throw new StorageException("Could not replace " + baseFile);
+			}
+		} finally {
+			theTemp.delete();
+		}
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.exception.StorageException;
+
+import com.amazonaws.crypto.Base64;
+
+/**
+ * Transfers objects as binary bodies through the S3 REST interface, which
+ * the SOAP client of the S3 library lacks: GET may be conditional on an ETag,
+ * PUT sends the Content-MD5 and may be conditional on the ETag of the object
+ * it replaces. Requests are signed by the AWS signature version 4, for which
+ * the region of the bucket must be known; if S3 tells another one the request
+ * is sent again for that region.
+ *
+ * @author roxon
+ */
+class PwsS3Client {
+
+	private static final Log LOG = Log.getInstance(PwsS3Client.class.getPackage().getName());
+
+	/** the S3 endpoint, path style addressing */
+	static final String DEFAULT_ENDPOINT = "https://s3.amazonaws.com";
+
+	/** the region assumed for a bucket until S3 tells another one */
+	static final String DEFAULT_REGION = "us-east-1";
+
+	private static final String CONTENT_TYPE = "application/octet-stream";
+
+	private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+
+	/** the response header telling the region of a bucket */
+	private static final String REGION_HEADER = "x-amz-bucket-region";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final String keyId;
+	private final String secretKey;
+	private final boolean isDefaultEndpoint;
+
+	private volatile String endpoint;
+	private volatile String region;
+
+	/**
+	 * @param anEndpoint the URL of the S3 service without trailing slash
+	 * @param aRegion the region of the bucket
+	 * @param aKeyId the access key id
+	 * @param aSecretKey the secret access key
+	 */
+	PwsS3Client(final String anEndpoint, final String aRegion, final String aKeyId,
+			final String aSecretKey) {
+		endpoint = anEndpoint;
+		region = aRegion;
+		keyId = aKeyId;
+		secretKey = aSecretKey;
+		isDefaultEndpoint = DEFAULT_ENDPOINT.equals(anEndpoint);
+	}
+
+	/**
+	 * @return the region requests are signed for
+	 */
+	String getRegion() {
+		return region;
+	}
+
+	/**
+	 * Gets an object unless it still has the given ETag.
+	 *
+	 * @param aBucket the bucket
+	 * @param aKey the key of the object
+	 * @param anEtag the ETag of the copy at hand or null
+	 * @param aBody receives the body of the object if it has changed
+	 * @return the current ETag of the object, null if it is still
+	 *         <code>anEtag</code>
+	 * @throws FileNotFoundException if there is no such object
+	 * @throws IOException if the transfer fails
+	 */
+	String get(final String aBucket, final String aKey, final String anEtag,
+			final OutputStream aBody) throws IOException {
+		HttpURLConnection theConnection;
+		int theStatus;
+		boolean isRetried = false;
+		while (true) {
+			theConnection = open("GET", aBucket, aKey, null, null);
+			if (anEtag != null) {
+				theConnection.setRequestProperty("If-None-Match", quote(anEtag));
+			}
+			theStatus = theConnection.getResponseCode();
+			if (isRetried || !isOtherRegion(theConnection)) {
+				break;
+			}
+			isRetried = true;
+			theConnection.disconnect();
+		}
+		try {
+			if (theStatus == HttpURLConnection.HTTP_NOT_MODIFIED) {
+				LOG.debug1("{} not modified", aKey);
+				return null;
+			}
+			if (theStatus == HttpURLConnection.HTTP_NOT_FOUND) {
+				throw new FileNotFoundException("No object " + aBucket + "/" + aKey);
+			}
+			check(theConnection, theStatus);
+			final InputStream theStream = theConnection.getInputStream();
+			try {
+				final byte[] theBuffer = new byte[BUFFER_SIZE];
+				int theRead;
+				while ((theRead = theStream.read(theBuffer)) > 0) {
+					aBody.write(theBuffer, 0, theRead);
+				}
+			} finally {
+				theStream.close();
+			}
+			return unquote(theConnection.getHeaderField("ETag"));
+		} finally {
+			theConnection.disconnect();
+		}
+	}
+
+	/**
+	 * Puts an object if the current one still has the given ETag, or if
+	 * there is none yet.
+	 *
+	 * @param aBucket the bucket
+	 * @param aKey the key of the object
+	 * @param someBytes the body
+	 * @param aLength the length of the body
+	 * @param anMd5 the MD5 digest of the body
+	 * @param anEtag the ETag of the object to replace or null if there should
+	 *        be no object yet
+	 * @return the ETag of the new object
+	 * @throws ConcurrentModificationException if the object has been
+	 *         replaced by someone else meanwhile
+	 * @throws IOException if the transfer fails
+	 */
+	String put(final String aBucket, final String aKey, final byte[] someBytes,
+			final int aLength, final byte[] anMd5, final String anEtag) throws IOException {
+		final String theMd5 = Base64.encodeBytes(anMd5);
+		final String thePayloadHash = sha256Hex(someBytes, aLength);
+		boolean isRetried = false;
+		while (true) {
+			final HttpURLConnection theConnection = open("PUT", aBucket, aKey, theMd5,
+					thePayloadHash);
+			if (anEtag != null) {
+				theConnection.setRequestProperty("If-Match", quote(anEtag));
+			} else {
+				theConnection.setRequestProperty("If-None-Match", "*");
+			}
+			theConnection.setDoOutput(true);
+			theConnection.setFixedLengthStreamingMode(aLength);
+			try {
+				final OutputStream theStream = theConnection.getOutputStream();
+				try {
+					theStream.write(someBytes, 0, aLength);
+				} finally {
+					theStream.close();
+				}
+				final int theStatus = theConnection.getResponseCode();
+				if (!isRetried && isOtherRegion(theConnection)) {
+					isRetried = true;
+					continue;
+				}
+				if (theStatus == HttpURLConnection.HTTP_PRECON_FAILED) {
+					throw new ConcurrentModificationException(
+							"Password store was changed independently - no save possible!");
+				}
+				check(theConnection, theStatus);
+				return unquote(theConnection.getHeaderField("ETag"));
+			} finally {
+				theConnection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Opens a connection with the signed headers set.
+	 *
+	 * @param aPayloadHash the hex SHA-256 digest of the body, null if there
+	 *        is none
+	 */
+	private HttpURLConnection open(final String aVerb, final String aBucket, final String aKey,
+			final String anMd5, final String aPayloadHash) throws IOException {
+		final String thePath = "/" + encodePath(aBucket) + "/" + encodePath(aKey);
+		final URL theUrl = new URL(endpoint + thePath);
+		final HttpURLConnection theConnection = (HttpURLConnection) theUrl.openConnection();
+		theConnection.setRequestMethod(aVerb);
+		theConnection.setUseCaches(false);
+
+		final SimpleDateFormat theFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'",
+				Locale.US);
+		theFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		final SortedMap<String, String> theHeaders = new TreeMap<String, String>();
+		theHeaders.put("host", theUrl.getPort() < 0 ? theUrl.getHost() : theUrl.getHost() + ":"
+				+ theUrl.getPort());
+		theHeaders.put("x-amz-date", theFormat.format(new Date()));
+		theHeaders.put("x-amz-content-sha256", aPayloadHash == null ? sha256Hex(new byte[0], 0)
+				: aPayloadHash);
+		if (anMd5 != null) {
+			theHeaders.put("content-md5", anMd5);
+			theHeaders.put("content-type", CONTENT_TYPE);
+		}
+		for (final Map.Entry<String, String> theHeader : theHeaders.entrySet()) {
+			if (!"host".equals(theHeader.getKey())) {
+				theConnection.setRequestProperty(theHeader.getKey(), theHeader.getValue());
+			}
+		}
+		theConnection.setRequestProperty("Authorization", authorize(keyId, secretKey, region,
+				aVerb, thePath, theHeaders));
+		return theConnection;
+	}
+
+	/**
+	 * Tells whether S3 rejected a request because the bucket is in another
+	 * region, and if so signs the following requests for that region.
+	 */
+	private boolean isOtherRegion(final HttpURLConnection aConnection) {
+		final String theRegion = aConnection.getHeaderField(REGION_HEADER);
+		if (theRegion == null || theRegion.equals(region)) {
+			return false;
+		}
+		LOG.info("S3 bucket is in region " + theRegion + ", not " + region);
+		region = theRegion;
+		if (isDefaultEndpoint) {
+			endpoint = "https://s3." + theRegion + ".amazonaws.com";
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the Authorization header of the AWS signature version 4 for a
+	 * request without query parameters.
+	 *
+	 * @param aKeyId the access key id
+	 * @param aSecretKey the secret access key
+	 * @param aRegion the region of the bucket
+	 * @param aVerb the HTTP method
+	 * @param aPath the encoded path of the request
+	 * @param someHeaders the headers to sign by lower case name, including
+	 *        host, x-amz-date and x-amz-content-sha256
+	 * @return the value of the Authorization header
+	 * @throws StorageException if the request cannot be signed
+	 */
+	static String authorize(final String aKeyId, final String aSecretKey, final String aRegion,
+			final String aVerb, final String aPath, final SortedMap<String, String> someHeaders)
+			throws StorageException {
+		final StringBuilder theHeaders = new StringBuilder();
+		final StringBuilder theNames = new StringBuilder();
+		for (final Map.Entry<String, String> theHeader : someHeaders.entrySet()) {
+			theHeaders.append(theHeader.getKey()).append(':').append(theHeader.getValue().trim())
+					.append('\n');
+			if (theNames.length() > 0) {
+				theNames.append(';');
+			}
+			theNames.append(theHeader.getKey());
+		}
+		final String theRequest = aVerb + "\n" + aPath + "\n\n" + theHeaders + "\n" + theNames
+				+ "\n" + someHeaders.get("x-amz-content-sha256");
+
+		final String theTime = someHeaders.get("x-amz-date");
+		final String theDay = theTime.substring(0, 8);
+		final String theScope = theDay + "/" + aRegion + "/s3/aws4_request";
+		final String theText = ALGORITHM + "\n" + theTime + "\n" + theScope + "\n"
+				+ sha256Hex(utf8(theRequest), utf8(theRequest).length);
+
+		byte[] theKey = hmac(utf8("AWS4" + aSecretKey), theDay);
+		theKey = hmac(theKey, aRegion);
+		theKey = hmac(theKey, "s3");
+		theKey = hmac(theKey, "aws4_request");
+		return ALGORITHM + " Credential=" + aKeyId + "/" + theScope + ", SignedHeaders="
+				+ theNames + ", Signature=" + Util.bytesToHex(hmac(theKey, theText));
+	}
+
+	private static byte[] hmac(final byte[] aKey, final String aText) throws StorageException {
+		try {
+			final Mac theMac = Mac.getInstance("HmacSHA256");
+			theMac.init(new SecretKeySpec(aKey, "HmacSHA256"));
+			return theMac.doFinal(utf8(aText));
+		} catch (final GeneralSecurityException e) {
+			throw new StorageException("Cannot sign the S3 request", e);
+		}
+	}
+
+	private static String sha256Hex(final byte[] someBytes, final int aLength)
+			throws StorageException {
+		try {
+			final MessageDigest theDigest = MessageDigest.getInstance("SHA-256");
+			theDigest.update(someBytes, 0, aLength);
+			return Util.bytesToHex(theDigest.digest());
+		} catch (final GeneralSecurityException e) {
+			throw new StorageException("Cannot sign the S3 request", e);
+		}
+	}
+
+	private static byte[] utf8(final String aText) throws StorageException {
+		try {
+			return aText.getBytes("UTF-8");
+		} catch (final IOException e) {
+			throw new StorageException("Cannot sign the S3 request", e);
+		}
+	}
+
+	/**
+	 * Encodes a bucket name or key for the path, as S3 expects it in the
+	 * signature: everything but unreserved characters and slashes.
+	 */
+	private static String encodePath(final String aName) throws StorageException {
+		try {
+			return URLEncoder.encode(aName, "UTF-8").replace("+", "%20").replace("*", "%2A")
+					.replace("%7E", "~").replace("%2F", "/");
+		} catch (final IOException e) {
+			throw new StorageException("Cannot encode " + aName, e);
+		}
+	}
+
+	private static void check(final HttpURLConnection aConnection, final int aStatus)
+			throws StorageException {
+		if (aStatus / 100 != 2) {
+			throw new StorageException("S3 request failed: " + aStatus + " "
+					+ aConnection.getHeaderField(0));
+		}
+	}
+
+	private static String quote(final String anEtag) {
+		return '"' + anEtag + '"';
+	}
+
+	private static String unquote(final String anEtag) {
+		if (anEtag != null && anEtag.length() >= 2 && anEtag.startsWith("\"")
+				&& anEtag.endsWith("\"")) {
+			return anEtag.substring(1, anEtag.length() - 1);
+		}
+		return anEtag;
+	}
+}
@@ -9,30 +9,53 @@
  */
 package org.pwsafe.lib.file;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Date;
 
 import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
 import org.pwsafe.lib.crypto.SHA1;
 import org.pwsafe.lib.exception.EndOfFileException;
 import org.pwsafe.lib.exception.PasswordSafeException;
+import org.pwsafe.lib.exception.StorageException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
 
 import com.amazonaws.crypto.Base64;
 import com.amazonaws.s3.S3;
 import com.amazonaws.s3.S3Bucket;
-import com.amazonaws.s3.S3Object;
 
 /**
  * This is an implementation of the storage interface that uses S3 as the
  * backend.
+ * <p>
+ * The safe is transferred as binary object through the S3 REST interface.
+ * The last copy read or written is kept in a local cache file next to the
+ * account file, together with its ETag: loading is a conditional GET which
+ * transfers nothing if the object is unchanged, and saving is a conditional
+ * PUT which fails with a {@link java.util.ConcurrentModificationException} if
+ * someone else has saved meanwhile. Objects written Base64 encoded by former
+ * versions are still read.
+ * </p>
  * 
  * @author mtiller
  * 
  */
-public class PwsS3Storage implements PwsStorage {
+public class PwsS3Storage implements PwsStreamStorage {
 	private static final Log LOG = Log.getInstance(PwsS3Storage.class.getPackage().getName());
 
 	/**
@@ -41,6 +64,36 @@ public class PwsS3Storage implements PwsStorage {
 	 */
 	public static final String FILE_EXTENSION = ".pws3";
 
+	/**
+	 * Extension appended to the name of the local account file for the cache
+	 * of the safe.
+	 */
+	public static final String CACHE_EXTENSION = ".s3cache";
+
+	/**
+	 * System property to override the S3 endpoint, e.g. for an S3 compatible
+	 * service.
+	 */
+	public static final String ENDPOINT_PROPERTY = "org.pwsafe.lib.file.s3.endpoint";
+
+	/**
+	 * System property to set the region of the buckets, which otherwise is
+	 * learnt from the first request.
+	 */
+	public static final String REGION_PROPERTY = "org.pwsafe.lib.file.s3.region";
+
+	/**
+	 * Extension appended to the name of the local account file for the
+	 * replica the safe is opened from, see {@link #openReplicated}.
+	 */
+	public static final String REPLICA_EXTENSION = ".replica";
+
+	/** the milliseconds before a failed transfer of the replica is retried */
+	private static final long REPLICA_RETRY_INTERVAL = 15000;
+
+	/** the start of a V3 safe encoded by former versions */
+	private static final byte[] LEGACY_TAG = "UFdTM".getBytes();
+
 	/**
 	 * A helper class to hold the Amazon S3 credentials. This will probably be
 	 * refactored as the handling of this information is improved.
@@ -124,6 +177,15 @@ public class PwsS3Storage implements PwsStorage {
 	/** The local PWsFile where S3 credentials are stored */
 	private PwsFileV3 localFile;
 
+	/** transfers the safe */
+	private PwsS3Client client;
+
+	/** the local copy of the safe */
+	private final File cacheFile;
+
+	/** the ETag of the local copy, null if not known yet */
+	private String etag;
+
 	/**
 	 * Constructs an instance of an Amazon S3 storage provider. FIXME: does too
 	 * much, split up in a create new and open existing.
@@ -137,6 +199,7 @@ public class PwsS3Storage implements PwsStorage {
 	 */
 	public PwsS3Storage(String aFilename, AccountDetails acc, String passphrase) throws IOException {
 		filename = aFilename;
+		cacheFile = new File(aFilename + CACHE_EXTENSION);
 
 		final File theFile = new File(aFilename);
 		if (theFile.exists()) {
@@ -164,6 +227,7 @@ public class PwsS3Storage implements PwsStorage {
 			account = new AccountDetails(bucket, keyId, secretKey);
 			/** Note the use of HTTPS in the connection. */
 			s3 = new S3(S3.HTTPS_URL, account.keyId, account.secretKey);
+			client = createClient(account);
 		} else {
 			account = acc;
 			localFile = new PwsFileV3();
@@ -188,6 +252,7 @@ public class PwsS3Storage implements PwsStorage {
 					&& acc.secretKey != null) {
 				/** Note the use of HTTPS in the connection. */
 				s3 = new S3(S3.HTTPS_URL, account.keyId, account.secretKey);
+				client = createClient(account);
 				final String hash = account.getHashedName();
 				S3Bucket aBucket = null;
 				try {
@@ -223,41 +288,260 @@ public class PwsS3Storage implements PwsStorage {
 	}
 
 	/**
-	 * This method grabs the data from S3 (in one shot) and then constructs a
-	 * ByteArrayInputStream for use at the PwsFile level.
+	 * Constructs a storage for existing account details without touching the
+	 * local account file or the bucket.
+	 * 
+	 * @param aFilename the name of the local account file
+	 * @param acc the account details
+	 * @param aClient the client to transfer the safe
+	 */
+	PwsS3Storage(final String aFilename, final AccountDetails acc, final PwsS3Client aClient) {
+		filename = aFilename;
+		cacheFile = new File(aFilename + CACHE_EXTENSION);
+		account = acc;
+		client = aClient;
+	}
+
+	/**
+	 * Opens an S3 storage through a local replica, so the safe is read and
+	 * written without waiting for S3, see {@link PwsReplicaStorage}. Changes
+	 * made on S3 meanwhile are merged with the passphrase.
 	 * 
+	 * @param aFilename the name of the local account file
+	 * @param acc the account details, only required for a new storage
+	 * @param passphrase the passphrase of the account file and the safe
+	 * @return the replicated storage
+	 * @throws IOException if the account file cannot be read or written
+	 */
+	public static PwsReplicaStorage openReplicated(final String aFilename,
+			final AccountDetails acc, final String passphrase) throws IOException {
+		return new PwsReplicaStorage(new PwsS3Storage(aFilename, acc, passphrase), aFilename
+				+ REPLICA_EXTENSION, new PwsMergingReconciler(passphrase), REPLICA_RETRY_INTERVAL);
+	}
+
+	private static PwsS3Client createClient(final AccountDetails anAccount) {
+		return new PwsS3Client(System.getProperty(ENDPOINT_PROPERTY,
+				PwsS3Client.DEFAULT_ENDPOINT), System.getProperty(REGION_PROPERTY,
+				PwsS3Client.DEFAULT_REGION), anAccount.keyId, anAccount.secretKey);
+	}
+
+	/**
+	 * This method grabs the data from S3, unless the cached copy is still
+	 * current.
 	 */
 	public byte[] load() throws IOException {
+		final InputStream theInput = openInput();
 		try {
-			/* Get the S3 object */
-			final S3Object obj = s3.getObject(account.getHashedName(), DEFAULT_KEY);
-			/* Grab the associated data */
-			final String data = obj.getData();
-			/* Decode the string into bytes */
-			final byte[] bytes = Base64.decode(data.getBytes());
-			return bytes;
-		} catch (final Exception e) {
-			throw new IOException("Unable to load bucket " + account.getHashedName() + ": "
-					+ e.getMessage());
+			final ByteArrayOutputStream theBytes = new ByteArrayOutputStream();
+			final byte[] theBuffer = new byte[8192];
+			int theRead;
+			while ((theRead = theInput.read(theBuffer)) > 0) {
+				theBytes.write(theBuffer, 0, theRead);
+			}
+			return theBytes.toByteArray();
+		} finally {
+			theInput.close();
+		}
+	}
+
+	/**
+	 * Fetches the safe from S3 into the cache unless the cache is current, and
+	 * opens the cache.
+	 */
+	public synchronized InputStream openInput() throws IOException {
+		fetch();
+		final InputStream theInput = new BufferedInputStream(new FileInputStream(cacheFile));
+		final byte[] theTag = new byte[LEGACY_TAG.length];
+		theInput.mark(theTag.length);
+		final int theRead = theInput.read(theTag);
+		theInput.reset();
+		if (theRead == theTag.length && Arrays.equals(LEGACY_TAG, theTag)) {
+			LOG.debug1("Decoding Base64 object " + DEFAULT_KEY);
+			try {
+				final ByteArrayOutputStream theEncoded = new ByteArrayOutputStream();
+				final byte[] theBuffer = new byte[8192];
+				int theCount;
+				while ((theCount = theInput.read(theBuffer)) > 0) {
+					theEncoded.write(theBuffer, 0, theCount);
+				}
+				return new ByteArrayInputStream(Base64.decode(theEncoded.toByteArray()));
+			} finally {
+				theInput.close();
+			}
 		}
+		return theInput;
+	}
+
+	public ReadableByteChannel openChannel() throws IOException {
+		return Channels.newChannel(openInput());
+	}
+
+	/**
+	 * Starts writing the safe, which is uploaded on commit if the object on S3
+	 * is still the one read or written last.
+	 */
+	public PwsStorageTransaction beginWrite() throws IOException {
+		final MessageDigest theDigest = newMd5();
+		final ByteArrayOutputStream theBuffer = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void reset() {
+				Arrays.fill(buf, (byte) 0);
+				super.reset();
+			}
+		};
+		final OutputStream theStream = new DigestOutputStream(theBuffer, theDigest);
+		return new PwsStorageTransaction() {
+			private boolean done;
+
+			public OutputStream getOutputStream() {
+				return theStream;
+			}
+
+			public void commit() throws StorageException {
+				if (done) {
+					throw new IllegalStateException("Transaction already ended");
+				}
+				done = true;
+				try {
+					upload(theBuffer.toByteArray(), theDigest.digest());
+				} catch (final StorageException e) {
+					throw e;
+				} catch (final IOException e) {
+					throw new StorageException("Unable to save to bucket "
+							+ account.getHashedName() + ": " + e.getMessage(), e);
+				} finally {
+					theBuffer.reset();
+				}
+			}
+
+			public void abort() {
+				done = true;
+				theBuffer.reset();
+			}
+		};
 	}
 
 	/**
 	 * This method saves all the data back to S3 (in one shot).
 	 */
 	public boolean save(byte[] bytes) {
-		/* Turn the bytes into a String for S3 */
-		final String data = Base64.encodeBytes(bytes);
+		PwsStorageTransaction theTransaction = null;
 		try {
-			/* Upload the S3 object */
-			s3.putObjectInline(account.getHashedName(), DEFAULT_KEY, data);
+			theTransaction = beginWrite();
+			theTransaction.getOutputStream().write(bytes);
+			theTransaction.commit();
 			return true;
-		} catch (final Exception e) {
-			e.printStackTrace(System.err);
+		} catch (final IOException e) {
+			LOG.error(e.getMessage());
+			if (theTransaction != null) {
+				theTransaction.abort();
+			}
 			return false;
 		}
 	}
 
+	/**
+	 * Gets the object into the cache if its ETag differs from the cached one.
+	 */
+	private void fetch() throws IOException {
+		if (!cacheFile.exists()) {
+			etag = null;
+		} else if (etag == null) {
+			etag = md5Hex(cacheFile);
+		}
+		final File theTemp = File.createTempFile("pwsafe", null, cacheFile.getAbsoluteFile()
+				.getParentFile());
+		try {
+			final MessageDigest theDigest = newMd5();
+			final OutputStream theStream = new DigestOutputStream(new BufferedOutputStream(
+					new FileOutputStream(theTemp)), theDigest);
+			final String theEtag;
+			try {
+				theEtag = client.get(account.getHashedName(), DEFAULT_KEY, etag, theStream);
+			} finally {
+				theStream.close();
+			}
+			if (theEtag == null) {
+				return;
+			}
+			final String theMd5 = Util.bytesToHex(theDigest.digest());
+			if (isMd5(theEtag) && !theEtag.equalsIgnoreCase(theMd5)) {
+				throw new StorageException("Corrupted transfer from bucket "
+						+ account.getHashedName());
+			}
+			replaceCache(theTemp);
+			etag = theMd5;
+			LOG.debug1("Fetched " + DEFAULT_KEY + " with ETag {}", theEtag);
+		} finally {
+			theTemp.delete();
+		}
+	}
+
+	private synchronized void upload(final byte[] someBytes, final byte[] aDigest)
+			throws IOException {
+		final String theMd5 = Util.bytesToHex(aDigest);
+		final String theEtag = client.put(account.getHashedName(), DEFAULT_KEY, someBytes,
+				someBytes.length, aDigest, etag);
+		if (isMd5(theEtag) && !theEtag.equalsIgnoreCase(theMd5)) {
+			etag = null;
+			throw new StorageException("Corrupted transfer to bucket " + account.getHashedName());
+		}
+		final File theTemp = File.createTempFile("pwsafe", null, cacheFile.getAbsoluteFile()
+				.getParentFile());
+		try {
+			final OutputStream theStream = new FileOutputStream(theTemp);
+			try {
+				theStream.write(someBytes);
+			} finally {
+				theStream.close();
+			}
+			replaceCache(theTemp);
+			etag = theMd5;
+		} catch (final IOException e) {
+			// the next load fetches the object again
+			LOG.warn("Could not update " + cacheFile + ": " + e.getMessage());
+			cacheFile.delete();
+			etag = null;
+		} finally {
+			Arrays.fill(someBytes, (byte) 0);
+			theTemp.delete();
+		}
+	}
+
+	private void replaceCache(final File aFile) throws StorageException {
+		if (cacheFile.exists() && !cacheFile.delete() || !aFile.renameTo(cacheFile)) {
+			throw new StorageException("Could not replace " + cacheFile);
+		}
+	}
+
+	/** an ETag is the MD5 digest of the object unless it was uploaded in parts */
+	private static boolean isMd5(final String anEtag) {
+		return anEtag != null && anEtag.matches("[0-9a-fA-F]{32}");
+	}
+
+	private static MessageDigest newMd5() throws StorageException {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new StorageException("No MD5 implementation", e);
+		}
+	}
+
+	private static String md5Hex(final File aFile) throws IOException {
+		final MessageDigest theDigest = newMd5();
+		final InputStream theInput = new FileInputStream(aFile);
+		try {
+			final byte[] theBuffer = new byte[8192];
+			int theRead;
+			while ((theRead = theInput.read(theBuffer)) > 0) {
+				theDigest.update(theBuffer, 0, theRead);
+			}
+		} finally {
+			theInput.close();
+		}
+		return Util.bytesToHex(theDigest.digest());
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -293,6 +577,8 @@ public class PwsS3Storage implements PwsStorage {
 			if (myBucketExists()) {
 				s3.deleteObject(hash, DEFAULT_KEY);
 				s3.deleteBucket(hash);
+				cacheFile.delete();
+				etag = null;
 				return true;
 			} else {
 				return false;
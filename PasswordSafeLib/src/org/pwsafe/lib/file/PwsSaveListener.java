@@ -0,0 +1,28 @@
+/*
+ * $Id$
+ * 
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+/**
+ * Defines a listener which is notified before a file is saved, allowing to
+ * apply pending changes to its records.
+ * 
+ * @author roxon
+ *
+ */
+public interface PwsSaveListener {
+
+	/**
+	 * Called before the records of a file are written.
+	 * 
+	 * @param aFile the file about to be saved.
+	 */
+	void saving(final PwsFile aFile);
+
+}
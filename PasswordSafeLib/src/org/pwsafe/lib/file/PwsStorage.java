@@ -23,6 +23,9 @@ import java.util.Date;
  * Note that all bytes handled by IO functions in this interface are <b>already
  * encrypted</b>. This interface does not handle any unencrypted data.
  * 
+ * New implementations should rather implement {@link PwsStreamStorage}, which
+ * reads and writes streams and reports failures as exceptions.
+ * 
  * @author mtiller
  * 
  */
@@ -0,0 +1,111 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Date;
+
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Makes a {@link PwsStorage} of the first generation usable as a
+ * {@link PwsStreamStorage}: the content is loaded and saved in one piece, as
+ * before.
+ *
+ * @author roxon
+ */
+public class PwsStorageAdapter implements PwsStreamStorage {
+
+	private final PwsStorage storage;
+
+	/**
+	 * @param aStorage the storage to adapt
+	 */
+	public PwsStorageAdapter(final PwsStorage aStorage) {
+		storage = aStorage;
+	}
+
+	/**
+	 * Returns a storage as stream storage, adapting it if needed.
+	 *
+	 * @param aStorage the storage
+	 * @return the storage itself if it is a stream storage, an adapter
+	 *         otherwise
+	 */
+	public static PwsStreamStorage forStorage(final PwsStorage aStorage) {
+		if (aStorage instanceof PwsStreamStorage) {
+			return (PwsStreamStorage) aStorage;
+		}
+		return new PwsStorageAdapter(aStorage);
+	}
+
+	/**
+	 * @return the adapted storage
+	 */
+	public PwsStorage getStorage() {
+		return storage;
+	}
+
+	public byte[] load() throws IOException {
+		return storage.load();
+	}
+
+	public boolean save(final byte[] data) {
+		return storage.save(data);
+	}
+
+	public String getIdentifier() {
+		return storage.getIdentifier();
+	}
+
+	public Date getModifiedDate() {
+		return storage.getModifiedDate();
+	}
+
+	public InputStream openInput() throws IOException {
+		return new ByteArrayInputStream(storage.load());
+	}
+
+	public ReadableByteChannel openChannel() throws IOException {
+		return Channels.newChannel(openInput());
+	}
+
+	public PwsStorageTransaction beginWrite() {
+		final ByteArrayOutputStream theBuffer = new ByteArrayOutputStream();
+		return new PwsStorageTransaction() {
+			private boolean done;
+
+			public OutputStream getOutputStream() {
+				return theBuffer;
+			}
+
+			public void commit() throws StorageException {
+				if (done) {
+					throw new IllegalStateException("Transaction already ended");
+				}
+				done = true;
+				if (!storage.save(theBuffer.toByteArray())) {
+					throw new StorageException("Could not save " + storage.getIdentifier());
+				}
+			}
+
+			public void abort() {
+				done = true;
+				theBuffer.reset();
+			}
+		};
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+/**
+ * Defines a listener which is notified by a {@link PwsStorageWatcher} when
+ * the storage of a file has been changed by someone else.
+ *
+ * @author roxon
+ */
+public interface PwsStorageListener {
+
+	/**
+	 * Called on the thread of the watcher, so the new content may be read
+	 * right away without blocking anybody.
+	 *
+	 * @param aFile the file whose storage has changed
+	 */
+	void storageChanged(final PwsFile aFile);
+
+}
@@ -0,0 +1,32 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+
+/**
+ * Combines two versions of the (encrypted) content of a storage that were
+ * written independently, see {@link PwsReplicaStorage}.
+ *
+ * @author roxon
+ */
+public interface PwsStorageReconciler {
+
+	/**
+	 * Combines our version with theirs.
+	 *
+	 * @param ours our version
+	 * @param theirs their version
+	 * @param base the version both started from or null if unknown
+	 * @return the combined version or null if they cannot be combined
+	 * @throws IOException if a version cannot be read
+	 */
+	byte[] reconcile(byte[] ours, byte[] theirs, byte[] base) throws IOException;
+}
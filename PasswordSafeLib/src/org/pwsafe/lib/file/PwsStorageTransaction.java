@@ -0,0 +1,44 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.OutputStream;
+
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Writes new content to a {@link PwsStreamStorage}. The content replaces the
+ * current one on {@link #commit()} only; {@link #abort()} drops it. Either
+ * has to be called once, abort may be called after a failed commit.
+ *
+ * @author roxon
+ */
+public interface PwsStorageTransaction {
+
+	/**
+	 * @return the stream to write the new content to, closed by commit or
+	 *         abort
+	 */
+	OutputStream getOutputStream();
+
+	/**
+	 * Replaces the content of the storage by the written one.
+	 *
+	 * @throws StorageException if the content could not be replaced, the
+	 *         current content is kept then
+	 */
+	void commit() throws StorageException;
+
+	/**
+	 * Drops the written content.
+	 */
+	void abort();
+
+}
@@ -0,0 +1,108 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.pwsafe.lib.Log;
+
+/**
+ * Watches the storage of an open file for changes by someone else, e.g. on a
+ * shared drive, by polling its modification date. A change is reported once
+ * the date has stayed the same for two polls, so a file still being written
+ * is not read half way.
+ *
+ * @author roxon
+ */
+public class PwsStorageWatcher {
+
+	private static final Log LOG = Log.getInstance(PwsStorageWatcher.class.getPackage().getName());
+
+	private final PwsFile file;
+	private final long interval;
+	private final PwsStorageListener listener;
+
+	private Timer timer;
+
+	/** the date seen by the last poll */
+	private Date pending;
+
+	/** the date last reported */
+	private Date reported;
+
+	/**
+	 * @param aFile the file to watch
+	 * @param anInterval the milliseconds between two polls
+	 * @param aListener the listener to notify
+	 */
+	public PwsStorageWatcher(final PwsFile aFile, final long anInterval,
+			final PwsStorageListener aListener) {
+		file = aFile;
+		interval = anInterval;
+		listener = aListener;
+	}
+
+	/**
+	 * Starts polling on a daemon thread.
+	 */
+	public synchronized void start() {
+		if (timer != null) {
+			return;
+		}
+		timer = new Timer("Storage watcher", true); //$NON-NLS-1$
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				poll();
+			}
+		}, interval, interval);
+	}
+
+	/**
+	 * Stops polling. A notification running meanwhile is completed.
+	 */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Checks the storage once and notifies the listener if it has changed and
+	 * settled.
+	 */
+	void poll() {
+		final PwsStorage theStorage = file.getStorage();
+		final Date theLastChange = file.lastStorageChange;
+		if (theStorage == null || theLastChange == null) {
+			return;
+		}
+		final Date theModified = theStorage.getModifiedDate();
+		if (theModified == null || !theModified.after(theLastChange)
+				|| theModified.equals(reported)) {
+			pending = null;
+			return;
+		}
+		if (!theModified.equals(pending)) {
+			pending = theModified;
+			return;
+		}
+		reported = theModified;
+		LOG.info("Storage changed at " + theModified);
+		try {
+			listener.storageChanged(file);
+		} catch (final RuntimeException e) {
+			LOG.error(e);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+
+/**
+ * Opens several safes at the same time, e.g. a personal safe and some team
+ * safes. Each safe is loaded by {@link PwsFileFactory#loadStore(String,
+ * StringBuilder)} on a thread of a bounded pool, so opening them all takes
+ * about as long as the slowest one as long as there are enough processors
+ * for the key stretching. The pool also runs the helper tasks of an open,
+ * like the second key stretching of {@link PwsFileV3}.
+ *
+ * @author roxon
+ */
+public class PwsStoreOpener {
+
+	private static final Log LOG = Log.getInstance(PwsStoreOpener.class.getPackage().getName());
+
+	/** the most threads of the shared opener */
+	private static final int MAX_SHARED_THREADS = 4;
+
+	private static PwsStoreOpener shared;
+
+	/** the opener of the safe being opened on the current thread */
+	private static final ThreadLocal<PwsStoreOpener> CURRENT = new ThreadLocal<PwsStoreOpener>();
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param aThreads the number of safes opened at the same time
+	 */
+	public PwsStoreOpener(final int aThreads) {
+		final AtomicInteger theNumber = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(aThreads, new ThreadFactory() {
+			public Thread newThread(final Runnable aRunnable) {
+				final Thread theThread = new Thread(aRunnable, "Safe opener "
+						+ theNumber.incrementAndGet());
+				theThread.setDaemon(true);
+				return theThread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the opener shared by the application, with one thread per
+	 * processor up to four. A new one is created if it has been shut down.
+	 *
+	 * @return the shared opener
+	 */
+	public static synchronized PwsStoreOpener getShared() {
+		if (shared == null) {
+			shared = new PwsStoreOpener(Math.min(Runtime.getRuntime().availableProcessors(),
+					MAX_SHARED_THREADS));
+		}
+		return shared;
+	}
+
+	/**
+	 * Starts opening a safe. The passphrase is copied, the caller may clear
+	 * it right away.
+	 *
+	 * @param aFilename the name of the file
+	 * @param aPassphrase the passphrase of the file
+	 * @return the future store; its get throws the exceptions of
+	 *         {@link PwsFileFactory#loadStore(String, StringBuilder)} wrapped
+	 *         in an {@link java.util.concurrent.ExecutionException}
+	 */
+	public Future<PwsEntryStore> open(final String aFilename, final StringBuilder aPassphrase) {
+		final StringBuilder thePassphrase = new StringBuilder(aPassphrase);
+		return executor.submit(new Callable<PwsEntryStore>() {
+			public PwsEntryStore call() throws Exception {
+				CURRENT.set(PwsStoreOpener.this);
+				try {
+					final PwsEntryStore theStore = PwsFileFactory.loadStore(aFilename,
+							thePassphrase);
+					LOG.debug1("Opened {} on {}", aFilename, Thread.currentThread().getName());
+					return theStore;
+				} finally {
+					CURRENT.remove();
+					Util.clear(thePassphrase);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Starts opening several safes.
+	 *
+	 * @param someSafes the passphrases by file name
+	 * @return the future stores in the order of the map
+	 */
+	public List<Future<PwsEntryStore>> openAll(final Map<String, StringBuilder> someSafes) {
+		final List<Future<PwsEntryStore>> theFutures = new ArrayList<Future<PwsEntryStore>>(
+				someSafes.size());
+		for (final Map.Entry<String, StringBuilder> theSafe : someSafes.entrySet()) {
+			theFutures.add(open(theSafe.getKey(), theSafe.getValue()));
+		}
+		return theFutures;
+	}
+
+	/**
+	 * Runs a helper task of an open on the pool of the opener of the current
+	 * thread, or of the shared opener. The task may not be run at all if the
+	 * pool is shut down, so the caller must be prepared to run it itself, e.g.
+	 * with {@link java.util.concurrent.FutureTask#run()}.
+	 *
+	 * @param aTask the task
+	 */
+	static void execute(final Runnable aTask) {
+		final PwsStoreOpener theOpener = CURRENT.get();
+		try {
+			(theOpener != null ? theOpener : getShared()).executor.execute(aTask);
+		} catch (final RejectedExecutionException e) {
+			LOG.debug1("Helper task left to the caller");
+		}
+	}
+
+	/**
+	 * Stops the threads once the safes being opened are done.
+	 */
+	public void shutdown() {
+		synchronized (PwsStoreOpener.class) {
+			if (shared == this) {
+				shared = null;
+			}
+		}
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * The second generation of the storage interface: the (encrypted) content is
+ * read from and written to streams, so the storage need not hold all of it in
+ * memory, and writing is a transaction which replaces the content only when
+ * committed. Failures are reported as
+ * {@link org.pwsafe.lib.exception.StorageException}.
+ * <p>
+ * Any {@link PwsStorage} can be used as a stream storage through
+ * {@link PwsStorageAdapter#forStorage(PwsStorage)}.
+ * </p>
+ *
+ * @author roxon
+ */
+public interface PwsStreamStorage extends PwsStorage {
+
+	/**
+	 * Opens the content for reading, to be closed by the caller.
+	 *
+	 * @return the content
+	 * @throws IOException if the content cannot be read
+	 */
+	InputStream openInput() throws IOException;
+
+	/**
+	 * Opens the content for reading as a channel, to be closed by the caller.
+	 *
+	 * @return the content
+	 * @throws IOException if the content cannot be read
+	 */
+	ReadableByteChannel openChannel() throws IOException;
+
+	/**
+	 * Starts writing new content. The current content is left alone until
+	 * the transaction is committed.
+	 *
+	 * @return the transaction, to be committed or aborted by the caller
+	 * @throws IOException if writing cannot be started
+	 */
+	PwsStorageTransaction beginWrite() throws IOException;
+
+}
@@ -0,0 +1,386 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Keeps the last versions of a safe for recovery, in addition to the single
+ * backup file <code>name~</code>. Each version is stored (encrypted, as
+ * saved) in a directory under a SHA-256 digest of its content, so a version
+ * saved again is not stored twice; a log lists the versions, newest first.
+ * A V3 safe is encrypted with new keys on every save, so its digest is taken
+ * over the decrypted records by {@link PwsFileV3#save()}, for other files it
+ * is taken over the bytes saved. Only the configured number of versions is
+ * kept, the content of older ones is removed unless a kept version has the
+ * same content.
+ * <p>
+ * The storage hands over the content written when the save of the safe has
+ * been committed, see {@link PwsFileStorage#setHistory(PwsVersionStore)}; it
+ * is stored on a background thread shared by all stores, the save does not
+ * wait for it. A version saved over again before it is stored is skipped.
+ * Call {@link #flush(long)} before the application exits, the thread does
+ * not keep it alive.
+ * </p>
+ *
+ * @author roxon
+ */
+public class PwsVersionStore {
+
+	private static final Log LOG = Log.getInstance(PwsVersionStore.class.getPackage().getName());
+
+	/** Extension appended to the name of a safe for its history directory */
+	public static final String DIRECTORY_EXTENSION = ".history";
+
+	/** the name of the log of versions in the directory */
+	private static final String LOG_NAME = "versions";
+
+	/** the length of a hex SHA-256 digest, the names of the content files */
+	private static final int HASH_LENGTH = 64;
+
+	private static ExecutorService writer;
+
+	/**
+	 * One version of a safe.
+	 */
+	public static final class Version {
+		private final long time;
+		private final String hash;
+
+		Version(final long aTime, final String aHash) {
+			time = aTime;
+			hash = aHash;
+		}
+
+		/**
+		 * @return when the version was saved
+		 */
+		public Date getDate() {
+			return new Date(time);
+		}
+
+		/**
+		 * @return the hex SHA-256 digest of the content, see the class
+		 *         comment
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return time + " " + hash;
+		}
+	}
+
+	/** the content saved last, until the writer takes it */
+	private static final class Snapshot {
+		private final byte[] bytes;
+		private final String hash;
+		private final long time;
+
+		Snapshot(final byte[] someBytes, final String aHash, final long aTime) {
+			bytes = someBytes;
+			hash = aHash;
+			time = aTime;
+		}
+	}
+
+	private final File directory;
+	private final int keep;
+
+	/** guards {@link #pending}, saves must not wait for the store lock */
+	private final Object pendingLock = new Object();
+	private Snapshot pending;
+
+	/**
+	 * @param aDirectory the directory to keep the versions in, created on the
+	 *        first version
+	 * @param aKeep the number of versions to keep
+	 */
+	public PwsVersionStore(final File aDirectory, final int aKeep) {
+		if (aKeep < 1) {
+			throw new IllegalArgumentException("At least one version must be kept");
+		}
+		directory = aDirectory;
+		keep = aKeep;
+	}
+
+	/**
+	 * Returns the history directory of a safe.
+	 *
+	 * @param aFilename the name of the safe
+	 * @return the directory next to it
+	 */
+	public static File getDirectory(final String aFilename) {
+		return new File(aFilename + DIRECTORY_EXTENSION);
+	}
+
+	private static synchronized ExecutorService getWriter() {
+		if (writer == null) {
+			writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable aRunnable) {
+					final Thread theThread = new Thread(aRunnable, "Version history");
+					theThread.setDaemon(true);
+					return theThread;
+				}
+			});
+		}
+		return writer;
+	}
+
+	/**
+	 * Adds content just saved as version in the background. Failures are
+	 * logged only.
+	 *
+	 * @param someBytes the content as saved, not changed afterwards
+	 * @param aHash the hex digest to tell the content by, or null to take the
+	 *        SHA-256 digest of the bytes
+	 */
+	public void add(final byte[] someBytes, final String aHash) {
+		synchronized (pendingLock) {
+			pending = new Snapshot(someBytes, aHash, System.currentTimeMillis());
+		}
+		getWriter().execute(new Runnable() {
+			public void run() {
+				try {
+					storePending();
+				} catch (final IOException e) {
+					LOG.warn("Could not keep version in " + directory + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until the versions added so far to any store are stored.
+	 *
+	 * @param aTimeout the milliseconds to wait at most
+	 * @return false if the time ran out
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static boolean flush(final long aTimeout) throws InterruptedException {
+		synchronized (PwsVersionStore.class) {
+			if (writer == null) {
+				return true;
+			}
+		}
+		try {
+			getWriter().submit(new Runnable() {
+				public void run() {
+					// all added before are done
+				}
+			}).get(aTimeout, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (final TimeoutException e) {
+			return false;
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Stores the content saved last unless a writer before took it already.
+	 */
+	private synchronized void storePending() throws IOException {
+		final Snapshot theSnapshot;
+		synchronized (pendingLock) {
+			theSnapshot = pending;
+			pending = null;
+		}
+		if (theSnapshot == null) {
+			LOG.debug1("Version in {} saved over, skipped", directory);
+			return;
+		}
+		store(theSnapshot.bytes, theSnapshot.hash, theSnapshot.time);
+	}
+
+	/**
+	 * Stores a version under the digest of its bytes, see
+	 * {@link #store(byte[], String, long)}.
+	 *
+	 * @param someBytes the content
+	 * @param aTime when it was saved
+	 * @throws IOException if the version cannot be stored
+	 */
+	synchronized void store(final byte[] someBytes, final long aTime) throws IOException {
+		store(someBytes, null, aTime);
+	}
+
+	/**
+	 * Stores a version unless the newest one has the same content, and
+	 * removes the versions beyond the number to keep.
+	 *
+	 * @param someBytes the content
+	 * @param aHash the digest of the content or null to take the one of the
+	 *        bytes
+	 * @param aTime when it was saved
+	 * @throws IOException if the version cannot be stored
+	 */
+	synchronized void store(final byte[] someBytes, final String aHash, final long aTime)
+			throws IOException {
+		final String theHash = aHash == null ? digest(someBytes) : aHash;
+		final List<Version> theVersions = readLog();
+		if (!theVersions.isEmpty() && theVersions.get(0).hash.equals(theHash)) {
+			LOG.debug1("Version {} unchanged", theHash);
+			return;
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new StorageException("Could not create " + directory);
+		}
+		final File theContent = new File(directory, theHash);
+		if (!theContent.exists()) {
+			write(theContent, someBytes);
+		}
+		theVersions.add(0, new Version(aTime, theHash));
+		while (theVersions.size() > keep) {
+			theVersions.remove(theVersions.size() - 1);
+		}
+		writeLog(theVersions);
+		prune(theVersions);
+		LOG.debug1("Kept version {} in {}", theHash, directory);
+	}
+
+	private static String digest(final byte[] someBytes) {
+		final SHA256Digest theDigest = new SHA256Digest();
+		theDigest.update(someBytes, 0, someBytes.length);
+		final byte[] theHash = new byte[theDigest.getDigestSize()];
+		theDigest.doFinal(theHash, 0);
+		return Util.bytesToHex(theHash);
+	}
+
+	/** writes a temporary file and renames it, so no half content is kept */
+	private void write(final File aFile, final byte[] someBytes) throws IOException {
+		final File theTemp = File.createTempFile("pwsafe", null, directory);
+		try {
+			final OutputStream theStream = new FileOutputStream(theTemp);
+			try {
+				theStream.write(someBytes);
+			} finally {
+				theStream.close();
+			}
+			if (!theTemp.renameTo(aFile)) {
+				throw new StorageException("Could not store " + aFile);
+			}
+		} finally {
+			theTemp.delete();
+		}
+	}
+
+	/**
+	 * @return the versions kept, newest first
+	 * @throws IOException if the log cannot be read
+	 */
+	public synchronized List<Version> getVersions() throws IOException {
+		return Collections.unmodifiableList(readLog());
+	}
+
+	/**
+	 * Reads the content of a version, e.g. to restore it.
+	 *
+	 * @param aVersion the version
+	 * @return the content
+	 * @throws IOException if the content cannot be read
+	 */
+	public byte[] read(final Version aVersion) throws IOException {
+		return new PwsFileStorage(new File(directory, aVersion.hash).getPath()).read();
+	}
+
+	/** removes the content no version refers to any more */
+	private void prune(final List<Version> someVersions) {
+		final Set<String> theKept = new HashSet<String>();
+		for (final Version theVersion : someVersions) {
+			theKept.add(theVersion.hash);
+		}
+		final File[] theFiles = directory.listFiles();
+		if (theFiles == null) {
+			return;
+		}
+		for (final File theFile : theFiles) {
+			final String theName = theFile.getName();
+			if (theName.length() == HASH_LENGTH && !theKept.contains(theName)
+					&& !theFile.delete()) {
+				LOG.warn("Could not remove old version " + theFile);
+			}
+		}
+	}
+
+	private List<Version> readLog() throws IOException {
+		final List<Version> theVersions = new ArrayList<Version>();
+		final File theLog = new File(directory, LOG_NAME);
+		if (!theLog.exists()) {
+			return theVersions;
+		}
+		final BufferedReader theReader = new BufferedReader(new FileReader(theLog));
+		try {
+			String theLine;
+			while ((theLine = theReader.readLine()) != null) {
+				final int theSpace = theLine.indexOf(' ');
+				if (theSpace > 0) {
+					try {
+						theVersions.add(new Version(Long.parseLong(theLine.substring(0, theSpace)),
+								theLine.substring(theSpace + 1).trim()));
+					} catch (final NumberFormatException e) {
+						LOG.warn("Skipping line of " + theLog + ": " + theLine);
+					}
+				}
+			}
+		} finally {
+			theReader.close();
+		}
+		return theVersions;
+	}
+
+	private void writeLog(final List<Version> someVersions) throws IOException {
+		final File theTemp = File.createTempFile("pwsafe", null, directory);
+		try {
+			final PrintWriter theWriter = new PrintWriter(new FileOutputStream(theTemp));
+			try {
+				for (final Version theVersion : someVersions) {
+					theWriter.println(theVersion);
+				}
+			} finally {
+				theWriter.close();
+			}
+			if (theWriter.checkError()) {
+				throw new StorageException("Could not write " + theTemp);
+			}
+			final File theLog = new File(directory, LOG_NAME);
+			if (theLog.exists() && !theLog.delete() || !theTemp.renameTo(theLog)) {
+				throw new StorageException("Could not replace " + theLog);
+			}
+		} finally {
+			theTemp.delete();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies with buckets growing in powers of two
+ * from one microsecond up to about half a minute. Also counts values and
+ * keeps their sum, for counters that is all there is.
+ *
+ * @author roxon
+ */
+final class LatencyHistogram {
+
+	/** bucket i holds values below 2^i microseconds, the last one the rest */
+	static final int BUCKETS = 26;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Adds a value to the count and sum only.
+	 */
+	void add(final long aValue) {
+		count.addAndGet(aValue);
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param aNanos the latency in nanoseconds
+	 */
+	void record(final long aNanos) {
+		count.incrementAndGet();
+		sum.addAndGet(aNanos);
+		buckets.incrementAndGet(bucket(aNanos));
+		long theMax = max.get();
+		while (aNanos > theMax && !max.compareAndSet(theMax, aNanos)) {
+			theMax = max.get();
+		}
+	}
+
+	static int bucket(final long aNanos) {
+		final long theMicros = aNanos / 1000;
+		final int theBucket = 64 - Long.numberOfLeadingZeros(theMicros);
+		return Math.min(theBucket, BUCKETS - 1);
+	}
+
+	/**
+	 * @return the upper bound of a bucket in nanoseconds
+	 */
+	static long upperBound(final int aBucket) {
+		return aBucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << aBucket) * 1000;
+	}
+
+	PwsMetricsSnapshot.Timer snapshot() {
+		final long[] theBuckets = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			theBuckets[i] = buckets.get(i);
+		}
+		return new PwsMetricsSnapshot.Timer(count.get(), sum.get(), max.get(), theBuckets);
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
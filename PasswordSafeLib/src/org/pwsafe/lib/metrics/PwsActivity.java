@@ -0,0 +1,134 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the latest trace of each type, e.g. how long the last save took, for
+ * a status display. Sits in front of the sink installed before, which still
+ * gets all traces.
+ *
+ * @author roxon
+ */
+public final class PwsActivity implements PwsTraceSink {
+
+	/**
+	 * A finished trace.
+	 */
+	public static final class Sample {
+		private final long duration;
+		private final long count;
+		private final long size;
+		private final long time;
+
+		Sample(final long aDuration, final long aCount, final long aSize, final long aTime) {
+			duration = aDuration;
+			count = aCount;
+			size = aSize;
+			time = aTime;
+		}
+
+		/**
+		 * @return the duration in milliseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return the count given at the end, see {@link PwsTrace.Type}
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the size given at the end, see {@link PwsTrace.Type}
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the time of the end in milliseconds since 1970
+		 */
+		public long getTime() {
+			return time;
+		}
+	}
+
+	private final PwsTraceSink next;
+
+	private final AtomicReferenceArray<Sample> samples = new AtomicReferenceArray<Sample>(
+			PwsTrace.Type.values().length);
+
+	/**
+	 * @param aNext the sink to pass the traces on to, may be null
+	 */
+	public PwsActivity(final PwsTraceSink aNext) {
+		next = aNext;
+	}
+
+	/**
+	 * Installs an activity sink in front of the current sink, unless there is
+	 * one already.
+	 *
+	 * @return the installed activity sink
+	 */
+	public static synchronized PwsActivity install() {
+		final PwsTraceSink theSink = PwsTrace.getSink();
+		if (theSink instanceof PwsActivity) {
+			return (PwsActivity) theSink;
+		}
+		final PwsActivity theActivity = new PwsActivity(theSink);
+		PwsTrace.setSink(theActivity);
+		return theActivity;
+	}
+
+	public PwsTrace begin(final PwsTrace.Type aType) {
+		return new ActivityTrace(aType, next == null ? null : next.begin(aType));
+	}
+
+	/**
+	 * @param aType the type of work
+	 * @return the latest finished trace of the type or null if there is none
+	 */
+	public Sample getLast(final PwsTrace.Type aType) {
+		return samples.get(aType.ordinal());
+	}
+
+	private final class ActivityTrace extends PwsTrace {
+		private final PwsTrace.Type type;
+		private final PwsTrace delegate;
+		private final long start = System.nanoTime();
+
+		ActivityTrace(final PwsTrace.Type aType, final PwsTrace aDelegate) {
+			type = aType;
+			delegate = aDelegate;
+		}
+
+		@Override
+		public void phase(final String aPhase) {
+			if (delegate != null) {
+				delegate.phase(aPhase);
+			}
+		}
+
+		@Override
+		public void end(final long aCount, final long aSize) {
+			samples.set(type.ordinal(), new Sample((System.nanoTime() - start) / 1000000, aCount,
+					aSize, System.currentTimeMillis()));
+			if (delegate != null) {
+				delegate.end(aCount, aSize);
+			}
+		}
+	}
+}
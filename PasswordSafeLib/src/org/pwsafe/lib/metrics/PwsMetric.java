@@ -0,0 +1,59 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+/**
+ * The metrics recorded by {@link PwsMetrics}. Counters just count, timers
+ * keep a latency histogram.
+ *
+ * @author roxon
+ */
+public enum PwsMetric {
+
+	/** passphrase stretching */
+	KEY_STRETCH(true),
+	/** reading and decrypting all records of a file */
+	RECORDS_READ(true),
+	/** records parsed from a file */
+	RECORDS_PARSED(false),
+	/** bytes decrypted from files */
+	BYTES_DECRYPTED(false),
+	/** records sealed in memory */
+	RECORDS_SEALED(false),
+	/** records unsealed from memory */
+	RECORDS_UNSEALED(false),
+	/** save: encrypting the records */
+	SAVE_ENCRYPT(true),
+	/** save: writing to the storage */
+	SAVE_WRITE(true),
+	/** save: writing the index sidecar */
+	SAVE_INDEX(true),
+	/** save: writing one target of a mirrored storage */
+	MIRROR_WRITE(true),
+	/** filled entries got from an entry store */
+	STORE_LOOKUP(true),
+	/** store lookups answered by the entry cache */
+	STORE_CACHE_HITS(false),
+	/** search queries over the entries */
+	SEARCH(true);
+
+	private final boolean timer;
+
+	private PwsMetric(final boolean aTimer) {
+		timer = aTimer;
+	}
+
+	/**
+	 * @return true if latencies are recorded, false for a plain counter
+	 */
+	public boolean isTimer() {
+		return timer;
+	}
+}
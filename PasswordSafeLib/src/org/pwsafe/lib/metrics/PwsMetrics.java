@@ -0,0 +1,148 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.pwsafe.lib.Log;
+
+/**
+ * Counters and latency histograms of the library, see {@link PwsMetric}.
+ * Disabled by default, enable them with the system property
+ * {@value #ENABLED_PROPERTY} or {@link #setEnabled(boolean)}. While disabled
+ * every call costs a single volatile read.
+ * <p>
+ * Timing works like this:
+ * </p>
+ *
+ * <pre>
+ * final long theStart = PwsMetrics.start();
+ * ...
+ * PwsMetrics.stop(PwsMetric.SEARCH, theStart);
+ * </pre>
+ *
+ * @author roxon
+ */
+public final class PwsMetrics {
+
+	private static final Log LOG = Log.getInstance(PwsMetrics.class);
+
+	public static final String ENABLED_PROPERTY = "org.pwsafe.metrics";
+
+	public static final String MBEAN_NAME = "org.pwsafe.lib:type=Metrics";
+
+	private static volatile boolean enabled = Boolean.getBoolean(ENABLED_PROPERTY);
+
+	private static final LatencyHistogram[] histograms = new LatencyHistogram[PwsMetric
+			.values().length];
+
+	static {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	private PwsMetrics() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(final boolean anEnabled) {
+		enabled = anEnabled;
+	}
+
+	/**
+	 * Counts one event.
+	 */
+	public static void count(final PwsMetric aMetric) {
+		if (enabled) {
+			histograms[aMetric.ordinal()].add(1);
+		}
+	}
+
+	/**
+	 * Adds to a counter.
+	 */
+	public static void count(final PwsMetric aMetric, final long aValue) {
+		if (enabled) {
+			histograms[aMetric.ordinal()].add(aValue);
+		}
+	}
+
+	/**
+	 * @return the start of a timed event, to be passed to
+	 *         {@link #stop(PwsMetric, long)}
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the time since start, if metrics were enabled at the start.
+	 *
+	 * @param aMetric a timer
+	 * @param aStart the value returned by {@link #start()}
+	 */
+	public static void stop(final PwsMetric aMetric, final long aStart) {
+		if (aStart != 0) {
+			histograms[aMetric.ordinal()].record(System.nanoTime() - aStart);
+		}
+	}
+
+	/**
+	 * @return the current values of all metrics
+	 */
+	public static PwsMetricsSnapshot snapshot() {
+		return new PwsMetricsSnapshot(histograms);
+	}
+
+	/**
+	 * Sets all metrics back to zero.
+	 */
+	public static void reset() {
+		for (final LatencyHistogram theHistogram : histograms) {
+			theHistogram.reset();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server under
+	 * {@value #MBEAN_NAME}, does nothing if they are registered already.
+	 */
+	public static synchronized void registerMBean() {
+		try {
+			final MBeanServer theServer = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName theName = new ObjectName(MBEAN_NAME);
+			if (!theServer.isRegistered(theName)) {
+				theServer.registerMBean(new PwsMetricsBean(), theName);
+			}
+		} catch (final JMException e) {
+			LOG.warn("Could not register metrics MBean: " + e.getMessage());
+		}
+	}
+
+	public static synchronized void unregisterMBean() {
+		try {
+			final MBeanServer theServer = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName theName = new ObjectName(MBEAN_NAME);
+			if (theServer.isRegistered(theName)) {
+				theServer.unregisterMBean(theName);
+			}
+		} catch (final JMException e) {
+			LOG.warn("Could not unregister metrics MBean: " + e.getMessage());
+		}
+	}
+}
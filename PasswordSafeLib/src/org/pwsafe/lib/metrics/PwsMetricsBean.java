@@ -0,0 +1,177 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes {@link PwsMetrics} as an MBean. Each counter is an attribute named
+ * after the metric, e.g. <code>RecordsParsed</code>, each timer has the
+ * attributes <code>Count</code>, <code>MeanMillis</code>,
+ * <code>P95Millis</code> and <code>MaxMillis</code> appended to its name.
+ *
+ * @author roxon
+ */
+final class PwsMetricsBean implements DynamicMBean {
+
+	private static final String ENABLED = "Enabled";
+	private static final String DECRYPT_RATE = "DecryptBytesPerSecond";
+	private static final String REPORT = "Report";
+
+	private static final String COUNT = "Count";
+	private static final String MEAN = "MeanMillis";
+	private static final String P95 = "P95Millis";
+	private static final String MAX = "MaxMillis";
+
+	private final MBeanInfo info;
+
+	PwsMetricsBean() {
+		final List<MBeanAttributeInfo> theAttributes = new ArrayList<MBeanAttributeInfo>();
+		theAttributes.add(new MBeanAttributeInfo(ENABLED, "boolean",
+				"Whether metrics are recorded", true, true, true));
+		for (final PwsMetric theMetric : PwsMetric.values()) {
+			final String theName = attributeName(theMetric);
+			if (theMetric.isTimer()) {
+				theAttributes.add(readOnly(theName + COUNT, "long", "Number of " + theMetric));
+				theAttributes.add(readOnly(theName + MEAN, "double", "Mean time of " + theMetric));
+				theAttributes.add(readOnly(theName + P95, "double", "95th percentile time of "
+						+ theMetric));
+				theAttributes.add(readOnly(theName + MAX, "double", "Maximum time of " + theMetric));
+			} else {
+				theAttributes.add(readOnly(theName, "long", "Count of " + theMetric));
+			}
+		}
+		theAttributes.add(readOnly(DECRYPT_RATE, "double", "Bytes decrypted per second"));
+		theAttributes.add(readOnly(REPORT, String.class.getName(), "All metrics as text"));
+
+		final MBeanOperationInfo theReset = new MBeanOperationInfo("reset",
+				"Sets all metrics back to zero", new MBeanParameterInfo[0], "void",
+				MBeanOperationInfo.ACTION);
+
+		info = new MBeanInfo(getClass().getName(), "PasswordSafe library metrics", theAttributes
+				.toArray(new MBeanAttributeInfo[theAttributes.size()]), null,
+				new MBeanOperationInfo[] { theReset }, null);
+	}
+
+	private static MBeanAttributeInfo readOnly(final String aName, final String aType,
+			final String aDescription) {
+		return new MBeanAttributeInfo(aName, aType, aDescription, true, false, false);
+	}
+
+	/**
+	 * Turns KEY_STRETCH into KeyStretch.
+	 */
+	static String attributeName(final PwsMetric aMetric) {
+		final StringBuilder theName = new StringBuilder();
+		for (final String thePart : aMetric.name().split("_")) {
+			theName.append(thePart.charAt(0)).append(thePart.substring(1).toLowerCase());
+		}
+		return theName.toString();
+	}
+
+	public Object getAttribute(final String anAttribute) throws AttributeNotFoundException {
+		if (ENABLED.equals(anAttribute)) {
+			return Boolean.valueOf(PwsMetrics.isEnabled());
+		}
+		final PwsMetricsSnapshot theSnapshot = PwsMetrics.snapshot();
+		if (DECRYPT_RATE.equals(anAttribute)) {
+			return Double.valueOf(theSnapshot.getDecryptBytesPerSecond());
+		}
+		if (REPORT.equals(anAttribute)) {
+			return theSnapshot.toString();
+		}
+		for (final PwsMetric theMetric : PwsMetric.values()) {
+			final String theName = attributeName(theMetric);
+			if (!anAttribute.startsWith(theName)) {
+				continue;
+			}
+			final String theSuffix = anAttribute.substring(theName.length());
+			if (!theMetric.isTimer()) {
+				if (theSuffix.length() == 0) {
+					return Long.valueOf(theSnapshot.getCount(theMetric));
+				}
+				continue;
+			}
+			final PwsMetricsSnapshot.Timer theTimer = theSnapshot.getTimer(theMetric);
+			if (COUNT.equals(theSuffix)) {
+				return Long.valueOf(theTimer.getCount());
+			} else if (MEAN.equals(theSuffix)) {
+				return Double.valueOf(PwsMetricsSnapshot.millis(theTimer.getMeanNanos()));
+			} else if (P95.equals(theSuffix)) {
+				return Double.valueOf(PwsMetricsSnapshot.millis(theTimer.getPercentileNanos(95)));
+			} else if (MAX.equals(theSuffix)) {
+				return Double.valueOf(PwsMetricsSnapshot.millis(theTimer.getMaxNanos()));
+			}
+		}
+		throw new AttributeNotFoundException(anAttribute);
+	}
+
+	public AttributeList getAttributes(final String[] someAttributes) {
+		final AttributeList theList = new AttributeList();
+		for (final String theName : someAttributes) {
+			try {
+				theList.add(new Attribute(theName, getAttribute(theName)));
+			} catch (final AttributeNotFoundException e) {
+				// left out, as the contract of getAttributes allows
+			}
+		}
+		return theList;
+	}
+
+	public void setAttribute(final Attribute anAttribute) throws AttributeNotFoundException,
+			InvalidAttributeValueException {
+		if (!ENABLED.equals(anAttribute.getName())) {
+			throw new AttributeNotFoundException(anAttribute.getName());
+		}
+		if (!(anAttribute.getValue() instanceof Boolean)) {
+			throw new InvalidAttributeValueException(String.valueOf(anAttribute.getValue()));
+		}
+		PwsMetrics.setEnabled(((Boolean) anAttribute.getValue()).booleanValue());
+	}
+
+	public AttributeList setAttributes(final AttributeList someAttributes) {
+		final AttributeList theSet = new AttributeList();
+		for (final Object theObject : someAttributes) {
+			final Attribute theAttribute = (Attribute) theObject;
+			try {
+				setAttribute(theAttribute);
+				theSet.add(theAttribute);
+			} catch (final Exception e) {
+				// left out, as the contract of setAttributes allows
+			}
+		}
+		return theSet;
+	}
+
+	public Object invoke(final String anOperation, final Object[] someParams,
+			final String[] aSignature) throws ReflectionException {
+		if ("reset".equals(anOperation)) {
+			PwsMetrics.reset();
+			return null;
+		}
+		throw new ReflectionException(new NoSuchMethodException(anOperation));
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		return info;
+	}
+}
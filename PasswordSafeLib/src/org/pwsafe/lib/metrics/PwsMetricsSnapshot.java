@@ -0,0 +1,158 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The values of all metrics at one point in time.
+ *
+ * @author roxon
+ */
+public final class PwsMetricsSnapshot {
+
+	/**
+	 * The recorded latencies of a timer.
+	 */
+	public static final class Timer {
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+		private final long[] buckets;
+
+		Timer(final long aCount, final long aTotal, final long aMax, final long[] someBuckets) {
+			count = aCount;
+			totalNanos = aTotal;
+			maxNanos = aMax;
+			buckets = someBuckets;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		public long getMeanNanos() {
+			return count == 0 ? 0 : totalNanos / count;
+		}
+
+		/**
+		 * Estimates a percentile from the histogram, the result is the upper
+		 * bound of the bucket the percentile falls into but never more than the
+		 * maximum.
+		 *
+		 * @param aPercentile the percentile, e.g. 95
+		 * @return the estimated latency in nanoseconds
+		 */
+		public long getPercentileNanos(final double aPercentile) {
+			long theSeen = 0;
+			long theTotal = 0;
+			for (final long theBucket : buckets) {
+				theTotal += theBucket;
+			}
+			final double theRank = theTotal * aPercentile / 100;
+			for (int i = 0; i < buckets.length; i++) {
+				theSeen += buckets[i];
+				if (theSeen > 0 && theSeen >= theRank) {
+					return Math.min(LatencyHistogram.upperBound(i), maxNanos);
+				}
+			}
+			return maxNanos;
+		}
+
+		@Override
+		public String toString() {
+			return count + " x, mean " + millis(getMeanNanos()) + " ms, 95% "
+					+ millis(getPercentileNanos(95)) + " ms, max " + millis(maxNanos) + " ms";
+		}
+	}
+
+	private final long time;
+	private final Map<PwsMetric, Long> counters = new EnumMap<PwsMetric, Long>(PwsMetric.class);
+	private final Map<PwsMetric, Timer> timers = new EnumMap<PwsMetric, Timer>(PwsMetric.class);
+
+	PwsMetricsSnapshot(final LatencyHistogram[] someHistograms) {
+		time = System.currentTimeMillis();
+		for (final PwsMetric theMetric : PwsMetric.values()) {
+			final LatencyHistogram theHistogram = someHistograms[theMetric.ordinal()];
+			if (theMetric.isTimer()) {
+				timers.put(theMetric, theHistogram.snapshot());
+			} else {
+				counters.put(theMetric, Long.valueOf(theHistogram.getCount()));
+			}
+		}
+	}
+
+	/**
+	 * @return the time the snapshot was taken
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @param aMetric a counter or a timer
+	 * @return the value of the counter or the number of timed events
+	 */
+	public long getCount(final PwsMetric aMetric) {
+		if (aMetric.isTimer()) {
+			return timers.get(aMetric).getCount();
+		}
+		return counters.get(aMetric).longValue();
+	}
+
+	/**
+	 * @param aMetric a timer
+	 * @return the latencies of the timer
+	 * @throws IllegalArgumentException if the metric is not a timer
+	 */
+	public Timer getTimer(final PwsMetric aMetric) {
+		if (!aMetric.isTimer()) {
+			throw new IllegalArgumentException(aMetric + " is not a timer");
+		}
+		return timers.get(aMetric);
+	}
+
+	/**
+	 * @return the bytes decrypted per second while reading records
+	 */
+	public double getDecryptBytesPerSecond() {
+		final long theNanos = getTimer(PwsMetric.RECORDS_READ).getTotalNanos();
+		return theNanos == 0 ? 0 : getCount(PwsMetric.BYTES_DECRYPTED) * 1e9 / theNanos;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder theReport = new StringBuilder();
+		for (final PwsMetric theMetric : PwsMetric.values()) {
+			theReport.append(theMetric).append(": ");
+			if (theMetric.isTimer()) {
+				theReport.append(timers.get(theMetric));
+			} else {
+				theReport.append(counters.get(theMetric));
+			}
+			theReport.append('\n');
+		}
+		theReport.append("decrypt bytes/s: ").append(Math.round(getDecryptBytesPerSecond()));
+		return theReport.toString();
+	}
+
+	static double millis(final long aNanos) {
+		return Math.round(aNanos / 1000.0) / 1000.0;
+	}
+}
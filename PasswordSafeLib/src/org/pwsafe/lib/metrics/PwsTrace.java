@@ -0,0 +1,126 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import org.pwsafe.lib.Log;
+
+/**
+ * A trace of one unit of work, like opening a safe, for profilers. Traces
+ * carry counts and sizes only, never content of a safe.
+ * <p>
+ * Without a {@link PwsTraceSink} every trace is a shared instance doing
+ * nothing. On start a sink named by the system property
+ * {@value #SINK_PROPERTY} is installed, by default the Java Flight Recorder
+ * sink {@value #JFR_SINK} if it is on the class path and the VM supports it.
+ * </p>
+ *
+ * <pre>
+ * final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SAVE);
+ * ...
+ * theTrace.end(theRecordCount, theBytes);
+ * </pre>
+ *
+ * @author roxon
+ */
+public class PwsTrace {
+
+	private static final Log LOG = Log.getInstance(PwsTrace.class);
+
+	public static final String SINK_PROPERTY = "org.pwsafe.trace.sink";
+
+	public static final String JFR_SINK = "org.pwsafe.lib.jfr.JfrTraceSink";
+
+	/**
+	 * The traced units of work, with the meaning of count and size given to
+	 * {@link PwsTrace#end(long, long)}.
+	 */
+	public enum Type {
+		/** opening a safe: records, bytes of the file */
+		SAFE_OPEN,
+		/** decoding a batch of records: records, bytes decrypted */
+		RECORD_DECODE,
+		/** saving a safe: records, bytes of the file */
+		SAVE,
+		/** stretching a passphrase: iterations, 0 */
+		KEY_STRETCH,
+		/** refreshing an entry store: entries, 0 */
+		STORE_REFRESH,
+		/** refreshing the tree and table of the application: entries, 0 */
+		VIEWER_REFRESH,
+		/** searching the entries: matches, entries searched */
+		SEARCH
+	}
+
+	private static final PwsTrace NONE = new PwsTrace();
+
+	private static volatile PwsTraceSink sink = createSink();
+
+	protected PwsTrace() {
+	}
+
+	private static PwsTraceSink createSink() {
+		final String theName = System.getProperty(SINK_PROPERTY, JFR_SINK);
+		if (theName.length() == 0) {
+			return null;
+		}
+		try {
+			return (PwsTraceSink) Class.forName(theName).getDeclaredConstructor().newInstance();
+		} catch (final ClassNotFoundException e) {
+			if (!JFR_SINK.equals(theName)) {
+				LOG.warn("Trace sink " + theName + " not found");
+			}
+		} catch (final Throwable e) {
+			// e.g. the JFR sink on a VM without flight recorder
+			LOG.info("Trace sink " + theName + " not available: " + e);
+		}
+		return null;
+	}
+
+	/**
+	 * Starts a trace.
+	 *
+	 * @param aType the type of work
+	 * @return the trace, a shared one doing nothing if no sink is installed
+	 */
+	public static PwsTrace begin(final Type aType) {
+		final PwsTraceSink theSink = sink;
+		return theSink == null ? NONE : theSink.begin(aType);
+	}
+
+	/**
+	 * @param aSink the sink or null to stop tracing
+	 */
+	public static void setSink(final PwsTraceSink aSink) {
+		sink = aSink;
+	}
+
+	public static PwsTraceSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Marks the end of a phase of the work, the next phase starts right away.
+	 *
+	 * @param aPhase the name of the phase that ended
+	 */
+	public void phase(final String aPhase) {
+		// nothing to do without a sink
+	}
+
+	/**
+	 * Ends the trace.
+	 *
+	 * @param aCount the number of items processed, see {@link Type}
+	 * @param aSize the size processed, see {@link Type}
+	 */
+	public void end(final long aCount, final long aSize) {
+		// nothing to do without a sink
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * $Id$
+ *
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+/**
+ * Receives the traces of {@link PwsTrace}, e.g. to turn them into profiler
+ * events.
+ *
+ * @author roxon
+ */
+public interface PwsTraceSink {
+
+	/**
+	 * Starts a trace, called on the thread doing the work.
+	 *
+	 * @param aType the type of the trace
+	 * @return the trace, ended on the same thread
+	 */
+	PwsTrace begin(PwsTrace.Type aType);
+}
@@ -15,6 +15,7 @@ import org.pwsafe.lib.AllLibTests;
 import org.pwsafe.lib.crypto.AllCryptoTests;
 import org.pwsafe.lib.datastore.AllDataStoreTests;
 import org.pwsafe.lib.file.AllFileTests;
+import org.pwsafe.lib.metrics.AllMetricsTests;
 import org.pwsafe.util.AllUtilTests;
 
 public class AllTests {
@@ -26,6 +27,7 @@ public class AllTests {
 		suite.addTest(AllCryptoTests.suite());
 		suite.addTest(AllFileTests.suite());
 		suite.addTest(AllDataStoreTests.suite());
+		suite.addTest(AllMetricsTests.suite());
 		suite.addTest(AllUtilTests.suite());
 		// $JUnit-END$
 		return suite;
@@ -19,6 +19,7 @@ public class AllLibTests {
 		suite.addTestSuite(I18HelperTest.class);
 		suite.addTestSuite(UtilTest.class);
 		suite.addTestSuite(PassphraseUtilsTest.class);
+		suite.addTestSuite(LogTest.class);
 		// $JUnit-END$
 		return suite;
 	}
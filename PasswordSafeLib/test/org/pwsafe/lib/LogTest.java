@@ -0,0 +1,74 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that log messages are only built if they are logged.
+ *
+ * @author roxon
+ */
+public class LogTest extends TestCase {
+
+	private static final String NAME = LogTest.class.getName();
+
+	private int built;
+
+	private final Object value = new Object() {
+		@Override
+		public String toString() {
+			built++;
+			return "value";
+		}
+	};
+
+	@Override
+	protected void tearDown() {
+		Logger.getLogger(NAME).setLevel(null);
+		Log.refreshLevels();
+	}
+
+	public void testFormat() {
+		assertEquals("a 1 b 2 c", Log.format("a {} b {} c", Long.valueOf(1), Long.valueOf(2)));
+		assertEquals("value", Log.format("{}", "value", null));
+		assertEquals("no placeholder", Log.format("no placeholder", "value", null));
+		assertEquals("a 1 null", Log.format("a {} {}", Long.valueOf(1), null));
+	}
+
+	public void testNotBuiltWhenDisabled() {
+		Logger.getLogger(NAME).setLevel(Level.INFO);
+		Log.refreshLevels();
+		final Log theLog = Log.getInstance(NAME);
+		assertFalse(theLog.isDebug1Enabled());
+
+		theLog.debug1("value {}", value);
+		theLog.debug1("values {} {}", value, value);
+		theLog.debug2("values {} {}", value, value);
+		assertEquals(0, built);
+	}
+
+	public void testLevelRefreshed() {
+		Logger.getLogger(NAME).setLevel(Level.INFO);
+		Log.refreshLevels();
+		final Log theLog = Log.getInstance(NAME);
+		assertFalse(theLog.isDebug1Enabled());
+
+		Logger.getLogger(NAME).setLevel(Level.FINE);
+		assertFalse("level is cached", theLog.isDebug1Enabled());
+		Log.refreshLevels();
+		assertTrue(theLog.isDebug1Enabled());
+
+		theLog.debug1("value {}", value);
+		assertEquals(1, built);
+	}
+}
@@ -7,6 +7,9 @@
  */
 package org.pwsafe.lib;
 
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
 import junit.framework.TestCase;
 
 public class UtilTest extends TestCase {
@@ -211,6 +214,48 @@ public class UtilTest extends TestCase {
 		return Util.getMillisFromByteArray(buffer, 0);
 	}
 
+	public void testStretchPassphraseProgress() {
+		final int theIter = 5000;
+		final long[] theLast = new long[2];
+		final byte[] theStretched = Util.stretchPassphrase(new byte[] { 1 }, new byte[] { 2 },
+				theIter, new PwsProgressMonitor() {
+					@Override
+					public void progress(final long aDone, final long aTotal) {
+						theLast[0] = aDone;
+						theLast[1] = aTotal;
+					}
+
+					@Override
+					public boolean isCanceled() {
+						return false;
+					}
+				});
+		assertTrue(Arrays.equals(Util.stretchPassphrase(new byte[] { 1 }, new byte[] { 2 },
+				theIter), theStretched));
+		assertEquals(4096, theLast[0]);
+		assertEquals(theIter, theLast[1]);
+	}
+
+	public void testStretchPassphraseCancelled() {
+		try {
+			Util.stretchPassphrase(new byte[] { 1 }, new byte[] { 2 }, 5000,
+					new PwsProgressMonitor() {
+						@Override
+						public void progress(final long aDone, final long aTotal) {
+							// ignored
+						}
+
+						@Override
+						public boolean isCanceled() {
+							return true;
+						}
+					});
+			fail("not cancelled");
+		} catch (final CancellationException anEx) {
+			// ok
+		}
+	}
+
 	public void testCopyBytes() {
 		final byte[] a = new byte[] { 1 };
 		final byte[] b = new byte[] { 2 };
@@ -18,6 +18,8 @@ public class AllDataStoreTests {
 		// $JUnit-BEGIN$
 		suite.addTestSuite(TestSparseRecords.class);
 		suite.addTestSuite(PwsEntryStoreTest.class);
+		suite.addTestSuite(PwsEntryCacheTest.class);
+		suite.addTestSuite(SafeGeneratorTest.class);
 		// $JUnit-END$
 		return suite;
 	}
@@ -89,7 +89,7 @@ public class CreateBigDataStoreTest extends TestCase {
 
 	}
 
-	private PwsEntryBean createEntry(final String groupName, final String entryTitle, final int entryNumber) {
+	static PwsEntryBean createEntry(final String groupName, final String entryTitle, final int entryNumber) {
 
 		final PwsEntryBean entry = new PwsEntryBean();
 		entry.setSparse(false);
@@ -0,0 +1,81 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the cache of filled entries.
+ *
+ * @author roxon
+ */
+public class PwsEntryCacheTest extends TestCase {
+
+	private static PwsEntryBean newEntry(final int anIndex) {
+		final PwsEntryBean theEntry = new PwsEntryBean();
+		theEntry.setStoreIndex(anIndex);
+		theEntry.setTitle("title" + anIndex);
+		theEntry.setPassword(new StringBuilder("pw" + anIndex));
+		return theEntry;
+	}
+
+	public void testCopies() {
+		final PwsEntryCache theCache = new PwsEntryCache(4, 60000);
+		final PwsEntryBean theEntry = newEntry(0);
+		theCache.put(theEntry);
+		theEntry.getPassword().setLength(0);
+
+		final PwsEntryBean theCached = theCache.get(0);
+		assertEquals("pw0", theCached.getPassword().toString());
+		theCached.getPassword().setLength(0);
+		assertEquals("pw0", theCache.get(0).getPassword().toString());
+	}
+
+	public void testLeastRecentlyUsedEvicted() {
+		final PwsEntryCache theCache = new PwsEntryCache(2, 60000);
+		theCache.put(newEntry(0));
+		theCache.put(newEntry(1));
+		assertNotNull(theCache.get(0));
+		theCache.put(newEntry(2));
+
+		assertEquals(2, theCache.size());
+		assertNotNull(theCache.get(0));
+		assertNull(theCache.get(1));
+		assertNotNull(theCache.get(2));
+	}
+
+	public void testExpired() throws InterruptedException {
+		final PwsEntryCache theCache = new PwsEntryCache(4, 10);
+		theCache.put(newEntry(0));
+		Thread.sleep(50);
+		assertNull(theCache.get(0));
+		assertEquals(0, theCache.size());
+	}
+
+	public void testExpiredWithoutAccess() throws InterruptedException {
+		final PwsEntryCache theCache = new PwsEntryCache(4, 10);
+		final PwsEntryBean theEntry = newEntry(0);
+		theCache.put(theEntry);
+		for (int i = 0; i < 100 && theCache.size() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals("purged by the timer", 0, theCache.size());
+	}
+
+	public void testRemoveAndClear() {
+		final PwsEntryCache theCache = new PwsEntryCache(4, 60000);
+		theCache.put(newEntry(0));
+		theCache.put(newEntry(1));
+		theCache.remove(0);
+		assertFalse(theCache.contains(0));
+		assertTrue(theCache.contains(1));
+		theCache.clear();
+		assertEquals(0, theCache.size());
+	}
+}
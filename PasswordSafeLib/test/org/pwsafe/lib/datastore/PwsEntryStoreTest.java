@@ -93,6 +93,58 @@ public class PwsEntryStoreTest extends TestCase {
 		assertNull(aRecord.getField(PwsFieldTypeV3.AUTOTYPE));
 	}
 
+	public void testCachedEntries() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			final PwsEntryBean theEntry = new PwsEntryBean();
+			theEntry.setSparse(false);
+			theEntry.setGroup("group");
+			theEntry.setTitle("title" + i);
+			theEntry.setPassword(new StringBuilder("pw" + i));
+			entryStore.addEntry(theEntry);
+		}
+
+		final PwsEntryBean theEntry = entryStore.getEntry(1);
+		assertEquals("pw1", theEntry.getPassword().toString());
+		assertNull("neighbour prefetched without password", entryStore.entryCache.get(2)
+				.getPassword());
+		assertEquals("pw2", entryStore.getEntry(2).getPassword().toString());
+		theEntry.getPassword().setLength(0);
+		assertEquals("pw1", entryStore.getEntry(1).getPassword().toString());
+
+		theEntry.setPassword(new StringBuilder("changed"));
+		entryStore.updateEntry(theEntry);
+		assertEquals("changed", entryStore.getEntry(1).getPassword().toString());
+
+		entryStore.removeEntry(entryStore.getEntry(0));
+		assertEquals("changed", entryStore.getEntry(0).getPassword().toString());
+		assertEquals("pw2", entryStore.getEntry(1).getPassword().toString());
+	}
+
+	public void testAccessTimes() throws Exception {
+		final PwsEntryBean theNew = new PwsEntryBean();
+		theNew.setSparse(false);
+		theNew.setTitle("title");
+		theNew.setPassword(new StringBuilder("pw"));
+		entryStore.addEntry(theNew);
+		pwsFile.save();
+		assertFalse(pwsFile.isModified());
+
+		final PwsEntryBean theSparse = entryStore.getSparseEntries().get(0);
+		assertNotNull(theSparse.getId());
+		entryStore.recordAccess(theSparse);
+		assertTrue(entryStore.hasPendingAccessTimes());
+		assertFalse(pwsFile.isModified());
+		final Date theAccess = entryStore.getEntry(0).getLastAccess();
+		assertNotNull(theAccess);
+
+		pwsFile.save();
+		assertFalse(entryStore.hasPendingAccessTimes());
+		final PwsEntryStore theReloaded = PwsFileFactory.loadStore(filename, new StringBuilder(
+				"Pa$$word"));
+		assertEquals(theAccess.getTime() / 1000, theReloaded.getEntry(0).getLastAccess()
+				.getTime() / 1000);
+	}
+
 	public void testNewV2Entry() throws Exception {
 		final PwsFileV2 file = new PwsFileV2();
 
@@ -0,0 +1,225 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+
+import org.pwsafe.lib.UUID;
+import org.pwsafe.lib.file.PwsFileV3;
+import org.pwsafe.lib.file.PwsFileV3Writer;
+import org.pwsafe.lib.file.PwsRecordV3;
+import org.pwsafe.lib.file.PwsTimeField;
+import org.pwsafe.lib.file.PwsUUIDField;
+
+/**
+ * Writes synthetic V3 safes following a {@link SafeProfile}. Entries start
+ * from the ones of {@link CreateBigDataStoreTest} and get their values from
+ * the seed and their number only, so the same profile always gives the same
+ * entries and single entries can be recreated to check a safe.
+ * Records are streamed to the file, the generator holds one entry at a time.
+ *
+ * @author roxon
+ */
+public class SafeGenerator {
+
+	/** all dates are relative to this one, not to the current time */
+	private static final long BASE_TIME = 1388534400000L; // 2014-01-01
+
+	private static final long DAY = 86400000L;
+
+	private static final String ASCII = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+	private static final String UNICODE = "\u00e4\u00f6\u00fc\u00df\u00e9\u00e8\u00e7\u00f1\u00f8\u00e5\u20ac\u0416\u0414\u042f\u0436\u0444\u03bb\u03c0\u03a9\u4e2d\u6587\u5b57\u65e5\u672c\u8a9e\ud55c\uad6d";
+
+	private static final String PUNCTUATION = "!#$%&*+-./:;=?@_~";
+
+	private static final String[] WORDS = { "Lorem", "ipsum", "dolor", "sit", "amet",
+			"consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "account",
+			"server", "login", "backup", "admin", "bank", "mail" };
+
+	private final SafeProfile profile;
+
+	public SafeGenerator(final SafeProfile aProfile) {
+		profile = aProfile;
+	}
+
+	/**
+	 * Writes a safe following a profile to a new temporary file, the fixture of
+	 * the tests that need a real safe on disk.
+	 *
+	 * @param aPrefix the prefix of the file name
+	 * @param aProfile the profile of the safe
+	 * @param aPassphrase the passphrase of the safe
+	 * @return the written file, deleted on exit
+	 * @throws IOException if writing fails
+	 */
+	public static File createTempSafe(final String aPrefix, final SafeProfile aProfile,
+			final String aPassphrase) throws IOException {
+		final File theFile = File.createTempFile(aPrefix, PwsFileV3.FILE_EXTENSION);
+		theFile.deleteOnExit();
+		new SafeGenerator(aProfile).write(theFile, new StringBuilder(aPassphrase));
+		return theFile;
+	}
+
+	/**
+	 * Searches all fields of the sparse entries ignoring case, like the find
+	 * action of the application does it.
+	 *
+	 * @param aStore the store to search
+	 * @param aText the text to find
+	 * @return the number of entries containing the text
+	 */
+	public static int search(final PwsEntryStore aStore, final String aText) {
+		final String theSearch = aText.toLowerCase();
+		int theHits = 0;
+		for (final PwsEntryBean theEntry : aStore.getSparseEntries()) {
+			for (final String theValue : theEntry.getFields().values()) {
+				if (theValue != null && theValue.toLowerCase().contains(theSearch)) {
+					theHits++;
+					break;
+				}
+			}
+		}
+		return theHits;
+	}
+
+	/**
+	 * Writes the safe.
+	 *
+	 * @param aFile the file to write
+	 * @param aPassphrase the passphrase of the safe
+	 * @throws IOException if writing fails
+	 */
+	public void write(final File aFile, final StringBuilder aPassphrase) throws IOException {
+		final PwsFileV3Writer theWriter = new PwsFileV3Writer(new BufferedOutputStream(
+				new FileOutputStream(aFile)), aPassphrase);
+		try {
+			for (int i = 0; i < profile.getEntryCount(); i++) {
+				final PwsRecordV3 theRecord = theWriter.newRecord();
+				final PwsEntryBean theEntry = createEntry(i);
+				theEntry.toPwsRecord(theRecord);
+				theRecord.setField(new PwsUUIDField(PwsRecordV3.UUID, theEntry.getId()));
+				theRecord.setField(new PwsTimeField(PwsRecordV3.CREATION_TIME, theEntry
+						.getCreated()));
+				theWriter.write(theRecord);
+			}
+		} finally {
+			theWriter.close();
+		}
+	}
+
+	/**
+	 * Creates an entry like the one written to the safe.
+	 *
+	 * @param aNumber the number of the entry
+	 * @return the filled entry
+	 */
+	public PwsEntryBean createEntry(final int aNumber) {
+		final Random theRandom = new Random(profile.getSeed() * 1000003 + aNumber);
+
+		final byte[] theId = new byte[16];
+		theRandom.nextBytes(theId);
+
+		final String theGroup = createGroup(theRandom);
+		final String theTitle = createText(theRandom, "title " + aNumber + " ", length(theRandom,
+				profile.getMinFieldLength(), profile.getMaxFieldLength()));
+		final PwsEntryBean theEntry = CreateBigDataStoreTest.createEntry(theGroup, theTitle,
+				aNumber);
+		theEntry.setId(new UUID(theId));
+		theEntry.setUsername(createText(theRandom, "user_" + aNumber + " ", length(theRandom,
+				profile.getMinFieldLength(), profile.getMaxFieldLength())));
+		theEntry.setPassword(new StringBuilder(createPassword(theRandom, length(theRandom,
+				profile.getMinPasswordLength(), profile.getMaxPasswordLength()))));
+		theEntry.setNotes(null);
+		if (theRandom.nextDouble() < profile.getNotesRatio()) {
+			theEntry.setNotes(createNotes(theRandom, length(theRandom, 1, profile
+					.getMaxNotesLength())));
+		}
+
+		final Date theCreated = new Date(BASE_TIME - theRandom.nextInt(3650) * DAY);
+		theEntry.setCreated(theCreated);
+		theEntry.setLastChange(theCreated);
+		theEntry.setExpires(null);
+		if (theRandom.nextDouble() < profile.getExpiryRatio()) {
+			theEntry.setExpires(new Date(BASE_TIME + (theRandom.nextInt(730) - 365) * DAY));
+		}
+		return theEntry;
+	}
+
+	private String createGroup(final Random aRandom) {
+		final StringBuilder theGroup = new StringBuilder();
+		for (int level = 0; level < profile.getGroupDepth(); level++) {
+			if (level > 0) {
+				theGroup.append('.');
+			}
+			theGroup.append(level == 0 ? "root " : "sub ").append(
+					aRandom.nextInt(profile.getGroupFanOut()));
+		}
+		return theGroup.toString();
+	}
+
+	/**
+	 * Creates a text starting with a prefix, the prefix is cut if the text is
+	 * shorter.
+	 */
+	private String createText(final Random aRandom, final String aPrefix, final int aLength) {
+		final StringBuilder theText = new StringBuilder(aLength);
+		theText.append(aPrefix);
+		while (theText.length() < aLength) {
+			theText.append(nextChar(aRandom, ASCII));
+		}
+		theText.setLength(aLength);
+		return theText.toString();
+	}
+
+	private String createPassword(final Random aRandom, final int aLength) {
+		final StringBuilder thePassword = new StringBuilder(aLength);
+		while (thePassword.length() < aLength) {
+			if (aRandom.nextInt(5) == 0) {
+				thePassword.append(PUNCTUATION.charAt(aRandom.nextInt(PUNCTUATION.length())));
+			} else {
+				thePassword.append(nextChar(aRandom, ASCII));
+			}
+		}
+		return thePassword.toString();
+	}
+
+	private String createNotes(final Random aRandom, final int aLength) {
+		final StringBuilder theNotes = new StringBuilder(aLength);
+		while (theNotes.length() < aLength) {
+			final String theWord = WORDS[aRandom.nextInt(WORDS.length)];
+			for (int i = 0; i < theWord.length(); i++) {
+				if (aRandom.nextDouble() < profile.getUnicodeRatio()) {
+					theNotes.append(UNICODE.charAt(aRandom.nextInt(UNICODE.length())));
+				} else {
+					theNotes.append(theWord.charAt(i));
+				}
+			}
+			theNotes.append(aRandom.nextInt(12) == 0 ? '\n' : ' ');
+		}
+		theNotes.setLength(aLength);
+		return theNotes.toString();
+	}
+
+	private char nextChar(final Random aRandom, final String someChars) {
+		if (aRandom.nextDouble() < profile.getUnicodeRatio()) {
+			return UNICODE.charAt(aRandom.nextInt(UNICODE.length()));
+		}
+		return someChars.charAt(aRandom.nextInt(someChars.length()));
+	}
+
+	private static int length(final Random aRandom, final int aMin, final int aMax) {
+		return aMin + aRandom.nextInt(aMax - aMin + 1);
+	}
+}
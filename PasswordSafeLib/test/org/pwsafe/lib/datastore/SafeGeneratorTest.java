@@ -0,0 +1,98 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.file.PwsFileFactory;
+
+/**
+ * Tests the synthetic safes and with them the streaming V3 writer.
+ *
+ * @author roxon
+ */
+public class SafeGeneratorTest extends TestCase {
+
+	private static final String PASSPHRASE = "generated";
+
+	private File first;
+	private File second;
+
+	@Override
+	public void setUp() throws Exception {
+		first = File.createTempFile("generated", ".psafe3");
+		second = File.createTempFile("generated", ".psafe3");
+	}
+
+	@Override
+	public void tearDown() {
+		first.delete();
+		second.delete();
+	}
+
+	private PwsEntryStore generate(final SafeProfile aProfile, final File aFile)
+			throws Exception {
+		new SafeGenerator(aProfile).write(aFile, new StringBuilder(PASSPHRASE));
+		return PwsFileFactory.loadStore(aFile.getPath(), new StringBuilder(PASSPHRASE));
+	}
+
+	public void testDeterministic() throws Exception {
+		final SafeProfile theProfile = new SafeProfile(200, 17);
+		theProfile.setUnicodeRatio(0.2);
+		final PwsEntryStore theFirst = generate(theProfile, first);
+		final PwsEntryStore theSecond = generate(theProfile, second);
+
+		assertEquals(200, theFirst.getSparseEntries().size());
+		assertEquals(theFirst.getSparseEntries(), theSecond.getSparseEntries());
+
+		final SafeGenerator theGenerator = new SafeGenerator(theProfile);
+		for (final int i : new int[] { 0, 99, 199 }) {
+			final PwsEntryBean theExpected = theGenerator.createEntry(i);
+			final PwsEntryBean theEntry = theFirst.getEntry(i);
+			assertEquals(theExpected.getId(), theEntry.getId());
+			assertEquals(theExpected.getTitle(), theEntry.getTitle());
+			assertEquals(theExpected.getPassword().toString(), theEntry.getPassword().toString());
+			// entries without notes are read back with empty notes
+			assertEquals(theExpected.getNotes() != null ? theExpected.getNotes() : "", theEntry
+					.getNotes());
+			assertEquals(theExpected.getCreated(), theEntry.getCreated());
+			assertEquals(theExpected.getExpires(), theEntry.getExpires());
+		}
+	}
+
+	public void testSeed() {
+		final PwsEntryBean theEntry = new SafeGenerator(new SafeProfile(10, 1)).createEntry(5);
+		final PwsEntryBean theOther = new SafeGenerator(new SafeProfile(10, 2)).createEntry(5);
+		assertFalse(theEntry.getId().equals(theOther.getId()));
+		assertFalse(theEntry.getPassword().toString().equals(theOther.getPassword().toString()));
+	}
+
+	public void testProfile() throws Exception {
+		final SafeProfile theProfile = new SafeProfile(50, 3);
+		theProfile.setGroupDepth(3);
+		theProfile.setGroupFanOut(2);
+		theProfile.setNotesRatio(0);
+		theProfile.setExpiryRatio(1);
+		theProfile.setUnicodeRatio(0);
+		theProfile.setFieldLength(30, 30);
+
+		final List<PwsEntryBean> theEntries = generate(theProfile, first).getSparseEntries();
+		for (final PwsEntryBean theEntry : theEntries) {
+			assertTrue(theEntry.getGroup(), theEntry.getGroup().matches(
+					"root [01]\\.sub [01]\\.sub [01]"));
+			assertEquals(30, theEntry.getTitle().length());
+			assertNotNull(theEntry.getExpires());
+			assertTrue(theEntry.getTitle().matches("\\p{ASCII}*"));
+		}
+		assertNull(new SafeGenerator(theProfile).createEntry(7).getNotes());
+	}
+}
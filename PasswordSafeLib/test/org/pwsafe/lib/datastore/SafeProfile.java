@@ -0,0 +1,151 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+/**
+ * Describes the safes written by {@link SafeGenerator}. Lengths are drawn
+ * uniformly between their minimum and maximum, ratios are between 0 and 1.
+ *
+ * @author roxon
+ */
+public class SafeProfile {
+
+	private final int entryCount;
+	private final long seed;
+
+	private int groupDepth = 2;
+	private int groupFanOut = 10;
+
+	private int minFieldLength = 6;
+	private int maxFieldLength = 24;
+	private int minPasswordLength = 12;
+	private int maxPasswordLength = 32;
+
+	private double notesRatio = 0.3;
+	private int maxNotesLength = 500;
+
+	private double unicodeRatio = 0.05;
+	private double expiryRatio = 0.2;
+
+	/**
+	 * @param anEntryCount the number of entries
+	 * @param aSeed the seed, equal seeds give equal safes
+	 */
+	public SafeProfile(final int anEntryCount, final long aSeed) {
+		entryCount = anEntryCount;
+		seed = aSeed;
+	}
+
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getGroupDepth() {
+		return groupDepth;
+	}
+
+	/**
+	 * @param aDepth the number of group levels above each entry, 0 for no
+	 *        groups
+	 */
+	public void setGroupDepth(final int aDepth) {
+		groupDepth = aDepth;
+	}
+
+	public int getGroupFanOut() {
+		return groupFanOut;
+	}
+
+	/**
+	 * @param aFanOut the number of sub groups of each group
+	 */
+	public void setGroupFanOut(final int aFanOut) {
+		groupFanOut = aFanOut;
+	}
+
+	public int getMinFieldLength() {
+		return minFieldLength;
+	}
+
+	public int getMaxFieldLength() {
+		return maxFieldLength;
+	}
+
+	/**
+	 * Sets the length of titles and user names.
+	 */
+	public void setFieldLength(final int aMin, final int aMax) {
+		minFieldLength = aMin;
+		maxFieldLength = aMax;
+	}
+
+	public int getMinPasswordLength() {
+		return minPasswordLength;
+	}
+
+	public int getMaxPasswordLength() {
+		return maxPasswordLength;
+	}
+
+	public void setPasswordLength(final int aMin, final int aMax) {
+		minPasswordLength = aMin;
+		maxPasswordLength = aMax;
+	}
+
+	public double getNotesRatio() {
+		return notesRatio;
+	}
+
+	/**
+	 * @param aRatio the share of entries with notes
+	 */
+	public void setNotesRatio(final double aRatio) {
+		notesRatio = aRatio;
+	}
+
+	public int getMaxNotesLength() {
+		return maxNotesLength;
+	}
+
+	public void setMaxNotesLength(final int aLength) {
+		maxNotesLength = aLength;
+	}
+
+	public double getUnicodeRatio() {
+		return unicodeRatio;
+	}
+
+	/**
+	 * @param aRatio the share of characters outside of ASCII
+	 */
+	public void setUnicodeRatio(final double aRatio) {
+		unicodeRatio = aRatio;
+	}
+
+	public double getExpiryRatio() {
+		return expiryRatio;
+	}
+
+	/**
+	 * @param aRatio the share of entries with an expiry date
+	 */
+	public void setExpiryRatio(final double aRatio) {
+		expiryRatio = aRatio;
+	}
+
+	@Override
+	public String toString() {
+		return entryCount + " entries, seed " + seed + ", groups " + groupDepth + "x"
+				+ groupFanOut;
+	}
+}
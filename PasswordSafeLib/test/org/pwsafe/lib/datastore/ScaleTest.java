@@ -0,0 +1,144 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.datastore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pwsafe.lib.file.PwsFileFactory;
+
+/**
+ * Opens, searches, edits and saves generated safes of increasing size and
+ * reports how the time of each operation grows with the size. An operation
+ * growing clearly faster than expected is flagged as non-linear.
+ * <p>
+ * Not part of the regular test suites, run it with the <code>scaletests</code>
+ * target. The sizes are set by the system property <code>scale.sizes</code>,
+ * with <code>scale.strict=true</code> flagged operations fail the test.
+ * </p>
+ *
+ * @author roxon
+ */
+public class ScaleTest extends TestCase {
+
+	private static final Log LOG = LogFactory.getLog(ScaleTest.class);
+
+	private static final String PASSPHRASE = "scale";
+
+	private static final int EDITS = 100;
+
+	/** times below are too noisy to tell anything */
+	private static final long MIN_MILLIS = 20;
+
+	/** the allowed excess of the measured over the expected growth exponent */
+	private static final double TOLERANCE = 0.5;
+
+	private enum Operation {
+		GENERATE(1), OPEN(1), SEARCH(1), EDIT(0), SAVE(1);
+
+		/** the expected growth exponent, 1 for linear, 0 for constant */
+		final int exponent;
+
+		Operation(final int anExponent) {
+			exponent = anExponent;
+		}
+	}
+
+	private final List<File> files = new ArrayList<File>();
+
+	@Override
+	public void tearDown() {
+		for (final File theFile : files) {
+			theFile.delete();
+			new File(theFile.getPath() + "~").delete();
+		}
+	}
+
+	public void testScaling() throws Exception {
+		final String[] theSizes = System.getProperty("scale.sizes", "1000,10000,50000").split(",");
+		final int[] sizes = new int[theSizes.length];
+		final long[][] millis = new long[Operation.values().length][theSizes.length];
+		for (int i = 0; i < theSizes.length; i++) {
+			sizes[i] = Integer.parseInt(theSizes[i].trim());
+			measure(sizes[i], millis, i);
+		}
+
+		final List<String> theFlagged = new ArrayList<String>();
+		for (final Operation theOperation : Operation.values()) {
+			final long[] theTimes = millis[theOperation.ordinal()];
+			final StringBuilder theReport = new StringBuilder(theOperation.toString());
+			for (int i = 0; i < sizes.length; i++) {
+				theReport.append("  ").append(sizes[i]).append(": ").append(theTimes[i]).append(
+						" ms");
+				if (i > 0 && theTimes[i - 1] >= MIN_MILLIS) {
+					final double theExponent = Math.log((double) theTimes[i] / theTimes[i - 1])
+							/ Math.log((double) sizes[i] / sizes[i - 1]);
+					theReport.append(String.format(" (^%.2f)", theExponent));
+					if (theExponent > theOperation.exponent + TOLERANCE) {
+						theReport.append(" NON-LINEAR");
+						theFlagged.add(theOperation + " " + sizes[i - 1] + " -> " + sizes[i]);
+					}
+				}
+			}
+			LOG.info(theReport);
+		}
+
+		if (Boolean.getBoolean("scale.strict")) {
+			assertTrue("Operations grow faster than expected: " + theFlagged, theFlagged
+					.isEmpty());
+		}
+	}
+
+	private void measure(final int aSize, final long[][] someMillis, final int anIndex)
+			throws Exception {
+		final File theFile = File.createTempFile("scale" + aSize + "-", ".psafe3");
+		files.add(theFile);
+		final SafeProfile theProfile = new SafeProfile(aSize, aSize);
+		final SafeGenerator theGenerator = new SafeGenerator(theProfile);
+
+		long theStart = System.nanoTime();
+		theGenerator.write(theFile, new StringBuilder(PASSPHRASE));
+		theStart = record(someMillis, Operation.GENERATE, anIndex, theStart);
+
+		final PwsEntryStore theStore = PwsFileFactory.loadStore(theFile.getPath(),
+				new StringBuilder(PASSPHRASE));
+		theStart = record(someMillis, Operation.OPEN, anIndex, theStart);
+		assertEquals(aSize, theStore.getSparseEntries().size());
+
+		final int theHits = SafeGenerator.search(theStore, theGenerator.createEntry(aSize / 2)
+				.getUsername());
+		theStart = record(someMillis, Operation.SEARCH, anIndex, theStart);
+		assertTrue(theHits > 0);
+
+		final Random theRandom = new Random(aSize);
+		for (int i = 0; i < EDITS; i++) {
+			final PwsEntryBean theEntry = theStore.getEntry(theRandom.nextInt(aSize));
+			theEntry.setTitle(theEntry.getTitle() + " edited");
+			assertTrue(theStore.updateEntry(theEntry));
+		}
+		theStart = record(someMillis, Operation.EDIT, anIndex, theStart);
+
+		theStore.getPwsFile().save();
+		record(someMillis, Operation.SAVE, anIndex, theStart);
+		theStore.getPwsFile().dispose();
+	}
+
+	private static long record(final long[][] someMillis, final Operation anOperation,
+			final int anIndex, final long aStart) {
+		final long theEnd = System.nanoTime();
+		someMillis[anOperation.ordinal()][anIndex] = (theEnd - aStart) / 1000000;
+		return theEnd;
+	}
+}
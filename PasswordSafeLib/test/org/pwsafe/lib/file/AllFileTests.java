@@ -24,6 +24,18 @@ public class AllFileTests {
 		suite.addTestSuite(PwsFieldTest.class);
 		suite.addTestSuite(InMemoryKeyTest.class);
 		suite.addTestSuite(PwsFieldTypeTest.class);
+		suite.addTestSuite(PwsIndexFileTest.class);
+		suite.addTestSuite(PwsFileV3VerifierTest.class);
+		suite.addTestSuite(PwsFileInfoCacheTest.class);
+		suite.addTestSuite(PwsFilePrefetchTest.class);
+		suite.addTestSuite(PwsStoreOpenerTest.class);
+		suite.addTestSuite(PwsFileMergerTest.class);
+		suite.addTestSuite(PwsStorageWatcherTest.class);
+		suite.addTestSuite(PwsStreamStorageTest.class);
+		suite.addTestSuite(PwsS3StorageTest.class);
+		suite.addTestSuite(PwsReplicaStorageTest.class);
+		suite.addTestSuite(PwsMirroredStorageTest.class);
+		suite.addTestSuite(PwsVersionStoreTest.class);
 		// $JUnit-END$
 		return suite;
 	}
@@ -0,0 +1,211 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.Log;
+import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.datastore.SafeProfile;
+
+/**
+ * Guards the memory used by the load path: the bytes allocated per record
+ * while loading, sealing, converting and saving, and the heap retained per
+ * entry by a loaded file and its entry store.
+ * <p>
+ * Allocations are counted per thread with the allocation counter of the
+ * HotSpot <code>ThreadMXBean</code>, those tests pass without checking on VMs
+ * that don't have it. Budgets are in bytes per record and can be overridden
+ * by system properties named <code>allocation.budget.</code> plus the name of
+ * the budget, e.g. <code>-Dallocation.budget.load=40000</code>.
+ * </p>
+ * <p>
+ * The numbers depend on the VM and on when its collector runs, so this test is
+ * not part of {@link AllFileTests}. It runs in a fresh VM with the
+ * <code>allocationtests</code> target of the build.
+ * </p>
+ *
+ * @author roxon
+ */
+public class AllocationTest extends TestCase {
+
+	private static final Log LOG = Log.getInstance(AllocationTest.class);
+
+	private static final String PASSPHRASE = "allocation";
+	private static final int RECORDS = 2000;
+
+	private static final Method ALLOCATED_BYTES = getAllocatedBytesMethod();
+
+	private File file;
+
+	@Override
+	public void setUp() throws Exception {
+		file = SafeGenerator.createTempSafe("allocation", new SafeProfile(RECORDS, 11), PASSPHRASE);
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + "~").delete();
+	}
+
+	private static Method getAllocatedBytesMethod() {
+		try {
+			final ThreadMXBean theBean = ManagementFactory.getThreadMXBean();
+			final Class<?> theType = Class.forName("com.sun.management.ThreadMXBean");
+			if (!theType.isInstance(theBean)) {
+				return null;
+			}
+			if (!((Boolean) theType.getMethod("isThreadAllocatedMemorySupported").invoke(theBean))
+					.booleanValue()) {
+				return null;
+			}
+			theType.getMethod("setThreadAllocatedMemoryEnabled", boolean.class).invoke(theBean,
+					Boolean.TRUE);
+			return theType.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (final Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread so far
+	 */
+	private static long allocatedBytes() throws Exception {
+		return ((Long) ALLOCATED_BYTES.invoke(ManagementFactory.getThreadMXBean(), Long
+				.valueOf(Thread.currentThread().getId()))).longValue();
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		final Runtime theRuntime = Runtime.getRuntime();
+		long theUsed = Long.MAX_VALUE;
+		// the heap only settles after a few collections
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(20);
+			theUsed = Math.min(theUsed, theRuntime.totalMemory() - theRuntime.freeMemory());
+		}
+		return theUsed;
+	}
+
+	private static void assertWithinBudget(final String aBudget, final long aDefault,
+			final long aBytes, final int aCount) {
+		final long theBudget = Long.getLong("allocation.budget." + aBudget, aDefault).longValue();
+		final long thePerRecord = aBytes / aCount;
+		LOG.info(aBudget + ": " + thePerRecord + " bytes per record, budget " + theBudget);
+		assertTrue(aBudget + " uses " + thePerRecord + " bytes per record, the budget is "
+				+ theBudget, thePerRecord <= theBudget);
+	}
+
+	private PwsFile loadFile() throws Exception {
+		return PwsFileFactory.loadFile(file.getPath(), new StringBuilder(PASSPHRASE));
+	}
+
+	private static List<PwsRecord> getRecords(final PwsFile aFile) {
+		final List<PwsRecord> theRecords = new ArrayList<PwsRecord>(aFile.getRecordCount());
+		for (final Iterator<? extends PwsRecord> it = aFile.getRecords(); it.hasNext();) {
+			theRecords.add(it.next());
+		}
+		return theRecords;
+	}
+
+	/**
+	 * Loading reads the records with {@link PwsRecordV3#loadRecord(PwsFile)}
+	 * and seals them with {@link PwsFile#add(PwsRecord)}.
+	 */
+	public void testLoadAllocation() throws Exception {
+		if (ALLOCATED_BYTES == null) {
+			return;
+		}
+		loadFile().dispose(); // warm up
+
+		final long theStart = allocatedBytes();
+		final PwsFile theFile = loadFile();
+		final long theBytes = allocatedBytes() - theStart;
+		assertEquals(RECORDS, theFile.getRecordCount());
+		assertWithinBudget("load", 40000, theBytes, RECORDS);
+	}
+
+	public void testAddAllocation() throws Exception {
+		if (ALLOCATED_BYTES == null) {
+			return;
+		}
+		final List<PwsRecord> theRecords = getRecords(loadFile());
+		final PwsFileV3 theFile = new PwsFileV3();
+		theFile.setPassphrase(new StringBuilder(PASSPHRASE));
+		theFile.add(theRecords.get(0)); // warm up
+
+		final long theStart = allocatedBytes();
+		for (final PwsRecord theRecord : theRecords) {
+			theFile.add(theRecord);
+		}
+		final long theBytes = allocatedBytes() - theStart;
+		assertWithinBudget("add", 50000, theBytes, RECORDS);
+	}
+
+	public void testFromPwsRecordAllocation() throws Exception {
+		if (ALLOCATED_BYTES == null) {
+			return;
+		}
+		final List<PwsRecord> theRecords = getRecords(loadFile());
+		PwsEntryBean.fromPwsRecord(theRecords.get(0)); // warm up
+		// the entries are kept so the VM can't optimise their allocation away
+		final List<PwsEntryBean> theEntries = new ArrayList<PwsEntryBean>(RECORDS);
+
+		final long theStart = allocatedBytes();
+		for (final PwsRecord theRecord : theRecords) {
+			theEntries.add(PwsEntryBean.fromPwsRecord(theRecord));
+		}
+		final long theBytes = allocatedBytes() - theStart;
+		assertEquals(RECORDS, theEntries.size());
+		assertWithinBudget("fromPwsRecord", 400, theBytes, RECORDS);
+	}
+
+	/**
+	 * Saving writes the records with {@link PwsRecordV3#saveRecord(PwsFile)}.
+	 */
+	public void testSaveAllocation() throws Exception {
+		if (ALLOCATED_BYTES == null) {
+			return;
+		}
+		final PwsFile theFile = loadFile();
+		theFile.save(); // warm up
+
+		final long theStart = allocatedBytes();
+		theFile.save();
+		final long theBytes = allocatedBytes() - theStart;
+		assertWithinBudget("save", 55000, theBytes, RECORDS);
+	}
+
+	public void testRetainedHeap() throws Exception {
+		loadFile().dispose(); // warm up
+
+		final long theEmpty = usedHeap();
+		final PwsFile theFile = loadFile();
+		final long theLoaded = usedHeap();
+		final PwsEntryStore theStore = PwsFileFactory.getStore(theFile);
+		final long theWithStore = usedHeap();
+		// the file and the store must still be reachable when the heap is measured
+		assertEquals(RECORDS, theFile.getRecordCount());
+		assertEquals(RECORDS, theStore.getSparseEntries().size());
+
+		assertWithinBudget("retainedFile", 4000, theLoaded - theEmpty, RECORDS);
+		assertWithinBudget("retainedStore", 1200, theWithStore - theLoaded, RECORDS);
+	}
+}
@@ -26,6 +26,18 @@ public class InMemoryKeyTest extends TestCase {
 		key.dispose();
 	}
 
+	public void testInitWithKey() {
+		final InMemoryKey key = new InMemoryKey(8);
+		key.init();
+		final byte[] content = key.getKey();
+		key.dispose();
+
+		final InMemoryKey key2 = new InMemoryKey(8);
+		key2.init(content);
+		assertTrue(Arrays.equals(content, key2.getKey()));
+		key2.dispose();
+	}
+
 	public void testDispose() {
 		final InMemoryKey key = new InMemoryKey(8);
 		key.init();
@@ -46,6 +46,7 @@ public class PwsFileFactoryTest extends TestCase {
 		assertTrue(theFile instanceof PwsFileV2);
 
 		assertEquals(1, theFile.getRecordCount());
+		assertEquals("bytes read", new File(testV2Filename).length(), theFile.getOpenedSize());
 
 		final PwsEntryStore theStore = PwsFileFactory.getStore(theFile);
 		assertNotNull(theStore);
@@ -0,0 +1,97 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.datastore.SafeProfile;
+
+/**
+ * Tests peeking at file headers and caching the result.
+ *
+ * @author roxon
+ */
+public class PwsFileInfoCacheTest extends TestCase {
+
+	private File file;
+
+	@Override
+	public void setUp() throws Exception {
+		file = SafeGenerator.createTempSafe("peek", new SafeProfile(5, 3), "peek");
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+	}
+
+	public void testPeekV3() throws Exception {
+		final PwsFileInfo theInfo = PwsFileFactory.peek(file.getPath());
+		assertTrue(theInfo.isV3());
+		assertEquals(file.length(), theInfo.getSize());
+		assertEquals(file.lastModified(), theInfo.getLastModified());
+		assertTrue("iterations " + theInfo.getIterations(), theInfo.getIterations() >= 2048);
+	}
+
+	public void testPeekOther() throws Exception {
+		final FileOutputStream theStream = new FileOutputStream(file);
+		theStream.write(new byte[] { 1, 2, 3 });
+		theStream.close();
+		final PwsFileInfo theInfo = PwsFileFactory.peek(file.getPath());
+		assertFalse(theInfo.isV3());
+		assertEquals(PwsFileInfo.VERSION_UNKNOWN, theInfo.getVersion());
+		assertEquals(-1, theInfo.getIterations());
+		assertEquals(3, theInfo.getSize());
+	}
+
+	public void testRefresh() throws Exception {
+		final PwsFileInfoCache theCache = new PwsFileInfoCache();
+		assertNull(theCache.get(file.getPath()));
+		final PwsFileInfo theInfo = theCache.refresh(file.getPath());
+		assertSame(theInfo, theCache.get(file.getPath()));
+		assertSame("unchanged file not read again", theInfo, theCache.refresh(file.getPath()));
+
+		file.setLastModified(theInfo.getLastModified() - 10000);
+		final PwsFileInfo theChanged = theCache.refresh(file.getPath());
+		assertNotSame(theInfo, theChanged);
+		assertEquals(file.lastModified(), theChanged.getLastModified());
+
+		file.delete();
+		assertNull(theCache.refresh(file.getPath()));
+		assertNull(theCache.get(file.getPath()));
+	}
+
+	public void testStoreAndLoad() throws Exception {
+		final PwsFileInfoCache theCache = new PwsFileInfoCache();
+		final PwsFileInfo theInfo = theCache.refresh(file.getPath());
+		theCache.put(new PwsFileInfo("other", 1, 2, PwsFileInfo.VERSION_UNKNOWN, -1));
+		theCache.retainAll(Collections.singleton(file.getPath()));
+		assertTrue(theCache.isModified());
+
+		final ByteArrayOutputStream theOut = new ByteArrayOutputStream();
+		theCache.store(theOut);
+		assertFalse(theCache.isModified());
+
+		final PwsFileInfoCache theLoaded = new PwsFileInfoCache();
+		theLoaded.load(new ByteArrayInputStream(theOut.toByteArray()));
+		final PwsFileInfo theCopy = theLoaded.get(file.getPath());
+		assertEquals(theInfo.getSize(), theCopy.getSize());
+		assertEquals(theInfo.getLastModified(), theCopy.getLastModified());
+		assertEquals(theInfo.getIterations(), theCopy.getIterations());
+		assertTrue(theCopy.isV3());
+		assertNull(theLoaded.get("other"));
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.file.PwsMergeReport.Outcome;
+
+/**
+ * Tests merging two copies of a safe by record UUID.
+ *
+ * @author roxon
+ */
+public class PwsFileMergerTest extends TestCase {
+
+	private static final String PASSPHRASE = "merge";
+
+	private File file;
+
+	@Override
+	public void setUp() throws Exception {
+		file = File.createTempFile("merge", PwsFileV3.FILE_EXTENSION);
+		file.delete();
+		final PwsFileV3 theFile = TestUtils.createPwsFileV3(file.getPath(), new StringBuilder(
+				PASSPHRASE));
+		TestUtils.addDummyRecords(theFile, 4);
+		// clearly older than the file, record times are stored in seconds
+		final Date theOld = new Date(System.currentTimeMillis() - 60000);
+		for (int i = 0; i < theFile.getRecordCount(); i++) {
+			final PwsRecord theRecord = theFile.getRecord(i);
+			theRecord.setField(new PwsTimeField(PwsRecordV3.CREATION_TIME, theOld));
+			theRecord.setField(new PwsTimeField(PwsRecordV3.LAST_MOD_TIME, theOld));
+			theFile.set(i, theRecord);
+		}
+		theFile.save();
+		theFile.dispose();
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+	}
+
+	public void testThreeWay() throws Exception {
+		final PwsFileV3 theBase = load();
+		final PwsFileV3 theOurs = load();
+		final PwsFileV3 theTheirs = load();
+
+		TestUtils.addDummyRecords(theTheirs, 1);
+		change(theTheirs, "title1", "theirs1", 1000);
+		change(theOurs, "title2", "ours2", 1000);
+		change(theTheirs, "title2", "theirs2", 2000);
+		theTheirs.removeRecord(indexOf(theTheirs, "title3"));
+
+		final PwsMergeReport theReport = PwsFileMerger.merge(theOurs, theTheirs, theBase);
+		assertEquals(1, theReport.getCount(Outcome.ADDED));
+		assertEquals(1, theReport.getCount(Outcome.CHANGED));
+		assertEquals(1, theReport.getCount(Outcome.DELETED));
+		assertEquals(1, theReport.getCount(Outcome.CONFLICT));
+		assertTrue("newer change wins", theReport.getItems(Outcome.CONFLICT).get(0)
+				.isTheirsTaken());
+		assertEquals(set("title0", "theirs1", "theirs2"), titles(theOurs));
+		assertEquals(4, theOurs.getRecordCount());
+	}
+
+	public void testTwoWay() throws Exception {
+		final PwsFileV3 theOurs = load();
+		final PwsFileV3 theTheirs = load();
+
+		change(theTheirs, "title0", "theirs0", 2000);
+		change(theOurs, "title1", "ours1", 2000);
+		change(theTheirs, "title1", "theirs1", 1000);
+		theTheirs.removeRecord(indexOf(theTheirs, "title3"));
+
+		final PwsMergeReport theReport = PwsFileMerger.merge(theOurs, theTheirs, null);
+		assertEquals(1, theReport.getCount(Outcome.CHANGED));
+		assertEquals(1, theReport.getCount(Outcome.CONFLICT));
+		assertFalse(theReport.getItems(Outcome.CONFLICT).get(0).isTheirsTaken());
+		assertEquals("older than our copy, so deleted by them", 1, theReport
+				.getCount(Outcome.DELETED));
+		assertEquals(set("theirs0", "ours1", "title2"), titles(theOurs));
+
+		assertTrue(PwsFileMerger.merge(theOurs, theOurs, null).isEmpty());
+	}
+
+	public void testMergeStorage() throws Exception {
+		final PwsFileV3 theOurs = load();
+		final PwsFileV3 theTheirs = load();
+		TestUtils.addDummyRecords(theTheirs, 1);
+		theTheirs.save();
+		file.setLastModified(file.lastModified() + 2000);
+
+		change(theOurs, "title0", "ours0", 1000);
+		try {
+			theOurs.save();
+			fail("concurrent change not detected");
+		} catch (final ConcurrentModificationException e) {
+			// expected
+		}
+		final PwsMergeReport theReport = PwsFileMerger.mergeStorage(theOurs);
+		assertEquals(1, theReport.getCount(Outcome.ADDED));
+		assertEquals("our change is no conflict", 1, theReport.getItems().size());
+		theOurs.save();
+
+		final PwsFileV3 theMerged = load();
+		assertEquals(5, theMerged.getRecordCount());
+		assertTrue(titles(theMerged).contains("ours0"));
+	}
+
+	public void testDeletedByUs() throws Exception {
+		final PwsFileV3 theOurs = load();
+		final PwsFileV3 theTheirs = load();
+		theOurs.removeRecord(indexOf(theOurs, "title3"));
+		change(theTheirs, "title0", "theirs0", -1000);
+		TestUtils.addDummyRecords(theTheirs, 1);
+		theTheirs.save();
+		file.setLastModified(file.lastModified() + 2000);
+
+		assertTrue(theOurs.isModified());
+		final PwsMergeReport theReport = PwsFileMerger.mergeStorage(theOurs);
+		assertEquals("only the new record is added", 1, theReport.getCount(Outcome.ADDED));
+		assertEquals(0, theReport.getCount(Outcome.CONFLICT));
+		assertEquals(4, theOurs.getRecordCount());
+		assertFalse("our deletion stays", titles(theOurs).contains("title3"));
+		assertTrue(titles(theOurs).contains("title0"));
+	}
+
+	public void testDeletedByThem() throws Exception {
+		final PwsFileV3 theOurs = load();
+		final PwsFileV3 theTheirs = load();
+		change(theOurs, "title0", "ours0", 1000);
+		TestUtils.addDummyRecords(theOurs, 1);
+		theTheirs.removeRecord(indexOf(theTheirs, "title0"));
+		theTheirs.removeRecord(indexOf(theTheirs, "title3"));
+		theTheirs.save();
+		file.setLastModified(file.lastModified() + 2000);
+
+		assertTrue(theOurs.isModified());
+		final PwsMergeReport theReport = PwsFileMerger.mergeStorage(theOurs);
+		assertEquals(1, theReport.getCount(Outcome.DELETED));
+		assertEquals("changed by us, deleted by them", 1, theReport.getCount(Outcome.CONFLICT));
+		assertEquals(0, theReport.getCount(Outcome.ADDED));
+		assertEquals(4, theOurs.getRecordCount());
+		assertEquals(set("ours0", "title0", "title1", "title2"), titles(theOurs));
+	}
+
+	public void testRefreshClean() throws Exception {
+		final PwsFileV3 theOurs = load();
+		final PwsFileV3 theTheirs = load();
+		change(theTheirs, "title0", "theirs0", -1000);
+		theTheirs.removeRecord(indexOf(theTheirs, "title3"));
+		theTheirs.save();
+		file.setLastModified(file.lastModified() + 2000);
+
+		final PwsMergeReport theReport = PwsFileMerger.mergeStorage(theOurs);
+		assertEquals(1, theReport.getCount(Outcome.CHANGED));
+		assertEquals(1, theReport.getCount(Outcome.DELETED));
+		assertEquals(0, theReport.getCount(Outcome.CONFLICT));
+		assertEquals(set("theirs0", "title1", "title2"), titles(theOurs));
+		assertFalse(theOurs.isModified());
+		assertFalse(theOurs.isStorageChanged());
+	}
+
+	public void testRefreshWithAccessTimes() throws Exception {
+		final PwsFileV3 theOurs = load();
+		final PwsEntryStore theStore = PwsFileFactory.getStore(theOurs);
+		theStore.recordAccess(theStore.getEntry(indexOf(theOurs, "title1")));
+		theStore.recordAccess(theStore.getEntry(indexOf(theOurs, "title3")));
+		final PwsFileV3 theTheirs = load();
+		theTheirs.removeRecord(indexOf(theTheirs, "title3"));
+		theTheirs.save();
+		file.setLastModified(file.lastModified() + 2000);
+
+		final PwsMergeReport theReport = PwsFileMerger.mergeStorage(theOurs);
+		theStore.reload();
+		assertEquals(1, theStore.flushAccessTimes());
+		assertEquals("deletion by others kept", 1, theReport.getCount(Outcome.DELETED));
+		assertEquals(set("title0", "title1", "title2"), titles(theOurs));
+		assertNotNull(theOurs.getRecord(indexOf(theOurs, "title1")).getField(
+				PwsRecordV3.LAST_ACCESS_TIME));
+	}
+
+	private PwsFileV3 load() throws Exception {
+		return (PwsFileV3) PwsFileFactory.loadFile(file.getPath(), new StringBuilder(PASSPHRASE));
+	}
+
+	private static int indexOf(final PwsFileV3 aFile, final String aTitle) {
+		int theIndex = 0;
+		for (final Iterator<? extends PwsRecord> i = aFile.getRecords(); i.hasNext(); theIndex++) {
+			if (aTitle.equals(i.next().getField(PwsRecordV3.TITLE).getValue())) {
+				return theIndex;
+			}
+		}
+		fail("no record " + aTitle);
+		return -1;
+	}
+
+	private static void change(final PwsFileV3 aFile, final String aTitle, final String aNewTitle,
+			final long anAge) {
+		final int theIndex = indexOf(aFile, aTitle);
+		final PwsRecord theRecord = aFile.getRecord(theIndex);
+		theRecord.setField(new PwsStringUnicodeField(PwsRecordV3.TITLE, aNewTitle));
+		theRecord.setField(new PwsTimeField(PwsRecordV3.LAST_MOD_TIME, new Date(System
+				.currentTimeMillis()
+				+ anAge)));
+		aFile.set(theIndex, theRecord);
+	}
+
+	private static Set<Object> titles(final PwsFileV3 aFile) {
+		final Set<Object> theTitles = new HashSet<Object>();
+		for (final Iterator<? extends PwsRecord> i = aFile.getRecords(); i.hasNext();) {
+			theTitles.add(i.next().getField(PwsRecordV3.TITLE).getValue());
+		}
+		return theTitles;
+	}
+
+	private static Set<Object> set(final Object... someValues) {
+		final Set<Object> theSet = new HashSet<Object>();
+		for (final Object theValue : someValues) {
+			theSet.add(theValue);
+		}
+		return theSet;
+	}
+}
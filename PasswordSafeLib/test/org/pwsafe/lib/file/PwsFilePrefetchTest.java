@@ -0,0 +1,125 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.datastore.SafeProfile;
+
+/**
+ * Tests reading a file in advance.
+ *
+ * @author roxon
+ */
+public class PwsFilePrefetchTest extends TestCase {
+
+	private static final String PASSPHRASE = "prefetch";
+
+	private File file;
+	private PwsFilePrefetch prefetch;
+
+	@Override
+	public void setUp() throws Exception {
+		file = SafeGenerator.createTempSafe("prefetch", new SafeProfile(20, 3), PASSPHRASE);
+	}
+
+	@Override
+	public void tearDown() {
+		PwsFilePrefetch.attach(null);
+		if (prefetch != null) {
+			prefetch.cancel();
+		}
+		file.delete();
+	}
+
+	private void waitUntilDone(final PwsFilePrefetch aPrefetch) throws InterruptedException {
+		for (int i = 0; i < 100 && !aPrefetch.isDone(); i++) {
+			Thread.sleep(20);
+		}
+	}
+
+	public void testTake() throws Exception {
+		prefetch = PwsFilePrefetch.start(file.getPath());
+		PwsFilePrefetch.attach(prefetch);
+		final byte[] theBytes = PwsFilePrefetch.take(file.getPath());
+		assertTrue(Arrays.equals(new PwsFileStorage(file.getPath()).read(), theBytes));
+		assertNull("taken only once", PwsFilePrefetch.take(file.getPath()));
+	}
+
+	public void testNotAttached() throws Exception {
+		prefetch = PwsFilePrefetch.start(file.getPath());
+		assertNull(PwsFilePrefetch.take(file.getPath()));
+
+		final byte[][] theBytes = new byte[1][];
+		final Thread theOther = new Thread() {
+			@Override
+			public void run() {
+				theBytes[0] = PwsFilePrefetch.take(file.getPath());
+			}
+		};
+		theOther.start();
+		theOther.join();
+		assertNull("not handed to other threads", theBytes[0]);
+
+		PwsFilePrefetch.attach(prefetch);
+		assertNotNull("still there for its open", PwsFilePrefetch.take(file.getPath()));
+	}
+
+	public void testOtherFile() {
+		prefetch = PwsFilePrefetch.start(file.getPath());
+		PwsFilePrefetch.attach(prefetch);
+		assertNull(PwsFilePrefetch.take(file.getPath() + ".other"));
+	}
+
+	public void testCancel() {
+		prefetch = PwsFilePrefetch.start(file.getPath());
+		prefetch.cancel();
+		PwsFilePrefetch.attach(prefetch);
+		assertNull(PwsFilePrefetch.take(file.getPath()));
+	}
+
+	public void testStartCancelsEarlier() throws Exception {
+		final PwsFilePrefetch theEarlier = PwsFilePrefetch.start(file.getPath() + ".other");
+		prefetch = PwsFilePrefetch.start(file.getPath());
+		assertNotSame(theEarlier, prefetch);
+		assertSame("same file, same prefetch", prefetch, PwsFilePrefetch.start(file.getPath()));
+		waitUntilDone(theEarlier);
+		assertTrue(theEarlier.isDone());
+		PwsFilePrefetch.attach(theEarlier);
+		assertNull(PwsFilePrefetch.take(file.getPath() + ".other"));
+	}
+
+	public void testChangedFile() throws Exception {
+		prefetch = PwsFilePrefetch.start(file.getPath());
+		waitUntilDone(prefetch);
+		file.setLastModified(file.lastModified() - 10000);
+		PwsFilePrefetch.attach(prefetch);
+		assertNull(PwsFilePrefetch.take(file.getPath()));
+	}
+
+	public void testMissingFile() {
+		prefetch = PwsFilePrefetch.start(file.getPath() + ".missing");
+		PwsFilePrefetch.attach(prefetch);
+		assertNull(PwsFilePrefetch.take(file.getPath() + ".missing"));
+	}
+
+	public void testLoadPrefetched() throws Exception {
+		prefetch = PwsFilePrefetch.start(file.getPath());
+		PwsFilePrefetch.attach(prefetch);
+		final PwsFile theFile = PwsFileFactory.loadFile(file.getPath(), new StringBuilder(
+				PASSPHRASE));
+		assertEquals(20, theFile.getRecordCount());
+		PwsFilePrefetch.attach(prefetch);
+		assertNull("used by the load", PwsFilePrefetch.take(file.getPath()));
+	}
+}
@@ -13,11 +13,14 @@ import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.concurrent.CancellationException;
 
 import junit.framework.TestCase;
 
 import org.pwsafe.lib.Log;
+import org.pwsafe.lib.PwsProgressMonitor;
 import org.pwsafe.lib.exception.EndOfFileException;
+import org.pwsafe.lib.exception.InvalidPassphraseException;
 import org.pwsafe.lib.exception.UnsupportedFileVersionException;
 
 /**
@@ -93,6 +96,49 @@ public class PwsFileV3Test extends TestCase {
 		assertEquals("", savedPassphrase.toString());
 	}
 
+	public void testOpenWithProgress() throws Exception {
+		final long[] theTotal = new long[1];
+		PwsProgressMonitor.attach(new PwsProgressMonitor() {
+			@Override
+			public void progress(final long aDone, final long aTotal) {
+				theTotal[0] = aTotal;
+			}
+
+			@Override
+			public boolean isCanceled() {
+				return false;
+			}
+		});
+		try {
+			new PwsFileV3(new PwsFileStorage(filename), passphrase).close();
+		} finally {
+			PwsProgressMonitor.attach(null);
+		}
+		assertEquals(PwsFileFactory.peek(filename).getIterations(), theTotal[0]);
+	}
+
+	public void testOpenCancelled() throws Exception {
+		PwsProgressMonitor.attach(new PwsProgressMonitor() {
+			@Override
+			public void progress(final long aDone, final long aTotal) {
+				// ignored
+			}
+
+			@Override
+			public boolean isCanceled() {
+				return true;
+			}
+		});
+		try {
+			new PwsFileV3(new PwsFileStorage(filename), "wrong passphrase");
+			fail("not cancelled");
+		} catch (final CancellationException anEx) {
+			// ok
+		} finally {
+			PwsProgressMonitor.attach(null);
+		}
+	}
+
 	public void testReadOnly() throws Exception {
 
 		pwsFile.setReadOnly(true);
@@ -125,6 +171,46 @@ public class PwsFileV3Test extends TestCase {
 		}
 	}
 
+	public void testLockUnlock() throws Exception {
+		TestUtils.addDummyRecords(pwsFile, 3);
+		pwsFile.save();
+
+		pwsFile.lock();
+		assertTrue(pwsFile.isLocked());
+		try {
+			pwsFile.getRecord(0);
+			fail("a locked file can't be read");
+		} catch (final IllegalStateException e) {
+			// ok
+		}
+		try {
+			pwsFile.unlock(new StringBuilder("wrong"));
+			fail("unlocked with wrong passphrase");
+		} catch (final InvalidPassphraseException e) {
+			assertTrue(pwsFile.isLocked());
+		}
+
+		pwsFile.unlock(new StringBuilder(passphrase));
+		assertFalse(pwsFile.isLocked());
+		assertEquals(3, pwsFile.getRecordCount());
+		assertEquals("pw2", pwsFile.getRecord(2).getField(PwsRecordV3.PASSWORD).toString());
+		assertEquals(passphrase, pwsFile.getPassphrase());
+
+		// the keys are derived again on save
+		pwsFile.setModified();
+		pwsFile.save();
+		final PwsFileV3 theReloaded = new PwsFileV3(new PwsFileStorage(filename), passphrase);
+		theReloaded.readAll();
+		assertEquals(3, theReloaded.getRecordCount());
+	}
+
+	public void testStorageChangedWhileLocked() throws Exception {
+		pwsFile.lock();
+		assertFalse(pwsFile.isStorageChanged());
+		new File(filename).setLastModified(System.currentTimeMillis() + 1000);
+		assertTrue(pwsFile.isStorageChanged());
+	}
+
 	public void testUnknownField() throws Exception {
 		final int unknownFieldType = 213;
 		final String payload = "unknown";
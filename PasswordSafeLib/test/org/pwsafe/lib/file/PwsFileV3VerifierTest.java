@@ -0,0 +1,98 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.datastore.SafeProfile;
+import org.pwsafe.lib.exception.InvalidPassphraseException;
+
+/**
+ * Tests verifying the HMAC of a file without loading it.
+ *
+ * @author roxon
+ */
+public class PwsFileV3VerifierTest extends TestCase {
+
+	private static final String PASSPHRASE = "verify";
+	private static final int RECORDS = 50;
+
+	private File file;
+	private byte[] content;
+
+	@Override
+	public void setUp() throws Exception {
+		file = SafeGenerator.createTempSafe("verify", new SafeProfile(RECORDS, 3), PASSPHRASE);
+		content = new byte[(int) file.length()];
+		final FileInputStream theStream = new FileInputStream(file);
+		try {
+			assertEquals(content.length, theStream.read(content));
+		} finally {
+			theStream.close();
+		}
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+	}
+
+	private int verify(final byte[] aContent) throws Exception {
+		return PwsFileV3Verifier.verify(new ByteArrayInputStream(aContent), new StringBuilder(
+				PASSPHRASE));
+	}
+
+	public void testIntact() throws Exception {
+		assertEquals(RECORDS, PwsFileV3Verifier.verify(file, new StringBuilder(PASSPHRASE)));
+	}
+
+	public void testSavedByLibrary() throws Exception {
+		final PwsFile theFile = PwsFileFactory.loadFile(file.getPath(), new StringBuilder(
+				PASSPHRASE));
+		theFile.save();
+		assertEquals(RECORDS, PwsFileV3Verifier.verify(file, new StringBuilder(PASSPHRASE)));
+		new File(file.getPath() + "~").delete();
+	}
+
+	public void testWrongPassphrase() throws Exception {
+		try {
+			PwsFileV3Verifier.verify(file, new StringBuilder("wrong"));
+			fail("wrong passphrase accepted");
+		} catch (final InvalidPassphraseException e) {
+			// expected
+		}
+	}
+
+	public void testTampered() throws Exception {
+		content[content.length / 2] ^= 1;
+		try {
+			verify(content);
+			fail("tampered file accepted");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	public void testTruncated() throws Exception {
+		final byte[] theTruncated = new byte[content.length - 40];
+		System.arraycopy(content, 0, theTruncated, 0, theTruncated.length);
+		try {
+			verify(theTruncated);
+			fail("truncated file accepted");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.Util;
+import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.datastore.PwsEntryStore;
+
+/**
+ * Tests the index sidecar of V3 files.
+ *
+ * @author roxon
+ */
+public class PwsIndexFileTest extends TestCase {
+
+	private static final String PASSPHRASE = "Pa$$word";
+	private static final int RECORDS = 25;
+
+	private String filename;
+	private File indexFile;
+
+	@Override
+	public void setUp() throws Exception {
+		filename = File.createTempFile("index", PwsFileV3.FILE_EXTENSION).getAbsolutePath();
+		indexFile = new File(filename + PwsIndexFile.FILE_EXTENSION);
+
+		final PwsFileV3 theFile = new PwsFileV3();
+		theFile.setStorage(new PwsFileStorage(filename));
+		theFile.setPassphrase(new StringBuilder(PASSPHRASE));
+		theFile.setIndexSidecar(true);
+		TestUtils.addDummyRecords(theFile, RECORDS);
+		theFile.save();
+	}
+
+	@Override
+	public void tearDown() {
+		new File(filename).delete();
+		new File(filename + "~").delete();
+		indexFile.delete();
+	}
+
+	public void testIndexWritten() throws Exception {
+		assertTrue(indexFile.exists());
+
+		final PwsFileV3 theFile = new PwsFileV3(new PwsFileStorage(filename), PASSPHRASE);
+		final PwsIndexFile theIndex = theFile.readIndex();
+		assertNotNull(theIndex);
+		assertEquals(RECORDS, theIndex.getRecordCount());
+
+		final List<PwsRecordV3> theRecords = theIndex.getRecords();
+		for (int i = 0; i < RECORDS; i++) {
+			final PwsRecordV3 theRecord = theRecords.get(i);
+			assertEquals("title" + i, theRecord.getField(PwsRecordV3.TITLE).toString());
+			assertNull("notes not indexed", theRecord.getField(PwsRecordV3.NOTES));
+			assertNotNull(theRecord.getField(PwsRecordV3.UUID));
+			assertNull(theRecord.getField(PwsRecordV3.PASSWORD));
+		}
+	}
+
+	public void testDeferredRecords() throws Exception {
+		final PwsFileV3 theFile = new PwsFileV3(new PwsFileStorage(filename), PASSPHRASE);
+		theFile.deferRecords(theFile.readIndex());
+		assertTrue(theFile.isLoadingDeferred());
+		assertEquals(RECORDS, theFile.getRecordCount());
+
+		// single records are read on demand
+		final PwsRecord theLast = theFile.getRecord(RECORDS - 1);
+		assertEquals("pw" + (RECORDS - 1), theLast.getField(PwsRecordV3.PASSWORD).toString());
+		assertTrue(theFile.isLoadingDeferred());
+
+		theFile.completeLoading();
+		assertFalse(theFile.isLoadingDeferred());
+		assertEquals(RECORDS, theFile.getRecordCount());
+		assertEquals(theLast, theFile.getRecord(RECORDS - 1));
+	}
+
+	public void testLoadStoreFromIndex() throws Exception {
+		final PwsEntryStore theFullStore = PwsFileFactory.getStore(PwsFileFactory.loadFile(
+				filename, new StringBuilder(PASSPHRASE)));
+
+		final PwsEntryStore theStore = PwsFileFactory.loadStore(filename, new StringBuilder(
+				PASSPHRASE));
+		assertTrue(((PwsFileV3) theStore.getPwsFile()).isIndexSidecar());
+		((PwsFileV3) theStore.getPwsFile()).completeLoading();
+		assertEquals(theFullStore.getSparseEntries(), theStore.getSparseEntries());
+		assertEquals("notes filled once loaded", "notes3", theStore.getSparseEntries().get(3)
+				.getNotes());
+
+		final PwsEntryBean theEntry = theStore.getEntry(3);
+		assertEquals("pw3", theEntry.getPassword().toString());
+
+		theEntry.setTitle("changed");
+		theStore.updateEntry(theEntry);
+		theStore.getPwsFile().save();
+
+		final PwsEntryStore theReloaded = PwsFileFactory.loadStore(filename, new StringBuilder(
+				PASSPHRASE));
+		assertEquals("changed", theReloaded.getSparseEntries().get(3).getTitle());
+		assertEquals("changed", theReloaded.getEntry(3).getTitle());
+	}
+
+	public void testStaleIndexIgnored() throws Exception {
+		final byte[] theOldIndex = new PwsFileStorage(indexFile.getPath()).load();
+
+		final PwsFileV3 theFile = (PwsFileV3) PwsFileFactory.loadFile(filename,
+				new StringBuilder(PASSPHRASE));
+		TestUtils.addDummyRecords(theFile, 1);
+		theFile.save();
+		new PwsFileStorage(indexFile.getPath()).save(theOldIndex);
+
+		final PwsFileV3 theReopened = new PwsFileV3(new PwsFileStorage(filename), PASSPHRASE);
+		assertNull(theReopened.readIndex());
+
+		final PwsEntryStore theStore = PwsFileFactory.loadStore(filename, new StringBuilder(
+				PASSPHRASE));
+		assertFalse(((PwsFileV3) theStore.getPwsFile()).isIndexSidecar());
+		assertEquals(RECORDS + 1, theStore.getSparseEntries().size());
+	}
+
+	public void testTamperedIndexIgnored() throws Exception {
+		final byte[] theIndex = new PwsFileStorage(indexFile.getPath()).load();
+		theIndex[theIndex.length / 2] ^= 1;
+		new PwsFileStorage(indexFile.getPath()).save(theIndex);
+
+		final PwsFileV3 theFile = new PwsFileV3(new PwsFileStorage(filename), PASSPHRASE);
+		assertNull(theFile.readIndex());
+	}
+
+	public void testIndexRemovedWhenDisabled() throws Exception {
+		final PwsFileV3 theFile = (PwsFileV3) PwsFileFactory.loadFile(filename,
+				new StringBuilder(PASSPHRASE));
+		assertFalse(theFile.isIndexSidecar());
+		theFile.setModified();
+		theFile.save();
+		assertFalse(indexFile.exists());
+	}
+
+	public void testWrongKeyIgnored() throws Exception {
+		final byte[] theHmac = new byte[32];
+		final byte[] theKey = new byte[32];
+		Util.newRandBytes(theKey);
+		assertNull(PwsIndexFile.read(indexFile, theHmac, theKey));
+	}
+}
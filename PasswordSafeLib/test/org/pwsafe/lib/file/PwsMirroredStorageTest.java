@@ -0,0 +1,211 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Tests saving to several targets with a quorum and loading from the fastest
+ * one.
+ *
+ * @author roxon
+ */
+public class PwsMirroredStorageTest extends TestCase {
+
+	private static final byte[] ONE = "one".getBytes();
+
+	/** keeps the content in memory, may be slow or failing */
+	private static class TargetStorage implements PwsStorage {
+		private final String name;
+		volatile byte[] content;
+		volatile long delay;
+		volatile boolean failing;
+		volatile boolean conflicting;
+		volatile CountDownLatch gate;
+		volatile int loads;
+		volatile Date modified;
+
+		TargetStorage(final String aName) {
+			name = aName;
+		}
+
+		public byte[] load() throws IOException {
+			pause();
+			if (failing) {
+				throw new IOException(name + " failed");
+			}
+			loads++;
+			return content;
+		}
+
+		public boolean save(final byte[] data) {
+			pause();
+			if (conflicting) {
+				throw new ConcurrentModificationException(name + " changed");
+			}
+			if (failing) {
+				return false;
+			}
+			content = data;
+			return true;
+		}
+
+		private void pause() {
+			try {
+				if (gate != null) {
+					gate.await(10, TimeUnit.SECONDS);
+				}
+				Thread.sleep(delay);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		public String getIdentifier() {
+			return name;
+		}
+
+		public Date getModifiedDate() {
+			return modified;
+		}
+	}
+
+	private final TargetStorage disk = new TargetStorage("disk");
+	private final TargetStorage share = new TargetStorage("share");
+	private final TargetStorage cloud = new TargetStorage("cloud");
+
+	private PwsMirroredStorage mirrored;
+
+	@Override
+	public void setUp() {
+		mirrored = new PwsMirroredStorage(Arrays.asList(disk, share, cloud), 2);
+	}
+
+	@Override
+	public void tearDown() {
+		mirrored.shutdown();
+	}
+
+	public void testQuorum() throws Exception {
+		cloud.gate = new CountDownLatch(1);
+		assertTrue("saved without the slow target", mirrored.save(ONE));
+		assertTrue(Arrays.equals(ONE, disk.content));
+		assertTrue(Arrays.equals(ONE, share.content));
+		assertNull(cloud.content);
+
+		cloud.gate.countDown();
+		cloud.gate = null;
+		final PwsStorageTransaction theTransaction = mirrored.beginWrite();
+		theTransaction.getOutputStream().write("two".getBytes());
+		theTransaction.commit();
+		for (int i = 0; i < 100 && !Arrays.equals("two".getBytes(), cloud.content); i++) {
+			Thread.sleep(50);
+		}
+		Thread.sleep(50);
+		assertEquals("saves reach a target in order", "two", new String(cloud.content));
+		for (final PwsMirroredStorage.Target theTarget : mirrored.getTargets()) {
+			assertTrue(theTarget.isCurrent());
+			assertTrue(theTarget.getLastLatency() >= 0);
+		}
+	}
+
+	public void testQuorumMissed() throws Exception {
+		share.failing = true;
+		cloud.failing = true;
+		final PwsStorageTransaction theTransaction = mirrored.beginWrite();
+		theTransaction.getOutputStream().write(ONE);
+		try {
+			theTransaction.commit();
+			fail("quorum missed");
+		} catch (final StorageException e) {
+			// expected
+		}
+		final PwsMirroredStorage.Target theShare = mirrored.getTargets().get(1);
+		assertFalse(theShare.isCurrent());
+		assertFalse(theShare.isHealthy());
+		assertNotNull(theShare.getLastError());
+
+		disk.conflicting = true;
+		share.failing = false;
+		try {
+			mirrored.save(ONE);
+			fail("conflict not reported");
+		} catch (final ConcurrentModificationException e) {
+			// expected
+		}
+	}
+
+	public void testLoadFastest() throws Exception {
+		disk.delay = 200;
+		share.delay = 100;
+		assertTrue(mirrored.save(ONE));
+		Thread.sleep(300);
+
+		assertTrue(Arrays.equals(ONE, mirrored.load()));
+		assertEquals("fastest first", 1, cloud.loads);
+
+		cloud.failing = true;
+		assertTrue(Arrays.equals(ONE, mirrored.load()));
+		assertEquals("falls back to the next fastest", 1, share.loads);
+		assertFalse(mirrored.getTargets().get(2).isHealthy());
+
+		cloud.failing = false;
+		mirrored.load();
+		assertEquals("unhealthy target read last", 2, share.loads);
+	}
+
+	public void testStateFile() throws Exception {
+		final File theState = File.createTempFile("mirror", ".state");
+		theState.delete();
+		try {
+			mirrored.shutdown();
+			mirrored = new PwsMirroredStorage(Arrays.asList(disk, share, cloud), 2, theState);
+			assertTrue(mirrored.save(ONE));
+			for (int i = 0; i < 100 && !Arrays.equals(ONE, cloud.content); i++) {
+				Thread.sleep(20);
+			}
+			disk.failing = true;
+			assertTrue(mirrored.save("two".getBytes()));
+			for (int i = 0; i < 100 && mirrored.getTargets().get(0).isHealthy(); i++) {
+				Thread.sleep(20);
+			}
+			assertFalse(mirrored.getTargets().get(0).isCurrent());
+			mirrored.shutdown();
+
+			disk.failing = false;
+			share.modified = new Date(2000);
+			mirrored = new PwsMirroredStorage(Arrays.asList(disk, share, cloud), 1, theState);
+			assertFalse("stale after a restart", mirrored.getTargets().get(0).isCurrent());
+			assertEquals("two", new String(mirrored.load()));
+			assertEquals("stale target not read", 0, disk.loads);
+			assertEquals("only one target read", 0, cloud.loads);
+			assertEquals(share.modified, mirrored.getModifiedDate());
+		} finally {
+			theState.delete();
+		}
+	}
+
+	public void testWithoutStateFile() throws Exception {
+		disk.content = ONE;
+		share.content = "two".getBytes();
+		assertTrue(mirrored.getTargets().get(0).isCurrent());
+		assertTrue("the primary is read first", Arrays.equals(ONE, mirrored.load()));
+		assertEquals(0, share.loads);
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Tests the local replica of a remote storage.
+ *
+ * @author roxon
+ */
+public class PwsReplicaStorageTest extends TestCase {
+
+	/** never retried during a test */
+	private static final long RETRY = 3600000;
+
+	private static final String PASSPHRASE = "replica";
+
+	/** keeps the content in memory, may be offline */
+	private static class RemoteStorage implements PwsStorage {
+		byte[] content;
+		boolean online = true;
+
+		RemoteStorage(final byte[] someBytes) {
+			content = someBytes;
+		}
+
+		public synchronized byte[] load() throws IOException {
+			if (!online) {
+				throw new IOException("offline");
+			}
+			if (content == null) {
+				throw new FileNotFoundException("remote");
+			}
+			return content;
+		}
+
+		public synchronized boolean save(final byte[] data) {
+			if (!online) {
+				return false;
+			}
+			content = data;
+			return true;
+		}
+
+		public String getIdentifier() {
+			return "remote";
+		}
+
+		public Date getModifiedDate() {
+			return null;
+		}
+	}
+
+	/** records what it is told */
+	private static class Listener implements PwsReplicaListener {
+		File conflict;
+		IOException failure;
+
+		public void conflictKept(final PwsReplicaStorage aStorage, final File aConflictFile) {
+			conflict = aConflictFile;
+		}
+
+		public void reconcileFailed(final PwsReplicaStorage aStorage,
+				final IOException anException) {
+			failure = anException;
+		}
+	}
+
+	private File file;
+
+	@Override
+	public void setUp() throws Exception {
+		file = File.createTempFile("replica", PwsFileV3.FILE_EXTENSION);
+		file.delete();
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + "~").delete();
+		new File(file.getPath() + PwsReplicaStorage.BASE_EXTENSION).delete();
+		final File[] theConflicts = file.getParentFile().listFiles();
+		for (final File theConflict : theConflicts) {
+			if (theConflict.getName().startsWith(
+					file.getName() + PwsReplicaStorage.CONFLICT_EXTENSION)) {
+				theConflict.delete();
+			}
+		}
+	}
+
+	private PwsReplicaStorage newStorage(final PwsStorage aRemote,
+			final PwsStorageReconciler aReconciler) throws IOException {
+		return new PwsReplicaStorage(aRemote, file.getPath(), aReconciler, RETRY);
+	}
+
+	public void testOpenOffline() throws Exception {
+		final RemoteStorage theRemote = new RemoteStorage("one".getBytes());
+		final PwsReplicaStorage theStorage = newStorage(theRemote, null);
+		assertEquals("one", new String(theStorage.load()));
+		assertTrue(theStorage.flush(10000));
+		theStorage.shutdown();
+
+		theRemote.online = false;
+		final PwsReplicaStorage theOffline = newStorage(theRemote, null);
+		assertEquals("one", new String(theOffline.load()));
+		assertFalse(theOffline.isPending());
+		theOffline.shutdown();
+
+		file.delete();
+		try {
+			newStorage(theRemote, null).load();
+			fail("neither replica nor remote");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+
+	public void testPushLater() throws Exception {
+		final RemoteStorage theRemote = new RemoteStorage("one".getBytes());
+		final PwsReplicaStorage theStorage = newStorage(theRemote, null);
+		theStorage.load();
+		assertTrue(theStorage.flush(10000));
+
+		theRemote.online = false;
+		assertTrue("saved while offline", theStorage.save("two".getBytes()));
+		assertTrue(theStorage.flush(10000));
+		assertTrue(theStorage.isPending());
+		assertEquals("two", new String(theStorage.load()));
+
+		theRemote.online = true;
+		theStorage.sync();
+		assertEquals("two", new String(theRemote.content));
+		assertFalse(theStorage.isPending());
+		theStorage.shutdown();
+	}
+
+	public void testShutdown() throws Exception {
+		final RemoteStorage theRemote = new RemoteStorage("one".getBytes());
+		final PwsReplicaStorage theStorage = newStorage(theRemote, null);
+		theStorage.load();
+		theRemote.online = false;
+		assertTrue(theStorage.save("two".getBytes()));
+		assertTrue(theStorage.flush(10000));
+
+		theStorage.shutdown();
+		assertTrue("retry dropped, thread ended", theStorage.flush(10000));
+		assertTrue(theStorage.isPending());
+	}
+
+	public void testFetchChange() throws Exception {
+		final RemoteStorage theRemote = new RemoteStorage("one".getBytes());
+		final PwsReplicaStorage theStorage = newStorage(theRemote, null);
+		theStorage.load();
+		assertTrue(theStorage.flush(10000));
+
+		theRemote.content = "two".getBytes();
+		theStorage.sync();
+		assertEquals("two", new String(theStorage.load()));
+		assertFalse(theStorage.isPending());
+		theStorage.shutdown();
+	}
+
+	public void testConflictWithoutReconciler() throws Exception {
+		final RemoteStorage theRemote = new RemoteStorage("one".getBytes());
+		final PwsReplicaStorage theStorage = newStorage(theRemote, null);
+		final Listener theListener = new Listener();
+		theStorage.setListener(theListener);
+		theStorage.load();
+		assertTrue(theStorage.flush(10000));
+
+		theRemote.online = false;
+		theStorage.save("ours".getBytes());
+		assertTrue(theStorage.flush(10000));
+		theRemote.content = "theirs".getBytes();
+		theRemote.online = true;
+		theStorage.sync();
+
+		assertEquals("theirs", new String(theStorage.load()));
+		assertNotNull("conflict reported", theListener.conflict);
+		assertTrue(theListener.conflict.getName().startsWith(
+				file.getName() + PwsReplicaStorage.CONFLICT_EXTENSION));
+		theStorage.save("next".getBytes());
+		assertTrue(theStorage.flush(10000));
+		assertEquals("ours kept after the next save", "ours", new String(new PwsFileStorage(
+				theListener.conflict.getPath()).load()));
+		theStorage.shutdown();
+	}
+
+	public void testReconcileFailed() throws Exception {
+		final RemoteStorage theRemote = new RemoteStorage("one".getBytes());
+		final int[] theCalls = new int[1];
+		final PwsReplicaStorage theStorage = new PwsReplicaStorage(theRemote, file.getPath(),
+				new PwsStorageReconciler() {
+					public byte[] reconcile(final byte[] ours, final byte[] theirs,
+							final byte[] base) throws IOException {
+						theCalls[0]++;
+						throw new StorageException("cannot merge");
+					}
+				}, 10);
+		final Listener theListener = new Listener();
+		theStorage.setListener(theListener);
+		theStorage.load();
+		assertTrue(theStorage.flush(10000));
+
+		theRemote.content = "theirs".getBytes();
+		theStorage.save("ours".getBytes());
+		assertTrue(theStorage.flush(10000));
+		Thread.sleep(200);
+		assertTrue(theStorage.flush(10000));
+
+		assertEquals("not retried", 1, theCalls[0]);
+		assertNotNull("failure reported", theListener.failure);
+		assertEquals("ours", new String(theStorage.load()));
+		theStorage.shutdown();
+	}
+
+	public void testReconcile() throws Exception {
+		final PwsMemoryStorage theInitial = new PwsMemoryStorage(null);
+		final PwsFileV3 theFile = new PwsFileV3();
+		theFile.setStorage(theInitial);
+		theFile.setPassphrase(new StringBuilder(PASSPHRASE));
+		TestUtils.addDummyRecords(theFile, 3);
+		theFile.save();
+		final RemoteStorage theRemote = new RemoteStorage(theInitial.load());
+
+		final PwsReplicaStorage theStorage = newStorage(theRemote, new PwsMergingReconciler(
+				PASSPHRASE));
+		final PwsFileV3 theOurs = new PwsFileV3(theStorage, PASSPHRASE);
+		theOurs.readAll();
+		theOurs.close();
+		assertTrue(theStorage.flush(10000));
+
+		final PwsFileV3 theTheirs = new PwsFileV3(theRemote, PASSPHRASE);
+		theTheirs.readAll();
+		theTheirs.close();
+		TestUtils.addDummyRecords(theTheirs, 1);
+		theTheirs.save();
+
+		theRemote.online = false;
+		TestUtils.addDummyRecords(theOurs, 1);
+		theOurs.save();
+		assertTrue(theStorage.flush(10000));
+		assertTrue(theStorage.isPending());
+
+		theRemote.online = true;
+		theStorage.sync();
+		assertFalse(theStorage.isPending());
+		final PwsFileV3 theMerged = new PwsFileV3(theRemote, PASSPHRASE);
+		theMerged.readAll();
+		theMerged.close();
+		assertEquals(5, theMerged.getRecordCount());
+		theStorage.shutdown();
+	}
+}
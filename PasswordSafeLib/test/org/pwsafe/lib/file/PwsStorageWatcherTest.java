@@ -0,0 +1,89 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests polling the storage of a file for changes by someone else.
+ *
+ * @author roxon
+ */
+public class PwsStorageWatcherTest extends TestCase {
+
+	private static final String PASSPHRASE = "watch";
+
+	private File file;
+
+	private final List<PwsFile> changed = new ArrayList<PwsFile>();
+
+	@Override
+	public void setUp() throws Exception {
+		file = File.createTempFile("watch", PwsFileV3.FILE_EXTENSION);
+		file.delete();
+		final PwsFileV3 theFile = TestUtils.createPwsFileV3(file.getPath(), new StringBuilder(
+				PASSPHRASE));
+		TestUtils.addDummyRecords(theFile, 2);
+		theFile.save();
+		theFile.dispose();
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+	}
+
+	public void testReportsSettledChangeOnce() throws Exception {
+		final PwsFile theFile = load();
+		final PwsStorageWatcher theWatcher = new PwsStorageWatcher(theFile, 1000,
+				new PwsStorageListener() {
+					public void storageChanged(final PwsFile aFile) {
+						changed.add(aFile);
+					}
+				});
+		theWatcher.poll();
+		assertTrue(changed.isEmpty());
+
+		final PwsFile theOther = load();
+		TestUtils.addDummyRecords((PwsFileV3) theOther, 1);
+		theOther.save();
+		file.setLastModified(file.lastModified() + 2000);
+
+		theWatcher.poll();
+		assertTrue("not settled yet", changed.isEmpty());
+		theWatcher.poll();
+		assertEquals(1, changed.size());
+		assertSame(theFile, changed.get(0));
+		theWatcher.poll();
+		assertEquals("reported once", 1, changed.size());
+	}
+
+	public void testOwnSaveNotReported() throws Exception {
+		final PwsFile theFile = load();
+		final PwsStorageWatcher theWatcher = new PwsStorageWatcher(theFile, 1000,
+				new PwsStorageListener() {
+					public void storageChanged(final PwsFile aFile) {
+						changed.add(aFile);
+					}
+				});
+		TestUtils.addDummyRecords((PwsFileV3) theFile, 1);
+		theFile.save();
+		theWatcher.poll();
+		theWatcher.poll();
+		assertTrue(changed.isEmpty());
+	}
+
+	private PwsFile load() throws Exception {
+		return PwsFileFactory.loadFile(file.getPath(), new StringBuilder(PASSPHRASE));
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.datastore.SafeProfile;
+
+/**
+ * Tests opening several safes at the same time.
+ *
+ * @author roxon
+ */
+public class PwsStoreOpenerTest extends TestCase {
+
+	private final File[] files = new File[3];
+
+	private PwsStoreOpener opener;
+
+	@Override
+	public void setUp() throws Exception {
+		for (int i = 0; i < files.length; i++) {
+			files[i] = SafeGenerator.createTempSafe("opener", new SafeProfile(10 * (i + 1), 3),
+					"safe" + i);
+		}
+		opener = new PwsStoreOpener(2);
+	}
+
+	@Override
+	public void tearDown() {
+		opener.shutdown();
+		for (final File theFile : files) {
+			theFile.delete();
+		}
+	}
+
+	public void testOpenAll() throws Exception {
+		final Map<String, StringBuilder> theSafes = new LinkedHashMap<String, StringBuilder>();
+		for (int i = 0; i < files.length; i++) {
+			theSafes.put(files[i].getPath(), new StringBuilder("safe" + i));
+		}
+		final List<Future<PwsEntryStore>> theStores = opener.openAll(theSafes);
+		assertEquals(files.length, theStores.size());
+		for (int i = 0; i < files.length; i++) {
+			assertEquals(10 * (i + 1), theStores.get(i).get().getSparseEntries().size());
+		}
+	}
+
+	public void testWrongPassphrase() throws Exception {
+		final StringBuilder thePassphrase = new StringBuilder("wrong");
+		final Future<PwsEntryStore> theStore = opener.open(files[0].getPath(), thePassphrase);
+		final Future<PwsEntryStore> theOther = opener.open(files[1].getPath(),
+				new StringBuilder("safe1"));
+		try {
+			theStore.get();
+			fail("opened with a wrong passphrase");
+		} catch (final ExecutionException anEx) {
+			assertTrue(anEx.getCause() instanceof IOException);
+		}
+		assertEquals(20, theOther.get().getSparseEntries().size());
+		assertEquals("caller's passphrase untouched", "wrong", thePassphrase.toString());
+	}
+
+	public void testWrongPassphrasesOnFullPool() throws Exception {
+		// not ASCII, so the encoding of the V0.8 Beta1 bug is tried as well
+		final List<Future<PwsEntryStore>> theStores = new ArrayList<Future<PwsEntryStore>>();
+		for (final File theFile : files) {
+			theStores.add(opener.open(theFile.getPath(), new StringBuilder("wr\u00f6ng")));
+		}
+		for (final Future<PwsEntryStore> theStore : theStores) {
+			try {
+				theStore.get(60, TimeUnit.SECONDS);
+				fail("opened with a wrong passphrase");
+			} catch (final ExecutionException anEx) {
+				assertTrue(anEx.getCause() instanceof IOException);
+			}
+		}
+	}
+
+	public void testSharedShutdown() throws Exception {
+		final PwsStoreOpener theShared = PwsStoreOpener.getShared();
+		theShared.shutdown();
+		assertNotSame("replaced after shutdown", theShared, PwsStoreOpener.getShared());
+		assertEquals(10, PwsStoreOpener.getShared().open(files[0].getPath(),
+				new StringBuilder("safe0")).get().getSparseEntries().size());
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.exception.StorageException;
+
+/**
+ * Tests the streaming storage interface, its file implementation and the
+ * adapter for storages of the first generation.
+ *
+ * @author roxon
+ */
+public class PwsStreamStorageTest extends TestCase {
+
+	private static final byte[] ONE = "one".getBytes();
+	private static final byte[] TWO = "two".getBytes();
+
+	/** keeps the content in memory, fails to save on demand */
+	private static class MemoryStorage implements PwsStorage {
+		byte[] content;
+		boolean failing;
+
+		public byte[] load() throws IOException {
+			if (content == null) {
+				throw new IOException("empty");
+			}
+			return content;
+		}
+
+		public boolean save(final byte[] data) {
+			if (failing) {
+				return false;
+			}
+			content = data;
+			return true;
+		}
+
+		public String getIdentifier() {
+			return "memory";
+		}
+
+		public Date getModifiedDate() {
+			return null;
+		}
+	}
+
+	private File file;
+
+	@Override
+	public void setUp() throws Exception {
+		file = File.createTempFile("stream", PwsFileV3.FILE_EXTENSION);
+	}
+
+	@Override
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + "~").delete();
+	}
+
+	public void testFileCommit() throws Exception {
+		final PwsFileStorage theStorage = new PwsFileStorage(file.getPath());
+		assertTrue(theStorage.save(ONE));
+
+		final PwsStorageTransaction theTransaction = theStorage.beginWrite();
+		theTransaction.getOutputStream().write(TWO);
+		assertTrue("untouched before commit", Arrays.equals(ONE, theStorage.load()));
+		theTransaction.commit();
+
+		assertTrue(Arrays.equals(TWO, theStorage.load()));
+		assertTrue(Arrays.equals(ONE, new PwsFileStorage(file.getPath() + "~").load()));
+		final InputStream theInput = theStorage.openInput();
+		final byte[] theBytes = new byte[TWO.length];
+		new DataInputStream(theInput).readFully(theBytes);
+		assertEquals(-1, theInput.read());
+		theInput.close();
+		assertTrue(Arrays.equals(TWO, theBytes));
+
+		final ReadableByteChannel theChannel = theStorage.openChannel();
+		final ByteBuffer theBuffer = ByteBuffer.allocate(16);
+		while (theChannel.read(theBuffer) >= 0) {
+			// read all
+		}
+		theChannel.close();
+		assertEquals(TWO.length, theBuffer.position());
+	}
+
+	public void testFileAbort() throws Exception {
+		final PwsFileStorage theStorage = new PwsFileStorage(file.getPath());
+		assertTrue(theStorage.save(ONE));
+		final int theFiles = file.getParentFile().list().length;
+
+		final PwsStorageTransaction theTransaction = theStorage.beginWrite();
+		theTransaction.getOutputStream().write(TWO);
+		theTransaction.abort();
+
+		assertTrue(Arrays.equals(ONE, theStorage.load()));
+		assertEquals("temporary file removed", theFiles, file.getParentFile().list().length);
+	}
+
+	public void testFailedCommit() throws Exception {
+		final PwsFileStorage theStorage = new PwsFileStorage(file.getPath());
+		assertTrue(theStorage.save(ONE));
+		new File(file.getPath() + "~").delete();
+		final File theBlocker = new File(file.getPath() + "~", "blocker");
+		assertTrue(theBlocker.getParentFile().mkdir());
+		assertTrue(theBlocker.createNewFile());
+		final int theFiles = file.getParentFile().list().length;
+		try {
+			final PwsStorageTransaction theTransaction = theStorage.beginWrite();
+			theTransaction.getOutputStream().write(TWO);
+			try {
+				theTransaction.commit();
+				fail("backup could not be replaced");
+			} catch (final StorageException e) {
+				// expected
+			}
+			theTransaction.abort();
+
+			assertTrue(Arrays.equals(ONE, theStorage.load()));
+			assertEquals("temporary file removed", theFiles, file.getParentFile().list().length);
+		} finally {
+			theBlocker.delete();
+		}
+	}
+
+	public void testAdapterReportsFailure() throws Exception {
+		final MemoryStorage theMemory = new MemoryStorage();
+		final PwsStreamStorage theStorage = PwsStorageAdapter.forStorage(theMemory);
+		assertNotSame(theMemory, theStorage);
+		final PwsFileStorage theFileStorage = new PwsFileStorage(file.getPath());
+		assertSame(theFileStorage, PwsStorageAdapter.forStorage(theFileStorage));
+
+		theMemory.failing = true;
+		final PwsStorageTransaction theTransaction = theStorage.beginWrite();
+		theTransaction.getOutputStream().write(ONE);
+		try {
+			theTransaction.commit();
+			fail("failed save not reported");
+		} catch (final StorageException e) {
+			// expected
+		}
+		theTransaction.abort();
+		assertNull(theMemory.content);
+	}
+
+	public void testSaveThroughAdapter() throws Exception {
+		final MemoryStorage theMemory = new MemoryStorage();
+		final PwsFileV3 theFile = new PwsFileV3();
+		theFile.setStorage(theMemory);
+		theFile.setPassphrase(new StringBuilder("adapter"));
+		TestUtils.addDummyRecords(theFile, 3);
+
+		theMemory.failing = true;
+		try {
+			theFile.save();
+			fail("failed save not reported");
+		} catch (final StorageException e) {
+			assertTrue(theFile.isModified());
+		}
+
+		theMemory.failing = false;
+		theFile.save();
+		assertFalse(theFile.isModified());
+		final PwsFileV3 theCopy = new PwsFileV3(theMemory, "adapter");
+		theCopy.readAll();
+		theCopy.close();
+		assertEquals(3, theCopy.getRecordCount());
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the content addressed history of a safe.
+ *
+ * @author roxon
+ */
+public class PwsVersionStoreTest extends TestCase {
+
+	private static final byte[] ONE = "one".getBytes();
+	private static final byte[] TWO = "two".getBytes();
+	private static final byte[] THREE = "three".getBytes();
+
+	private File file;
+	private File directory;
+
+	@Override
+	public void setUp() throws Exception {
+		file = File.createTempFile("history", PwsFileV3.FILE_EXTENSION);
+		directory = PwsVersionStore.getDirectory(file.getPath());
+	}
+
+	@Override
+	public void tearDown() {
+		final File[] theFiles = directory.listFiles();
+		if (theFiles != null) {
+			for (final File theFile : theFiles) {
+				theFile.delete();
+			}
+		}
+		directory.delete();
+		file.delete();
+		new File(file.getPath() + "~").delete();
+	}
+
+	public void testPrune() throws Exception {
+		final PwsVersionStore theStore = new PwsVersionStore(directory, 2);
+		theStore.store(ONE, 1000);
+		theStore.store(TWO, 2000);
+		theStore.store(THREE, 3000);
+
+		final List<PwsVersionStore.Version> theVersions = theStore.getVersions();
+		assertEquals(2, theVersions.size());
+		assertEquals(3000, theVersions.get(0).getDate().getTime());
+		assertTrue(Arrays.equals(THREE, theStore.read(theVersions.get(0))));
+		assertTrue(Arrays.equals(TWO, theStore.read(theVersions.get(1))));
+		assertEquals("log and two versions", 3, directory.list().length);
+	}
+
+	public void testDeduplicate() throws Exception {
+		final PwsVersionStore theStore = new PwsVersionStore(directory, 3);
+		theStore.store(ONE, 1000);
+		theStore.store(ONE, 2000);
+		assertEquals("same content saved again", 1, theStore.getVersions().size());
+
+		theStore.store(TWO, 3000);
+		theStore.store(ONE, 4000);
+		final List<PwsVersionStore.Version> theVersions = theStore.getVersions();
+		assertEquals(3, theVersions.size());
+		assertEquals(theVersions.get(0).getHash(), theVersions.get(2).getHash());
+		assertEquals("log and two contents", 3, directory.list().length);
+
+		theStore.store(THREE, 5000);
+		theStore.store(TWO, 6000);
+		assertEquals("content of a kept version kept", 4, directory.list().length);
+	}
+
+	public void testAfterCommit() throws Exception {
+		final PwsFileStorage theStorage = new PwsFileStorage(file.getPath());
+		final PwsVersionStore theStore = new PwsVersionStore(directory, 5);
+		theStorage.setHistory(theStore);
+		assertTrue(theStorage.save(ONE));
+
+		final PwsStorageTransaction theTransaction = theStorage.beginWrite();
+		theTransaction.getOutputStream().write(THREE);
+		theTransaction.abort();
+		assertTrue(theStorage.save(TWO));
+
+		assertTrue(PwsVersionStore.flush(10000));
+		final List<PwsVersionStore.Version> theVersions = theStore.getVersions();
+		assertEquals("aborted save not kept", 2, theVersions.size());
+		assertTrue(Arrays.equals(TWO, theStore.read(theVersions.get(0))));
+		assertTrue(Arrays.equals(ONE, theStore.read(theVersions.get(1))));
+	}
+
+	public void testSavedOver() throws Exception {
+		final PwsFileStorage theStorage = new PwsFileStorage(file.getPath());
+		final PwsVersionStore theStore = new PwsVersionStore(directory, 5);
+		theStorage.setHistory(theStore);
+		synchronized (theStore) {
+			// keeps the writer from storing before the second save
+			assertTrue(theStorage.save(ONE));
+			assertTrue(theStorage.save(THREE));
+		}
+
+		assertTrue(PwsVersionStore.flush(10000));
+		final List<PwsVersionStore.Version> theVersions = theStore.getVersions();
+		assertEquals("version saved over skipped", 1, theVersions.size());
+		assertTrue(Arrays.equals(THREE, theStore.read(theVersions.get(0))));
+	}
+
+	public void testSaveNotBlockedByWriter() throws Exception {
+		final PwsFileStorage theStorage = new PwsFileStorage(file.getPath());
+		final PwsVersionStore theStore = new PwsVersionStore(directory, 5);
+		theStorage.setHistory(theStore);
+		final CountDownLatch theLocked = new CountDownLatch(1);
+		final CountDownLatch theRelease = new CountDownLatch(1);
+		final Thread theWriter = new Thread() {
+			@Override
+			public void run() {
+				synchronized (theStore) {
+					// stands in for a slow store of an earlier version
+					theLocked.countDown();
+					try {
+						theRelease.await();
+					} catch (final InterruptedException e) {
+						// ends the test
+					}
+				}
+			}
+		};
+		theWriter.start();
+		final ExecutorService theSaver = Executors.newSingleThreadExecutor();
+		try {
+			theLocked.await();
+			final Future<Boolean> theSave = theSaver.submit(new Callable<Boolean>() {
+				public Boolean call() {
+					return Boolean.valueOf(theStorage.save(ONE));
+				}
+			});
+			assertTrue(theSave.get(10, TimeUnit.SECONDS).booleanValue());
+		} finally {
+			theRelease.countDown();
+			theSaver.shutdown();
+		}
+		theWriter.join();
+
+		assertTrue(PwsVersionStore.flush(10000));
+		assertEquals(1, theStore.getVersions().size());
+	}
+
+	public void testUnchangedSafe() throws Exception {
+		final PwsFileStorage theStorage = new PwsFileStorage(file.getPath());
+		final PwsVersionStore theStore = new PwsVersionStore(directory, 5);
+		theStorage.setHistory(theStore);
+		final PwsFileV3 theFile = new PwsFileV3();
+		theFile.setStorage(theStorage);
+		theFile.setPassphrase(new StringBuilder("history"));
+		TestUtils.addDummyRecords(theFile, 3);
+		theFile.save();
+		assertTrue(PwsVersionStore.flush(10000));
+		theFile.save();
+		assertTrue(PwsVersionStore.flush(10000));
+		assertEquals("saved again with new keys", 1, theStore.getVersions().size());
+
+		final PwsRecord theRecord = theFile.getRecord(0);
+		theRecord.setField(new PwsStringUnicodeField(PwsRecordV3.NOTES, "changed"));
+		theFile.set(0, theRecord);
+		theFile.save();
+		assertTrue(PwsVersionStore.flush(10000));
+		assertEquals(2, theStore.getVersions().size());
+
+		theFile.setPassphrase(new StringBuilder("other"));
+		theFile.save();
+		assertTrue(PwsVersionStore.flush(10000));
+		assertEquals("new passphrase", 3, theStore.getVersions().size());
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.pwsafe.lib.Util;
+
+import com.amazonaws.crypto.Base64;
+
+/**
+ * A local stand-in for the S3 REST interface, just enough for
+ * {@link PwsS3Client}: objects are kept in memory with their MD5 as ETag,
+ * conditional requests, the Content-MD5 and the signature are checked.
+ *
+ * @author roxon
+ */
+class S3StandIn implements Runnable {
+
+	private final ServerSocket socket;
+
+	private final String keyId;
+
+	private final String secretKey;
+
+	/** the region of the buckets */
+	volatile String region = PwsS3Client.DEFAULT_REGION;
+
+	/** the objects by resource path */
+	final Map<String, byte[]> objects = new HashMap<String, byte[]>();
+
+	/** the number of bodies sent by GET */
+	int bodiesSent;
+
+	/**
+	 * Starts serving on a free local port.
+	 *
+	 * @param aKeyId the only access key id accepted
+	 * @param aSecretKey its secret key
+	 * @throws IOException if no port is free
+	 */
+	S3StandIn(final String aKeyId, final String aSecretKey) throws IOException {
+		keyId = aKeyId;
+		secretKey = aSecretKey;
+		socket = new ServerSocket(0);
+		final Thread theThread = new Thread(this, "S3 stand-in");
+		theThread.setDaemon(true);
+		theThread.start();
+	}
+
+	/**
+	 * @return the endpoint to pass to the client
+	 */
+	String getEndpoint() {
+		return "http://localhost:" + socket.getLocalPort();
+	}
+
+	void close() throws IOException {
+		socket.close();
+	}
+
+	static String etag(final byte[] someBytes) throws Exception {
+		return Util.bytesToHex(MessageDigest.getInstance("MD5").digest(someBytes));
+	}
+
+	public void run() {
+		while (!socket.isClosed()) {
+			try {
+				final Socket theConnection = socket.accept();
+				try {
+					serve(theConnection.getInputStream(), theConnection.getOutputStream());
+				} finally {
+					theConnection.close();
+				}
+			} catch (final Exception e) {
+				// closed or broken request, go on
+			}
+		}
+	}
+
+	private void serve(final InputStream anInput, final OutputStream anOutput) throws Exception {
+		final String[] theRequest = readLine(anInput).split(" ");
+		final Map<String, String> theHeaders = new HashMap<String, String>();
+		String theLine;
+		while ((theLine = readLine(anInput)).length() > 0) {
+			final int theColon = theLine.indexOf(':');
+			theHeaders.put(theLine.substring(0, theColon).trim().toLowerCase(), theLine
+					.substring(theColon + 1).trim());
+		}
+		final String theVerb = theRequest[0];
+		final String thePath = theRequest[1];
+		final String theAuth = theHeaders.get("authorization");
+		final String theDate = theHeaders.get("x-amz-date");
+		if (theAuth == null || theDate == null) {
+			respond(anOutput, 403, null, null);
+			return;
+		}
+		if (!theAuth.contains("/" + region + "/s3/")) {
+			respond(anOutput, 400, null, null);
+			return;
+		}
+		final SortedMap<String, String> theSigned = new TreeMap<String, String>();
+		final int theNames = theAuth.indexOf("SignedHeaders=") + "SignedHeaders=".length();
+		for (final String theName : theAuth.substring(theNames, theAuth.indexOf(',', theNames))
+				.split(";")) {
+			theSigned.put(theName, theHeaders.get(theName));
+		}
+		if (!theAuth.equals(PwsS3Client.authorize(keyId, secretKey, region, theVerb, thePath,
+				theSigned))) {
+			respond(anOutput, 403, null, null);
+			return;
+		}
+		synchronized (this) {
+			final byte[] theObject = objects.get(thePath);
+			final String theEtag = theObject == null ? null : '"' + etag(theObject) + '"';
+			final String theNoneMatch = theHeaders.get("if-none-match");
+			if ("GET".equals(theVerb)) {
+				if (theObject == null) {
+					respond(anOutput, 404, null, null);
+				} else if (theEtag.equals(theNoneMatch)) {
+					respond(anOutput, 304, theEtag, null);
+				} else {
+					bodiesSent++;
+					respond(anOutput, 200, theEtag, theObject);
+				}
+			} else if ("PUT".equals(theVerb)) {
+				final byte[] theBody = new byte[Integer.parseInt(theHeaders.get("content-length"))];
+				new DataInputStream(anInput).readFully(theBody);
+				final String theMatch = theHeaders.get("if-match");
+				if (!Util.bytesToHex(MessageDigest.getInstance("SHA-256").digest(theBody)).equals(
+						theHeaders.get("x-amz-content-sha256"))) {
+					respond(anOutput, 400, null, null);
+				} else if (theMatch != null && !theMatch.equals(theEtag)
+						|| "*".equals(theNoneMatch) && theObject != null) {
+					respond(anOutput, 412, null, null);
+				} else if (!Base64.encodeBytes(MessageDigest.getInstance("MD5").digest(theBody))
+						.equals(theHeaders.get("content-md5"))) {
+					respond(anOutput, 400, null, null);
+				} else {
+					objects.put(thePath, theBody);
+					respond(anOutput, 200, '"' + etag(theBody) + '"', null);
+				}
+			} else {
+				respond(anOutput, 405, null, null);
+			}
+		}
+	}
+
+	private void respond(final OutputStream anOutput, final int aStatus, final String anEtag,
+			final byte[] aBody) throws IOException {
+		final StringBuilder theHead = new StringBuilder("HTTP/1.1 ").append(aStatus).append(
+				" Stand-in\r\nConnection: close\r\n");
+		if (aStatus == 400) {
+			theHead.append("x-amz-bucket-region: ").append(region).append("\r\n");
+		}
+		if (anEtag != null) {
+			theHead.append("ETag: ").append(anEtag).append("\r\n");
+		}
+		if (aStatus != 304) {
+			theHead.append("Content-Length: ").append(aBody == null ? 0 : aBody.length).append(
+					"\r\n");
+		}
+		theHead.append("\r\n");
+		anOutput.write(theHead.toString().getBytes("ISO-8859-1"));
+		if (aBody != null) {
+			anOutput.write(aBody);
+		}
+		anOutput.flush();
+	}
+
+	private static String readLine(final InputStream anInput) throws IOException {
+		final ByteArrayOutputStream theLine = new ByteArrayOutputStream();
+		int theByte;
+		while ((theByte = anInput.read()) != '\n') {
+			if (theByte < 0) {
+				throw new IOException("Connection closed");
+			}
+			if (theByte != '\r') {
+				theLine.write(theByte);
+			}
+		}
+		return theLine.toString("ISO-8859-1");
+	}
+}
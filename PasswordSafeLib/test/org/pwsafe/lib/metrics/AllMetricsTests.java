@@ -0,0 +1,26 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class AllMetricsTests {
+
+	public static Test suite() {
+		final TestSuite suite = new TestSuite("Test for org.pwsafe.lib.metrics");
+		// $JUnit-BEGIN$
+		suite.addTestSuite(PwsMetricsTest.class);
+		suite.addTestSuite(PwsTraceTest.class);
+		suite.addTestSuite(PwsActivityTest.class);
+		// $JUnit-END$
+		return suite;
+	}
+
+}
@@ -0,0 +1,76 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests keeping the latest traces.
+ *
+ * @author roxon
+ */
+public class PwsActivityTest extends TestCase {
+
+	private final List<String> passedOn = new ArrayList<String>();
+
+	private PwsTraceSink oldSink;
+
+	@Override
+	public void setUp() {
+		oldSink = PwsTrace.getSink();
+		PwsTrace.setSink(new PwsTraceSink() {
+			public PwsTrace begin(final PwsTrace.Type aType) {
+				return new PwsTrace() {
+					@Override
+					public void phase(final String aPhase) {
+						passedOn.add(aPhase);
+					}
+
+					@Override
+					public void end(final long aCount, final long aSize) {
+						passedOn.add(aType + " " + aCount);
+					}
+				};
+			}
+		});
+	}
+
+	@Override
+	public void tearDown() {
+		PwsTrace.setSink(oldSink);
+	}
+
+	public void testLatestKept() throws InterruptedException {
+		final PwsActivity theActivity = PwsActivity.install();
+		assertSame(theActivity, PwsActivity.install());
+		assertNull(theActivity.getLast(PwsTrace.Type.SAVE));
+
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SAVE);
+		Thread.sleep(20);
+		theTrace.phase("write");
+		theTrace.end(10, 1000);
+		PwsTrace.begin(PwsTrace.Type.SEARCH).end(3, 10);
+
+		final PwsActivity.Sample theSave = theActivity.getLast(PwsTrace.Type.SAVE);
+		assertTrue(theSave.getDuration() >= 20);
+		assertEquals(10, theSave.getCount());
+		assertEquals(1000, theSave.getSize());
+		assertTrue(theSave.getTime() <= System.currentTimeMillis());
+		assertEquals(3, theActivity.getLast(PwsTrace.Type.SEARCH).getCount());
+		assertNull(theActivity.getLast(PwsTrace.Type.SAFE_OPEN));
+
+		PwsTrace.begin(PwsTrace.Type.SAVE).end(11, 1100);
+		assertEquals(11, theActivity.getLast(PwsTrace.Type.SAVE).getCount());
+
+		assertEquals("[write, SAVE 10, SEARCH 3, SAVE 11]", passedOn.toString());
+	}
+}
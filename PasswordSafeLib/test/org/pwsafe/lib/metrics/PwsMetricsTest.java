@@ -0,0 +1,130 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.datastore.SafeProfile;
+import org.pwsafe.lib.file.PwsFileFactory;
+
+/**
+ * Tests the metrics and their MBean.
+ *
+ * @author roxon
+ */
+public class PwsMetricsTest extends TestCase {
+
+	@Override
+	public void setUp() {
+		PwsMetrics.reset();
+		PwsMetrics.setEnabled(true);
+	}
+
+	@Override
+	public void tearDown() {
+		PwsMetrics.setEnabled(false);
+		PwsMetrics.reset();
+	}
+
+	public void testDisabled() {
+		PwsMetrics.setEnabled(false);
+		PwsMetrics.count(PwsMetric.RECORDS_PARSED);
+		PwsMetrics.stop(PwsMetric.SEARCH, PwsMetrics.start());
+
+		final PwsMetricsSnapshot theSnapshot = PwsMetrics.snapshot();
+		assertEquals(0, theSnapshot.getCount(PwsMetric.RECORDS_PARSED));
+		assertEquals(0, theSnapshot.getCount(PwsMetric.SEARCH));
+	}
+
+	public void testCountersAndTimers() {
+		PwsMetrics.count(PwsMetric.RECORDS_PARSED);
+		PwsMetrics.count(PwsMetric.BYTES_DECRYPTED, 32);
+		PwsMetrics.stop(PwsMetric.SEARCH, PwsMetrics.start());
+
+		final PwsMetricsSnapshot theSnapshot = PwsMetrics.snapshot();
+		assertEquals(1, theSnapshot.getCount(PwsMetric.RECORDS_PARSED));
+		assertEquals(32, theSnapshot.getCount(PwsMetric.BYTES_DECRYPTED));
+		assertEquals(1, theSnapshot.getTimer(PwsMetric.SEARCH).getCount());
+
+		PwsMetrics.reset();
+		assertEquals(0, PwsMetrics.snapshot().getCount(PwsMetric.RECORDS_PARSED));
+	}
+
+	public void testPercentiles() {
+		final LatencyHistogram theHistogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			theHistogram.record(1000000); // 1 ms
+		}
+		theHistogram.record(100000000); // 100 ms
+
+		final PwsMetricsSnapshot.Timer theTimer = theHistogram.snapshot();
+		assertEquals(100, theTimer.getCount());
+		assertEquals(100000000, theTimer.getMaxNanos());
+		assertEquals(1990000, theTimer.getMeanNanos());
+		final long theMedian = theTimer.getPercentileNanos(50);
+		assertTrue(theMedian >= 1000000 && theMedian < 2000000);
+		assertEquals(100000000, theTimer.getPercentileNanos(100));
+	}
+
+	public void testLoadRecorded() throws Exception {
+		final File theFile = SafeGenerator.createTempSafe("metrics", new SafeProfile(20, 1),
+				"metrics");
+		try {
+			PwsMetrics.reset();
+
+			final PwsEntryStore theStore = PwsFileFactory.loadStore(theFile.getPath(),
+					new StringBuilder("metrics"));
+			theStore.getEntry(5);
+			theStore.getEntry(5);
+
+			final PwsMetricsSnapshot theSnapshot = PwsMetrics.snapshot();
+			assertTrue(theSnapshot.getCount(PwsMetric.KEY_STRETCH) > 0);
+			assertTrue(theSnapshot.getCount(PwsMetric.RECORDS_PARSED) >= 20);
+			assertTrue(theSnapshot.getCount(PwsMetric.RECORDS_SEALED) >= 20);
+			assertTrue(theSnapshot.getCount(PwsMetric.RECORDS_UNSEALED) > 0);
+			assertTrue(theSnapshot.getDecryptBytesPerSecond() > 0);
+			assertEquals(2, theSnapshot.getCount(PwsMetric.STORE_LOOKUP));
+			assertEquals(1, theSnapshot.getCount(PwsMetric.STORE_CACHE_HITS));
+		} finally {
+			theFile.delete();
+		}
+	}
+
+	public void testMBean() throws Exception {
+		final MBeanServer theServer = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName theName = new ObjectName(PwsMetrics.MBEAN_NAME);
+		PwsMetrics.registerMBean();
+		try {
+			PwsMetrics.count(PwsMetric.RECORDS_PARSED, 7);
+			PwsMetrics.stop(PwsMetric.KEY_STRETCH, PwsMetrics.start());
+
+			assertEquals(Long.valueOf(7), theServer.getAttribute(theName, "RecordsParsed"));
+			assertEquals(Long.valueOf(1), theServer.getAttribute(theName, "KeyStretchCount"));
+			assertNotNull(theServer.getAttribute(theName, "KeyStretchP95Millis"));
+
+			theServer.setAttribute(theName, new Attribute("Enabled", Boolean.FALSE));
+			assertFalse(PwsMetrics.isEnabled());
+
+			theServer.invoke(theName, "reset", null, null);
+			assertEquals(Long.valueOf(0), theServer.getAttribute(theName, "RecordsParsed"));
+		} finally {
+			PwsMetrics.unregisterMBean();
+		}
+		assertFalse(theServer.isRegistered(theName));
+	}
+}
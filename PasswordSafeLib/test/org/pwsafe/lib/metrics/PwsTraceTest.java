@@ -0,0 +1,98 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.lib.metrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.datastore.SafeGenerator;
+import org.pwsafe.lib.datastore.SafeProfile;
+import org.pwsafe.lib.file.PwsFileFactory;
+
+/**
+ * Tests the traces sent to a trace sink.
+ *
+ * @author roxon
+ */
+public class PwsTraceTest extends TestCase {
+
+	private final List<String> traces = new ArrayList<String>();
+
+	private PwsTraceSink oldSink;
+
+	private class RecordingSink implements PwsTraceSink {
+		public PwsTrace begin(final PwsTrace.Type aType) {
+			return new PwsTrace() {
+				private final StringBuilder phases = new StringBuilder();
+
+				@Override
+				public void phase(final String aPhase) {
+					phases.append(' ').append(aPhase);
+				}
+
+				@Override
+				public void end(final long aCount, final long aSize) {
+					traces.add(aType + phases.toString() + " " + aCount + (aSize > 0 ? "+" : ""));
+				}
+			};
+		}
+	}
+
+	@Override
+	public void setUp() {
+		oldSink = PwsTrace.getSink();
+		PwsTrace.setSink(new RecordingSink());
+	}
+
+	@Override
+	public void tearDown() {
+		PwsTrace.setSink(oldSink);
+	}
+
+	public void testOpenAndSave() throws Exception {
+		final File theFile = SafeGenerator.createTempSafe("trace", new SafeProfile(10, 1),
+				"trace");
+		try {
+			traces.clear();
+
+			final PwsEntryStore theStore = PwsFileFactory.loadStore(theFile.getPath(),
+					new StringBuilder("trace"));
+			assertTrue(traces.toString(), traces.contains("KEY_STRETCH 2048"));
+			assertTrue(traces.toString(), traces.contains("RECORD_DECODE 10+"));
+			assertTrue(traces.toString(), traces.contains("SAFE_OPEN open decode 10+"));
+
+			traces.clear();
+			theStore.getPwsFile().save();
+			assertTrue(traces.toString(), traces.contains("SAVE 10+"));
+
+			traces.clear();
+			try {
+				PwsFileFactory.loadStore(theFile.getPath(), new StringBuilder("wrong"));
+				fail("wrong passphrase");
+			} catch (final Exception e) {
+				assertTrue("failed open traced too", traces.contains("SAFE_OPEN 0"));
+			}
+		} finally {
+			theFile.delete();
+			new File(theFile.getPath() + "~").delete();
+		}
+	}
+
+	public void testNoSink() {
+		PwsTrace.setSink(null);
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SEARCH);
+		assertSame(theTrace, PwsTrace.begin(PwsTrace.Type.SAVE));
+		theTrace.end(1, 1);
+		assertTrue(traces.isEmpty());
+	}
+}
@@ -8,7 +8,14 @@
  */
 package org.pwsafe.passwordsafeswt;
 
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.ACCESS_TIME_WRITE_MINS;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.DISPLAY_AS_LIST_PREF;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.FAST_UNLOCK;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.HISTORY_VERSIONS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_PERFORMANCE_STATUS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.STORAGE_WATCH_SECS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.UI_STALL_REPORT_SECS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.WRITE_INDEX_SIDECAR;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
@@ -21,26 +28,34 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
+import java.lang.reflect.InvocationTargetException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Date;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.action.IAction;
 import org.eclipse.jface.action.MenuManager;
 import org.eclipse.jface.action.Separator;
 import org.eclipse.jface.action.StatusLineManager;
 import org.eclipse.jface.action.ToolBarManager;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.JFacePreferences;
 import org.eclipse.jface.resource.JFaceResources;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
 import org.eclipse.jface.viewers.ColumnViewer;
 import org.eclipse.jface.viewers.IElementComparer;
 import org.eclipse.jface.viewers.StructuredSelection;
@@ -49,6 +64,7 @@ import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.ViewerSorter;
 import org.eclipse.jface.window.ApplicationWindow;
 import org.eclipse.jface.window.Window;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.dnd.Clipboard;
 import org.eclipse.swt.dnd.DND;
@@ -72,18 +88,36 @@ import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Tree;
 import org.eclipse.swt.widgets.TreeColumn;
 import org.eclipse.swt.widgets.TreeItem;
+import org.pwsafe.lib.PwsProgressMonitor;
 import org.pwsafe.lib.datastore.PwsEntryBean;
 import org.pwsafe.lib.datastore.PwsEntryStore;
+import org.pwsafe.lib.exception.EndOfFileException;
+import org.pwsafe.lib.exception.InvalidPassphraseException;
 import org.pwsafe.lib.exception.PasswordSafeException;
+import org.pwsafe.lib.exception.UnsupportedFileVersionException;
 import org.pwsafe.lib.file.PwsFieldTypeV1;
 import org.pwsafe.lib.file.PwsFieldTypeV2;
 import org.pwsafe.lib.file.PwsFieldTypeV3;
 import org.pwsafe.lib.file.PwsFile;
 import org.pwsafe.lib.file.PwsFileFactory;
+import org.pwsafe.lib.file.PwsFileMerger;
+import org.pwsafe.lib.file.PwsFilePrefetch;
 import org.pwsafe.lib.file.PwsFileStorage;
+import org.pwsafe.lib.file.PwsFileV3;
+import org.pwsafe.lib.file.PwsMergeReport;
+import org.pwsafe.lib.file.PwsMergeReport.Outcome;
 import org.pwsafe.lib.file.PwsRecord;
 import org.pwsafe.lib.file.PwsRecordV1;
 import org.pwsafe.lib.file.PwsRecordV2;
+import org.pwsafe.lib.file.PwsReplicaListener;
+import org.pwsafe.lib.file.PwsReplicaStorage;
+import org.pwsafe.lib.file.PwsStorage;
+import org.pwsafe.lib.file.PwsStorageListener;
+import org.pwsafe.lib.file.PwsStorageWatcher;
+import org.pwsafe.lib.file.PwsVersionStore;
+import org.pwsafe.lib.metrics.PwsActivity;
+import org.pwsafe.lib.metrics.PwsMetrics;
+import org.pwsafe.lib.metrics.PwsTrace;
 import org.pwsafe.passwordsafeswt.action.AboutAction;
 import org.pwsafe.passwordsafeswt.action.AddRecordAction;
 import org.pwsafe.passwordsafeswt.action.ChangeSafeCombinationAction;
@@ -128,6 +162,9 @@ import org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants;
 import org.pwsafe.passwordsafeswt.preference.WidgetPreferences;
 import org.pwsafe.passwordsafeswt.state.LockState;
 import org.pwsafe.passwordsafeswt.util.IOUtils;
+import org.pwsafe.passwordsafeswt.util.MruFileInfo;
+import org.pwsafe.passwordsafeswt.util.PerformanceStatus;
+import org.pwsafe.passwordsafeswt.util.StallWatchdog;
 import org.pwsafe.passwordsafeswt.util.UserPreferences;
 import org.pwsafe.passwordsafeswt.xml.XMLDataParser;
 
@@ -190,6 +227,10 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	private boolean readOnly = false;
 	private final Timer lockTimer = new Timer("SWTPassword lock timer", true); //$NON-NLS-1$
 	private TimerTask lockTask;
+	private StallWatchdog stallWatchdog;
+
+	private PwsStorageWatcher storageWatcher;
+	private PerformanceStatus performanceStatus;
 
 	protected static final Log log = LogFactory.getLog(PasswordSafeJFace.class);
 
@@ -201,9 +242,17 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	private PwsFile pwsFile;
 	private PwsEntryStore dataStore;
 
+	/**
+	 * The safe kept sealed in memory while the application is locked.
+	 */
+	private PwsFile lockedFile;
+
 	private static final String V1_GROUP_PLACEHOLDER = Messages
 			.getString("PasswordSafeJFace.V1GroupPlaceholder"); //$NON-NLS-1$
 
+	/** how long to wait on exit for saves still being written in the background */
+	private static final long EXIT_FLUSH_MILLIS = 10000;
+
 	/**
 	 * Constructor.
 	 */
@@ -233,10 +282,11 @@ public class PasswordSafeJFace extends ApplicationWindow {
 				return;
 			} else if (result == StartupDialog.OPEN_FILE) {
 				try {
-					openFile(sd.getFilename(), sd.getPassword());
-					this.setReadOnly(sd.getReadonly());
-
-					allDone = true;
+					if (openFile(sd.getFilename(), sd.getPassword(), isReadOnly(), sd
+							.getPrefetch())) {
+						this.setReadOnly(sd.getReadonly());
+						allDone = true;
+					}
 				} catch (final FileNotFoundException anEx) {
 					log.warn("File + " + sd.getFilename() + " not found.");//$NON-NLS-1$
 					displayErrorDialog(
@@ -307,9 +357,111 @@ public class PasswordSafeJFace extends ApplicationWindow {
 			systemTray = tray;
 		}
 
+		scheduleAccessTimeWrite(parent.getDisplay());
+		startStallWatchdog(parent.getDisplay());
+		schedulePerformanceStatus(parent.getDisplay());
+
 		return container;
 	}
 
+	/**
+	 * Refreshes the performance figures in the status line every two seconds
+	 * while {@link JpwPreferenceConstants#SHOW_PERFORMANCE_STATUS} is set.
+	 * 
+	 * @param aDisplay the display to run on
+	 */
+	private void schedulePerformanceStatus(final Display aDisplay) {
+		final int twoSeconds = 2000;
+		aDisplay.timerExec(0, new Runnable() {
+			public void run() {
+				if (aDisplay.isDisposed() || performanceStatus == null) {
+					return;
+				}
+				if (JFacePreferences.getPreferenceStore().getBoolean(SHOW_PERFORMANCE_STATUS)) {
+					final PwsFile theFile = getPwsFile();
+					performanceStatus.update(theFile != null ? theFile.getRecordCount() : -1,
+							isDirty());
+				} else {
+					performanceStatus.clear();
+				}
+				aDisplay.timerExec(twoSeconds, this);
+			}
+		});
+	}
+
+	/**
+	 * Reports stalls of the UI thread longer than
+	 * {@link JpwPreferenceConstants#UI_STALL_REPORT_SECS} seconds to the stall
+	 * log in the preferences directory, if set.
+	 * 
+	 * @param aDisplay the display to watch
+	 */
+	private void startStallWatchdog(final Display aDisplay) {
+		stallWatchdog = new StallWatchdog(new Executor() {
+			public void execute(final Runnable aTask) {
+				if (!aDisplay.isDisposed()) {
+					aDisplay.asyncExec(aTask);
+				}
+			}
+		}, aDisplay.getThread(), new File(System.getProperty("user.home"), //$NON-NLS-1$
+				UserPreferences.PROPS_DIR)) {
+			@Override
+			protected int getRecordCount() {
+				final PwsFile theFile = getPwsFile();
+				return theFile != null ? theFile.getRecordCount() : -1;
+			}
+		};
+		final IPreferenceStore thePrefs = JFacePreferences.getPreferenceStore();
+		stallWatchdog.setThreshold(thePrefs.getInt(UI_STALL_REPORT_SECS) * 1000L);
+		thePrefs.addPropertyChangeListener(new IPropertyChangeListener() {
+			public void propertyChange(final PropertyChangeEvent anEvent) {
+				if (UI_STALL_REPORT_SECS.equals(anEvent.getProperty())) {
+					stallWatchdog.setThreshold(thePrefs.getInt(UI_STALL_REPORT_SECS) * 1000L);
+				}
+			}
+		});
+		stallWatchdog.start();
+	}
+
+	/**
+	 * Writes the pending access times to the records every
+	 * {@link JpwPreferenceConstants#ACCESS_TIME_WRITE_MINS} minutes, if set.
+	 * 
+	 * @param aDisplay the display to run on
+	 */
+	private void scheduleAccessTimeWrite(final Display aDisplay) {
+		final int oneMinute = 60 * 1000;
+		aDisplay.timerExec(oneMinute, new Runnable() {
+			private int minutes = 0;
+
+			public void run() {
+				if (aDisplay.isDisposed()) {
+					return;
+				}
+				final int interval = JFacePreferences.getPreferenceStore().getInt(
+						ACCESS_TIME_WRITE_MINS);
+				minutes++;
+				if (interval > 0 && minutes >= interval) {
+					minutes = 0;
+					writeAccessTimes();
+				}
+				aDisplay.timerExec(oneMinute, this);
+			}
+		});
+	}
+
+	/**
+	 * Writes the pending access times to the records, saving the safe if
+	 * "Save on Update or Edit" is set.
+	 */
+	private void writeAccessTimes() {
+		if (dataStore != null && !isLocked() && !isReadOnly()
+				&& dataStore.hasPendingAccessTimes()) {
+			dataStore.flushAccessTimes();
+			saveOnUpdateOrEditCheck();
+		}
+	}
+
 	/**
 	 * Creates the JFace actions that will be used for menus and toolbars.
 	 */
@@ -369,6 +521,8 @@ public class PasswordSafeJFace extends ApplicationWindow {
 				final String fileName = mruFiles.get(i);
 				final String menuItem = "&" + (i + 1) + " " + new File(fileName).getName(); //$NON-NLS-1$ //$NON-NLS-2$
 				final IAction nextMRUAction = new MRUFileAction(fileName, menuItem);
+				// cached only, the file may be on a slow share
+				nextMRUAction.setToolTipText(MruFileInfo.describe(fileName));
 				menuManagerFile.add(nextMRUAction);
 			}
 			menuManagerFile.add(new Separator());
@@ -495,6 +649,8 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	protected StatusLineManager createStatusLineManager() {
 		final StatusLineManager statusLineManager = new StatusLineManager();
 		statusLineManager.setMessage("http://jpwsafe.sf.net"); //$NON-NLS-1$
+		performanceStatus = new PerformanceStatus(PwsActivity.install());
+		statusLineManager.add(performanceStatus);
 		return statusLineManager;
 	}
 
@@ -523,6 +679,8 @@ public class PasswordSafeJFace extends ApplicationWindow {
 		log.info("PasswordSafe starting..."); //$NON-NLS-1$
 		log.info("java.library.path is: [" + System.getProperty("java.library.path") + "]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 		log.info("log: " + log.getClass().getName()); //$NON-NLS-1$
+		// metrics are switched on by -Dorg.pwsafe.metrics=true or over JMX
+		PwsMetrics.registerMBean();
 		try {
 			final PasswordSafeJFace window = new PasswordSafeJFace();
 			window.setBlockOnOpen(true);
@@ -586,11 +744,12 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 * 
 	 * @param fileName
 	 * @param password
+	 * @return false if the user cancelled the open
 	 * @throws Exception if bad things happen during open
 	 */
-	public void openFile(final String fileName, final StringBuilder password) throws Exception {
+	public boolean openFile(final String fileName, final StringBuilder password) throws Exception {
 
-		this.openFile(fileName, password, isReadOnly());
+		return this.openFile(fileName, password, isReadOnly());
 	}
 
 	/**
@@ -599,17 +758,101 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 * @param fileName
 	 * @param password
 	 * @param forReadOnly
+	 * @return false if the user cancelled the open
 	 * @throws Exception if bad things happen during open
 	 */
-	public void openFile(final String fileName, final StringBuilder password,
+	public boolean openFile(final String fileName, final StringBuilder password,
 			final boolean forReadOnly) throws Exception {
 
-		final PwsEntryStore file = PwsFileFactory.loadStore(fileName, password);
+		return openFile(fileName, password, forReadOnly, null);
+	}
+
+	/**
+	 * Opens a password safe from the file system, using the content read in
+	 * advance while the combination was typed.
+	 * 
+	 * @param fileName
+	 * @param password
+	 * @param forReadOnly
+	 * @param aPrefetch the prefetch of the file, may be null
+	 * @return false if the user cancelled the open
+	 * @throws Exception if bad things happen during open
+	 */
+	public boolean openFile(final String fileName, final StringBuilder password,
+			final boolean forReadOnly, final PwsFilePrefetch aPrefetch) throws Exception {
+
+		final PwsEntryStore file = loadStore(fileName, password, aPrefetch);
+		if (file == null) {
+			return false;
+		}
 		getShell().setText(PasswordSafeJFace.APP_NAME + " - " + fileName); //$NON-NLS-1$
 		setPwsEntryStore(file);
 		setReadOnly(forReadOnly);
 		if (true) // TODO (!openedFromMRU)
 			UserPreferences.getInstance().setMostRecentFilename(fileName);
+		return true;
+	}
+
+	/**
+	 * Loads a safe in a background thread. A dialog shows the progress of the
+	 * key stretching and lets the user cancel it.
+	 * 
+	 * @param fileName the file to load
+	 * @param password the combination of the safe
+	 * @param aPrefetch the prefetch of the file, may be null
+	 * @return the loaded safe or null if the user cancelled
+	 * @throws Exception if bad things happen during load
+	 */
+	private PwsEntryStore loadStore(final String fileName, final StringBuilder password,
+			final PwsFilePrefetch aPrefetch) throws Exception {
+		final PwsEntryStore[] theStore = new PwsEntryStore[1];
+		try {
+			new ProgressMonitorDialog(getShell()).run(true, true, new IRunnableWithProgress() {
+				public void run(final IProgressMonitor aMonitor) throws InvocationTargetException,
+						InterruptedException {
+					aMonitor.beginTask(NLS.bind(Messages.getString("PasswordSafeJFace.Open.Progress"), //$NON-NLS-1$
+							new File(fileName).getName()), 100);
+					PwsProgressMonitor.attach(new PwsProgressMonitor() {
+						private int percent;
+
+						@Override
+						public void progress(final long aDone, final long aTotal) {
+							final int thePercent = (int) (aDone * 100 / aTotal);
+							if (thePercent > percent) {
+								aMonitor.worked(thePercent - percent);
+								percent = thePercent;
+							}
+						}
+
+						@Override
+						public boolean isCanceled() {
+							return aMonitor.isCanceled();
+						}
+					});
+					PwsFilePrefetch.attach(aPrefetch);
+					try {
+						theStore[0] = PwsFileFactory.loadStore(fileName, password);
+					} catch (final CancellationException anEx) {
+						throw new InterruptedException(anEx.getMessage());
+					} catch (final Exception anEx) {
+						throw new InvocationTargetException(anEx);
+					} finally {
+						PwsFilePrefetch.attach(null);
+						PwsProgressMonitor.attach(null);
+						aMonitor.done();
+					}
+				}
+			});
+		} catch (final InvocationTargetException anEx) {
+			if (anEx.getCause() instanceof Exception) {
+				throw (Exception) anEx.getCause();
+			}
+			throw anEx;
+		} catch (final InterruptedException anEx) {
+			log.info("Opening " + fileName + " cancelled"); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+		return theStore[0];
 	}
 
 	/**
@@ -623,10 +866,64 @@ public class PasswordSafeJFace extends ApplicationWindow {
 		if (file.getStorage() == null) {
 			saveFileAsAction.run();
 		} else {
-			file.save();
+			try {
+				file.save();
+			} catch (final ConcurrentModificationException e) {
+				if (!(file instanceof PwsFileV3)) {
+					throw e;
+				}
+				mergeAndSave((PwsFileV3) file);
+			}
 		}
 	}
 
+	/**
+	 * Merges the records someone else has saved meanwhile into the current
+	 * safe and saves it again, telling the user what has been merged.
+	 * 
+	 * @param file the current safe
+	 * @throws IOException if the safe cannot be read or saved
+	 * @throws NoSuchAlgorithmException if SHA-256 implementation not found
+	 */
+	private void mergeAndSave(final PwsFileV3 file) throws IOException, NoSuchAlgorithmException {
+		log.info("Safe has been changed by someone else, merging"); //$NON-NLS-1$
+		dataStore.flushAccessTimes();
+		final PwsMergeReport theReport;
+		try {
+			theReport = PwsFileMerger.mergeStorage(file);
+		} catch (final EndOfFileException e) {
+			throw new IOException(e.getMessage());
+		} catch (final UnsupportedFileVersionException e) {
+			throw new IOException(e.getMessage());
+		} catch (final PasswordSafeException e) {
+			throw new IOException(e.getMessage());
+		}
+		setPwsEntryStore(PwsFileFactory.getStore(file));
+		file.save();
+		showMergeReport(theReport);
+	}
+
+	/**
+	 * Tells the user what has been merged into the current safe.
+	 * 
+	 * @param theReport what has been merged
+	 */
+	private void showMergeReport(final PwsMergeReport theReport) {
+		final StringBuilder theConflicts = new StringBuilder();
+		for (final PwsMergeReport.Item theItem : theReport.getItems(Outcome.CONFLICT)) {
+			theConflicts.append('\n').append(
+					theItem.getTitle() == null ? theItem.getUuid().toString() : theItem.getTitle());
+		}
+		final MessageBox theBox = new MessageBox(getShell(), SWT.ICON_INFORMATION);
+		theBox.setText(Messages.getString("PasswordSafeJFace.Merge.Title")); //$NON-NLS-1$
+		theBox.setMessage(NLS.bind(Messages.getString("PasswordSafeJFace.Merge.Message"), //$NON-NLS-1$
+				new Object[] { Integer.valueOf(theReport.getCount(Outcome.ADDED)),
+						Integer.valueOf(theReport.getCount(Outcome.CHANGED)),
+						Integer.valueOf(theReport.getCount(Outcome.DELETED)),
+						Integer.valueOf(theReport.getCount(Outcome.CONFLICT)), theConflicts }));
+		theBox.open();
+	}
+
 	/**
 	 * Saves the current safe under a new filename.
 	 * 
@@ -636,7 +933,7 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 */
 	public void saveFileAs(final String newFilename) throws IOException, NoSuchAlgorithmException {
 		final PwsFileStorage s = new PwsFileStorage(newFilename);
-		getPwsFile().setStorage(s);
+		setStorage(s);
 		getPwsFile().save();
 		getShell().setText(PasswordSafeJFace.APP_NAME + " - " + newFilename); //$NON-NLS-1$
 		UserPreferences.getInstance().setMostRecentFilename(newFilename);
@@ -659,21 +956,16 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	}
 
 	/**
-	 * Update the access time of an entry. This method should be moved to
-	 * PwsDatastore in V0.9.
+	 * Update the access time of an entry. The access time is only recorded by
+	 * the store and written to the record on the next save.
 	 * 
 	 * @param anEntry to update the access time, may be sparse
 	 */
-	public void updateAccessTime(PwsEntryBean anEntry) {
+	public void updateAccessTime(final PwsEntryBean anEntry) {
 		if (anEntry != null) {
 			// set access date
 			if (!isReadOnly() && "3".equals(anEntry.getVersion())) {
-				// fetch the real entry if sparse
-				if (anEntry.isSparse()) {
-					anEntry = getPwsDataStore().getEntry(anEntry.getStoreIndex());
-				}
-				anEntry.setLastAccess(new Date());
-				dataStore.updateEntry(anEntry);
+				dataStore.recordAccess(anEntry);
 			}
 		}
 	}
@@ -813,7 +1105,7 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 */
 	public boolean isDirty() {
 		if (getPwsFile() != null) {
-			return getPwsFile().isModified();
+			return getPwsFile().isModified() || dataStore.hasPendingAccessTimes();
 		}
 		return false;
 	}
@@ -840,6 +1132,48 @@ public class PasswordSafeJFace extends ApplicationWindow {
 		return lockState;
 	}
 
+	/**
+	 * Locks the current safe. If fast unlock is enabled the safe stays sealed
+	 * in memory, otherwise it is discarded and has to be read again on unlock.
+	 */
+	public void lockPwsFile() {
+		dataStore.flushAccessTimes();
+		if (JFacePreferences.getPreferenceStore().getBoolean(FAST_UNLOCK)) {
+			pwsFile.lock();
+			lockedFile = pwsFile;
+		} else {
+			pwsFile.dispose();
+		}
+		clearView();
+		clearPwsStore();
+	}
+
+	/**
+	 * Unlocks the safe kept in memory by {@link #lockPwsFile()}. A safe which
+	 * has been changed in its storage meanwhile is discarded.
+	 * 
+	 * @param password the passphrase of the safe
+	 * @return true if unlocked, false if the safe has to be opened again
+	 * @throws InvalidPassphraseException if the passphrase is wrong
+	 */
+	public boolean unlockPwsFile(final StringBuilder password) throws InvalidPassphraseException {
+		if (lockedFile == null) {
+			return false;
+		}
+		if (lockedFile.isStorageChanged()) {
+			log.info("Safe has been changed while locked, reading it again"); //$NON-NLS-1$
+			lockedFile.dispose();
+			lockedFile = null;
+			return false;
+		}
+		lockedFile.unlock(password);
+		final PwsFile theFile = lockedFile;
+		lockedFile = null;
+		setPwsEntryStore(PwsFileFactory.getStore(theFile));
+		setReadOnly(isReadOnly());
+		return true;
+	}
+
 	/**
 	 * Is the Application in read only mode.
 	 * 
@@ -888,18 +1222,215 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 * @param pwsEntryStore The pwsEntryStore to set.
 	 */
 	private void setPwsEntryStore(final PwsEntryStore pwsEntryStore) {
+		final PwsStorage theOld = pwsFile == null ? null : pwsFile.getStorage();
+		final PwsStorage theLocked = lockedFile == null ? null : lockedFile.getStorage();
+		if (lockedFile != null) {
+			lockedFile.dispose();
+			lockedFile = null;
+		}
 		this.dataStore = pwsEntryStore;
 		pwsFile = pwsEntryStore.getPwsFile();
+		if (pwsFile instanceof PwsFileV3) {
+			((PwsFileV3) pwsFile).setIndexSidecar(JFacePreferences.getPreferenceStore()
+					.getBoolean(WRITE_INDEX_SIDECAR));
+		}
+		releaseStorage(theOld);
+		releaseStorage(theLocked);
+		keepHistory();
+		watchStorage();
+		listenToReplica();
 		updateViewers();
 	}
 
+	/**
+	 * Moves the current safe to another storage, e.g. to save it under a new
+	 * name.
+	 * 
+	 * @param aStorage the new storage
+	 */
+	public void setStorage(final PwsStorage aStorage) {
+		final PwsStorage theOld = pwsFile.getStorage();
+		pwsFile.setStorage(aStorage);
+		releaseStorage(theOld);
+		keepHistory();
+		watchStorage();
+		listenToReplica();
+	}
+
+	/**
+	 * Stops the background thread of a replica no longer in use. Its pending
+	 * pushes go on, or are done on its next open.
+	 * 
+	 * @param aStorage the storage replaced, may be null
+	 */
+	private void releaseStorage(final PwsStorage aStorage) {
+		if (!(aStorage instanceof PwsReplicaStorage)
+				|| pwsFile != null && pwsFile.getStorage() == aStorage
+				|| lockedFile != null && lockedFile.getStorage() == aStorage) {
+			return;
+		}
+		((PwsReplicaStorage) aStorage).shutdown();
+	}
+
+	/**
+	 * Keeps the last {@link JpwPreferenceConstants#HISTORY_VERSIONS} versions
+	 * of the file of the current safe, if set, in a directory next to it.
+	 */
+	private void keepHistory() {
+		if (pwsFile == null || !(pwsFile.getStorage() instanceof PwsFileStorage)) {
+			return;
+		}
+		final PwsFileStorage theStorage = (PwsFileStorage) pwsFile.getStorage();
+		final int theVersions = JFacePreferences.getPreferenceStore().getInt(HISTORY_VERSIONS);
+		theStorage.setHistory(theVersions <= 0 ? null : new PwsVersionStore(PwsVersionStore
+				.getDirectory(theStorage.getFilename()), theVersions));
+	}
+
+	/**
+	 * Watches the file of the current safe for changes by someone else every
+	 * {@link JpwPreferenceConstants#STORAGE_WATCH_SECS} seconds, if set. S3
+	 * safes are watched through their local replica, which changes when
+	 * changes made by others are fetched in the background.
+	 */
+	private void watchStorage() {
+		if (storageWatcher != null) {
+			storageWatcher.stop();
+			storageWatcher = null;
+		}
+		final int theSeconds = JFacePreferences.getPreferenceStore().getInt(STORAGE_WATCH_SECS);
+		final Display theDisplay = Display.getCurrent();
+		if (theSeconds <= 0 || theDisplay == null || !(pwsFile instanceof PwsFileV3)
+				|| !(pwsFile.getStorage() instanceof PwsFileStorage
+						|| pwsFile.getStorage() instanceof PwsReplicaStorage)) {
+			return;
+		}
+		storageWatcher = new PwsStorageWatcher(pwsFile, theSeconds * 1000L,
+				new PwsStorageListener() {
+					public void storageChanged(final PwsFile aFile) {
+						reloadStorage(theDisplay, (PwsFileV3) aFile);
+					}
+				});
+		storageWatcher.start();
+	}
+
+	/**
+	 * Tells the user about conflicts and failures of the replica of an S3 safe,
+	 * which are only noticed by its background thread.
+	 */
+	private void listenToReplica() {
+		final Display theDisplay = Display.getCurrent();
+		if (theDisplay == null || pwsFile == null
+				|| !(pwsFile.getStorage() instanceof PwsReplicaStorage)) {
+			return;
+		}
+		((PwsReplicaStorage) pwsFile.getStorage()).setListener(new PwsReplicaListener() {
+			public void conflictKept(final PwsReplicaStorage aStorage, final File aConflictFile) {
+				showReplicaMessage(theDisplay, SWT.ICON_WARNING, NLS.bind(Messages
+						.getString("PasswordSafeJFace.Replica.Conflict"), aConflictFile.getPath())); //$NON-NLS-1$
+			}
+
+			public void reconcileFailed(final PwsReplicaStorage aStorage,
+					final IOException anException) {
+				showReplicaMessage(theDisplay, SWT.ICON_ERROR, NLS.bind(Messages
+						.getString("PasswordSafeJFace.Replica.Failed"), anException.getMessage())); //$NON-NLS-1$
+			}
+		});
+	}
+
+	private void showReplicaMessage(final Display aDisplay, final int anIcon, final String aMessage) {
+		aDisplay.asyncExec(new Runnable() {
+			public void run() {
+				if (getShell() == null || getShell().isDisposed()) {
+					return;
+				}
+				final MessageBox theBox = new MessageBox(getShell(), anIcon);
+				theBox.setText(Messages.getString("PasswordSafeJFace.Replica.Title")); //$NON-NLS-1$
+				theBox.setMessage(aMessage);
+				theBox.open();
+			}
+		});
+	}
+
+	/**
+	 * Reads a safe changed by someone else on the calling (watcher) thread and
+	 * merges it into the current safe on the UI thread. Unsaved changes are
+	 * kept, conflicting ones are reported.
+	 * 
+	 * @param aDisplay the display to merge on
+	 * @param aFile the current safe
+	 */
+	private void reloadStorage(final Display aDisplay, final PwsFileV3 aFile) {
+		final String[] thePassphrase = new String[1];
+		aDisplay.syncExec(new Runnable() {
+			public void run() {
+				if (aFile == pwsFile && !aFile.isLocked()) {
+					thePassphrase[0] = aFile.getPassphrase();
+				}
+			}
+		});
+		if (thePassphrase[0] == null) {
+			return;
+		}
+		final PwsFileV3 theirs;
+		try {
+			theirs = PwsFileMerger.readStorage(aFile.getStorage(), thePassphrase[0]);
+		} catch (final Exception e) {
+			log.warn("Cannot read the safe changed by someone else", e); //$NON-NLS-1$
+			return;
+		}
+		aDisplay.asyncExec(new Runnable() {
+			public void run() {
+				if (aFile != pwsFile || aFile.isLocked()) {
+					theirs.dispose();
+					return;
+				}
+				if (getShell().getShells().length > 0) {
+					// a dialog may hold entries of the current store
+					aDisplay.timerExec(1000, this);
+					return;
+				}
+				try {
+					// access times only after the merge, they would make it a
+					// merge of local changes
+					final PwsMergeReport theReport = PwsFileMerger.mergeStorage(aFile, theirs);
+					dataStore.reload();
+					if (dataStore.hasPendingAccessTimes()) {
+						dataStore.flushAccessTimes();
+					}
+					setPwsEntryStore(dataStore);
+					if (theReport.getCount(Outcome.CONFLICT) > 0) {
+						showMergeReport(theReport);
+					} else {
+						setStatus(NLS.bind(Messages.getString("PasswordSafeJFace.Status.Reloaded"), //$NON-NLS-1$
+								new Object[] { Integer.valueOf(theReport.getCount(Outcome.ADDED)),
+										Integer.valueOf(theReport.getCount(Outcome.CHANGED)),
+										Integer.valueOf(theReport.getCount(Outcome.DELETED)) }));
+					}
+				} catch (final PasswordSafeException e) {
+					log.error("Cannot merge the safe changed by someone else", e); //$NON-NLS-1$
+				} finally {
+					theirs.dispose();
+				}
+			}
+		});
+	}
+
 	/**
 	 * Clears the currently loaded store.
 	 * 
 	 */
 	public void clearPwsStore() {
+		if (storageWatcher != null) {
+			storageWatcher.stop();
+			storageWatcher = null;
+		}
+		if (dataStore != null) {
+			dataStore.clear(); // wipes cached entries
+		}
+		final PwsStorage theOld = pwsFile == null ? null : pwsFile.getStorage();
 		this.pwsFile = null;
 		this.dataStore = PwsFileFactory.getStore(pwsFile);
+		releaseStorage(theOld);
 		updateViewers();
 	}
 
@@ -921,6 +1452,22 @@ public class PasswordSafeJFace extends ApplicationWindow {
 			displayErrorDialog(
 					Messages.getString("PasswordSafeJFace.SavePrefsError.Title"), Messages.getString("PasswordSafeJFace.SavePrefsError.Message") + e.getMessage(), e); //$NON-NLS-1$ //$NON-NLS-2$
 		}
+		final PwsFile theFile = pwsFile != null ? pwsFile : lockedFile;
+		final PwsStorage theStorage = theFile == null ? null : theFile.getStorage();
+		try {
+			if (theStorage instanceof PwsReplicaStorage) {
+				final PwsReplicaStorage theReplica = (PwsReplicaStorage) theStorage;
+				theReplica.shutdown();
+				if (!theReplica.flush(EXIT_FLUSH_MILLIS)) {
+					log.warn("Changes not pushed yet are pushed on the next open"); //$NON-NLS-1$
+				}
+			}
+			if (!PwsVersionStore.flush(EXIT_FLUSH_MILLIS)) {
+				log.warn("The versions of the last saves are not kept in the history"); //$NON-NLS-1$
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 
 	/**
@@ -929,6 +1476,9 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 */
 	public void exitApplication() {
 		tidyUpOnExit();
+		if (stallWatchdog != null) {
+			stallWatchdog.stop();
+		}
 		if (systemTray != null) {
 			systemTray.dispose();
 			systemTray = null;
@@ -1159,6 +1709,7 @@ public class PasswordSafeJFace extends ApplicationWindow {
 	 * 
 	 */
 	public void updateViewers() {
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.VIEWER_REFRESH);
 		if (isTreeViewShowing()) {
 			final Object[] currentExpansions = treeViewer.getExpandedElements();
 			treeViewer.setInput(getPwsDataStore());
@@ -1168,6 +1719,7 @@ public class PasswordSafeJFace extends ApplicationWindow {
 			tableViewer.setInput(getPwsDataStore());
 			// tableViewer.refresh();
 		}
+		theTrace.end(getPwsDataStore() == null ? 0 : getPwsDataStore().getSparseEntries().size(), 0);
 	}
 
 	/**
@@ -10,6 +10,7 @@ package org.pwsafe.passwordsafeswt.action;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -19,6 +20,9 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.KeyListener;
 import org.pwsafe.lib.datastore.PwsEntryBean;
+import org.pwsafe.lib.metrics.PwsMetric;
+import org.pwsafe.lib.metrics.PwsMetrics;
+import org.pwsafe.lib.metrics.PwsTrace;
 import org.pwsafe.passwordsafeswt.PasswordSafeJFace;
 import org.pwsafe.passwordsafeswt.dialog.FindRecordDialog;
 import org.pwsafe.passwordsafeswt.model.comparator.FindMatcher;
@@ -192,11 +196,16 @@ public class FindRecordAction extends Action {
 	private LinkedList<PwsEntryBean> findDataStoreEntries(final FindMatcher matcher) {
 
 		final PasswordSafeJFace app = PasswordSafeJFace.getApp();
-		for (final PwsEntryBean entry : app.getPwsDataStore().getSparseEntries()) {
+		final long theStart = PwsMetrics.start();
+		final PwsTrace theTrace = PwsTrace.begin(PwsTrace.Type.SEARCH);
+		final List<PwsEntryBean> theEntries = app.getPwsDataStore().getSparseEntries();
+		for (final PwsEntryBean entry : theEntries) {
 			if (matcher.matches(searchState.getSearchString(), entry)) {
 				searchState.getResults().add(entry);
 			}
 		}
+		PwsMetrics.stop(PwsMetric.SEARCH, theStart);
+		theTrace.end(searchState.getResultCount(), theEntries.size());
 		return searchState.getResults();
 	}
 
@@ -67,9 +67,7 @@ public class LockDbAction extends Action implements Runnable {
 		final PasswordSafeJFace app = PasswordSafeJFace.getApp();
 		if (app.getPwsFile() != null) {
 			log.info(Messages.getString("LockDbAction.Log.Locking")); //$NON-NLS-1$
-			app.getPwsFile().dispose();
-			app.clearView();
-			app.clearPwsStore();
+			app.lockPwsFile();
 			app.setLocked(true);
 		}
 	}
@@ -62,13 +62,13 @@ public class MRUFileAction extends Action {
 		}
 		PasswordDialog pd = new PasswordDialog(app.getShell());
 		pd.setVerified(false);
-		pd.setFileName(fileName);
+		pd.setFileToOpen(fileName);
 		StringBuilder password = pd.open();
 		if (password != null) {
 			try {
 				// TODO: change Passworddialog to include a readonly flag; then
 				// include readonly here
-				app.openFile(fileName, password);
+				app.openFile(fileName, password, app.isReadOnly(), pd.getPrefetch());
 			} catch (Exception e) {
 				app.displayErrorDialog(
 						Messages.getString("MRUFileAction.OpenError.Title"), Messages.getString("MRUFileAction.OpenError.Message"), e); //$NON-NLS-1$ //$NON-NLS-2$
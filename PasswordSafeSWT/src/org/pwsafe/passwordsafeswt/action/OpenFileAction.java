@@ -47,13 +47,13 @@ public class OpenFileAction extends Action {
 			if (fileName != null) {
 				PasswordDialog pd = new PasswordDialog(app.getShell());
 				pd.setVerified(false);
-				pd.setFileName(fileName);
+				pd.setFileToOpen(fileName);
 				StringBuilder password = pd.open();
 				if (password != null) {
 					try {
 						// TODO: change Password dialog to include a readonly
 						// flag; then include readonly here
-						app.openFile(fileName, password);
+						app.openFile(fileName, password, app.isReadOnly(), pd.getPrefetch());
 					} catch (Exception e) {
 						app.displayErrorDialog(
 								Messages.getString("OpenFileAction.ErrorDialog.Label"), Messages.getString("OpenFileAction.ErrorDialog.Message"), e); //$NON-NLS-1$ //$NON-NLS-2$
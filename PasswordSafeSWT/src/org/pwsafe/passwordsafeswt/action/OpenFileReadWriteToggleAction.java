@@ -49,12 +49,12 @@ public class OpenFileReadWriteToggleAction extends Action {
 			if (fileName != null) {
 				PasswordDialog pd = new PasswordDialog(app.getShell());
 				pd.setVerified(false);
-				pd.setFileName(fileName);
+				pd.setFileToOpen(fileName);
 				StringBuilder password = pd.open();
 				if (password != null) {
 					try {
 						// open the safe with inverted read-write mode
-						app.openFile(fileName, password, !app.isReadOnly());
+						app.openFile(fileName, password, !app.isReadOnly(), pd.getPrefetch());
 					} catch (Exception e) {
 						app.displayErrorDialog(
 								Messages.getString("OpenFileAction.ErrorDialog.Label"), Messages.getString("OpenFileAction.ErrorDialog.Message"), e); //$NON-NLS-1$ //$NON-NLS-2$
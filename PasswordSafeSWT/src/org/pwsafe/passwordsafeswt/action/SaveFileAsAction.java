@@ -74,7 +74,8 @@ public class SaveFileAsAction extends Action {
 
 				PwsFile pwsFile = app.getPwsFile();
 
-				pwsFile.setStorage(new PwsS3Storage(newFilename, ad, pwsFile.getPassphrase()));
+				app.setStorage(PwsS3Storage.openReplicated(newFilename, ad, pwsFile
+						.getPassphrase()));
 				app.saveFile();
 			}
 			// SaveSafeSelectionWizard newSafeWizard = new
@@ -58,10 +58,11 @@ public class UnlockDbAction extends Action implements Runnable {
 		StringBuilder password = pd.open();
 		if (password != null && !"".equals(password)) {
 			try {
-				app.openFile(fileName, password); // readonly state stays
-													// unchanged
-				isUnlocked = true;
-				app.setLocked(false);
+				// readonly state stays unchanged
+				isUnlocked = app.unlockPwsFile(password) || app.openFile(fileName, password);
+				if (isUnlocked) {
+					app.setLocked(false);
+				}
 			} catch (Exception anEx) {
 				app.displayErrorDialog(
 						Messages.getString("LockDbAction.ReOpenError.Title"), Messages.getString("LockDbAction.ReOpenError.Message"), anEx); //$NON-NLS-1$ //$NON-NLS-2$
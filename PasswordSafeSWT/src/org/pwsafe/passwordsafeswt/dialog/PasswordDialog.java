@@ -26,6 +26,7 @@ import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
+import org.pwsafe.lib.file.PwsFilePrefetch;
 import org.pwsafe.passwordsafeswt.PasswordSafeJFace;
 import org.pwsafe.passwordsafeswt.util.ShellHelpers;
 
@@ -47,6 +48,8 @@ public class PasswordDialog extends Dialog {
 	protected StringBuilder result;
 	protected Shell shell;
 	protected boolean verified = true;
+	private boolean prefetch;
+	private PwsFilePrefetch prefetched;
 
 	public PasswordDialog(Shell parent, int style) {
 		super(parent, style);
@@ -57,6 +60,9 @@ public class PasswordDialog extends Dialog {
 	}
 
 	public StringBuilder open() {
+		if (prefetch) {
+			prefetched = PwsFilePrefetch.start(fileName);
+		}
 		createContents();
 		ShellHelpers.centreShell(getParent(), shell);
 		shell.layout();
@@ -72,6 +78,10 @@ public class PasswordDialog extends Dialog {
 			if (!display.readAndDispatch())
 				display.sleep();
 		}
+		if (prefetched != null && result == null) {
+			prefetched.cancel();
+			prefetched = null;
+		}
 		return result;
 	}
 
@@ -203,6 +213,26 @@ public class PasswordDialog extends Dialog {
 		fileName = aFileName;
 	}
 
+	/**
+	 * Sets the file that will be opened with the combination; it is read in
+	 * the background while the dialog is open.
+	 * 
+	 * @param aFileName the name of the file to open
+	 */
+	public void setFileToOpen(final String aFileName) {
+		setFileName(aFileName);
+		prefetch = true;
+	}
+
+	/**
+	 * Returns the prefetch of the file to open, to be attached to the open.
+	 * 
+	 * @return the prefetch or null if the file is not read in advance
+	 */
+	public PwsFilePrefetch getPrefetch() {
+		return prefetched;
+	}
+
 	public void setVerified(boolean verify) {
 		this.verified = verify;
 	}
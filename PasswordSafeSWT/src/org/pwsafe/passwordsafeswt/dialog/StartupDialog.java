@@ -23,7 +23,9 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.Text;
+import org.pwsafe.lib.file.PwsFilePrefetch;
 import org.pwsafe.passwordsafeswt.util.IOUtils;
+import org.pwsafe.passwordsafeswt.util.MruFileInfo;
 import org.pwsafe.passwordsafeswt.util.ShellHelpers;
 import org.pwsafe.passwordsafeswt.util.VersionInfo;
 
@@ -37,6 +39,7 @@ public class StartupDialog extends Dialog {
 
 	private Combo cboFilename;
 	private Text txtPassword;
+	private Label lblFileInfo;
 	protected String result;
 	protected Shell shell;
 	private List<String> mruList;
@@ -44,6 +47,7 @@ public class StartupDialog extends Dialog {
 	private boolean readOnly;
 	private String selectedFile;
 	private final StringBuilder selectedPassword = new StringBuilder();
+	private PwsFilePrefetch prefetch;
 
 	public static final String OPEN_FILE = "open-selected"; // open the selected file //$NON-NLS-1$
 	public static final String OPEN_OTHER = "open-other"; // open file dialog for other file //$NON-NLS-1$
@@ -72,6 +76,14 @@ public class StartupDialog extends Dialog {
 			}
 			cboFilename.setText(mruList.get(0));
 			txtPassword.setFocus();
+			selectionChanged();
+			MruFileInfo.refreshInBackground(mruList, getParent().getDisplay(), new Runnable() {
+				public void run() {
+					if (!shell.isDisposed()) {
+						updateFileInfo();
+					}
+				}
+			});
 		}
 
 		Display display = getParent().getDisplay();
@@ -79,9 +91,30 @@ public class StartupDialog extends Dialog {
 			if (!display.readAndDispatch())
 				display.sleep();
 		}
+		if (result != StartupDialog.OPEN_FILE && prefetch != null) {
+			prefetch.cancel();
+			prefetch = null;
+		}
 		return result;
 	}
 
+	/**
+	 * Starts reading the selected file while the combination is typed and
+	 * shows its cached info.
+	 */
+	private void selectionChanged() {
+		prefetch = PwsFilePrefetch.start(cboFilename.getText());
+		updateFileInfo();
+	}
+
+	/**
+	 * Shows the cached info of the selected file.
+	 */
+	private void updateFileInfo() {
+		final String theInfo = MruFileInfo.describe(cboFilename.getText());
+		lblFileInfo.setText(theInfo != null ? theInfo : ""); //$NON-NLS-1$
+	}
+
 	/**
 	 * Create dialog elements.
 	 */
@@ -123,6 +156,12 @@ public class StartupDialog extends Dialog {
 		formData_1b.left = new FormAttachment(lblFilename, 15, SWT.RIGHT);
 		formData_1b.right = new FormAttachment(100, -170);
 		cboFilename.setLayoutData(formData_1b);
+		cboFilename.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				selectionChanged();
+			}
+		});
 
 		final Label lblSafeCombination = new Label(shell, SWT.NONE);
 		final FormData formData_2 = new FormData();
@@ -154,6 +193,13 @@ public class StartupDialog extends Dialog {
 		btnReadOnly.setSelection(readOnly);
 		btnReadOnly.setText(Messages.getString("StartupDialog.ReadOnlyButton")); //$NON-NLS-1$
 
+		lblFileInfo = new Label(shell, SWT.NONE);
+		final FormData formData_4b = new FormData();
+		formData_4b.top = new FormAttachment(btnReadOnly, 10);
+		formData_4b.left = new FormAttachment(btnReadOnly, 0, SWT.LEFT);
+		formData_4b.right = new FormAttachment(100, -5);
+		lblFileInfo.setLayoutData(formData_4b);
+
 		final Button btnCreate = new Button(shell, SWT.NONE);
 		btnCreate.addSelectionListener(new SelectionAdapter() {
 			@Override
@@ -254,6 +300,15 @@ public class StartupDialog extends Dialog {
 		return selectedFile;
 	}
 
+	/**
+	 * Returns the prefetch of the selected file, to be attached to the open.
+	 * 
+	 * @return the prefetch or null if the file is not read in advance
+	 */
+	public PwsFilePrefetch getPrefetch() {
+		return prefetch;
+	}
+
 	/**
 	 * Returns the password entered in the dialog.
 	 * 
@@ -10,6 +10,7 @@ package org.pwsafe.passwordsafeswt.preference;
 
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.ALWAYS_ON_TOP;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_ICON_IN_SYSTEM_TRAY;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_PERFORMANCE_STATUS;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_NOTES_IN_EDIT_MODE;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_NOTES_IN_LIST;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_PASSWORD_IN_EDIT_MODE;
@@ -34,6 +35,7 @@ public class DisplayPreferences extends PreferencePage {
 	Button btnShowNotesInEdit;
 	Button btnShowPasswordInEdit;
 	Button btnSystemTray;
+	Button btnPerformanceStatus;
 
 	// Text fields for user to enter preferences
 
@@ -74,6 +76,10 @@ public class DisplayPreferences extends PreferencePage {
 		btnSystemTray.setText(Messages.getString("DisplayPreferences.SystemTrayOn")); //$NON-NLS-1$
 		btnSystemTray.setSelection(preferenceStore.getBoolean(SHOW_ICON_IN_SYSTEM_TRAY));
 
+		btnPerformanceStatus = new Button(composite, SWT.CHECK);
+		btnPerformanceStatus.setText(Messages.getString("DisplayPreferences.PerformanceStatus")); //$NON-NLS-1$
+		btnPerformanceStatus.setSelection(preferenceStore.getBoolean(SHOW_PERFORMANCE_STATUS));
+
 		return composite;
 	}
 
@@ -92,6 +98,7 @@ public class DisplayPreferences extends PreferencePage {
 		btnShowPasswordInEdit.setSelection(preferenceStore
 				.getDefaultBoolean(SHOW_PASSWORD_IN_EDIT_MODE));
 		btnSystemTray.setSelection(preferenceStore.getDefaultBoolean(SHOW_ICON_IN_SYSTEM_TRAY));
+		btnPerformanceStatus.setSelection(preferenceStore.getDefaultBoolean(SHOW_PERFORMANCE_STATUS));
 	}
 
 	/**
@@ -116,6 +123,8 @@ public class DisplayPreferences extends PreferencePage {
 					btnShowPasswordInEdit.getSelection());
 		if (btnSystemTray != null)
 			preferenceStore.setValue(SHOW_ICON_IN_SYSTEM_TRAY, btnSystemTray.getSelection());
+		if (btnPerformanceStatus != null)
+			preferenceStore.setValue(SHOW_PERFORMANCE_STATUS, btnPerformanceStatus.getSelection());
 
 		// Return true to allow dialog to close
 		return true;
@@ -16,6 +16,7 @@ public interface JpwPreferenceConstants {
 	public static final String SHOW_NOTES_IN_EDIT_MODE = "show.notes.in.edit.mode";
 	public static final String SHOW_PASSWORD_IN_EDIT_MODE = "show.password.in.edit.mode";
 	public static final String SHOW_ICON_IN_SYSTEM_TRAY = "show.icon.in.system.tray";
+	public static final String SHOW_PERFORMANCE_STATUS = "show.performance.status";
 	public static final String TREE_COLUMN_SIZE = "tree.width.column";
 	public static final String TABLE_COLUMN_SIZE = "table.width.column";
 
@@ -41,6 +42,7 @@ public interface JpwPreferenceConstants {
 	public static final String LOCK_DB_ON_WS_LOCK = "lock.database.on.workstation.lock";
 	public static final String LOCK_ON_IDLE = "lock.db.on.idle";
 	public static final String LOCK_ON_IDLE_MINS = "lock.db.on.idle.minutes";
+	public static final String FAST_UNLOCK = "fast.unlock";
 
 	// Misc
 	public static final String CONFIRM_ITEM_DELETION = "confirm.item.deletion";
@@ -51,6 +53,11 @@ public interface JpwPreferenceConstants {
 	public static final String DOUBLE_CLICK_COPIES_TO_CLIPBOARD = "double.click.copies.to.clipboard";
 	public static final String DEFAULT_OPEN_READ_ONLY = "default.open.readonly";
 	public static final String RECORD_LAST_ACCESS_TIME = "record.last.access.time";
+	public static final String WRITE_INDEX_SIDECAR = "write.index.sidecar";
+	public static final String ACCESS_TIME_WRITE_MINS = "access.time.write.minutes";
+	public static final String UI_STALL_REPORT_SECS = "ui.stall.report.seconds";
+	public static final String STORAGE_WATCH_SECS = "storage.watch.seconds";
+	public static final String HISTORY_VERSIONS = "history.versions";
 
 	// GUI Internal
 	public static final String DISPLAY_AS_LIST_PREF = "display.as.list";
@@ -24,10 +24,12 @@ import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.LOCK_
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.LOCK_DB_ON_WS_LOCK;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.LOCK_ON_IDLE;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.LOCK_ON_IDLE_MINS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.FAST_UNLOCK;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.QUERY_FOR_DEFAULT_USERNAME;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.RECORD_LAST_ACCESS_TIME;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SAVE_IMMEDIATELY_ON_EDIT;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_ICON_IN_SYSTEM_TRAY;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_PERFORMANCE_STATUS;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_NOTES_IN_EDIT_MODE;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_NOTES_IN_LIST;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SHOW_PASSWORD_IN_EDIT_MODE;
@@ -40,6 +42,11 @@ import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.USE_H
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.USE_LOWERCASE_LETTERS;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.USE_SYMBOLS;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.USE_UPPERCASE_LETTERS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.WRITE_INDEX_SIDECAR;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.ACCESS_TIME_WRITE_MINS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.UI_STALL_REPORT_SECS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.STORAGE_WATCH_SECS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.HISTORY_VERSIONS;
 
 import org.eclipse.core.runtime.preferences.AbstractPreferenceInitializer;
 import org.eclipse.jface.preference.IPreferenceStore;
@@ -67,6 +74,7 @@ public class JpwPreferenceInitializer extends AbstractPreferenceInitializer {
 		theStore.setDefault(SHOW_NOTES_IN_EDIT_MODE, true);
 		theStore.setDefault(SHOW_PASSWORD_IN_EDIT_MODE, false);
 		theStore.setDefault(SHOW_ICON_IN_SYSTEM_TRAY, false);
+		theStore.setDefault(SHOW_PERFORMANCE_STATUS, false);
 		theStore.setDefault(TREE_COLUMN_SIZE, 150);
 		theStore.setDefault(TABLE_COLUMN_SIZE, 150);
 
@@ -92,6 +100,7 @@ public class JpwPreferenceInitializer extends AbstractPreferenceInitializer {
 		theStore.setDefault(LOCK_DB_ON_WS_LOCK, true);
 		theStore.setDefault(LOCK_ON_IDLE, true);
 		theStore.setDefault(LOCK_ON_IDLE_MINS, 5);
+		theStore.setDefault(FAST_UNLOCK, false);
 		theStore.setDefault(CONFIRM_SAVE_ON_MIN, false);
 
 		// Misc
@@ -103,6 +112,11 @@ public class JpwPreferenceInitializer extends AbstractPreferenceInitializer {
 		theStore.setDefault(DOUBLE_CLICK_COPIES_TO_CLIPBOARD, true);
 		theStore.setDefault(DEFAULT_OPEN_READ_ONLY, false);
 		theStore.setDefault(RECORD_LAST_ACCESS_TIME, false);
+		theStore.setDefault(WRITE_INDEX_SIDECAR, false);
+		theStore.setDefault(ACCESS_TIME_WRITE_MINS, 0);
+		theStore.setDefault(UI_STALL_REPORT_SECS, 5);
+		theStore.setDefault(STORAGE_WATCH_SECS, 10);
+		theStore.setDefault(HISTORY_VERSIONS, 5);
 
 	}
 
@@ -7,14 +7,19 @@
  */
 package org.pwsafe.passwordsafeswt.preference;
 
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.ACCESS_TIME_WRITE_MINS;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.CONFIRM_ITEM_DELETION;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.DEFAULT_OPEN_READ_ONLY;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.DOUBLE_CLICK_COPIES_TO_CLIPBOARD;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.ESCAPE_KEY_EXITS_APP;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.HISTORY_VERSIONS;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.HOT_KEY;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.HOT_KEY_ACTIVE;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.RECORD_LAST_ACCESS_TIME;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.SAVE_IMMEDIATELY_ON_EDIT;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.STORAGE_WATCH_SECS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.UI_STALL_REPORT_SECS;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.WRITE_INDEX_SIDECAR;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.PreferencePage;
@@ -25,6 +30,7 @@ import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Text;
 
 /**
@@ -38,7 +44,12 @@ public class MiscPreferences extends PreferencePage {
 	private Button btnConfirmDeletion;
 	private Button btnSaveImmediately;
 	private Button btnRecordAccessTime;
+	private Spinner spiAccessTimeMinutes;
 	private Button btnOpenReadOnly;
+	private Button btnWriteIndex;
+	private Spinner spiStallSeconds;
+	private Spinner spiWatchSeconds;
+	private Spinner spiHistoryVersions;
 	private Button btnEscapeExitsApp;
 	private Button btnHotKey;
 	private Text txtHotKey;
@@ -68,10 +79,80 @@ public class MiscPreferences extends PreferencePage {
 		btnRecordAccessTime.setText(Messages.getString("MiscPreferences.RecordLastAccessTime")); //$NON-NLS-1$
 		btnRecordAccessTime.setSelection(preferenceStore.getBoolean(RECORD_LAST_ACCESS_TIME));
 
+		final Composite compositeAccessTime = new Composite(composite, SWT.NONE);
+		final GridLayout gridLayoutAccessTime = new GridLayout();
+		gridLayoutAccessTime.marginWidth = 0;
+		gridLayoutAccessTime.marginHeight = 0;
+		gridLayoutAccessTime.numColumns = 3;
+		compositeAccessTime.setLayout(gridLayoutAccessTime);
+
+		final Label lblAccessTime = new Label(compositeAccessTime, SWT.NONE);
+		lblAccessTime.setText(Messages.getString("MiscPreferences.AccessTimeWriteLabel")); //$NON-NLS-1$
+
+		spiAccessTimeMinutes = new Spinner(compositeAccessTime, SWT.BORDER);
+		spiAccessTimeMinutes.setSelection(preferenceStore.getInt(ACCESS_TIME_WRITE_MINS));
+
+		final Label lblAccessTimeMinutes = new Label(compositeAccessTime, SWT.NONE);
+		lblAccessTimeMinutes.setText(Messages.getString("MiscPreferences.AccessTimeWriteMinutes")); //$NON-NLS-1$
+
 		btnOpenReadOnly = new Button(composite, SWT.CHECK);
 		btnOpenReadOnly.setText(Messages.getString("MiscPreferences.DefaultOpenReadOnly")); //$NON-NLS-1$
 		btnOpenReadOnly.setSelection(preferenceStore.getBoolean(DEFAULT_OPEN_READ_ONLY));
 
+		btnWriteIndex = new Button(composite, SWT.CHECK);
+		btnWriteIndex.setText(Messages.getString("MiscPreferences.WriteIndexSidecar")); //$NON-NLS-1$
+		btnWriteIndex.setSelection(preferenceStore.getBoolean(WRITE_INDEX_SIDECAR));
+
+		final Composite compositeStall = new Composite(composite, SWT.NONE);
+		final GridLayout gridLayoutStall = new GridLayout();
+		gridLayoutStall.marginWidth = 0;
+		gridLayoutStall.marginHeight = 0;
+		gridLayoutStall.numColumns = 3;
+		compositeStall.setLayout(gridLayoutStall);
+
+		final Label lblStall = new Label(compositeStall, SWT.NONE);
+		lblStall.setText(Messages.getString("MiscPreferences.StallReportLabel")); //$NON-NLS-1$
+
+		spiStallSeconds = new Spinner(compositeStall, SWT.BORDER);
+		spiStallSeconds.setSelection(preferenceStore.getInt(UI_STALL_REPORT_SECS));
+
+		final Label lblStallSeconds = new Label(compositeStall, SWT.NONE);
+		lblStallSeconds.setText(Messages.getString("MiscPreferences.StallReportSeconds")); //$NON-NLS-1$
+
+		final Composite compositeWatch = new Composite(composite, SWT.NONE);
+		final GridLayout gridLayoutWatch = new GridLayout();
+		gridLayoutWatch.marginWidth = 0;
+		gridLayoutWatch.marginHeight = 0;
+		gridLayoutWatch.numColumns = 3;
+		compositeWatch.setLayout(gridLayoutWatch);
+
+		final Label lblWatch = new Label(compositeWatch, SWT.NONE);
+		lblWatch.setText(Messages.getString("MiscPreferences.StorageWatchLabel")); //$NON-NLS-1$
+
+		spiWatchSeconds = new Spinner(compositeWatch, SWT.BORDER);
+		spiWatchSeconds.setMaximum(3600);
+		spiWatchSeconds.setSelection(preferenceStore.getInt(STORAGE_WATCH_SECS));
+
+		final Label lblWatchSeconds = new Label(compositeWatch, SWT.NONE);
+		lblWatchSeconds.setText(Messages.getString("MiscPreferences.StorageWatchSeconds")); //$NON-NLS-1$
+
+		final Composite compositeHistory = new Composite(composite, SWT.NONE);
+		final GridLayout gridLayoutHistory = new GridLayout();
+		gridLayoutHistory.marginWidth = 0;
+		gridLayoutHistory.marginHeight = 0;
+		gridLayoutHistory.numColumns = 3;
+		compositeHistory.setLayout(gridLayoutHistory);
+
+		final Label lblHistory = new Label(compositeHistory, SWT.NONE);
+		lblHistory.setText(Messages.getString("MiscPreferences.HistoryLabel")); //$NON-NLS-1$
+
+		spiHistoryVersions = new Spinner(compositeHistory, SWT.BORDER);
+		spiHistoryVersions.setMaximum(999);
+		spiHistoryVersions.setSelection(preferenceStore.getInt(HISTORY_VERSIONS));
+
+		final Label lblHistoryVersions = new Label(compositeHistory, SWT.NONE);
+		lblHistoryVersions.setText(Messages.getString("MiscPreferences.HistoryVersions")); //$NON-NLS-1$
+
 		btnEscapeExitsApp = new Button(composite, SWT.CHECK);
 		btnEscapeExitsApp.setText(Messages.getString("MiscPreferences.QuitOnEsc")); //$NON-NLS-1$
 		btnEscapeExitsApp.setSelection(preferenceStore.getBoolean(ESCAPE_KEY_EXITS_APP));
@@ -138,7 +219,12 @@ public class MiscPreferences extends PreferencePage {
 				.setSelection(preferenceStore.getDefaultBoolean(SAVE_IMMEDIATELY_ON_EDIT));
 		btnRecordAccessTime
 				.setSelection(preferenceStore.getDefaultBoolean(RECORD_LAST_ACCESS_TIME));
+		spiAccessTimeMinutes.setSelection(preferenceStore.getDefaultInt(ACCESS_TIME_WRITE_MINS));
 		btnOpenReadOnly.setSelection(preferenceStore.getDefaultBoolean(DEFAULT_OPEN_READ_ONLY));
+		btnWriteIndex.setSelection(preferenceStore.getDefaultBoolean(WRITE_INDEX_SIDECAR));
+		spiStallSeconds.setSelection(preferenceStore.getDefaultInt(UI_STALL_REPORT_SECS));
+		spiWatchSeconds.setSelection(preferenceStore.getDefaultInt(STORAGE_WATCH_SECS));
+		spiHistoryVersions.setSelection(preferenceStore.getDefaultInt(HISTORY_VERSIONS));
 		btnEscapeExitsApp.setSelection(preferenceStore.getDefaultBoolean(ESCAPE_KEY_EXITS_APP));
 		btnHotKey.setSelection(preferenceStore.getDefaultBoolean(HOT_KEY_ACTIVE));
 		txtHotKey.setText(preferenceStore.getDefaultString(HOT_KEY));
@@ -163,7 +249,12 @@ public class MiscPreferences extends PreferencePage {
 		preferenceStore.setValue(CONFIRM_ITEM_DELETION, btnConfirmDeletion.getSelection());
 		preferenceStore.setValue(SAVE_IMMEDIATELY_ON_EDIT, btnSaveImmediately.getSelection());
 		preferenceStore.setValue(RECORD_LAST_ACCESS_TIME, btnRecordAccessTime.getSelection());
+		preferenceStore.setValue(ACCESS_TIME_WRITE_MINS, spiAccessTimeMinutes.getSelection());
 		preferenceStore.setValue(DEFAULT_OPEN_READ_ONLY, btnOpenReadOnly.getSelection());
+		preferenceStore.setValue(WRITE_INDEX_SIDECAR, btnWriteIndex.getSelection());
+		preferenceStore.setValue(UI_STALL_REPORT_SECS, spiStallSeconds.getSelection());
+		preferenceStore.setValue(STORAGE_WATCH_SECS, spiWatchSeconds.getSelection());
+		preferenceStore.setValue(HISTORY_VERSIONS, spiHistoryVersions.getSelection());
 		preferenceStore.setValue(ESCAPE_KEY_EXITS_APP, btnEscapeExitsApp.getSelection());
 		preferenceStore.setValue(HOT_KEY_ACTIVE, btnHotKey.getSelection());
 		preferenceStore.setValue(HOT_KEY, txtHotKey.getText());
@@ -10,6 +10,7 @@ package org.pwsafe.passwordsafeswt.preference;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.CLEAR_CLIPBOARD_ON_MIN;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.CONFIRM_COPY_TO_CLIPBOARD;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.CONFIRM_SAVE_ON_MIN;
+import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.FAST_UNLOCK;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.LOCK_DB_ON_MIN;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.LOCK_DB_ON_WS_LOCK;
 import static org.pwsafe.passwordsafeswt.preference.JpwPreferenceConstants.LOCK_ON_IDLE;
@@ -41,6 +42,7 @@ public class SecurityPreferences extends PreferencePage {
 	Button btnConfirmCopy;
 	Button btnLockDatabaseOnWorkstationLock;
 	Button btnLockOnIdle;
+	Button btnFastUnlock;
 
 	/**
 	 * Creates the controls for this page
@@ -97,6 +99,10 @@ public class SecurityPreferences extends PreferencePage {
 		final Label lblMinsIdle = new Label(composite_1, SWT.NONE);
 		lblMinsIdle.setText(Messages.getString("SecurityPreferences.IdleMinutes")); //$NON-NLS-1$
 
+		btnFastUnlock = new Button(composite, SWT.CHECK);
+		btnFastUnlock.setText(Messages.getString("SecurityPreferences.FastUnlock")); //$NON-NLS-1$
+		btnFastUnlock.setSelection(preferenceStore.getBoolean(FAST_UNLOCK));
+
 		return composite;
 	}
 
@@ -118,6 +124,7 @@ public class SecurityPreferences extends PreferencePage {
 				.getDefaultBoolean(LOCK_DB_ON_WS_LOCK));
 		btnLockOnIdle.setSelection(preferenceStore.getDefaultBoolean(LOCK_ON_IDLE));
 		spiMinutesIdle.setData(preferenceStore.getDefaultInt(LOCK_ON_IDLE_MINS));
+		btnFastUnlock.setSelection(preferenceStore.getDefaultBoolean(FAST_UNLOCK));
 
 	}
 
@@ -140,6 +147,7 @@ public class SecurityPreferences extends PreferencePage {
 				btnLockDatabaseOnWorkstationLock.getSelection());
 		preferenceStore.setValue(LOCK_ON_IDLE, btnLockOnIdle.getSelection());
 		preferenceStore.setValue(LOCK_ON_IDLE_MINS, spiMinutesIdle.getSelection());
+		preferenceStore.setValue(FAST_UNLOCK, btnFastUnlock.getSelection());
 
 		// Return true to allow dialog to close
 		return true;
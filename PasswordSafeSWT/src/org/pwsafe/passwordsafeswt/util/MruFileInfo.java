@@ -0,0 +1,130 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.passwordsafeswt.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.swt.widgets.Display;
+import org.pwsafe.lib.file.PwsFileInfo;
+import org.pwsafe.lib.file.PwsFileInfoCache;
+import org.pwsafe.passwordsafeswt.Messages;
+
+/**
+ * The cached header info of the MRU files, kept in the preferences directory.
+ * The startup dialog and the MRU menu show the cached info at once, the files
+ * themselves are only checked in a background thread.
+ *
+ * @author roxon
+ */
+public final class MruFileInfo {
+
+	private static final Log log = LogFactory.getLog(MruFileInfo.class);
+
+	private static final String CACHE_FILENAME = "fileinfo.properties"; //$NON-NLS-1$
+
+	private static PwsFileInfoCache cache;
+
+	private MruFileInfo() {
+	}
+
+	/**
+	 * Returns the cache, loading it on first use.
+	 *
+	 * @return the cache of the file infos
+	 */
+	public static synchronized PwsFileInfoCache getCache() {
+		if (cache == null) {
+			cache = new PwsFileInfoCache();
+			try {
+				cache.load(getCacheFile());
+			} catch (final IOException anEx) {
+				log.warn("Unable to load file info cache", anEx); //$NON-NLS-1$
+			}
+		}
+		return cache;
+	}
+
+	private static File getCacheFile() {
+		return new File(System.getProperty("user.home") + File.separator //$NON-NLS-1$
+				+ UserPreferences.PROPS_DIR, CACHE_FILENAME);
+	}
+
+	/**
+	 * Writes the cache if it changed.
+	 */
+	public static void save() {
+		final PwsFileInfoCache theCache = getCache();
+		if (theCache.isModified()) {
+			try {
+				theCache.store(getCacheFile());
+			} catch (final IOException anEx) {
+				log.warn("Unable to save file info cache", anEx); //$NON-NLS-1$
+			}
+		}
+	}
+
+	/**
+	 * Describes a file from the cache without accessing it.
+	 *
+	 * @param aPath the path of the file
+	 * @return the description or null if nothing is cached
+	 */
+	public static String describe(final String aPath) {
+		final PwsFileInfo theInfo = getCache().get(aPath);
+		if (theInfo == null) {
+			return null;
+		}
+		final String theKey = theInfo.isV3() ? "PasswordSafeJFace.FileInfo.V3" //$NON-NLS-1$
+				: "PasswordSafeJFace.FileInfo.Other"; //$NON-NLS-1$
+		return MessageFormat.format(Messages.getString(theKey), new File(aPath).getName(), Long
+				.valueOf((theInfo.getSize() + 1023) / 1024), new Date(theInfo.getLastModified()),
+				Integer.valueOf(theInfo.getIterations()));
+	}
+
+	/**
+	 * Checks the files in a daemon thread, drops files no longer in the list
+	 * from the cache and saves it.
+	 *
+	 * @param aPaths the MRU files
+	 * @param aDisplay the display to run the callback on
+	 * @param aCallback run on the UI thread once the files are checked, may
+	 *            be null
+	 */
+	public static void refreshInBackground(final List<String> aPaths, final Display aDisplay,
+			final Runnable aCallback) {
+		final List<String> thePaths = new ArrayList<String>(aPaths);
+		final PwsFileInfoCache theCache = getCache();
+		final Thread theThread = new Thread("MRU file info") { //$NON-NLS-1$
+			@Override
+			public void run() {
+				theCache.retainAll(thePaths);
+				for (final String thePath : thePaths) {
+					try {
+						theCache.refresh(thePath);
+					} catch (final IOException anEx) {
+						log.debug("Cannot peek at " + thePath, anEx); //$NON-NLS-1$
+					}
+				}
+				save();
+				if (aCallback != null && !aDisplay.isDisposed()) {
+					aDisplay.asyncExec(aCallback);
+				}
+			}
+		};
+		theThread.setDaemon(true);
+		theThread.start();
+	}
+}
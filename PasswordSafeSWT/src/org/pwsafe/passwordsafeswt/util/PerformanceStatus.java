@@ -0,0 +1,77 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.passwordsafeswt.util;
+
+import java.text.MessageFormat;
+
+import org.eclipse.jface.action.StatusLineContributionItem;
+import org.pwsafe.lib.metrics.PwsActivity;
+import org.pwsafe.lib.metrics.PwsTrace;
+import org.pwsafe.passwordsafeswt.Messages;
+
+/**
+ * The performance figures in the status line: number of entries, how long the
+ * last open, save and search took, the heap in use and whether there are
+ * unsaved changes. Hidden while it has no text.
+ *
+ * @author roxon
+ */
+public class PerformanceStatus extends StatusLineContributionItem {
+
+	public static final String ID = "org.pwsafe.passwordsafeswt.performance"; //$NON-NLS-1$
+
+	private static final int WIDTH = 72;
+
+	private final PwsActivity activity;
+
+	/**
+	 * @param anActivity the source of the durations
+	 */
+	public PerformanceStatus(final PwsActivity anActivity) {
+		super(ID, WIDTH);
+		activity = anActivity;
+		setVisible(false);
+	}
+
+	/**
+	 * Shows the current figures, must be called on the UI thread.
+	 *
+	 * @param anEntryCount the number of entries or -1 if no safe is open
+	 * @param anUnsaved true if the safe has unsaved changes
+	 */
+	public void update(final int anEntryCount, final boolean anUnsaved) {
+		final Runtime theRuntime = Runtime.getRuntime();
+		setText(getText(anEntryCount, theRuntime.totalMemory() - theRuntime.freeMemory(),
+				anUnsaved));
+	}
+
+	/**
+	 * Hides the figures, must be called on the UI thread.
+	 */
+	public void clear() {
+		setText(""); //$NON-NLS-1$
+	}
+
+	String getText(final int anEntryCount, final long aHeapUsed, final boolean anUnsaved) {
+		final String theText = MessageFormat.format(Messages
+				.getString("PasswordSafeJFace.Status.Performance"), //$NON-NLS-1$
+				anEntryCount < 0 ? "-" : Integer.toString(anEntryCount), //$NON-NLS-1$
+				getDuration(PwsTrace.Type.SAFE_OPEN), getDuration(PwsTrace.Type.SAVE),
+				getDuration(PwsTrace.Type.SEARCH), Long.valueOf(aHeapUsed / (1024 * 1024)));
+		if (anUnsaved) {
+			return theText + Messages.getString("PasswordSafeJFace.Status.Unsaved"); //$NON-NLS-1$
+		}
+		return theText;
+	}
+
+	private String getDuration(final PwsTrace.Type aType) {
+		final PwsActivity.Sample theSample = activity.getLast(aType);
+		return theSample == null ? "-" : theSample.getDuration() + " ms"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
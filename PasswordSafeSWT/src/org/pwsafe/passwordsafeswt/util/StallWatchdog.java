@@ -0,0 +1,243 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.passwordsafeswt.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.eclipse.jface.action.IAction;
+
+/**
+ * Watches the UI thread for stalls. A daemon thread regularly posts a ping to
+ * the UI thread; if the ping is not run within the threshold, the stack of the
+ * UI thread, the action running on it and the number of records of the safe
+ * as of the last ping are written to the stall log. A second line tells how
+ * long the stall lasted once the UI thread is responsive again.
+ *
+ * @author roxon
+ */
+public class StallWatchdog implements Runnable {
+
+	private static final Log log = LogFactory.getLog(StallWatchdog.class);
+
+	/** the name of the stall log files in the preferences directory, %g is the generation */
+	public static final String LOG_PATTERN = "stalls%g.log"; //$NON-NLS-1$
+
+	private static final int LOG_LIMIT = 256 * 1024;
+	private static final int LOG_COUNT = 3;
+
+	private final Executor uiExecutor;
+	private final Thread uiThread;
+	private final File logDirectory;
+	private Logger stallLog;
+
+	private volatile long threshold;
+	private volatile int recordCount = -1;
+	private volatile long pingSent;
+	private volatile boolean stallReported;
+	private volatile Thread watchThread;
+
+	private final Runnable pong = new Runnable() {
+		public void run() {
+			final long theSent = pingSent;
+			recordCount = getRecordCount();
+			if (stallReported) {
+				final Logger theLog = getStallLog();
+				if (theLog != null) {
+					theLog.warning("UI thread responsive again after " //$NON-NLS-1$
+							+ (System.currentTimeMillis() - theSent) + " ms"); //$NON-NLS-1$
+				}
+			}
+			pingSent = 0;
+		}
+	};
+
+	/**
+	 * @param aUiExecutor runs a task on the UI thread, e.g. with
+	 *            <code>Display.asyncExec</code>
+	 * @param aUiThread the UI thread
+	 * @param aStallLog where stalls are reported
+	 */
+	public StallWatchdog(final Executor aUiExecutor, final Thread aUiThread,
+			final Logger aStallLog) {
+		uiExecutor = aUiExecutor;
+		uiThread = aUiThread;
+		stallLog = aStallLog;
+		logDirectory = null;
+	}
+
+	/**
+	 * @param aUiExecutor runs a task on the UI thread, e.g. with
+	 *            <code>Display.asyncExec</code>
+	 * @param aUiThread the UI thread
+	 * @param aLogDirectory the directory of the stall log, which is created on
+	 *            the first stall
+	 */
+	public StallWatchdog(final Executor aUiExecutor, final Thread aUiThread,
+			final File aLogDirectory) {
+		uiExecutor = aUiExecutor;
+		uiThread = aUiThread;
+		logDirectory = aLogDirectory;
+	}
+
+	/**
+	 * Creates the rotating stall log in a directory.
+	 *
+	 * @param aDirectory the directory for the log files
+	 * @return the log
+	 * @throws IOException if the log file cannot be opened
+	 */
+	public static Logger createStallLog(final File aDirectory) throws IOException {
+		final Logger theLog = Logger.getAnonymousLogger();
+		theLog.setUseParentHandlers(false);
+		final FileHandler theHandler = new FileHandler(new File(aDirectory, LOG_PATTERN)
+				.getPath(), LOG_LIMIT, LOG_COUNT, true);
+		theHandler.setFormatter(new SimpleFormatter());
+		theLog.addHandler(theHandler);
+		return theLog;
+	}
+
+	private synchronized Logger getStallLog() {
+		if (stallLog == null && logDirectory != null) {
+			try {
+				stallLog = createStallLog(logDirectory);
+			} catch (final IOException anEx) {
+				log.warn("Cannot open the stall log in " + logDirectory, anEx); //$NON-NLS-1$
+			}
+		}
+		return stallLog;
+	}
+
+	/**
+	 * Sets how long the UI thread may be blocked before it is reported.
+	 *
+	 * @param aThreshold the threshold in milliseconds, 0 to stop watching
+	 */
+	public void setThreshold(final long aThreshold) {
+		threshold = aThreshold;
+	}
+
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Starts the watchdog thread.
+	 */
+	public synchronized void start() {
+		if (watchThread == null) {
+			watchThread = new Thread(this, "UI stall watchdog"); //$NON-NLS-1$
+			watchThread.setDaemon(true);
+			watchThread.start();
+		}
+	}
+
+	/**
+	 * Stops the watchdog thread and closes the stall log.
+	 */
+	public synchronized void stop() {
+		final Thread theThread = watchThread;
+		watchThread = null;
+		if (theThread != null) {
+			theThread.interrupt();
+		}
+		if (stallLog != null) {
+			for (final Handler theHandler : stallLog.getHandlers()) {
+				theHandler.close();
+			}
+		}
+	}
+
+	public void run() {
+		while (watchThread == Thread.currentThread()) {
+			final long theThreshold = threshold;
+			try {
+				Thread.sleep(theThreshold > 0 ? Math.max(theThreshold / 4, 10) : 1000);
+			} catch (final InterruptedException e) {
+				return;
+			}
+			if (theThreshold > 0) {
+				check(theThreshold);
+			}
+		}
+	}
+
+	private void check(final long aThreshold) {
+		final long now = System.currentTimeMillis();
+		final long theSent = pingSent;
+		if (theSent == 0) {
+			stallReported = false;
+			pingSent = now;
+			uiExecutor.execute(pong);
+		} else if (!stallReported && now - theSent >= aThreshold) {
+			stallReported = true;
+			report(now - theSent);
+		}
+	}
+
+	private void report(final long aBlocked) {
+		final StackTraceElement[] theStack = uiThread.getStackTrace();
+		final String theAction = findAction(theStack);
+		final StringBuilder theMessage = new StringBuilder();
+		theMessage.append("UI thread blocked for ").append(aBlocked).append(" ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (theAction != null) {
+			theMessage.append(" in action ").append(theAction); //$NON-NLS-1$
+		}
+		theMessage.append(", records: ").append(recordCount); //$NON-NLS-1$
+		log.warn(theMessage);
+		final Logger theLog = getStallLog();
+		if (theLog == null) {
+			return;
+		}
+		for (final StackTraceElement theElement : theStack) {
+			theMessage.append("\n\tat ").append(theElement); //$NON-NLS-1$
+		}
+		theLog.log(Level.WARNING, theMessage.toString());
+	}
+
+	/**
+	 * Finds the innermost action on a stack.
+	 *
+	 * @param aStack the stack
+	 * @return the simple class name of the action or null if no action runs
+	 */
+	static String findAction(final StackTraceElement[] aStack) {
+		final ClassLoader theLoader = StallWatchdog.class.getClassLoader();
+		for (final StackTraceElement theElement : aStack) {
+			try {
+				final Class<?> theClass = Class.forName(theElement.getClassName(), false, theLoader);
+				if (IAction.class.isAssignableFrom(theClass)) {
+					final String theName = theClass.getName();
+					return theName.substring(theName.lastIndexOf('.') + 1);
+				}
+			} catch (final ClassNotFoundException e) {
+				// not one of ours
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of records of the open safe, to be overridden.
+	 * Called on the UI thread with each ping.
+	 *
+	 * @return the number of records or -1 if unknown
+	 */
+	protected int getRecordCount() {
+		return -1;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * $Id$
+ * Copyright (c) 2008-2014 David Muller <roxon@users.sourceforge.net>.
+ * All rights reserved. Use of the code is allowed under the
+ * Artistic License 2.0 terms, as specified in the LICENSE file
+ * distributed with this code, or available from
+ * http://www.opensource.org/licenses/artistic-license-2.0.php
+ */
+package org.pwsafe.passwordsafeswt.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+import org.eclipse.jface.action.Action;
+
+/**
+ * Tests the stall watchdog with a plain thread standing in for the UI thread.
+ *
+ * @author roxon
+ */
+public class StallWatchdogTest extends TestCase {
+
+	private final List<String> messages = new ArrayList<String>();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private Thread uiThread;
+	private ExecutorService uiExecutor;
+	private StallWatchdog watchdog;
+	private volatile Thread countThread;
+
+	private class BlockingAction extends Action {
+		@Override
+		public void run() {
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	protected void setUp() {
+		uiExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable aRunnable) {
+				uiThread = new Thread(aRunnable, "ui");
+				return uiThread;
+			}
+		});
+		uiExecutor.execute(new Runnable() {
+			public void run() {
+				// starts the thread
+			}
+		});
+
+		final Logger theLog = Logger.getAnonymousLogger();
+		theLog.setUseParentHandlers(false);
+		theLog.addHandler(new Handler() {
+			@Override
+			public void publish(final LogRecord aRecord) {
+				synchronized (messages) {
+					messages.add(aRecord.getMessage());
+				}
+			}
+
+			@Override
+			public void flush() {
+				// nothing to flush
+			}
+
+			@Override
+			public void close() {
+				// nothing to close
+			}
+		});
+
+		watchdog = new StallWatchdog(uiExecutor, uiThread, theLog) {
+			@Override
+			protected int getRecordCount() {
+				countThread = Thread.currentThread();
+				return 42;
+			}
+		};
+		watchdog.setThreshold(100);
+	}
+
+	@Override
+	protected void tearDown() {
+		release.countDown();
+		watchdog.stop();
+		uiExecutor.shutdown();
+	}
+
+	private List<String> waitForMessages(final int aCount) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			synchronized (messages) {
+				if (messages.size() >= aCount) {
+					return new ArrayList<String>(messages);
+				}
+			}
+			Thread.sleep(20);
+		}
+		fail("Only got " + messages);
+		return null;
+	}
+
+	public void testStallReported() throws InterruptedException {
+		// loaded before, loading the action classes may stall by itself
+		final BlockingAction theAction = new BlockingAction();
+		watchdog.start();
+		Thread.sleep(300);
+		assertTrue("no stall yet", messages.isEmpty());
+
+		uiExecutor.execute(new Runnable() {
+			public void run() {
+				theAction.run();
+			}
+		});
+		final String theStall = waitForMessages(1).get(0);
+		assertTrue(theStall, theStall.startsWith("UI thread blocked for "));
+		assertTrue(theStall, theStall.contains(" in action StallWatchdogTest$BlockingAction"));
+		assertTrue(theStall, theStall.contains("records: 42"));
+		assertTrue(theStall, theStall.contains("BlockingAction.run"));
+		assertSame("record count taken on the UI thread", uiThread, countThread);
+
+		Thread.sleep(300);
+		assertEquals("reported once", 1, messages.size());
+
+		release.countDown();
+		final String theEnd = waitForMessages(2).get(1);
+		assertTrue(theEnd, theEnd.startsWith("UI thread responsive again after "));
+	}
+
+	public void testLogCreatedOnStall() throws Exception {
+		final File theDirectory = File.createTempFile("stalls", null);
+		assertTrue(theDirectory.delete() && theDirectory.mkdir());
+		final File theLogFile = new File(theDirectory, StallWatchdog.LOG_PATTERN.replace("%g",
+				"0"));
+		final StallWatchdog theWatchdog = new StallWatchdog(uiExecutor, uiThread, theDirectory);
+		try {
+			theWatchdog.setThreshold(100);
+			theWatchdog.start();
+			Thread.sleep(300);
+			assertFalse("no log without a stall", theLogFile.exists());
+
+			final BlockingAction theAction = new BlockingAction();
+			uiExecutor.execute(new Runnable() {
+				public void run() {
+					theAction.run();
+				}
+			});
+			for (int i = 0; i < 100 && !theLogFile.exists(); i++) {
+				Thread.sleep(20);
+			}
+			assertTrue("log created on the first stall", theLogFile.exists());
+		} finally {
+			release.countDown();
+			theWatchdog.stop();
+			for (final File theFile : theDirectory.listFiles()) {
+				theFile.delete();
+			}
+			theDirectory.delete();
+		}
+	}
+
+	public void testNoActionOnStack() {
+		assertNull(StallWatchdog.findAction(Thread.currentThread().getStackTrace()));
+	}
+}